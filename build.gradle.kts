@@ -10,10 +10,23 @@ repositories {
     mavenCentral()
 }
 
+// JMH benchmarks live in src/jmh/java and see main classes (same packages)
+val jmhVersion = "1.37"
+
+sourceSets {
+    create("jmh") {
+        compileClasspath += sourceSets["main"].output
+        runtimeClasspath += sourceSets["main"].output
+    }
+}
+
 dependencies {
     testImplementation(platform("org.junit:junit-bom:5.10.0"))
     testImplementation("org.junit.jupiter:junit-jupiter")
     testRuntimeOnly("org.junit.platform:junit-platform-launcher")
+
+    "jmhImplementation"("org.openjdk.jmh:jmh-core:$jmhVersion")
+    "jmhAnnotationProcessor"("org.openjdk.jmh:jmh-generator-annprocess:$jmhVersion")
 }
 
 tasks.test {
@@ -122,6 +135,20 @@ tasks.register<JavaExec>("runBranchExampleDebug") {
     jvmArgs = jitDebugArgs
 }
 
+// JMH benchmarks for all JIT examples
+// ./gradlew jmh -PjmhArgs="EscapeAnalysis -prof gc"
+// ./gradlew jmh -PjmhArgs="BranchPrediction -prof perfnorm"   (Linux perf)
+tasks.register<JavaExec>("jmh") {
+    group = "jit-examples"
+    description = "Run JMH benchmarks for JIT examples (-PjmhArgs=\"<regex> <jmh options>\")"
+    dependsOn("jmhClasses")
+    classpath = sourceSets["jmh"].runtimeClasspath
+    mainClass.set("org.openjdk.jmh.Main")
+    args = (project.findProperty("jmhArgs") as String? ?: "")
+        .split(" ")
+        .filter { it.isNotBlank() }
+}
+
 // Task to run all examples
 tasks.register("runAllExamples") {
     group = "jit-examples"
@@ -157,6 +184,55 @@ tasks.register("createHeapDumpDir") {
     }
 }
 
+// Heap dump analysis: class histogram, dominator tree (Lengauer-Tarjan), leak suspects.
+// The index lives off-heap, so a small -Xmx is enough; direct memory peaks at ~88 bytes per object
+// plus ~8 bytes per reference while the dominator tree is built (diffHeap builds both dumps in
+// parallel, so size direct memory for the sum of the two).
+// ./gradlew analyzeHeap -PheapDump=heap_dumps/heap_leak_oom.hprof -PheapTop=30
+tasks.register<JavaExec>("analyzeHeap") {
+    group = "gc-examples"
+    description = "Analyze an HPROF heap dump: histogram, dominators, leak suspects (-PheapDump=<file>)"
+    classpath = sourceSets["main"].runtimeClasspath
+    mainClass.set("ru.sin.gc.heap.HeapDumpAnalyzer")
+    jvmArgs = listOf(
+        "-Xmx${project.findProperty("heapAnalyzerXmx") ?: "512m"}",
+        "-XX:MaxDirectMemorySize=${project.findProperty("heapAnalyzerDirectMemory") ?: "32g"}"
+    )
+    project.findProperty("heapDump")?.let { systemProperty("heap.dump", file(it.toString()).absolutePath) }
+    project.findProperty("heapTop")?.let { systemProperty("heap.top", it.toString()) }
+    project.findProperty("heapSuspectPercent")?.let { systemProperty("heap.suspectPercent", it.toString()) }
+}
+
+// ./gradlew diffHeap -PheapBefore=heap_dumps/before.hprof -PheapAfter=heap_dumps/after.hprof -PheapPathFilter=EventBus
+tasks.register<JavaExec>("diffHeap") {
+    group = "gc-examples"
+    description = "Compare two HPROF heap dumps: class and reference path growth, leak suspects"
+    classpath = sourceSets["main"].runtimeClasspath
+    mainClass.set("ru.sin.gc.heap.HeapDumpDiff")
+    jvmArgs = listOf(
+        "-Xmx${project.findProperty("heapAnalyzerXmx") ?: "1g"}",
+        "-XX:MaxDirectMemorySize=${project.findProperty("heapAnalyzerDirectMemory") ?: "32g"}"
+    )
+    project.findProperty("heapBefore")?.let { systemProperty("heap.before", file(it.toString()).absolutePath) }
+    project.findProperty("heapAfter")?.let { systemProperty("heap.after", file(it.toString()).absolutePath) }
+    project.findProperty("heapTop")?.let { systemProperty("heap.top", it.toString()) }
+    project.findProperty("heapMinGrowthMb")?.let { systemProperty("heap.minGrowthMb", it.toString()) }
+    project.findProperty("heapPathFilter")?.let { systemProperty("heap.pathFilter", it.toString()) }
+}
+
+// In-process leak detector in the leaking examples (post-GC live set trend -> heap dump + class histogram):
+// -PleakThresholdPercent=50 -PleakMinGrowthMbPerMin=1 -PleakWindowSec=300 -PleakHeapDump=false -PleakDetect=false
+val leakDetectorArgs = listOf(
+    "-Dleak.detect=${project.findProperty("leakDetect") ?: "true"}",
+    "-Dleak.thresholdPercent=${project.findProperty("leakThresholdPercent") ?: "50"}",
+    "-Dleak.minGrowthMbPerMin=${project.findProperty("leakMinGrowthMbPerMin") ?: "1"}",
+    "-Dleak.minR2=${project.findProperty("leakMinR2") ?: "0.8"}",
+    "-Dleak.windowSec=${project.findProperty("leakWindowSec") ?: "300"}",
+    "-Dleak.confirmations=${project.findProperty("leakConfirmations") ?: "3"}",
+    "-Dleak.heapDump=${project.findProperty("leakHeapDump") ?: "true"}",
+    "-Dleak.dumpDir=./heap_dumps"
+)
+
 // Static Collection Leak Examples
 tasks.register<JavaExec>("runMemoryLeak") {
     group = "gc-examples"
@@ -169,7 +245,7 @@ tasks.register<JavaExec>("runMemoryLeak") {
         "-Xms512m",
         "-XX:+HeapDumpOnOutOfMemoryError",
         "-XX:HeapDumpPath=./heap_dumps/heap_leak_oom.hprof"
-    )
+    ) + leakDetectorArgs
 }
 
 tasks.register<JavaExec>("runMemoryLeakSmallHeap") {
@@ -183,7 +259,7 @@ tasks.register<JavaExec>("runMemoryLeakSmallHeap") {
         "-Xms256m",
         "-XX:+HeapDumpOnOutOfMemoryError",
         "-XX:HeapDumpPath=./heap_dumps/heap_leak_small_oom.hprof"
-    )
+    ) + leakDetectorArgs
 }
 
 tasks.register<JavaExec>("runMemoryLeakWithGCLogs") {
@@ -198,7 +274,7 @@ tasks.register<JavaExec>("runMemoryLeakWithGCLogs") {
         "-Xlog:gc*:file=./heap_dumps/gc_leak.log:time,level,tags",
         "-XX:+HeapDumpOnOutOfMemoryError",
         "-XX:HeapDumpPath=./heap_dumps/heap_leak_oom.hprof"
-    )
+    ) + leakDetectorArgs
 }
 
 tasks.register<JavaExec>("runMemoryLeakFixed") {
@@ -215,6 +291,23 @@ tasks.register<JavaExec>("runMemoryLeakFixed") {
     )
 }
 
+tasks.register<JavaExec>("runMemoryLeakFixedMmap") {
+    group = "gc-examples"
+    description = "Run Memory Leak FIXED Example, cold sessions spilled to a memory-mapped file"
+    dependsOn("createHeapDumpDir")
+    classpath = sourceSets["main"].runtimeClasspath
+    mainClass.set("ru.sin.gc.leak.MemoryLeakFixedExample")
+    jvmArgs = listOf(
+        "-Xmx1g",
+        "-Xms512m",
+        "-Dsessions.store=mmap",
+        "-Dsessions.spillFile=./heap_dumps/sessions_spill.dat",
+        "-Dsessions.spillMax=${project.findProperty("sessionsSpillMax") ?: "2000"}",
+        "-XX:+HeapDumpOnOutOfMemoryError",
+        "-XX:HeapDumpPath=./heap_dumps/heap_fixed_oom.hprof"
+    )
+}
+
 tasks.register<JavaExec>("runMemoryLeakFixedWithGCLogs") {
     group = "gc-examples"
     description = "Run Memory Leak FIXED Example with GC logging"
@@ -242,7 +335,7 @@ tasks.register<JavaExec>("runListenerLeak") {
         "-Xms512m",
         "-XX:+HeapDumpOnOutOfMemoryError",
         "-XX:HeapDumpPath=./heap_dumps/listener_leak_oom.hprof"
-    )
+    ) + leakDetectorArgs
 }
 
 tasks.register<JavaExec>("runListenerLeakSmallHeap") {
@@ -256,9 +349,16 @@ tasks.register<JavaExec>("runListenerLeakSmallHeap") {
         "-Xms128m",
         "-XX:+HeapDumpOnOutOfMemoryError",
         "-XX:HeapDumpPath=./heap_dumps/listener_leak_small_oom.hprof"
-    )
+    ) + leakDetectorArgs
 }
 
+// Cleaner-based leak reporting in the fixed EventBus:
+// -PeventsForgetCloseEvery=50 skips close() on every 50th processor, -PeventsLeakSiteEvery=1 records every site
+val listenerLeakTrackingArgs = listOf(
+    "-Devents.forgetCloseEvery=${project.findProperty("eventsForgetCloseEvery") ?: "0"}",
+    "-Devents.leakSiteEvery=${project.findProperty("eventsLeakSiteEvery") ?: "64"}"
+)
+
 tasks.register<JavaExec>("runListenerLeakFixed") {
     group = "gc-examples"
     description = "Run Listener Leak FIXED Example"
@@ -270,7 +370,46 @@ tasks.register<JavaExec>("runListenerLeakFixed") {
         "-Xms512m",
         "-XX:+HeapDumpOnOutOfMemoryError",
         "-XX:HeapDumpPath=./heap_dumps/listener_fixed_oom.hprof"
-    )
+    ) + listenerLeakTrackingArgs
+}
+
+// Async EventBus dispatch through a bounded MPSC ring buffer:
+// -PeventsWait=spin|yield|park -PeventsBackpressure=block|drop -PeventsLoadPublishers=2
+val asyncEventArgs = listOf(
+    "-Devents.dispatch=async",
+    "-Devents.wait=${project.findProperty("eventsWait") ?: "park"}",
+    "-Devents.backpressure=${project.findProperty("eventsBackpressure") ?: "block"}",
+    "-Devents.queueSize=${project.findProperty("eventsQueueSize") ?: "65536"}",
+    "-Devents.batch=${project.findProperty("eventsBatch") ?: "256"}",
+    "-Devents.loadPublishers=${project.findProperty("eventsLoadPublishers") ?: "0"}"
+)
+
+tasks.register<JavaExec>("runListenerLeakAsync") {
+    group = "gc-examples"
+    description = "Run Listener Leak Example with asynchronous batched event dispatch"
+    dependsOn("createHeapDumpDir")
+    classpath = sourceSets["main"].runtimeClasspath
+    mainClass.set("ru.sin.gc.leak.ListenerLeakExample")
+    jvmArgs = listOf(
+        "-Xmx1g",
+        "-Xms512m",
+        "-XX:+HeapDumpOnOutOfMemoryError",
+        "-XX:HeapDumpPath=./heap_dumps/listener_leak_oom.hprof"
+    ) + asyncEventArgs + leakDetectorArgs
+}
+
+tasks.register<JavaExec>("runListenerLeakFixedAsync") {
+    group = "gc-examples"
+    description = "Run Listener Leak FIXED Example with asynchronous batched event dispatch"
+    dependsOn("createHeapDumpDir")
+    classpath = sourceSets["main"].runtimeClasspath
+    mainClass.set("ru.sin.gc.leak.ListenerLeakFixedExample")
+    jvmArgs = listOf(
+        "-Xmx1g",
+        "-Xms512m",
+        "-XX:+HeapDumpOnOutOfMemoryError",
+        "-XX:HeapDumpPath=./heap_dumps/listener_fixed_oom.hprof"
+    ) + asyncEventArgs + listenerLeakTrackingArgs
 }
 
 // Task to run all GC examples
@@ -415,6 +554,39 @@ tasks.register<JavaExec>("runLatencyZGCWithLogs") {
     )
 }
 
+// Multi-threaded latency: -PlatencyRate=200000 -PlatencyThreads=16
+val latencyScalingArgs = listOf(
+    "-Dlatency.rate=${project.findProperty("latencyRate") ?: "100000"}",
+    "-Dlatency.threads=${project.findProperty("latencyThreads") ?: Runtime.getRuntime().availableProcessors()}"
+)
+
+tasks.register<JavaExec>("runLatencyScalingParallel") {
+    group = "gc-benchmarks"
+    description = "Multi-threaded Latency Benchmark with Parallel GC"
+    dependsOn("createBenchmarkDir")
+    classpath = sourceSets["main"].runtimeClasspath
+    mainClass.set("ru.sin.gc.comparison.LatencyBenchmark")
+    jvmArgs = parallelGCArgs + latencyScalingArgs + listOf("-Xmx$benchmarkHeap", "-Xms$benchmarkHeap")
+}
+
+tasks.register<JavaExec>("runLatencyScalingG1") {
+    group = "gc-benchmarks"
+    description = "Multi-threaded Latency Benchmark with G1 GC"
+    dependsOn("createBenchmarkDir")
+    classpath = sourceSets["main"].runtimeClasspath
+    mainClass.set("ru.sin.gc.comparison.LatencyBenchmark")
+    jvmArgs = g1GCArgs + latencyScalingArgs + listOf("-Xmx$benchmarkHeap", "-Xms$benchmarkHeap")
+}
+
+tasks.register<JavaExec>("runLatencyScalingZGC") {
+    group = "gc-benchmarks"
+    description = "Multi-threaded Latency Benchmark with ZGC (Java 15+)"
+    dependsOn("createBenchmarkDir")
+    classpath = sourceSets["main"].runtimeClasspath
+    mainClass.set("ru.sin.gc.comparison.LatencyBenchmark")
+    jvmArgs = zgcArgs + latencyScalingArgs + listOf("-Xmx$benchmarkHeapLarge", "-Xms$benchmarkHeapLarge")
+}
+
 // ============================================================================
 // Mixed Workload Benchmark with different GCs
 // ============================================================================
@@ -455,6 +627,79 @@ tasks.register<JavaExec>("runMixedZGC") {
     jvmArgs = zgcArgs + listOf("-Xmx$benchmarkHeapLarge", "-Xms$benchmarkHeapLarge")
 }
 
+// Mixed workload on virtual threads (Java 21+): -PmixedWorkers=1000000
+val mixedVirtualArgs = listOf(
+    "-Dmixed.mode=virtual",
+    "-Dmixed.workers=${project.findProperty("mixedWorkers") ?: "100000"}"
+)
+
+tasks.register<JavaExec>("runMixedVirtualG1") {
+    group = "gc-benchmarks"
+    description = "Mixed Workload Benchmark on virtual threads with G1 GC (Java 21+)"
+    dependsOn("createBenchmarkDir")
+    classpath = sourceSets["main"].runtimeClasspath
+    mainClass.set("ru.sin.gc.comparison.MixedWorkloadBenchmark")
+    jvmArgs = g1GCArgs + mixedVirtualArgs + listOf("-Xmx$benchmarkHeapLarge", "-Xms$benchmarkHeapLarge")
+}
+
+tasks.register<JavaExec>("runMixedVirtualZGC") {
+    group = "gc-benchmarks"
+    description = "Mixed Workload Benchmark on virtual threads with ZGC (Java 21+)"
+    dependsOn("createBenchmarkDir")
+    classpath = sourceSets["main"].runtimeClasspath
+    mainClass.set("ru.sin.gc.comparison.MixedWorkloadBenchmark")
+    jvmArgs = zgcArgs + mixedVirtualArgs + listOf("-Xmx$benchmarkHeapLarge", "-Xms$benchmarkHeapLarge")
+}
+
+// Bounded W-TinyLFU cache instead of ConcurrentHashMap + full scan: -PmixedCacheMaxMb=64
+val mixedTinyLfuArgs = listOf(
+    "-Dmixed.cache=tinylfu",
+    "-Dmixed.cacheMaxMb=${project.findProperty("mixedCacheMaxMb") ?: "64"}"
+)
+
+tasks.register<JavaExec>("runMixedTinyLfuG1") {
+    group = "gc-benchmarks"
+    description = "Mixed Workload Benchmark with bounded W-TinyLFU cache and G1 GC"
+    dependsOn("createBenchmarkDir")
+    classpath = sourceSets["main"].runtimeClasspath
+    mainClass.set("ru.sin.gc.comparison.MixedWorkloadBenchmark")
+    jvmArgs = g1GCArgs + mixedTinyLfuArgs + listOf("-Xmx$benchmarkHeap", "-Xms$benchmarkHeap")
+}
+
+tasks.register<JavaExec>("runMixedTinyLfuZGC") {
+    group = "gc-benchmarks"
+    description = "Mixed Workload Benchmark with bounded W-TinyLFU cache and ZGC (Java 15+)"
+    dependsOn("createBenchmarkDir")
+    classpath = sourceSets["main"].runtimeClasspath
+    mainClass.set("ru.sin.gc.comparison.MixedWorkloadBenchmark")
+    jvmArgs = zgcArgs + mixedTinyLfuArgs + listOf("-Xmx$benchmarkHeapLarge", "-Xms$benchmarkHeapLarge")
+}
+
+// Same bounded cache as an on-heap index, payload in direct ByteBuffer slabs
+val mixedOffHeapArgs = listOf(
+    "-Dmixed.cache=offheap",
+    "-Dmixed.cacheMaxMb=${project.findProperty("mixedCacheMaxMb") ?: "64"}",
+    "-XX:MaxDirectMemorySize=${project.findProperty("mixedMaxDirectMemory") ?: "1g"}"
+)
+
+tasks.register<JavaExec>("runMixedOffHeapG1") {
+    group = "gc-benchmarks"
+    description = "Mixed Workload Benchmark with off-heap slab cache and G1 GC"
+    dependsOn("createBenchmarkDir")
+    classpath = sourceSets["main"].runtimeClasspath
+    mainClass.set("ru.sin.gc.comparison.MixedWorkloadBenchmark")
+    jvmArgs = g1GCArgs + mixedOffHeapArgs + listOf("-Xmx$benchmarkHeap", "-Xms$benchmarkHeap")
+}
+
+tasks.register<JavaExec>("runMixedOffHeapZGC") {
+    group = "gc-benchmarks"
+    description = "Mixed Workload Benchmark with off-heap slab cache and ZGC (Java 15+)"
+    dependsOn("createBenchmarkDir")
+    classpath = sourceSets["main"].runtimeClasspath
+    mainClass.set("ru.sin.gc.comparison.MixedWorkloadBenchmark")
+    jvmArgs = zgcArgs + mixedOffHeapArgs + listOf("-Xmx$benchmarkHeapLarge", "-Xms$benchmarkHeapLarge")
+}
+
 // ============================================================================
 // Allocation Benchmark with different GCs
 // ============================================================================
@@ -495,6 +740,108 @@ tasks.register<JavaExec>("runAllocationZGC") {
     jvmArgs = zgcArgs + listOf("-Xmx$benchmarkHeapLarge", "-Xms$benchmarkHeapLarge")
 }
 
+// ============================================================================
+// GC comparison matrix: benchmark × GC × heap × cores, each run in a child JVM
+// ./gradlew runGcComparison -PcompareBenchmarks=latency -PcompareGcs=g1,zgc -PcompareReps=5
+// ============================================================================
+
+tasks.register<JavaExec>("runGcComparison") {
+    group = "gc-benchmarks"
+    description = "Run benchmarks across GCs/heaps/cores in separate JVMs and compare with confidence intervals"
+    dependsOn("createBenchmarkDir")
+    classpath = sourceSets["main"].runtimeClasspath
+    mainClass.set("ru.sin.gc.comparison.GcComparisonRunner")
+    jvmArgs = listOf("-Xmx256m")
+    mapOf(
+        "compareBenchmarks" to "compare.benchmarks",
+        "compareGcs" to "compare.gcs",
+        "compareHeaps" to "compare.heaps",
+        "compareCores" to "compare.cores",
+        "compareReps" to "compare.reps",
+        "compareParallel" to "compare.parallel"
+    ).forEach { (gradleProperty, jvmProperty) ->
+        project.findProperty(gradleProperty)?.let { systemProperty(jvmProperty, it.toString()) }
+    }
+}
+
+// ============================================================================
+// Regression gate against a stored baseline (results.jsonl from -PbenchmarkResults / runGcComparison)
+// ./gradlew saveBenchmarkBaseline -PresultsDir=gc_benchmarks/compare_20250101_120000
+// ./gradlew checkBenchmarkRegression -PresultsDir=latest -PregressionThreshold=3 -PregressionMetrics=throughput_ops_per_sec,p99_us
+// -PresultsDir is required (one run, not the whole gc_benchmarks history); "latest" = newest compare_* run
+// ============================================================================
+
+val regressionProperties = mapOf(
+    "baselineDir" to "regression.baseline",
+    "resultsDir" to "regression.results",
+    "regressionMetrics" to "regression.metrics",
+    "regressionThreshold" to "regression.threshold",
+    "regressionAlpha" to "regression.alpha"
+)
+
+tasks.register<JavaExec>("saveBenchmarkBaseline") {
+    group = "gc-benchmarks"
+    description = "Store current benchmark results as the regression baseline"
+    classpath = sourceSets["main"].runtimeClasspath
+    mainClass.set("ru.sin.gc.comparison.BenchmarkRegressionGate")
+    systemProperty("regression.mode", "save")
+    regressionProperties.forEach { (gradleProperty, jvmProperty) ->
+        project.findProperty(gradleProperty)?.let { systemProperty(jvmProperty, it.toString()) }
+    }
+}
+
+tasks.register<JavaExec>("checkBenchmarkRegression") {
+    group = "gc-benchmarks"
+    description = "Fail if benchmark results regressed against the baseline (Mann-Whitney + threshold)"
+    classpath = sourceSets["main"].runtimeClasspath
+    mainClass.set("ru.sin.gc.comparison.BenchmarkRegressionGate")
+    systemProperty("regression.mode", "check")
+    regressionProperties.forEach { (gradleProperty, jvmProperty) ->
+        project.findProperty(gradleProperty)?.let { systemProperty(jvmProperty, it.toString()) }
+    }
+}
+
+// -PallocProfile wraps only benchmark and example runs; tools (orchestrator, regression gate,
+// heap analyzers, flame graph converter, JMH) run as is
+val allocProfileGroups = setOf("gc-benchmarks", "gc-examples", "profiling-examples", "jit-examples")
+val allocProfileExcluded = setOf(
+    "ru.sin.gc.comparison.GcComparisonRunner",
+    "ru.sin.gc.comparison.BenchmarkRegressionGate",
+    "ru.sin.gc.heap.HeapDumpAnalyzer",
+    "ru.sin.gc.heap.HeapDumpDiff",
+    "ru.sin.profiling.sampler.JfrFlameGraph",
+    "org.openjdk.jmh.Main"
+)
+
+// Live JFR metrics next to progress reports: ./gradlew runMixedG1 -PbenchmarkJfr
+tasks.withType<JavaExec>().configureEach {
+    if (project.hasProperty("benchmarkJfr")) {
+        systemProperty("benchmark.jfr", "true")
+    }
+    // JSON Lines + CSV results: -PbenchmarkResults or -PbenchmarkResults=ci_results
+    if (project.hasProperty("benchmarkResults")) {
+        val dir = project.property("benchmarkResults").toString().ifBlank { "gc_benchmarks" }
+        systemProperty("benchmark.results", file(dir).absolutePath)
+    }
+    // Allocation flame graph of a benchmark/example run: ./gradlew runThroughputG1 -PallocProfile (or -PallocProfile=2000/s)
+    if (project.hasProperty("allocProfile")) {
+        val throttle = project.property("allocProfile").toString().ifBlank { "500/s" }
+        val output = file("profiling_results").absolutePath
+        doFirst {
+            val target = mainClass.get()
+            if (group in allocProfileGroups && target !in allocProfileExcluded) {
+                systemProperty("profiler.mode", "alloc")
+                systemProperty("profiler.allocThrottle", throttle)
+                systemProperty("profiler.output", output)
+                if (target != "ru.sin.profiling.sampler.SamplingProfiler") {
+                    mainClass.set("ru.sin.profiling.sampler.SamplingProfiler")
+                    setArgs(listOf(target) + args.orEmpty())
+                }
+            }
+        }
+    }
+}
+
 // Task to run all benchmarks
 tasks.register("runAllBenchmarks") {
     group = "gc-benchmarks"
@@ -541,6 +888,44 @@ tasks.register<JavaExec>("runOptimizedApp") {
     jvmArgs = listOf("-Xmx2g", "-Xms2g")
 }
 
+// Per-phase slow vs optimized diff: ./gradlew comparePhases -PphaseRepetitions=20
+tasks.register<JavaExec>("comparePhases") {
+    group = "profiling-examples"
+    description = "Time each phase of slow vs optimized app (time, CPU, allocated bytes, speedup)"
+    classpath = sourceSets["main"].runtimeClasspath
+    mainClass.set("ru.sin.profiling.PhaseComparison")
+    jvmArgs = listOf("-Xmx2g", "-Xms2g")
+    systemProperty("phases.warmupMs", project.findProperty("phaseWarmupMs") ?: "2000")
+    systemProperty("phases.batchMs", project.findProperty("phaseBatchMs") ?: "100")
+    systemProperty("phases.repetitions", project.findProperty("phaseRepetitions") ?: "10")
+}
+
+// Boxed vs primitive collections, 1K..100M entries: ./gradlew benchmarkPrimitiveCollections -PcollectionsXmx=8g
+tasks.register<JavaExec>("benchmarkPrimitiveCollections") {
+    group = "profiling-examples"
+    description = "HashSet/HashMap with Integer keys vs IntHashSet/IntObjectMap: footprint and throughput by size"
+    classpath = sourceSets["main"].runtimeClasspath
+    mainClass.set("ru.sin.profiling.collections.PrimitiveCollectionsBenchmark")
+    val heap = project.findProperty("collectionsXmx") ?: "4g"
+    jvmArgs = listOf("-Xmx$heap", "-Xms$heap", "-XX:+UseParallelGC")
+    project.findProperty("collectionsSizes")?.let { systemProperty("collections.sizes", it.toString()) }
+    project.findProperty("collectionsOpsMs")?.let { systemProperty("collections.opsMs", it.toString()) }
+}
+
+// ForkJoin / parallel streams scaling 1..N workers: ./gradlew parallelScaling -PparallelGc=Parallel
+tasks.register<JavaExec>("parallelScaling") {
+    group = "profiling-examples"
+    description = "Speedup, efficiency and GC overhead of optimized app workloads on ForkJoinPool and parallel streams"
+    classpath = sourceSets["main"].runtimeClasspath
+    mainClass.set("ru.sin.profiling.ParallelScaling")
+    jvmArgs = listOf("-Xmx2g", "-Xms2g") +
+        listOfNotNull(project.findProperty("parallelGc")?.let { "-XX:+Use${it}GC" })
+    project.findProperty("parallelMaxWorkers")?.let { systemProperty("parallel.maxWorkers", it.toString()) }
+    project.findProperty("parallelRepetitions")?.let { systemProperty("parallel.repetitions", it.toString()) }
+    project.findProperty("parallelIterations")?.let { systemProperty("parallel.iterations", it.toString()) }
+    project.findProperty("parallelObjects")?.let { systemProperty("parallel.objects", it.toString()) }
+}
+
 // Run slow app with Java Flight Recorder
 tasks.register<JavaExec>("runSlowAppWithJFR") {
     group = "profiling-examples"
@@ -569,4 +954,61 @@ tasks.register<JavaExec>("runOptimizedAppWithJFR") {
         "-XX:StartFlightRecording=duration=60s,filename=./profiling_results/optimized_app.jfr",
         "-XX:FlightRecorderOptions=stackdepth=256"
     )
-}
\ No newline at end of file
+}
+// Built-in sampling profiler (no async-profiler needed): collapsed stacks + HTML flame graph in profiling_results/
+// -PprofilerIntervalMs=10 -PprofilerMode=cpu|wall -PprofilerMaxOverhead=2 -PprofilerThreads=true
+val samplingProfilerArgs = listOf(
+    "-Dprofiler.intervalMs=${project.findProperty("profilerIntervalMs") ?: "10"}",
+    "-Dprofiler.mode=${project.findProperty("profilerMode") ?: if (project.hasProperty("allocProfile")) "alloc" else "cpu"}",
+    "-Dprofiler.maxOverheadPercent=${project.findProperty("profilerMaxOverhead") ?: "2"}",
+    "-Dprofiler.threads=${project.findProperty("profilerThreads") ?: "false"}",
+    "-Dprofiler.output=./profiling_results"
+)
+
+// Slow app under the built-in sampling profiler
+tasks.register<JavaExec>("profileSlowApp") {
+    group = "profiling-examples"
+    description = "Run slow app under the built-in sampling profiler (flame graph in profiling_results/)"
+    dependsOn("createProfilingDir")
+    classpath = sourceSets["main"].runtimeClasspath
+    mainClass.set("ru.sin.profiling.sampler.SamplingProfiler")
+    args = listOf("ru.sin.profiling.SlowApplicationExample")
+    jvmArgs = listOf("-Xmx2g", "-Xms2g") + samplingProfilerArgs
+}
+
+// Optimized app under the built-in sampling profiler
+tasks.register<JavaExec>("profileOptimizedApp") {
+    group = "profiling-examples"
+    description = "Run optimized app under the built-in sampling profiler (flame graph in profiling_results/)"
+    dependsOn("createProfilingDir")
+    classpath = sourceSets["main"].runtimeClasspath
+    mainClass.set("ru.sin.profiling.sampler.SamplingProfiler")
+    args = listOf("ru.sin.profiling.OptimizedApplicationExample")
+    jvmArgs = listOf("-Xmx2g", "-Xms2g") + samplingProfilerArgs
+}
+
+// Any main class under the built-in sampling profiler:
+// ./gradlew profileMain -PprofileMain=ru.sin.gc.comparison.AllocationBenchmark -PprofileArgs="..."
+tasks.register<JavaExec>("profileMain") {
+    group = "profiling-examples"
+    description = "Run any main class under the built-in sampling profiler (-PprofileMain=<class>)"
+    dependsOn("createProfilingDir")
+    classpath = sourceSets["main"].runtimeClasspath
+    mainClass.set("ru.sin.profiling.sampler.SamplingProfiler")
+    args = listOf(project.findProperty("profileMain")?.toString() ?: "ru.sin.profiling.SlowApplicationExample") +
+        (project.findProperty("profileArgs")?.toString()?.split(" ")?.filter { it.isNotBlank() } ?: emptyList())
+    jvmArgs = listOf("-Xmx${project.findProperty("profileXmx") ?: "2g"}") + samplingProfilerArgs
+}
+
+// Flame graph from a JFR recording (jdk.ExecutionSample) or a collapsed stacks file
+// ./gradlew jfrFlameGraph -PjfrFile=profiling_results/slow_app.jfr [-PflameEvent=alloc]
+tasks.register<JavaExec>("jfrFlameGraph") {
+    group = "profiling-examples"
+    description = "Build an HTML flame graph from a JFR recording or collapsed stacks (-PjfrFile=<file>)"
+    classpath = sourceSets["main"].runtimeClasspath
+    mainClass.set("ru.sin.profiling.sampler.JfrFlameGraph")
+    jvmArgs = listOf("-Xmx1g")
+    project.findProperty("jfrFile")?.let { systemProperty("flame.input", file(it.toString()).absolutePath) }
+    project.findProperty("profilerThreads")?.let { systemProperty("profiler.threads", it.toString()) }
+    project.findProperty("flameEvent")?.let { systemProperty("flame.event", it.toString()) }
+}
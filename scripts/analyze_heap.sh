@@ -19,6 +19,12 @@ fi
 
 HEAP_FILE=$1
 
+# Java анализатор (ru.sin.gc.heap.HeapDumpAnalyzer): mmap-разбор, дерево доминаторов, подозрения на утечку
+# Сравнение двух dump'ов - ru.sin.gc.heap.HeapDumpDiff (./gradlew diffHeap)
+analyze() {
+    ./gradlew -q analyzeHeap -PheapDump="$1" -PheapTop="$2"
+}
+
 if [ ! -f "$HEAP_FILE" ]; then
     echo "Ошибка: Файл $HEAP_FILE не найден"
     exit 1
@@ -30,9 +36,9 @@ echo "Размер: $(du -h $HEAP_FILE | cut -f1)"
 echo ""
 
 echo "Выберите действие:"
-echo "1) Показать histogram (top 30 классов по памяти)"
+echo "1) Гистограмма, доминаторы и подозрения на утечку (top 30)"
 echo "2) Открыть в VisualVM"
-echo "3) Запустить jhat web interface (устаревший)"
+echo "3) Подробный отчет (top 100 классов и доминаторов)"
 echo "4) Показать информацию о файле"
 echo "5) Сравнить два heap dump"
 read -p "Ваш выбор (1-5): " CHOICE
@@ -40,19 +46,17 @@ read -p "Ваш выбор (1-5): " CHOICE
 case $CHOICE in
     1)
         echo ""
-        echo "=== Top 30 классов по использованию памяти ==="
-        echo ""
-        jmap -histo $HEAP_FILE | head -35
+        analyze "$HEAP_FILE" 30
         echo ""
-        echo "Колонки:"
-        echo "  #instances - количество экземпляров"
-        echo "  #bytes     - занимаемая память в байтах"
-        echo "  class name - имя класса"
+        echo "Колонки гистограммы:"
+        echo "  экземпляров - количество объектов класса"
+        echo "  shallow     - память самих объектов"
+        echo "  retained*   - память, которая освободится вместе с ними"
         echo ""
         echo "Обратите внимание на:"
-        echo "  - Большое количество одинаковых объектов"
+        echo "  - Подозрения на утечку: путь от класса со static полем до точки накопления"
         echo "  - Классы вашего приложения (ru.sin.*)"
-        echo "  - byte[] массивы ([B)"
+        echo "  - byte[] массивы, удерживаемые чужими объектами"
         ;;
     2)
         echo ""
@@ -68,15 +72,7 @@ case $CHOICE in
         ;;
     3)
         echo ""
-        echo "Запуск jhat (требуется много памяти)..."
-        echo "После запуска откройте: http://localhost:7000/"
-        echo ""
-        echo "ВНИМАНИЕ: jhat устарел, рекомендуется использовать VisualVM или Eclipse MAT"
-        echo ""
-        read -p "Продолжить? (y/n): " CONFIRM
-        if [ "$CONFIRM" = "y" ]; then
-            jhat -J-Xmx4g "$HEAP_FILE"
-        fi
+        analyze "$HEAP_FILE" 100
         ;;
     4)
         echo ""
@@ -87,11 +83,7 @@ case $CHOICE in
         echo "Размер файла: $(du -h $HEAP_FILE | cut -f1)"
         echo "Дата создания: $(stat -f %Sm $HEAP_FILE 2>/dev/null || stat -c %y $HEAP_FILE)"
         echo ""
-        echo "Быстрая статистика классов:"
-        jmap -histo $HEAP_FILE | head -5
-        echo ""
-        echo "Всего классов в dump:"
-        jmap -histo $HEAP_FILE | wc -l
+        analyze "$HEAP_FILE" 5 | head -6
         ;;
     5)
         echo ""
@@ -109,16 +101,12 @@ case $CHOICE in
         echo "Heap 2: $HEAP_FILE2"
         echo ""
 
-        echo "Top классов в первом dump:"
-        jmap -histo $HEAP_FILE | head -15
-
+        echo "Первый файл - снимок \"до\", второй - \"после\" (оба разбираются параллельно)"
         echo ""
-        echo "Top классов во втором dump:"
-        jmap -histo $HEAP_FILE2 | head -15
-
+        ./gradlew -q diffHeap -PheapBefore="$HEAP_FILE" -PheapAfter="$HEAP_FILE2"
         echo ""
-        echo "Для детального сравнения используйте Eclipse MAT:"
-        echo "  File -> Compare To Another Heap Dump"
+        echo "Точка накопления - первый шаг пути, где растет число объектов."
+        echo "Фильтр путей: ./gradlew diffHeap -PheapBefore=... -PheapAfter=... -PheapPathFilter=EventBus"
         ;;
     *)
         echo "Неверный выбор"
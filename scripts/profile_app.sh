@@ -1,41 +1,45 @@
 #!/bin/bash
-# Скрипт для профилирования Java приложений с async-profiler
+# Скрипт для профилирования Java приложений с async-profiler (или JFR, если его нет)
 
 set -e
 
 PROFILER_VERSION="3.0"
 PROFILER_DIR="$HOME/.async-profiler"
-PROFILER_PATH="$PROFILER_DIR/async-profiler-${PROFILER_VERSION}-macos/lib/libasyncProfiler.dylib"
 
-# Для Linux используйте:
-# PROFILER_PATH="$PROFILER_DIR/async-profiler-${PROFILER_VERSION}-linux-x64/lib/libasyncProfiler.so"
+# Путь к библиотеке зависит от ОС и архитектуры; ASYNC_PROFILER_LIB переопределяет
+case "$(uname -s)-$(uname -m)" in
+    Darwin-*)
+        PROFILER_PATH="$PROFILER_DIR/async-profiler-${PROFILER_VERSION}-macos/lib/libasyncProfiler.dylib" ;;
+    Linux-aarch64|Linux-arm64)
+        PROFILER_PATH="$PROFILER_DIR/async-profiler-${PROFILER_VERSION}-linux-arm64/lib/libasyncProfiler.so" ;;
+    *)
+        PROFILER_PATH="$PROFILER_DIR/async-profiler-${PROFILER_VERSION}-linux-x64/lib/libasyncProfiler.so" ;;
+esac
+PROFILER_PATH="${ASYNC_PROFILER_LIB:-$PROFILER_PATH}"
 
 OUTPUT_DIR="./profiling_results"
 mkdir -p "$OUTPUT_DIR"
 
-echo "=== Async-Profiler Helper Script ==="
+echo "=== Profiler Helper Script (async-profiler / JFR) ==="
 echo ""
 
-# Проверка async-profiler
+# Проверка async-profiler; без него - встроенный режим JFR (только JDK)
 check_profiler() {
     if [ ! -f "$PROFILER_PATH" ]; then
-        echo "❌ async-profiler не найден!"
+        USE_JFR=1
+        echo "async-profiler не найден ($PROFILER_PATH)"
+        echo "→ используем JFR (jdk.ExecutionSample / ObjectAllocationSample) и встроенный flame graph - без нативных библиотек"
         echo ""
-        echo "Установка async-profiler:"
-        echo "1. Скачайте с https://github.com/async-profiler/async-profiler/releases"
-        echo "2. Распакуйте в $PROFILER_DIR"
+        echo "Установить async-profiler: https://github.com/async-profiler/async-profiler/releases"
+        echo "  распаковать в $PROFILER_DIR или указать ASYNC_PROFILER_LIB=/path/to/libasyncProfiler.so"
         echo ""
-        echo "Для macOS:"
-        echo "  mkdir -p $PROFILER_DIR && cd $PROFILER_DIR"
-        echo "  curl -L https://github.com/async-profiler/async-profiler/releases/download/v${PROFILER_VERSION}/async-profiler-${PROFILER_VERSION}-macos.zip -o async-profiler.zip"
-        echo "  unzip async-profiler.zip"
-        echo ""
-        echo "Для Linux:"
-        echo "  mkdir -p $PROFILER_DIR && cd $PROFILER_DIR"
-        echo "  curl -L https://github.com/async-profiler/async-profiler/releases/download/v${PROFILER_VERSION}/async-profiler-${PROFILER_VERSION}-linux-x64.tar.gz -o async-profiler.tar.gz"
-        echo "  tar -xzf async-profiler.tar.gz"
-        exit 1
+        if [ "$EVENT" != "cpu" ] && [ "$EVENT" != "alloc" ]; then
+            echo "В режиме JFR поддерживаются event=cpu и event=alloc - профилируем cpu"
+            EVENT=cpu
+        fi
+        return
     fi
+    USE_JFR=0
     echo "✓ async-profiler найден: $PROFILER_PATH"
 }
 
@@ -54,6 +58,9 @@ show_help() {
     echo "  lock      - Lock contention профилирование"
     echo "  wall      - Wall-clock профилирование"
     echo ""
+    echo "Без async-profiler используется JFR из JDK (cpu и alloc)."
+    echo "Профилировать с запуска без jcmd: ./gradlew profileSlowApp / profileMain -PprofileMain=<класс>"
+    echo ""
     echo "Примеры:"
     echo "  $0 12345           # CPU профилирование на 30 сек"
     echo "  $0 12345 60        # CPU профилирование на 60 сек"
@@ -90,6 +97,7 @@ echo ""
 # Генерируем имя файла
 TIMESTAMP=$(date +%Y%m%d_%H%M%S)
 OUTPUT_FILE="$OUTPUT_DIR/profile_${EVENT}_${PID}_${TIMESTAMP}"
+FLAME_FILE="$OUTPUT_FILE"
 
 echo "Параметры профилирования:"
 echo "  PID:        $PID"
@@ -103,7 +111,11 @@ echo "Начинаем профилирование..."
 echo "━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━"
 
 # Старт профилирования
-jcmd "$PID" JVMTI.agent_load "$PROFILER_PATH" start,event=$EVENT
+if [ "$USE_JFR" = "1" ]; then
+    jcmd "$PID" JFR.start name=profile_app settings=profile > /dev/null
+else
+    jcmd "$PID" JVMTI.agent_load "$PROFILER_PATH" start,event=$EVENT
+fi
 
 echo "⏱  Профилирование запущено. Ожидание $DURATION секунд..."
 echo ""
@@ -127,25 +139,43 @@ echo ""
 
 # Остановка профилирования и генерация flamegraph
 echo "Остановка профилирования и генерация flame graph..."
-jcmd "$PID" JVMTI.agent_load "$PROFILER_PATH" stop,file="${OUTPUT_FILE}.html",flamegraph
+if [ "$USE_JFR" = "1" ]; then
+    # JFR.dump пишет относительно рабочего каталога целевого процесса - нужен абсолютный путь
+    JFR_FILE="$(cd "$(dirname "$OUTPUT_FILE")" && pwd)/$(basename "$OUTPUT_FILE").jfr"
+    jcmd "$PID" JFR.dump name=profile_app filename="$JFR_FILE" > /dev/null
+    jcmd "$PID" JFR.stop name=profile_app > /dev/null
+    ./gradlew -q jfrFlameGraph -PjfrFile="$JFR_FILE" -PflameEvent="$EVENT"
+    # Профиль аллокаций пишется в <имя>_alloc.html / .collapsed
+    if [ "$EVENT" = "alloc" ]; then
+        FLAME_FILE="${OUTPUT_FILE}_alloc"
+    fi
+else
+    jcmd "$PID" JVMTI.agent_load "$PROFILER_PATH" stop,file="${OUTPUT_FILE}.html",flamegraph
+fi
 
 echo ""
 echo "━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━"
 echo "✓ Профилирование завершено!"
 echo ""
 echo "Результаты:"
-echo "  Flame graph: ${OUTPUT_FILE}.html"
+echo "  Flame graph: ${FLAME_FILE}.html"
+if [ "$USE_JFR" = "1" ]; then
+    echo "  Collapsed:   ${FLAME_FILE}.collapsed"
+    echo "  JFR файл:    ${OUTPUT_FILE}.jfr"
+fi
 echo ""
 echo "Открыть flame graph:"
-echo "  open ${OUTPUT_FILE}.html"
+echo "  open ${FLAME_FILE}.html      # macOS"
+echo "  xdg-open ${FLAME_FILE}.html  # Linux"
 echo ""
 
-# Также сохраняем в JFR формате для Java Flight Recorder
-echo "Генерация JFR файла..."
-jcmd "$PID" JVMTI.agent_load "$PROFILER_PATH" stop,file="${OUTPUT_FILE}.jfr",jfr
-
-echo "  JFR файл:    ${OUTPUT_FILE}.jfr"
-echo ""
+if [ "$USE_JFR" = "0" ]; then
+    # Также сохраняем в JFR формате для Java Flight Recorder
+    echo "Генерация JFR файла..."
+    jcmd "$PID" JVMTI.agent_load "$PROFILER_PATH" stop,file="${OUTPUT_FILE}.jfr",jfr
+    echo "  JFR файл:    ${OUTPUT_FILE}.jfr"
+    echo ""
+fi
 echo "Открыть JFR в JDK Mission Control:"
 echo "  jmc ${OUTPUT_FILE}.jfr"
 echo ""
@@ -0,0 +1,56 @@
+package ru.sin.jit;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH версия BranchPredictionExample.
+ *
+ * На случайных данных sumIfGreaterThan128 страдает от branch misprediction,
+ * sumIfGreaterThan128BranchFree - нет. На отсортированных данных разницы быть не должно.
+ * Учтите: C2 может сам превратить ветвление в cmov, тогда разница исчезнет -
+ * это видно по branch-misses в -prof perfnorm.
+ *
+ * Запуск: ./gradlew jmh -PjmhArgs="BranchPrediction -prof perfnorm"
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class BranchPredictionBenchmark {
+
+    @Param({"1024", "32768"})
+    public int size;
+
+    @Param({"sorted", "random"})
+    public String distribution;
+
+    private int[] data;
+
+    @Setup
+    public void setup() {
+        data = new int[size];
+        Random random = new Random(42);
+        for (int i = 0; i < size; i++) {
+            data[i] = random.nextInt(256);
+        }
+        if ("sorted".equals(distribution)) {
+            Arrays.sort(data);
+        }
+    }
+
+    @Benchmark
+    public long sumIfGreaterThan128() {
+        return BranchPredictionExample.sumIfGreaterThan128(data);
+    }
+
+    @Benchmark
+    public long sumIfGreaterThan128BranchFree() {
+        return BranchPredictionExample.sumIfGreaterThan128BranchFree(data);
+    }
+}
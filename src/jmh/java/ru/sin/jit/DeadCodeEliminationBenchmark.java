@@ -0,0 +1,60 @@
+package ru.sin.jit;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH версия DeadCodeEliminationExample.
+ *
+ * withDeadCode и withoutDeadCode должны совпасть по времени - JIT удаляет
+ * неиспользуемые вычисления. discardedResult показывает ошибку методологии:
+ * результат не используется, и JIT выбрасывает весь вызов - замер становится
+ * "быстрее" baseline, то есть бессмысленным.
+ *
+ * Входное значение читается из поля состояния, а не из константы,
+ * иначе JIT свернет вычисление при компиляции (constant folding).
+ *
+ * Запуск: ./gradlew jmh -PjmhArgs="DeadCodeElimination"
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class DeadCodeEliminationBenchmark {
+
+    private int x = 42;
+
+    @Benchmark
+    public void baseline() {
+        // Пустой метод - нижняя граница стоимости вызова бенчмарка
+    }
+
+    @Benchmark
+    public int withDeadCode() {
+        return DeadCodeEliminationExample.withDeadCode(x);
+    }
+
+    @Benchmark
+    public int withoutDeadCode() {
+        return DeadCodeEliminationExample.withoutDeadCode(x);
+    }
+
+    @Benchmark
+    public void discardedResult() {
+        // НЕПРАВИЛЬНО: результат не используется и будет удален как мертвый код
+        DeadCodeEliminationExample.withoutDeadCode(x);
+    }
+
+    @Benchmark
+    public int withConstants() {
+        return DeadCodeEliminationExample.withConstants(x);
+    }
+
+    @Benchmark
+    public int optimizedConstants() {
+        return DeadCodeEliminationExample.optimizedConstants(x);
+    }
+}
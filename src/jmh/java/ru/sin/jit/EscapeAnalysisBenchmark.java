@@ -0,0 +1,44 @@
+package ru.sin.jit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH версия EscapeAnalysisExample.
+ *
+ * Смотреть стоит не только на время, но и на gc.alloc.rate.norm:
+ * для noEscape и calculateDistance после scalar replacement он должен быть ~0 B/op,
+ * для escapes - размер Point на каждый вызов.
+ *
+ * Запуск: ./gradlew jmh -PjmhArgs="EscapeAnalysis -prof gc"
+ * Без escape analysis: -PjmhArgs="EscapeAnalysis -prof gc -jvmArgsAppend -XX:-DoEscapeAnalysis"
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class EscapeAnalysisBenchmark {
+
+    private double x = 3.0;
+    private double y = 4.0;
+
+    @Benchmark
+    public double noEscape() {
+        return EscapeAnalysisExample.noEscape(x, y);
+    }
+
+    @Benchmark
+    public void escapes(Blackhole bh) {
+        // Blackhole "убегающего" объекта не дает JIT убрать аллокацию
+        bh.consume(EscapeAnalysisExample.escapes(x, y));
+    }
+
+    @Benchmark
+    public double calculateDistance() {
+        return EscapeAnalysisExample.calculateDistance(x, y);
+    }
+}
@@ -0,0 +1,81 @@
+package ru.sin.jit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH версия InlineOptimizationExample.
+ *
+ * calculateWithMethodCalls и calculateInlined должны показать одинаковое время -
+ * JIT встраивает маленькие методы. Для сравнения добавлен вариант, где
+ * inline запрещен через @CompilerControl(DONT_INLINE).
+ *
+ * Запуск: ./gradlew jmh -PjmhArgs="InlineOptimization"
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class InlineOptimizationBenchmark {
+
+    @Param({"1000", "100000"})
+    public int size;
+
+    private int[] inputs;
+
+    @Setup
+    public void setup() {
+        inputs = new int[size];
+        for (int i = 0; i < size; i++) {
+            inputs[i] = i;
+        }
+    }
+
+    @Benchmark
+    public void calculateWithMethodCalls(Blackhole bh) {
+        for (int x : inputs) {
+            bh.consume(InlineOptimizationExample.calculateWithMethodCalls(x));
+        }
+    }
+
+    @Benchmark
+    public void calculateInlined(Blackhole bh) {
+        for (int x : inputs) {
+            bh.consume(InlineOptimizationExample.calculateInlined(x));
+        }
+    }
+
+    @Benchmark
+    public void calculateWithoutInlining(Blackhole bh) {
+        for (int x : inputs) {
+            bh.consume(calculateNoInline(x));
+        }
+    }
+
+    // Та же логика, что в calculateWithMethodCalls, но вызовы не встраиваются
+    private static int calculateNoInline(int x) {
+        int result = squareNoInline(x);
+        result = addNoInline(result, x);
+        result = multiplyNoInline(result, 2);
+        return result;
+    }
+
+    @CompilerControl(CompilerControl.Mode.DONT_INLINE)
+    private static int addNoInline(int a, int b) {
+        return a + b;
+    }
+
+    @CompilerControl(CompilerControl.Mode.DONT_INLINE)
+    private static int multiplyNoInline(int a, int b) {
+        return a * b;
+    }
+
+    @CompilerControl(CompilerControl.Mode.DONT_INLINE)
+    private static int squareNoInline(int x) {
+        return multiplyNoInline(x, x);
+    }
+}
@@ -0,0 +1,56 @@
+package ru.sin.jit;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH версия LoopOptimizationExample.
+ *
+ * Loop hoisting: sumArrayWithInvariant vs sumArrayOptimized.
+ * Loop unrolling: simpleLoop vs unrolledLoop (ручное разворачивание).
+ * Результат возвращается из метода - JMH сам передает его в Blackhole.
+ *
+ * Запуск: ./gradlew jmh -PjmhArgs="LoopOptimization -prof perfnorm"
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class LoopOptimizationBenchmark {
+
+    @Param({"1000", "10000", "1000000"})
+    public int size;
+
+    private int[] data;
+
+    @Setup
+    public void setup() {
+        data = new int[size];
+        for (int i = 0; i < size; i++) {
+            data[i] = i % 100;
+        }
+    }
+
+    @Benchmark
+    public int sumArrayWithInvariant() {
+        return LoopOptimizationExample.sumArrayWithInvariant(data);
+    }
+
+    @Benchmark
+    public int sumArrayOptimized() {
+        return LoopOptimizationExample.sumArrayOptimized(data);
+    }
+
+    @Benchmark
+    public long simpleLoop() {
+        return LoopOptimizationExample.simpleLoop(data);
+    }
+
+    @Benchmark
+    public long unrolledLoop() {
+        return LoopOptimizationExample.unrolledLoop(data);
+    }
+}
@@ -0,0 +1,568 @@
+package ru.sin.gc.cache;
+
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/**
+ * Ограниченный конкурентный кеш с политикой W-TinyLFU и истечением по таймер-колесу
+ *
+ * Зачем: ConcurrentHashMap с периодической чисткой растет без ограничений,
+ * а чистка - это полный обход O(n) каждые N секунд, который трогает каждый
+ * объект old gen (card marking, SATB барьеры) и выбрасывает пачку мусора сразу.
+ *
+ * Устройство:
+ * - Сегменты (lock striping): ключ -> сегмент по хешу, у каждого сегмента свой
+ *   ReentrantLock, HashMap, очереди политики, sketch частот и таймер-колесо.
+ *   Граница веса делится поровну между сегментами.
+ * - W-TinyLFU внутри сегмента:
+ *     window (1%)  - новые записи, LRU; дает шанс "всплескам" популярности
+ *     probation    - основная область, кандидаты на вытеснение
+ *     protected (80% основной области) - записи, к которым обращались повторно
+ *   Запись, вытолкнутая из window, попадает в основную область, только если
+ *   ее частота (FrequencySketch) выше частоты жертвы из probation.
+ * - Ограничение по весу: Weigher задает вес записи (например, размер в байтах).
+ * - expireAfterAccess через TimerWheel: O(1) на обращение, без обходов.
+ *
+ * Все операции - O(1) под локом одного сегмента. RemovalListener вызывается
+ * под этим локом, поэтому должен быть быстрым и не обращаться к кешу.
+ */
+public class BoundedCache<K, V> {
+
+    /**
+     * Вес записи (в тех же единицах, что и maximumWeight).
+     */
+    public interface Weigher<K, V> {
+        int weigh(K key, V value);
+    }
+
+    public interface RemovalListener<K, V> {
+        void onRemoval(K key, V value, RemovalCause cause);
+    }
+
+    public enum RemovalCause {
+        /** Вытеснена политикой размера */
+        SIZE,
+        /** Истекла по времени */
+        EXPIRED,
+        /** Удалена вызовом remove() */
+        EXPLICIT,
+        /** Значение заменено вызовом put() */
+        REPLACED
+    }
+
+    static final int WINDOW = 0;
+    static final int PROBATION = 1;
+    static final int PROTECTED = 2;
+
+    private static final double WINDOW_PERCENT = 0.01;
+    private static final double PROTECTED_PERCENT = 0.80;
+
+    /**
+     * Запись кеша. Одновременно узел очереди политики и узел таймер-колеса
+     * (тот же узел использует SessionRegistry).
+     */
+    static final class Node<K, V> {
+        final K key;
+        V value;
+        int weight;
+        int queue;
+
+        Node<K, V> prev;
+        Node<K, V> next;
+
+        long expiresAt;
+        Node<K, V> timerPrev;
+        Node<K, V> timerNext;
+
+        Node(K key, V value, int weight) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+        }
+
+        /** Sentinel для списков */
+        Node() {
+            this.key = null;
+        }
+    }
+
+    /**
+     * Двусвязный список в порядке доступа: первый - самый давний (LRU).
+     */
+    static final class AccessOrderDeque<K, V> {
+        private final Node<K, V> sentinel = new Node<>();
+        long weight;
+
+        AccessOrderDeque() {
+            sentinel.prev = sentinel;
+            sentinel.next = sentinel;
+        }
+
+        Node<K, V> peekFirst() {
+            return sentinel.next == sentinel ? null : sentinel.next;
+        }
+
+        Node<K, V> peekLast() {
+            return sentinel.prev == sentinel ? null : sentinel.prev;
+        }
+
+        void linkLast(Node<K, V> node) {
+            node.prev = sentinel.prev;
+            node.next = sentinel;
+            sentinel.prev.next = node;
+            sentinel.prev = node;
+            weight += node.weight;
+        }
+
+        void unlink(Node<K, V> node) {
+            node.prev.next = node.next;
+            node.next.prev = node.prev;
+            node.prev = null;
+            node.next = null;
+            weight -= node.weight;
+        }
+
+        void moveToBack(Node<K, V> node) {
+            unlink(node);
+            linkLast(node);
+        }
+    }
+
+    private final Segment[] segments;
+    private final int segmentMask;
+    private final Weigher<K, V> weigher;
+    private final RemovalListener<K, V> removalListener;
+    private final long expireAfterAccessNanos;
+    private final LongSupplier ticker;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder evictionWeight = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+
+    /**
+     * @param maximumWeight         суммарный вес записей
+     * @param weigher               вес записи
+     * @param expireAfterAccessNanos время жизни без обращений, 0 - без истечения
+     * @param concurrency           ожидаемое число потоков (сегментов будет ~4 на поток)
+     * @param removalListener       уведомление об удалении, может быть null
+     */
+    public BoundedCache(long maximumWeight, Weigher<K, V> weigher, long expireAfterAccessNanos,
+                        int concurrency, RemovalListener<K, V> removalListener) {
+        this(maximumWeight, weigher, expireAfterAccessNanos, concurrency, removalListener, System::nanoTime);
+    }
+
+    /**
+     * @param ticker источник времени в наносекундах (в тестах - управляемые часы)
+     */
+    BoundedCache(long maximumWeight, Weigher<K, V> weigher, long expireAfterAccessNanos,
+                 int concurrency, RemovalListener<K, V> removalListener, LongSupplier ticker) {
+        if (maximumWeight <= 0) {
+            throw new IllegalArgumentException("maximumWeight должен быть > 0: " + maximumWeight);
+        }
+        if (expireAfterAccessNanos < 0) {
+            throw new IllegalArgumentException("expireAfterAccessNanos должен быть >= 0: " + expireAfterAccessNanos);
+        }
+        int segmentCount = Integer.highestOneBit(Math.max(1, concurrency * 4 - 1) << 1);
+        // Сегмент должен вмещать хотя бы несколько записей
+        while (segmentCount > 1 && maximumWeight / segmentCount < 16) {
+            segmentCount >>>= 1;
+        }
+        this.segments = newSegments(segmentCount);
+        this.segmentMask = segmentCount - 1;
+        this.weigher = weigher;
+        this.removalListener = removalListener;
+        this.expireAfterAccessNanos = expireAfterAccessNanos;
+        this.ticker = ticker;
+
+        long now = ticker.getAsLong();
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new Segment(maximumWeight / segmentCount, now);
+        }
+    }
+
+    /**
+     * Кеш, ограниченный числом записей.
+     */
+    public static <K, V> BoundedCache<K, V> ofSize(long maximumSize, long expireAfterAccess, TimeUnit unit,
+                                                   int concurrency) {
+        return new BoundedCache<>(maximumSize, (k, v) -> 1, unit.toNanos(expireAfterAccess), concurrency, null);
+    }
+
+    public V getIfPresent(K key) {
+        Segment segment = segmentFor(key);
+        long now = ticker.getAsLong();
+        segment.lock();
+        try {
+            segment.advance(now);
+            segment.sketch.increment(key);
+            Node<K, V> node = segment.liveNode(key, now);
+            if (node == null) {
+                misses.increment();
+                return null;
+            }
+            hits.increment();
+            segment.onHit(node, now);
+            return node.value;
+        } finally {
+            segment.unlock();
+        }
+    }
+
+    /**
+     * Значение по ключу; при отсутствии - вычислить и добавить.
+     * mappingFunction выполняется под локом сегмента.
+     */
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
+        Segment segment = segmentFor(key);
+        long now = ticker.getAsLong();
+        segment.lock();
+        try {
+            segment.advance(now);
+            segment.sketch.increment(key);
+            Node<K, V> node = segment.liveNode(key, now);
+            if (node != null) {
+                hits.increment();
+                segment.onHit(node, now);
+                return node.value;
+            }
+            misses.increment();
+            V value = mappingFunction.apply(key);
+            if (value != null) {
+                segment.insert(key, value, now);
+            }
+            return value;
+        } finally {
+            segment.unlock();
+        }
+    }
+
+    /**
+     * computeIfAbsent + action над значением под локом сегмента.
+     * Пока выполняется action, запись не может быть вытеснена или удалена - это нужно,
+     * когда значение ссылается на внешний ресурс (например, блок off-heap памяти),
+     * который RemovalListener освобождает.
+     */
+    public void access(K key, Function<? super K, ? extends V> mappingFunction, Consumer<? super V> action) {
+        Segment segment = segmentFor(key);
+        segment.lock();
+        try {
+            computeIfAbsent(key, mappingFunction);
+            // Только что добавленная запись могла сразу проиграть вытеснение
+            Node<K, V> node = segment.data.get(key);
+            if (node != null) {
+                action.accept(node.value);
+            }
+        } finally {
+            segment.unlock();
+        }
+    }
+
+    public void put(K key, V value) {
+        Segment segment = segmentFor(key);
+        long now = ticker.getAsLong();
+        segment.lock();
+        try {
+            segment.advance(now);
+            segment.sketch.increment(key);
+            Node<K, V> node = segment.data.get(key);
+            if (node == null) {
+                segment.insert(key, value, now);
+                return;
+            }
+            V oldValue = node.value;
+            segment.reweigh(node, value);
+            segment.onHit(node, now);
+            notifyRemoval(key, oldValue, RemovalCause.REPLACED);
+            segment.evictEntries();
+        } finally {
+            segment.unlock();
+        }
+    }
+
+    public V remove(K key) {
+        Segment segment = segmentFor(key);
+        segment.lock();
+        try {
+            Node<K, V> node = segment.data.get(key);
+            if (node == null) {
+                return null;
+            }
+            segment.removeNode(node, RemovalCause.EXPLICIT);
+            return node.value;
+        } finally {
+            segment.unlock();
+        }
+    }
+
+    /**
+     * Продвинуть таймер-колеса всех сегментов (истечение без обращений к кешу).
+     */
+    public void cleanUp() {
+        long now = ticker.getAsLong();
+        for (Segment segment : segments) {
+            segment.lock();
+            try {
+                segment.advance(now);
+            } finally {
+                segment.unlock();
+            }
+        }
+    }
+
+    public long size() {
+        long size = 0;
+        for (Segment segment : segments) {
+            segment.lock();
+            try {
+                size += segment.data.size();
+            } finally {
+                segment.unlock();
+            }
+        }
+        return size;
+    }
+
+    public long weightedSize() {
+        long weight = 0;
+        for (Segment segment : segments) {
+            segment.lock();
+            try {
+                weight += segment.weightedSize;
+            } finally {
+                segment.unlock();
+            }
+        }
+        return weight;
+    }
+
+    public int segmentCount() {
+        return segments.length;
+    }
+
+    public long hitCount() {
+        return hits.sum();
+    }
+
+    public long missCount() {
+        return misses.sum();
+    }
+
+    public double hitRate() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total == 0 ? 1.0 : (double) h / total;
+    }
+
+    public long evictionCount() {
+        return evictions.sum();
+    }
+
+    public long evictionWeight() {
+        return evictionWeight.sum();
+    }
+
+    public long expirationCount() {
+        return expirations.sum();
+    }
+
+    private Segment segmentFor(Object key) {
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        return segments[h & segmentMask];
+    }
+
+    private void notifyRemoval(K key, V value, RemovalCause cause) {
+        if (removalListener != null) {
+            removalListener.onRemoval(key, value, cause);
+        }
+    }
+
+    /**
+     * Массив внутреннего класса обобщенного типа создается только с wildcard'ами.
+     */
+    @SuppressWarnings("unchecked")
+    private Segment[] newSegments(int count) {
+        return (Segment[]) new BoundedCache<?, ?>.Segment[count];
+    }
+
+    /**
+     * Сегмент: независимый W-TinyLFU кеш со своим локом.
+     * ReentrantLock наследуется ради lock()/unlock(), сериализация не поддерживается.
+     */
+    @SuppressWarnings("serial")
+    private final class Segment extends ReentrantLock implements TimerWheel.Expirer<K, V> {
+        final HashMap<K, Node<K, V>> data = new HashMap<>();
+        final AccessOrderDeque<K, V> window = new AccessOrderDeque<>();
+        final AccessOrderDeque<K, V> probation = new AccessOrderDeque<>();
+        final AccessOrderDeque<K, V> protectedQueue = new AccessOrderDeque<>();
+        final FrequencySketch sketch = new FrequencySketch(16);
+        final TimerWheel<K, V> timerWheel;
+
+        final long maximum;
+        final long windowMaximum;
+        final long protectedMaximum;
+        long weightedSize;
+
+        Segment(long maximum, long now) {
+            this.maximum = maximum;
+            this.windowMaximum = Math.max(1, (long) (maximum * WINDOW_PERCENT));
+            this.protectedMaximum = (long) ((maximum - windowMaximum) * PROTECTED_PERCENT);
+            this.timerWheel = new TimerWheel<>(this, now);
+        }
+
+        void advance(long now) {
+            if (expireAfterAccessNanos > 0) {
+                timerWheel.advance(now);
+            }
+        }
+
+        @Override
+        public boolean expire(Node<K, V> node) {
+            removeNode(node, RemovalCause.EXPIRED);
+            return true;
+        }
+
+        /**
+         * Запись по ключу; истекшая, но еще не вычищенная колесом - удаляется.
+         */
+        Node<K, V> liveNode(K key, long now) {
+            Node<K, V> node = data.get(key);
+            if (node != null && expireAfterAccessNanos > 0 && now - node.expiresAt >= 0) {
+                removeNode(node, RemovalCause.EXPIRED);
+                return null;
+            }
+            return node;
+        }
+
+        void insert(K key, V value, long now) {
+            Node<K, V> node = new Node<>(key, value, weigher.weigh(key, value));
+            node.queue = WINDOW;
+            data.put(key, node);
+            window.linkLast(node);
+            weightedSize += node.weight;
+            if (expireAfterAccessNanos > 0) {
+                node.expiresAt = now + expireAfterAccessNanos;
+                timerWheel.schedule(node);
+            }
+            if (data.size() > sketch.capacity()) {
+                sketch.ensureCapacity(data.size() * 2);
+            }
+            evictEntries();
+        }
+
+        void reweigh(Node<K, V> node, V value) {
+            int newWeight = weigher.weigh(node.key, value);
+            AccessOrderDeque<K, V> queue = queueOf(node);
+            queue.unlink(node);
+            weightedSize += newWeight - node.weight;
+            node.weight = newWeight;
+            node.value = value;
+            queue.linkLast(node);
+        }
+
+        void onHit(Node<K, V> node, long now) {
+            if (expireAfterAccessNanos > 0) {
+                node.expiresAt = now + expireAfterAccessNanos;
+                timerWheel.reschedule(node);
+            }
+            switch (node.queue) {
+                case WINDOW:
+                    window.moveToBack(node);
+                    break;
+                case PROBATION:
+                    // Повторное обращение - в защищенную область
+                    probation.unlink(node);
+                    node.queue = PROTECTED;
+                    protectedQueue.linkLast(node);
+                    while (protectedQueue.weight > protectedMaximum) {
+                        Node<K, V> demoted = protectedQueue.peekFirst();
+                        protectedQueue.unlink(demoted);
+                        demoted.queue = PROBATION;
+                        probation.linkLast(demoted);
+                    }
+                    break;
+                default:
+                    protectedQueue.moveToBack(node);
+            }
+        }
+
+        /**
+         * Перенести переполнение window в probation и вытеснять, пока вес выше границы.
+         * Кандидат (из window) вытесняет жертву (LRU probation), только если чаще используется.
+         */
+        void evictEntries() {
+            int candidates = 0;
+            while (window.weight > windowMaximum) {
+                Node<K, V> node = window.peekFirst();
+                window.unlink(node);
+                node.queue = PROBATION;
+                probation.linkLast(node);
+                candidates++;
+            }
+
+            while (weightedSize > maximum) {
+                Node<K, V> victim = probation.peekFirst();
+                if (victim == null) {
+                    victim = protectedQueue.peekFirst();
+                }
+                if (victim == null) {
+                    victim = window.peekFirst();
+                }
+                Node<K, V> candidate = candidates > 0 ? probation.peekLast() : null;
+
+                if (candidate == null || candidate == victim) {
+                    if (candidate != null) {
+                        candidates--;
+                    }
+                    evict(victim);
+                } else if (candidate.weight > maximum || !admit(candidate.key, victim.key)) {
+                    candidates--;
+                    evict(candidate);
+                } else {
+                    evict(victim);
+                }
+            }
+        }
+
+        private boolean admit(K candidateKey, K victimKey) {
+            return sketch.frequency(candidateKey) > sketch.frequency(victimKey);
+        }
+
+        private void evict(Node<K, V> node) {
+            evictions.increment();
+            evictionWeight.add(node.weight);
+            removeNode(node, RemovalCause.SIZE);
+        }
+
+        void removeNode(Node<K, V> node, RemovalCause cause) {
+            data.remove(node.key);
+            queueOf(node).unlink(node);
+            timerWheel.deschedule(node);
+            weightedSize -= node.weight;
+            if (cause == RemovalCause.EXPIRED) {
+                expirations.increment();
+            }
+            notifyRemoval(node.key, node.value, cause);
+        }
+
+        private AccessOrderDeque<K, V> queueOf(Node<K, V> node) {
+            switch (node.queue) {
+                case WINDOW:
+                    return window;
+                case PROBATION:
+                    return probation;
+                default:
+                    return protectedQueue;
+            }
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package ru.sin.gc.cache;
+
+/**
+ * Приблизительный счетчик частот обращений (Count-Min Sketch с 4-битными счетчиками)
+ *
+ * Основа TinyLFU: при вытеснении сравниваются частоты кандидата и жертвы,
+ * причем частоты помнятся и для ключей, которых уже нет в кеше. Поэтому
+ * однократные обращения (сканирование) не выталкивают популярные записи.
+ *
+ * Каждый элемент хешируется в 4 счетчика из 16 в пределах long, частота -
+ * минимум из них. Счетчики насыщаются на 15. Когда число инкрементов
+ * достигает 10 × размер таблицы, все счетчики делятся пополам (старение):
+ * частоты отражают недавнюю популярность, а не всю историю.
+ *
+ * Не потокобезопасен - у каждого сегмента кеша свой экземпляр под его локом.
+ */
+final class FrequencySketch {
+
+    private static final long[] SEED = {
+        0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L
+    };
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final long ONE_MASK = 0x1111111111111111L;
+    private static final int MAXIMUM_CAPACITY = 1 << 24;
+
+    private long[] table;
+    private int tableMask;
+    private int sampleSize;
+    private int size;
+
+    FrequencySketch(int expectedSize) {
+        ensureCapacity(expectedSize);
+    }
+
+    /**
+     * Увеличить таблицу под ожидаемое число записей. Частоты при этом сбрасываются.
+     */
+    void ensureCapacity(int expectedSize) {
+        int maximum = Math.min(Math.max(expectedSize, 8), MAXIMUM_CAPACITY);
+        if (table != null && table.length >= maximum) {
+            return;
+        }
+        table = new long[ceilingPowerOfTwo(maximum)];
+        tableMask = table.length - 1;
+        sampleSize = 10 * maximum;
+        size = 0;
+    }
+
+    int capacity() {
+        return table.length;
+    }
+
+    /**
+     * Оценка частоты (0..15).
+     */
+    int frequency(Object element) {
+        int hash = spread(element.hashCode());
+        int start = (hash & 3) << 2;
+        int frequency = Integer.MAX_VALUE;
+        for (int i = 0; i < 4; i++) {
+            int index = indexOf(hash, i);
+            int count = (int) ((table[index] >>> ((start + i) << 2)) & 0xfL);
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+    void increment(Object element) {
+        int hash = spread(element.hashCode());
+        int start = (hash & 3) << 2;
+
+        boolean added = false;
+        for (int i = 0; i < 4; i++) {
+            added |= incrementAt(indexOf(hash, i), start + i);
+        }
+        if (added && ++size >= sampleSize) {
+            reset();
+        }
+    }
+
+    private boolean incrementAt(int index, int counter) {
+        int offset = counter << 2;
+        long mask = 0xfL << offset;
+        if ((table[index] & mask) != mask) {
+            table[index] += 1L << offset;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Старение: все счетчики пополам.
+     */
+    private void reset() {
+        int oddCounters = 0;
+        for (int i = 0; i < table.length; i++) {
+            oddCounters += Long.bitCount(table[i] & ONE_MASK);
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        size = (size - (oddCounters >>> 2)) >>> 1;
+    }
+
+    private int indexOf(int item, int i) {
+        long hash = (item + SEED[i]) * SEED[i];
+        hash += hash >>> 32;
+        return (int) hash & tableMask;
+    }
+
+    private static int spread(int x) {
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        return (x >>> 16) ^ x;
+    }
+
+    private static int ceilingPowerOfTwo(int x) {
+        return 1 << -Integer.numberOfLeadingZeros(x - 1);
+    }
+}
@@ -0,0 +1,197 @@
+package ru.sin.gc.cache;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Slab-аллокатор блоков вне heap (direct ByteBuffer)
+ *
+ * Память берется у ОС крупными slab'ами (по умолчанию 4 MB) и режется на
+ * блоки одного размера. Классы размеров - 64 байта и далее по четыре шага
+ * между соседними степенями двойки (64, 80, 96, 112, 128, 160, ... 8192,
+ * 10240, 12288, 14336, 16384, ...) до размера slab'а, для каждого класса свой
+ * стек свободных блоков. Округление до класса теряет меньше 25% блока, а не
+ * до 50%, как при классах-степенях двойки: payload 10 KB занимает блок 10 KB,
+ * а не 16 KB.
+ *
+ * Для GC вся эта память - несколько объектов DirectByteBuffer: содержимое
+ * блоков не сканируется при маркировке и не копируется при эвакуации,
+ * сколько бы записей в них ни лежало.
+ *
+ * Блок адресуется handle = (номер slab'а << 32) | смещение. Освобожденный блок
+ * возвращается в стек своего класса; сами slab'ы ОС не возвращаются.
+ * Потокобезопасен: у каждого класса размера свой монитор.
+ */
+public final class OffHeapSlabAllocator {
+
+    public static final int DEFAULT_SLAB_SIZE = 4 * 1024 * 1024;
+
+    private static final int MIN_CHUNK_SHIFT = 6; // 64 байта
+    private static final int STEP_BITS = 2;      // 4 класса на каждую степень двойки
+
+    /**
+     * Стек свободных блоков одного размера.
+     */
+    private static final class SizeClass {
+        final int chunkSize;
+        long[] free = new long[64];
+        int freeCount;
+        long allocated;
+
+        SizeClass(int chunkSize) {
+            this.chunkSize = chunkSize;
+        }
+    }
+
+    private final int slabSize;
+    private final SizeClass[] sizeClasses;
+
+    // Копия при добавлении slab'а: чтение без блокировок
+    private volatile ByteBuffer[] slabs = new ByteBuffer[0];
+    private final List<ByteBuffer> slabList = new ArrayList<>();
+
+    public OffHeapSlabAllocator(int slabSize) {
+        if (Integer.bitCount(slabSize) != 1 || slabSize < (1 << MIN_CHUNK_SHIFT)) {
+            throw new IllegalArgumentException("slabSize должен быть степенью двойки >= 64: " + slabSize);
+        }
+        this.slabSize = slabSize;
+        int classes = ((Integer.numberOfTrailingZeros(slabSize) - MIN_CHUNK_SHIFT) << STEP_BITS) + 1;
+        this.sizeClasses = new SizeClass[classes];
+        sizeClasses[0] = new SizeClass(1 << MIN_CHUNK_SHIFT);
+        for (int i = 1; i < classes; i++) {
+            int shift = MIN_CHUNK_SHIFT + ((i - 1) >>> STEP_BITS);
+            int step = ((i - 1) & ((1 << STEP_BITS) - 1)) + 1;
+            sizeClasses[i] = new SizeClass((1 << shift) + (step << (shift - STEP_BITS)));
+        }
+    }
+
+    /**
+     * Выделить блок не меньше size байт.
+     *
+     * @return handle блока
+     */
+    public long allocate(int size) {
+        SizeClass sizeClass = sizeClassFor(size);
+        synchronized (sizeClass) {
+            if (sizeClass.freeCount == 0) {
+                carveSlab(sizeClass);
+            }
+            sizeClass.allocated++;
+            return sizeClass.free[--sizeClass.freeCount];
+        }
+    }
+
+    /**
+     * Вернуть блок. size - тот же, что при allocate().
+     */
+    public void free(long handle, int size) {
+        SizeClass sizeClass = sizeClassFor(size);
+        synchronized (sizeClass) {
+            push(sizeClass, handle);
+            sizeClass.allocated--;
+        }
+    }
+
+    /**
+     * Slab, в котором лежит блок. Читать/писать по абсолютному смещению offset(handle).
+     */
+    public ByteBuffer slab(long handle) {
+        return slabs[(int) (handle >>> 32)];
+    }
+
+    public static int offset(long handle) {
+        return (int) handle;
+    }
+
+    public long getLong(long handle, int index) {
+        return slab(handle).getLong(offset(handle) + index);
+    }
+
+    public void putLong(long handle, int index, long value) {
+        slab(handle).putLong(offset(handle) + index, value);
+    }
+
+    /**
+     * Заполнить size байт блока значениями от seed (имитация сериализации объекта).
+     */
+    public void fill(long handle, int size, long seed) {
+        ByteBuffer slab = slab(handle);
+        int base = offset(handle);
+        int i = 0;
+        for (; i + Long.BYTES <= size; i += Long.BYTES) {
+            slab.putLong(base + i, seed + i);
+        }
+        for (; i < size; i++) {
+            slab.put(base + i, (byte) seed);
+        }
+    }
+
+    /**
+     * Фактический размер блока, который будет выделен под size байт.
+     */
+    public int chunkSize(int size) {
+        return sizeClassFor(size).chunkSize;
+    }
+
+    /**
+     * Зарезервировано у ОС (все slab'ы).
+     */
+    public synchronized long reservedBytes() {
+        return (long) slabList.size() * slabSize;
+    }
+
+    /**
+     * Занято выделенными блоками (с учетом округления до класса размера).
+     */
+    public long usedBytes() {
+        long used = 0;
+        for (SizeClass sizeClass : sizeClasses) {
+            synchronized (sizeClass) {
+                used += sizeClass.allocated * sizeClass.chunkSize;
+            }
+        }
+        return used;
+    }
+
+    public synchronized int slabCount() {
+        return slabList.size();
+    }
+
+    private SizeClass sizeClassFor(int size) {
+        if (size <= 0 || size > slabSize) {
+            throw new IllegalArgumentException("Размер блока вне диапазона 1.." + slabSize + ": " + size);
+        }
+        if (size <= 1 << MIN_CHUNK_SHIFT) {
+            return sizeClasses[0];
+        }
+        // size - 1 = 2^shift + остаток: номер шага - старшие STEP_BITS бит остатка
+        int shift = 31 - Integer.numberOfLeadingZeros(size - 1);
+        int step = ((size - 1) >>> (shift - STEP_BITS)) & ((1 << STEP_BITS) - 1);
+        return sizeClasses[((shift - MIN_CHUNK_SHIFT) << STEP_BITS) + step + 1];
+    }
+
+    private void carveSlab(SizeClass sizeClass) {
+        long slabIndex = addSlab();
+        for (int offset = slabSize - sizeClass.chunkSize; offset >= 0; offset -= sizeClass.chunkSize) {
+            push(sizeClass, (slabIndex << 32) | offset);
+        }
+    }
+
+    private synchronized long addSlab() {
+        ByteBuffer slab = ByteBuffer.allocateDirect(slabSize).order(ByteOrder.nativeOrder());
+        slabList.add(slab);
+        slabs = slabList.toArray(new ByteBuffer[0]);
+        return slabList.size() - 1;
+    }
+
+    private static void push(SizeClass sizeClass, long handle) {
+        if (sizeClass.freeCount == sizeClass.free.length) {
+            long[] grown = new long[sizeClass.free.length * 2];
+            System.arraycopy(sizeClass.free, 0, grown, 0, sizeClass.freeCount);
+            sizeClass.free = grown;
+        }
+        sizeClass.free[sizeClass.freeCount++] = handle;
+    }
+}
@@ -0,0 +1,285 @@
+package ru.sin.gc.cache;
+
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * Реестр сессий: LRU по числу записей + истечение по TTL, все операции O(1)
+ *
+ * Замена списка под одним synchronized, где поиск самой давней сессии - обход
+ * всего списка, удаление - еще один обход, а чистка по TTL - третий.
+ *
+ * Устройство - как у BoundedCache, но без частотной политики:
+ * - Сегменты (lock striping) со своим ReentrantLock; граница числа записей
+ *   делится поровну, LRU действует внутри сегмента (приближение глобального LRU).
+ * - HashMap sessionId -> узел; узел одновременно лежит в интрузивном
+ *   двусвязном списке порядка доступа (AccessOrderDeque) и в таймер-колесе.
+ * - get() переставляет узел в хвост списка и перепланирует таймер,
+ *   вытеснение снимает голову списка, истечение обрабатывает только
+ *   наступившие корзины колеса.
+ *
+ * Новая сессия всегда попадает в реестр (в отличие от W-TinyLFU, где редкий
+ * ключ может не пройти admission) - для сессий вытеснять пользователя,
+ * который только что вошел, нельзя.
+ *
+ * RemovalListener вызывается под локом сегмента.
+ */
+public final class SessionRegistry<K, V> {
+
+    private final Segment[] segments;
+    private final int segmentMask;
+    private final long ttlNanos;
+    private final BoundedCache.RemovalListener<K, V> removalListener;
+    private final LongSupplier ticker;
+
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+
+    /**
+     * @param maximumSize     максимум записей (делится между сегментами с округлением вниз)
+     * @param ttl             время жизни без обращений, 0 - без истечения
+     * @param concurrency     ожидаемое число потоков (сегментов будет ~4 на поток)
+     * @param removalListener уведомление об удалении, может быть null
+     */
+    public SessionRegistry(int maximumSize, long ttl, TimeUnit unit, int concurrency,
+                           BoundedCache.RemovalListener<K, V> removalListener) {
+        this(maximumSize, ttl, unit, concurrency, removalListener, System::nanoTime);
+    }
+
+    /**
+     * @param ticker источник времени в наносекундах (в тестах - управляемые часы)
+     */
+    SessionRegistry(int maximumSize, long ttl, TimeUnit unit, int concurrency,
+                    BoundedCache.RemovalListener<K, V> removalListener, LongSupplier ticker) {
+        if (maximumSize <= 0) {
+            throw new IllegalArgumentException("maximumSize должен быть > 0: " + maximumSize);
+        }
+        if (ttl < 0) {
+            throw new IllegalArgumentException("ttl должен быть >= 0: " + ttl);
+        }
+        int segmentCount = Integer.highestOneBit(Math.max(1, concurrency * 4 - 1) << 1);
+        // Сегмент должен вмещать хотя бы несколько записей, иначе LRU вырождается
+        while (segmentCount > 1 && maximumSize / segmentCount < 16) {
+            segmentCount >>>= 1;
+        }
+        this.segments = newSegments(segmentCount);
+        this.segmentMask = segmentCount - 1;
+        this.ttlNanos = unit.toNanos(ttl);
+        this.removalListener = removalListener;
+        this.ticker = ticker;
+
+        long now = ticker.getAsLong();
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new Segment(maximumSize / segmentCount, now);
+        }
+    }
+
+    /**
+     * Значение по ключу с продлением TTL и переносом в конец LRU.
+     */
+    public V get(K key) {
+        Segment segment = segmentFor(key);
+        long now = ticker.getAsLong();
+        segment.lock();
+        try {
+            segment.advance(now);
+            BoundedCache.Node<K, V> node = segment.liveNode(key, now);
+            if (node == null) {
+                return null;
+            }
+            segment.touch(node, now);
+            return node.value;
+        } finally {
+            segment.unlock();
+        }
+    }
+
+    /**
+     * Добавить или заменить. При переполнении сегмента вытесняется самая давняя запись.
+     */
+    public void put(K key, V value) {
+        Segment segment = segmentFor(key);
+        long now = ticker.getAsLong();
+        segment.lock();
+        try {
+            segment.advance(now);
+            BoundedCache.Node<K, V> node = segment.liveNode(key, now);
+            if (node != null) {
+                V oldValue = node.value;
+                node.value = value;
+                segment.touch(node, now);
+                notifyRemoval(key, oldValue, BoundedCache.RemovalCause.REPLACED);
+                return;
+            }
+            segment.insert(key, value, now);
+        } finally {
+            segment.unlock();
+        }
+    }
+
+    /**
+     * Удалить и вернуть значение. Истекшая, но еще не вычищенная запись не
+     * возвращается: она удаляется как EXPIRED, результат - null.
+     */
+    public V remove(K key) {
+        Segment segment = segmentFor(key);
+        long now = ticker.getAsLong();
+        segment.lock();
+        try {
+            segment.advance(now);
+            BoundedCache.Node<K, V> node = segment.liveNode(key, now);
+            if (node == null) {
+                return null;
+            }
+            segment.removeNode(node, BoundedCache.RemovalCause.EXPLICIT);
+            return node.value;
+        } finally {
+            segment.unlock();
+        }
+    }
+
+    /**
+     * Продвинуть таймер-колеса всех сегментов (истечение без обращений).
+     */
+    public void cleanUp() {
+        long now = ticker.getAsLong();
+        for (Segment segment : segments) {
+            segment.lock();
+            try {
+                segment.advance(now);
+            } finally {
+                segment.unlock();
+            }
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            segment.lock();
+            try {
+                size += segment.data.size();
+            } finally {
+                segment.unlock();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Фактическая граница: сумма границ сегментов.
+     */
+    public int maximumSize() {
+        return segments[0].maximum * segments.length;
+    }
+
+    public int segmentCount() {
+        return segments.length;
+    }
+
+    public long evictionCount() {
+        return evictions.sum();
+    }
+
+    public long expirationCount() {
+        return expirations.sum();
+    }
+
+    private Segment segmentFor(Object key) {
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        return segments[h & segmentMask];
+    }
+
+    private void notifyRemoval(K key, V value, BoundedCache.RemovalCause cause) {
+        if (removalListener != null) {
+            removalListener.onRemoval(key, value, cause);
+        }
+    }
+
+    /**
+     * Массив внутреннего класса обобщенного типа создается только с wildcard'ами.
+     */
+    @SuppressWarnings("unchecked")
+    private Segment[] newSegments(int count) {
+        return (Segment[]) new SessionRegistry<?, ?>.Segment[count];
+    }
+
+    /**
+     * Сегмент: независимый LRU со своим локом и таймер-колесом.
+     * ReentrantLock наследуется ради lock()/unlock(), сериализация не поддерживается.
+     */
+    @SuppressWarnings("serial")
+    private final class Segment extends ReentrantLock implements TimerWheel.Expirer<K, V> {
+        final HashMap<K, BoundedCache.Node<K, V>> data = new HashMap<>();
+        final BoundedCache.AccessOrderDeque<K, V> accessOrder = new BoundedCache.AccessOrderDeque<>();
+        final TimerWheel<K, V> timerWheel;
+        final int maximum;
+
+        Segment(int maximum, long now) {
+            this.maximum = Math.max(1, maximum);
+            this.timerWheel = new TimerWheel<>(this, now);
+        }
+
+        void advance(long now) {
+            if (ttlNanos > 0) {
+                timerWheel.advance(now);
+            }
+        }
+
+        @Override
+        public boolean expire(BoundedCache.Node<K, V> node) {
+            removeNode(node, BoundedCache.RemovalCause.EXPIRED);
+            return true;
+        }
+
+        /**
+         * Запись по ключу; истекшая, но еще не вычищенная колесом - удаляется.
+         */
+        BoundedCache.Node<K, V> liveNode(K key, long now) {
+            BoundedCache.Node<K, V> node = data.get(key);
+            if (node != null && ttlNanos > 0 && now - node.expiresAt >= 0) {
+                removeNode(node, BoundedCache.RemovalCause.EXPIRED);
+                return null;
+            }
+            return node;
+        }
+
+        void insert(K key, V value, long now) {
+            BoundedCache.Node<K, V> node = new BoundedCache.Node<>(key, value, 1);
+            data.put(key, node);
+            accessOrder.linkLast(node);
+            if (ttlNanos > 0) {
+                node.expiresAt = now + ttlNanos;
+                timerWheel.schedule(node);
+            }
+            while (data.size() > maximum) {
+                evictions.increment();
+                removeNode(accessOrder.peekFirst(), BoundedCache.RemovalCause.SIZE);
+            }
+        }
+
+        void touch(BoundedCache.Node<K, V> node, long now) {
+            accessOrder.moveToBack(node);
+            if (ttlNanos > 0) {
+                node.expiresAt = now + ttlNanos;
+                timerWheel.reschedule(node);
+            }
+        }
+
+        void removeNode(BoundedCache.Node<K, V> node, BoundedCache.RemovalCause cause) {
+            data.remove(node.key);
+            accessOrder.unlink(node);
+            timerWheel.deschedule(node);
+            if (cause == BoundedCache.RemovalCause.EXPIRED) {
+                expirations.increment();
+            }
+            notifyRemoval(node.key, node.value, cause);
+        }
+    }
+}
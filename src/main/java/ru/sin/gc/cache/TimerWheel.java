@@ -0,0 +1,157 @@
+package ru.sin.gc.cache;
+
+/**
+ * Иерархическое колесо таймеров для истечения записей за амортизированное O(1)
+ *
+ * Вместо периодического обхода всего кеша каждая запись лежит в корзине,
+ * соответствующей времени ее истечения. Уровни колеса имеют разную
+ * гранулярность (~1 сек, ~1 мин, ~1 час, ~1 день): запись, которой осталось
+ * жить час, лежит на часовом уровне и опускается на более точный уровень,
+ * только когда до истечения остается меньше часа.
+ *
+ * advance(now) обрабатывает только корзины, время которых прошло с прошлого
+ * вызова - обычно ноль или одну. Перепланирование записи при обращении -
+ * перестановка в двусвязном списке.
+ *
+ * Не потокобезопасен - вызывается под локом сегмента кеша.
+ */
+final class TimerWheel<K, V> {
+
+    /**
+     * Что делать с истекшей записью. Возвращает false, если запись удалять не нужно
+     * (тогда она планируется заново).
+     */
+    interface Expirer<K, V> {
+        boolean expire(BoundedCache.Node<K, V> node);
+    }
+
+    private static final int[] BUCKETS = {64, 64, 32, 4, 1};
+    private static final long[] SPANS = {
+        1L << 30,          // 1.07 сек
+        1L << 36,          // 1.14 мин
+        1L << 42,          // 1.22 часа
+        1L << 47,          // 1.63 дня
+        4L << 47,          // 6.5 дней
+        4L << 47,
+    };
+    private static final long[] SHIFT = {
+        Long.numberOfTrailingZeros(SPANS[0]),
+        Long.numberOfTrailingZeros(SPANS[1]),
+        Long.numberOfTrailingZeros(SPANS[2]),
+        Long.numberOfTrailingZeros(SPANS[3]),
+        Long.numberOfTrailingZeros(SPANS[4]),
+    };
+
+    private final BoundedCache.Node<K, V>[][] wheel;
+    private final Expirer<K, V> expirer;
+    private long nanos;
+
+    TimerWheel(Expirer<K, V> expirer, long nowNanos) {
+        this.expirer = expirer;
+        this.nanos = nowNanos;
+        this.wheel = newWheel(BUCKETS.length);
+        for (int i = 0; i < wheel.length; i++) {
+            wheel[i] = newBuckets(BUCKETS[i]);
+            for (int j = 0; j < wheel[i].length; j++) {
+                BoundedCache.Node<K, V> sentinel = new BoundedCache.Node<>();
+                sentinel.timerPrev = sentinel;
+                sentinel.timerNext = sentinel;
+                wheel[i][j] = sentinel;
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K, V> BoundedCache.Node<K, V>[][] newWheel(int levels) {
+        return (BoundedCache.Node<K, V>[][]) new BoundedCache.Node<?, ?>[levels][];
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K, V> BoundedCache.Node<K, V>[] newBuckets(int count) {
+        return (BoundedCache.Node<K, V>[]) new BoundedCache.Node<?, ?>[count];
+    }
+
+    /**
+     * Продвинуть колесо до текущего времени, истекшие записи отдать expirer'у.
+     */
+    void advance(long currentTimeNanos) {
+        long previousTimeNanos = nanos;
+        nanos = currentTimeNanos;
+        for (int i = 0; i < SHIFT.length; i++) {
+            long previousTicks = previousTimeNanos >>> SHIFT[i];
+            long currentTicks = currentTimeNanos >>> SHIFT[i];
+            long delta = currentTicks - previousTicks;
+            if (delta <= 0L) {
+                break;
+            }
+            expire(i, previousTicks, delta);
+        }
+    }
+
+    private void expire(int level, long previousTicks, long delta) {
+        BoundedCache.Node<K, V>[] buckets = wheel[level];
+        int mask = buckets.length - 1;
+        int steps = (int) Math.min(1 + delta, buckets.length);
+        int start = (int) (previousTicks & mask);
+        int end = start + steps;
+
+        for (int i = start; i < end; i++) {
+            BoundedCache.Node<K, V> sentinel = buckets[i & mask];
+            BoundedCache.Node<K, V> node = sentinel.timerNext;
+            sentinel.timerPrev = sentinel;
+            sentinel.timerNext = sentinel;
+
+            while (node != sentinel) {
+                BoundedCache.Node<K, V> next = node.timerNext;
+                node.timerPrev = null;
+                node.timerNext = null;
+                // Еще не истекла (лежала на грубом уровне) - опускаем на точный уровень
+                if (node.expiresAt - nanos > 0 || !expirer.expire(node)) {
+                    schedule(node);
+                }
+                node = next;
+            }
+        }
+    }
+
+    void schedule(BoundedCache.Node<K, V> node) {
+        BoundedCache.Node<K, V> sentinel = findBucket(node.expiresAt);
+        node.timerPrev = sentinel.timerPrev;
+        node.timerNext = sentinel;
+        sentinel.timerPrev.timerNext = node;
+        sentinel.timerPrev = node;
+    }
+
+    void reschedule(BoundedCache.Node<K, V> node) {
+        if (node.timerNext != null) {
+            unlink(node);
+        }
+        schedule(node);
+    }
+
+    void deschedule(BoundedCache.Node<K, V> node) {
+        if (node.timerNext != null) {
+            unlink(node);
+        }
+    }
+
+    private void unlink(BoundedCache.Node<K, V> node) {
+        node.timerPrev.timerNext = node.timerNext;
+        node.timerNext.timerPrev = node.timerPrev;
+        node.timerPrev = null;
+        node.timerNext = null;
+    }
+
+    private BoundedCache.Node<K, V> findBucket(long time) {
+        long duration = time - nanos;
+        int last = wheel.length - 1;
+        for (int i = 0; i < last; i++) {
+            if (duration < SPANS[i + 1]) {
+                long ticks = time >>> SHIFT[i];
+                int index = (int) (ticks & (wheel[i].length - 1));
+                return wheel[i][index];
+            }
+        }
+        return wheel[last][0];
+    }
+}
@@ -1,5 +1,8 @@
 package ru.sin.gc.comparison;
 
+import ru.sin.gc.monitoring.GcPauseRecorder;
+import ru.sin.gc.monitoring.JfrEventMonitor;
+
 import java.util.ArrayList;
 import java.util.List;
 
@@ -19,6 +22,12 @@ public class AllocationBenchmark {
     private static final int DURATION_SEC = 30;
     private static final int ALLOCATION_SIZE = 1024; // 1KB на объект
 
+    // Каждая сборка мусора (а не только итоговые счетчики MXBean)
+    private static final GcPauseRecorder gcPauses = GcPauseRecorder.install();
+
+    // Живые JFR метрики по интервалам (-Dbenchmark.jfr=true)
+    private static final JfrEventMonitor jfr = JfrEventMonitor.create();
+
     private static long totalAllocated = 0;
     private static long objectsCreated = 0;
 
@@ -29,6 +38,7 @@ public class AllocationBenchmark {
         System.out.println("\nТест максимальной скорости создания объектов.");
         System.out.println("Демонстрирует частоту Young GC и promotion rate.\n");
 
+        BenchmarkResult result = BenchmarkResult.start("allocation", gcPauses);
         long startTime = System.currentTimeMillis();
         long lastReportTime = startTime;
         long lastObjectCount = 0;
@@ -50,14 +60,17 @@ public class AllocationBenchmark {
                     objectsCreated,
                     allocRateMBps
                 );
+                jfr.printInterval();
 
                 lastReportTime = now;
                 lastObjectCount = objectsCreated;
             }
         }
 
+        result.finish();
+
         // Результаты
-        analyzeResults(startTime);
+        analyzeResults(startTime, result);
     }
 
     private static void allocateBatch(int count) {
@@ -70,7 +83,7 @@ public class AllocationBenchmark {
         // batch выходит из scope и становится доступен для GC
     }
 
-    private static void analyzeResults(long startTime) {
+    private static void analyzeResults(long startTime, BenchmarkResult result) {
         long elapsed = (System.currentTimeMillis() - startTime) / 1000;
 
         System.out.println("\n" + "=".repeat(60));
@@ -84,6 +97,15 @@ public class AllocationBenchmark {
         System.out.printf("Object creation rate: %,d obj/sec%n", objectsCreated / elapsed);
 
         printGCStats(elapsed);
+        gcPauses.printSummary();
+
+        // allocation_mb_per_sec - рост heap между сборками (GcPauseRecorder), payload - только полезная нагрузка
+        result.setThroughput(objectsCreated / (double) elapsed);
+        result.putExtra("payload_mb_per_sec", (totalAllocated / 1024.0 / 1024.0) / elapsed);
+        result.publish();
+
+        jfr.printSummary();
+        jfr.close();
         printMemoryStats();
     }
 
@@ -0,0 +1,304 @@
+package ru.sin.gc.comparison;
+
+import ru.sin.gc.comparison.BenchmarkResultReader.StoredResult;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+/**
+ * Проверка производительности против сохраненного baseline
+ *
+ * Два режима (-Dregression.mode):
+ *   save  - собрать все results.jsonl из каталога результатов в baseline
+ *   check - сравнить текущие результаты с baseline, exit code 1 при регрессии
+ *
+ * Сравнение идет по конфигурации (бенчмарк / GC / heap / CPU) и по каждой
+ * метрике из regression.metrics. Регрессия фиксируется, когда одновременно:
+ * - медиана ухудшилась больше чем на regression.threshold процентов
+ * - U-критерий Манна-Уитни по повторам значим (p <= regression.alpha)
+ * Оба условия нужны: одно только изменение медианы ловит шум, одна только
+ * значимость ловит статистически достоверные, но несущественные 0.5%.
+ *
+ * Если с какой-либо стороны меньше 3 повторов, значимость не проверяется
+ * (решает только порог) и в отчете это отмечается.
+ *
+ * Каталог результатов задается явно: writer только дописывает, а
+ * runGcComparison кладет compare_* в тот же gc_benchmarks, поэтому весь
+ * gc_benchmarks - это вся история, включая запуски, сохраненные в baseline.
+ * "latest" выбирает самый свежий gc_benchmarks/compare_*. Если baseline и
+ * текущие результаты пересекаются (вложенные каталоги или одни и те же
+ * запуски), проверка отказывается работать - сравнение с собственным
+ * подмножеством размывает регрессии.
+ *
+ * Направление метрики определяется по имени: throughput - больше лучше,
+ * остальное (latency, паузы, overhead) - меньше лучше.
+ *
+ * Параметры:
+ *   regression.baseline   файл или каталог baseline (по умолчанию benchmark_baseline)
+ *   regression.results    каталог или файл текущих результатов, обязателен;
+ *                         latest - последний gc_benchmarks/compare_*
+ *   regression.metrics    throughput_ops_per_sec,p99_us
+ *   regression.threshold  допустимое ухудшение медианы, % (по умолчанию 5)
+ *   regression.alpha      уровень значимости (по умолчанию 0.05)
+ */
+public class BenchmarkRegressionGate {
+
+    private static final String MODE = System.getProperty("regression.mode", "check");
+    private static final Path BASELINE = Path.of(System.getProperty("regression.baseline", "benchmark_baseline"));
+    private static final Path RESULTS_ROOT = Path.of("gc_benchmarks");
+    private static final List<String> METRICS =
+        Arrays.asList(System.getProperty("regression.metrics", "throughput_ops_per_sec,p99_us").split(","));
+    private static final double THRESHOLD_PCT = Double.parseDouble(System.getProperty("regression.threshold", "5"));
+    private static final double ALPHA = Double.parseDouble(System.getProperty("regression.alpha", "0.05"));
+
+    private static final int MIN_REPETITIONS_FOR_TEST = 3;
+
+    /**
+     * Итог сравнения одной метрики одной конфигурации.
+     */
+    static class Comparison {
+        final String configuration;
+        final String metric;
+        final double baselineMedian;
+        final double currentMedian;
+        final double changePct;
+        final double pValue;
+        final int baselineCount;
+        final int currentCount;
+        final boolean regression;
+
+        Comparison(String configuration, String metric, double[] baseline, double[] current) {
+            this.configuration = configuration;
+            this.metric = metric;
+            this.baselineMedian = median(baseline);
+            this.currentMedian = median(current);
+            this.baselineCount = baseline.length;
+            this.currentCount = current.length;
+
+            boolean higherIsBetter = isHigherBetter(metric);
+            double change = baselineMedian == 0 ? 0 : (currentMedian - baselineMedian) / Math.abs(baselineMedian) * 100;
+            this.changePct = change;
+            // Ухудшение в процентах: для throughput - падение, для latency - рост
+            double degradationPct = higherIsBetter ? -change : change;
+
+            if (hasEnoughRepetitions()) {
+                this.pValue = higherIsBetter
+                    ? MannWhitneyTest.pValueLess(baseline, current)
+                    : MannWhitneyTest.pValueGreater(baseline, current);
+            } else {
+                this.pValue = Double.NaN;
+            }
+
+            boolean significant = Double.isNaN(pValue) || pValue <= ALPHA;
+            this.regression = degradationPct > THRESHOLD_PCT && significant;
+        }
+
+        boolean hasEnoughRepetitions() {
+            return baselineCount >= MIN_REPETITIONS_FOR_TEST && currentCount >= MIN_REPETITIONS_FOR_TEST;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path results = resultsPath(System.getProperty("regression.results"));
+        switch (MODE) {
+            case "save":
+                saveBaseline(results);
+                break;
+            case "check":
+                if (!check(results)) {
+                    System.exit(1);
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Неизвестный regression.mode: " + MODE + " (save или check)");
+        }
+    }
+
+    /**
+     * Каталог текущих результатов: явно заданный или последний compare_* для "latest".
+     */
+    static Path resultsPath(String value) throws IOException {
+        if (value == null || value.isBlank()) {
+            throw new IllegalArgumentException("Не задан каталог текущих результатов (regression.results,"
+                + " в Gradle -PresultsDir=gc_benchmarks/compare_<время> или -PresultsDir=latest)."
+                + " Весь " + RESULTS_ROOT + " - это история всех запусков, включая baseline");
+        }
+        if (!value.equals("latest")) {
+            return Path.of(value);
+        }
+        if (!Files.isDirectory(RESULTS_ROOT)) {
+            throw new IllegalStateException("Нет каталога " + RESULTS_ROOT + " - запустите runGcComparison");
+        }
+        try (Stream<Path> dirs = Files.list(RESULTS_ROOT)) {
+            // compare_<yyyyMMdd_HHmmss>: лексикографический порядок совпадает с временным
+            return dirs.filter(Files::isDirectory)
+                .filter(dir -> dir.getFileName().toString().startsWith("compare_"))
+                .max(Comparator.comparing(dir -> dir.getFileName().toString()))
+                .orElseThrow(() -> new IllegalStateException("Нет запусков compare_* в " + RESULTS_ROOT));
+        }
+    }
+
+    /**
+     * Baseline и текущие результаты не должны быть вложены друг в друга.
+     */
+    static void requireDisjointPaths(Path baseline, Path results) {
+        Path a = baseline.toAbsolutePath().normalize();
+        Path b = results.toAbsolutePath().normalize();
+        if (a.startsWith(b) || b.startsWith(a)) {
+            throw new IllegalStateException("Baseline " + baseline + " и текущие результаты " + results
+                + " пересекаются - укажите отдельный каталог запуска (-PresultsDir)");
+        }
+    }
+
+    /**
+     * Ни один текущий запуск не должен уже лежать в baseline.
+     */
+    static void requireDisjointRuns(List<StoredResult> baseline, List<StoredResult> current) {
+        Set<String> baselineRuns = new HashSet<>();
+        for (StoredResult result : baseline) {
+            baselineRuns.add(result.runKey());
+        }
+        long shared = current.stream().filter(result -> baselineRuns.contains(result.runKey())).count();
+        if (shared > 0) {
+            throw new IllegalStateException(String.format("%d из %d текущих запусков уже есть в baseline"
+                + " - сравнение с собственным подмножеством скрывает регрессии; укажите новый запуск",
+                shared, current.size()));
+        }
+    }
+
+    private static void saveBaseline(Path resultsPath) throws IOException {
+        requireDisjointPaths(BASELINE, resultsPath);
+        List<StoredResult> results = BenchmarkResultReader.load(resultsPath);
+        if (results.isEmpty()) {
+            throw new IllegalStateException("Нет результатов в " + resultsPath
+                + " - запустите бенчмарки с -PbenchmarkResults или runGcComparison");
+        }
+
+        Path target = Files.isDirectory(BASELINE) || !BASELINE.toString().endsWith(".jsonl")
+            ? BASELINE.resolve(BenchmarkResultWriter.JSONL_FILE) : BASELINE;
+        Files.createDirectories(target.toAbsolutePath().getParent());
+
+        // Копируем строки как есть: baseline - тот же формат, что и результаты
+        StringBuilder sb = new StringBuilder();
+        for (Path file : BenchmarkResultReader.findResultFiles(resultsPath)) {
+            for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                if (!line.isBlank()) {
+                    sb.append(line).append('\n');
+                }
+            }
+        }
+        Files.writeString(target, sb.toString(), StandardCharsets.UTF_8);
+
+        System.out.printf("Baseline сохранен: %s из %s (%d запусков, %d конфигураций)%n",
+            target, resultsPath, results.size(), group(results).size());
+    }
+
+    /**
+     * @return true, если регрессий нет
+     */
+    static boolean check(Path resultsPath) {
+        requireDisjointPaths(BASELINE, resultsPath);
+        List<StoredResult> baseline = BenchmarkResultReader.load(BASELINE);
+        List<StoredResult> current = BenchmarkResultReader.load(resultsPath);
+        if (baseline.isEmpty()) {
+            throw new IllegalStateException("Baseline не найден: " + BASELINE
+                + " - сохраните его задачей saveBenchmarkBaseline");
+        }
+        if (current.isEmpty()) {
+            throw new IllegalStateException("Нет текущих результатов в " + resultsPath);
+        }
+        requireDisjointRuns(baseline, current);
+
+        System.out.println("=== Проверка регрессий производительности ===");
+        System.out.printf("Baseline: %s (%d запусков, Java %s)%n", BASELINE, baseline.size(), javaVersions(baseline));
+        System.out.printf("Текущие:  %s (%d запусков, Java %s)%n", resultsPath, current.size(), javaVersions(current));
+        System.out.printf("Порог: %.1f%% ухудшения медианы, alpha = %.3f (Mann-Whitney)%n%n", THRESHOLD_PCT, ALPHA);
+
+        Map<String, List<StoredResult>> baselineByConfig = group(baseline);
+        Map<String, List<StoredResult>> currentByConfig = group(current);
+
+        List<Comparison> comparisons = new ArrayList<>();
+        for (Map.Entry<String, List<StoredResult>> entry : currentByConfig.entrySet()) {
+            List<StoredResult> base = baselineByConfig.get(entry.getKey());
+            if (base == null) {
+                System.out.println("  (нет baseline для " + entry.getKey() + ")");
+                continue;
+            }
+            for (String metric : METRICS) {
+                double[] baseValues = values(base, metric.trim());
+                double[] currentValues = values(entry.getValue(), metric.trim());
+                if (baseValues.length > 0 && currentValues.length > 0) {
+                    comparisons.add(new Comparison(entry.getKey(), metric.trim(), baseValues, currentValues));
+                }
+            }
+        }
+
+        System.out.printf("%-44s %-24s %14s %14s %9s %8s%n",
+            "Конфигурация", "Метрика", "baseline", "текущее", "Δ", "p");
+        int regressions = 0;
+        for (Comparison c : comparisons) {
+            System.out.printf(Locale.ROOT, "%-44s %-24s %14.2f %14.2f %+8.1f%% %8s %s%n",
+                c.configuration, c.metric, c.baselineMedian, c.currentMedian, c.changePct,
+                Double.isNaN(c.pValue) ? "-" : String.format(Locale.ROOT, "%.3f", c.pValue),
+                c.regression ? "✗ РЕГРЕССИЯ" : (c.hasEnoughRepetitions() ? "✓" : "✓ (мало повторов)"));
+            if (c.regression) {
+                regressions++;
+            }
+        }
+
+        System.out.println();
+        if (comparisons.isEmpty()) {
+            System.out.println("Нет общих конфигураций для сравнения");
+            return true;
+        }
+        if (regressions > 0) {
+            System.out.printf("✗ Найдено регрессий: %d%n", regressions);
+            return false;
+        }
+        System.out.println("✓ Регрессий нет");
+        return true;
+    }
+
+    static boolean isHigherBetter(String metric) {
+        return metric.startsWith("throughput") || metric.endsWith("_per_sec") && !metric.startsWith("allocation");
+    }
+
+    private static Map<String, List<StoredResult>> group(List<StoredResult> results) {
+        Map<String, List<StoredResult>> byConfig = new TreeMap<>();
+        for (StoredResult result : results) {
+            byConfig.computeIfAbsent(result.configurationKey(), k -> new ArrayList<>()).add(result);
+        }
+        return byConfig;
+    }
+
+    private static double[] values(List<StoredResult> results, String metric) {
+        return results.stream()
+            .mapToDouble(r -> r.getMetric(metric))
+            .filter(v -> !Double.isNaN(v))
+            .toArray();
+    }
+
+    private static double median(double[] values) {
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        int mid = sorted.length / 2;
+        return sorted.length % 2 == 1 ? sorted[mid] : (sorted[mid - 1] + sorted[mid]) / 2;
+    }
+
+    private static String javaVersions(List<StoredResult> results) {
+        return String.join(", ", results.stream().map(StoredResult::getJavaVersion).distinct().sorted()
+            .toArray(String[]::new));
+    }
+}
@@ -0,0 +1,215 @@
+package ru.sin.gc.comparison;
+
+import ru.sin.gc.monitoring.GcPauseRecorder;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Единая модель результата для всех бенчмарков сравнения GC
+ *
+ * Человекочитаемый отчет бенчмарков локализован и меняется вместе с кодом,
+ * поэтому для CI/дашбордов каждый бенчмарк дополнительно заполняет этот объект:
+ * - окружение: бенчмарк, GC, heap, число CPU, версия Java
+ * - throughput (операций или запросов в секунду)
+ * - latency percentiles (μs), если бенчмарк их меряет
+ * - паузы GC: количество, суммарно, p99, max
+ * - allocation rate и GC overhead (доля времени в STW паузах)
+ *
+ * Метрики, которые бенчмарк не меряет, остаются NaN (null в JSON, пусто в CSV).
+ * Специфичные для бенчмарка значения - в extras.
+ *
+ * Использование:
+ *   gcPauses.reset();
+ *   BenchmarkResult result = BenchmarkResult.start("latency", gcPauses);
+ *   ... замер ...
+ *   result.setThroughput(reqPerSec);
+ *   result.setLatency(histogram);
+ *   result.finish().publish();
+ */
+public class BenchmarkResult {
+
+    private final String benchmark;
+    private final GcPauseRecorder gcPauses;
+    private final Instant timestamp = Instant.now();
+    private final long startNanos = System.nanoTime();
+
+    private final String gc = detectGcName();
+    private final long heapMaxMb = Runtime.getRuntime().maxMemory() / 1024 / 1024;
+    private final long heapInitMb = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getInit() / 1024 / 1024;
+    private final int cpus = Runtime.getRuntime().availableProcessors();
+    private final String javaVersion = System.getProperty("java.version");
+
+    private double elapsedSec = Double.NaN;
+    private double throughput = Double.NaN;
+    private double p50Us = Double.NaN;
+    private double p99Us = Double.NaN;
+    private double p999Us = Double.NaN;
+    private double maxUs = Double.NaN;
+    private long gcCount;
+    private double gcPauseTotalMs = Double.NaN;
+    private double gcPauseP99Ms = Double.NaN;
+    private double gcPauseMaxMs = Double.NaN;
+    private double allocationMbPerSec = Double.NaN;
+    private double gcOverheadPct = Double.NaN;
+    private final Map<String, Double> extras = new LinkedHashMap<>();
+
+    private BenchmarkResult(String benchmark, GcPauseRecorder gcPauses) {
+        this.benchmark = benchmark;
+        this.gcPauses = gcPauses;
+    }
+
+    /**
+     * Начать замер. Вызывать сразу после прогрева и gcPauses.reset():
+     * паузы и аллокации берутся из gcPauses с момента reset().
+     */
+    public static BenchmarkResult start(String benchmark, GcPauseRecorder gcPauses) {
+        return new BenchmarkResult(benchmark, gcPauses);
+    }
+
+    public void setThroughput(double operationsPerSec) {
+        this.throughput = operationsPerSec;
+    }
+
+    /**
+     * Перцентили latency из гистограммы в наносекундах.
+     */
+    public void setLatency(LatencyHistogram histogram) {
+        if (histogram.getTotalCount() == 0) {
+            return;
+        }
+        this.p50Us = histogram.getValueAtPercentile(50) / 1000.0;
+        this.p99Us = histogram.getValueAtPercentile(99) / 1000.0;
+        this.p999Us = histogram.getValueAtPercentile(99.9) / 1000.0;
+        this.maxUs = histogram.getMax() / 1000.0;
+    }
+
+    public void setAllocationRate(double mbPerSec) {
+        this.allocationMbPerSec = mbPerSec;
+    }
+
+    public void putExtra(String metric, double value) {
+        extras.put(metric, value);
+    }
+
+    /**
+     * Завершить замер: время, статистика пауз, allocation rate (если не задан явно), GC overhead.
+     */
+    public BenchmarkResult finish() {
+        elapsedSec = (System.nanoTime() - startNanos) / 1e9;
+
+        gcCount = gcPauses.getPauseCount();
+        gcPauseTotalMs = gcPauses.getTotalPauseMs();
+        LatencyHistogram pauses = gcPauses.getPauseDurations();
+        gcPauseP99Ms = pauses.getTotalCount() > 0 ? pauses.getValueAtPercentile(99) / 1e6 : 0;
+        gcPauseMaxMs = pauses.getTotalCount() > 0 ? pauses.getMax() / 1e6 : 0;
+        gcOverheadPct = elapsedSec > 0 ? gcPauseTotalMs / 10.0 / elapsedSec : Double.NaN;
+
+        if (Double.isNaN(allocationMbPerSec) && elapsedSec > 0) {
+            allocationMbPerSec = gcPauses.getAllocatedBytes() / 1024.0 / 1024.0 / elapsedSec;
+        }
+        return this;
+    }
+
+    /**
+     * Отдать результат: строки @@result для оркестратора (-Dbenchmark.pipe=true)
+     * и запись в JSON Lines / CSV (-Dbenchmark.results=каталог).
+     */
+    public void publish() {
+        for (Map.Entry<String, Double> metric : metrics().entrySet()) {
+            if (!Double.isNaN(metric.getValue())) {
+                ResultPipe.emit(metric.getKey(), metric.getValue());
+            }
+        }
+        BenchmarkResultWriter.fromSystemProperties().write(this);
+    }
+
+    /**
+     * Стандартные метрики и extras в фиксированном порядке (имена - ключи JSON, колонки CSV).
+     */
+    public Map<String, Double> metrics() {
+        Map<String, Double> metrics = new LinkedHashMap<>();
+        metrics.put("elapsed_sec", elapsedSec);
+        metrics.put("throughput_ops_per_sec", throughput);
+        metrics.put("p50_us", p50Us);
+        metrics.put("p99_us", p99Us);
+        metrics.put("p999_us", p999Us);
+        metrics.put("max_us", maxUs);
+        metrics.put("gc_count", (double) gcCount);
+        metrics.put("gc_pause_total_ms", gcPauseTotalMs);
+        metrics.put("gc_pause_p99_ms", gcPauseP99Ms);
+        metrics.put("gc_pause_max_ms", gcPauseMaxMs);
+        metrics.put("allocation_mb_per_sec", allocationMbPerSec);
+        metrics.put("gc_overhead_pct", gcOverheadPct);
+        metrics.putAll(extras);
+        return metrics;
+    }
+
+    public String getBenchmark() {
+        return benchmark;
+    }
+
+    public String getGc() {
+        return gc;
+    }
+
+    public Instant getTimestamp() {
+        return timestamp;
+    }
+
+    public long getHeapMaxMb() {
+        return heapMaxMb;
+    }
+
+    public long getHeapInitMb() {
+        return heapInitMb;
+    }
+
+    public int getCpus() {
+        return cpus;
+    }
+
+    public String getJavaVersion() {
+        return javaVersion;
+    }
+
+    public Map<String, Double> getExtras() {
+        return Collections.unmodifiableMap(extras);
+    }
+
+    /**
+     * Короткое имя GC по именам коллекторов (Serial, Parallel, G1, ZGC, Shenandoah).
+     */
+    static String detectGcName() {
+        List<String> names = new ArrayList<>();
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            names.add(bean.getName());
+        }
+        String joined = String.join(",", names);
+        if (joined.contains("G1")) {
+            return "G1";
+        }
+        if (joined.contains("ZGC")) {
+            return "ZGC";
+        }
+        if (joined.contains("Shenandoah")) {
+            return "Shenandoah";
+        }
+        if (joined.contains("PS Scavenge") || joined.contains("PS MarkSweep")) {
+            return "Parallel";
+        }
+        if (joined.contains("Copy") || joined.contains("MarkSweepCompact")) {
+            return "Serial";
+        }
+        if (joined.contains("Epsilon") || names.isEmpty()) {
+            return "Epsilon";
+        }
+        return joined;
+    }
+}
@@ -0,0 +1,206 @@
+package ru.sin.gc.comparison;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Чтение результатов, записанных BenchmarkResultWriter (results.jsonl)
+ *
+ * Понимает ровно тот плоский JSON, который пишет writer: строки, числа и null
+ * на одном уровне вложенности. Числовые поля становятся метриками, строковые -
+ * описанием окружения.
+ */
+public class BenchmarkResultReader {
+
+    /**
+     * Одна строка results.jsonl.
+     */
+    public static class StoredResult {
+        private final Map<String, String> attributes;
+        private final Map<String, Double> metrics;
+
+        StoredResult(Map<String, String> attributes, Map<String, Double> metrics) {
+            this.attributes = attributes;
+            this.metrics = metrics;
+        }
+
+        public String getBenchmark() {
+            return attributes.getOrDefault("benchmark", "?");
+        }
+
+        public String getGc() {
+            return attributes.getOrDefault("gc", "?");
+        }
+
+        public String getJavaVersion() {
+            return attributes.getOrDefault("java_version", "?");
+        }
+
+        /**
+         * Идентификатор запуска: время записи и конфигурация. Одинаков у строки в
+         * результатах и ее копии в baseline - по нему ищутся пересечения.
+         */
+        public String runKey() {
+            return attributes.getOrDefault("timestamp", "?") + " " + configurationKey();
+        }
+
+        /**
+         * Конфигурация, которую имеет смысл сравнивать между запусками.
+         * Версия Java в ключ не входит - сравнение разных JDK и есть основной сценарий.
+         */
+        public String configurationKey() {
+            return getBenchmark() + " / " + getGc()
+                + " / heap " + formatLong(metrics.get("heap_max_mb")) + "MB"
+                + " / " + formatLong(metrics.get("cpus")) + " CPU";
+        }
+
+        /**
+         * Значение метрики или NaN, если ее нет в записи.
+         */
+        public double getMetric(String name) {
+            Double value = metrics.get(name);
+            return value == null ? Double.NaN : value;
+        }
+
+        private static String formatLong(Double value) {
+            return value == null ? "?" : String.valueOf(value.longValue());
+        }
+    }
+
+    private BenchmarkResultReader() {
+    }
+
+    /**
+     * Все results.jsonl в каталоге (рекурсивно, например каталоги compare_* оркестратора)
+     * или один файл.
+     */
+    public static List<StoredResult> load(Path path) {
+        try {
+            List<StoredResult> results = new ArrayList<>();
+            for (Path file : findResultFiles(path)) {
+                for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                    if (!line.isBlank()) {
+                        results.add(parse(line));
+                    }
+                }
+            }
+            return results;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Не удалось прочитать результаты из " + path, e);
+        }
+    }
+
+    /**
+     * Файлы results.jsonl: сам path, если это файл, иначе поиск по каталогу.
+     */
+    public static List<Path> findResultFiles(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return List.of();
+        }
+        if (!Files.isDirectory(path)) {
+            return List.of(path);
+        }
+        try (Stream<Path> walk = Files.walk(path)) {
+            return walk
+                .filter(p -> p.getFileName().toString().equals(BenchmarkResultWriter.JSONL_FILE))
+                .sorted()
+                .collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Разобрать одну строку JSON Lines.
+     */
+    public static StoredResult parse(String json) {
+        Map<String, String> attributes = new LinkedHashMap<>();
+        Map<String, Double> metrics = new LinkedHashMap<>();
+
+        int[] pos = {skipWhitespace(json, 0)};
+        expect(json, pos, '{');
+        while (true) {
+            pos[0] = skipWhitespace(json, pos[0]);
+            if (json.charAt(pos[0]) == '}') {
+                break;
+            }
+            String key = readString(json, pos);
+            pos[0] = skipWhitespace(json, pos[0]);
+            expect(json, pos, ':');
+            pos[0] = skipWhitespace(json, pos[0]);
+
+            char c = json.charAt(pos[0]);
+            if (c == '"') {
+                attributes.put(key, readString(json, pos));
+            } else if (json.startsWith("null", pos[0])) {
+                pos[0] += 4;
+            } else {
+                int start = pos[0];
+                while (pos[0] < json.length() && "+-0123456789.eE".indexOf(json.charAt(pos[0])) >= 0) {
+                    pos[0]++;
+                }
+                metrics.put(key, Double.parseDouble(json.substring(start, pos[0])));
+            }
+
+            pos[0] = skipWhitespace(json, pos[0]);
+            if (json.charAt(pos[0]) == ',') {
+                pos[0]++;
+            }
+        }
+        return new StoredResult(attributes, metrics);
+    }
+
+    private static String readString(String json, int[] pos) {
+        expect(json, pos, '"');
+        StringBuilder sb = new StringBuilder();
+        while (true) {
+            char c = json.charAt(pos[0]++);
+            if (c == '"') {
+                return sb.toString();
+            }
+            if (c != '\\') {
+                sb.append(c);
+                continue;
+            }
+            char escaped = json.charAt(pos[0]++);
+            switch (escaped) {
+                case 'n':
+                    sb.append('\n');
+                    break;
+                case 'r':
+                    sb.append('\r');
+                    break;
+                case 't':
+                    sb.append('\t');
+                    break;
+                case 'u':
+                    sb.append((char) Integer.parseInt(json.substring(pos[0], pos[0] + 4), 16));
+                    pos[0] += 4;
+                    break;
+                default:
+                    sb.append(escaped);
+            }
+        }
+    }
+
+    private static void expect(String json, int[] pos, char expected) {
+        if (pos[0] >= json.length() || json.charAt(pos[0]) != expected) {
+            throw new IllegalArgumentException("Ожидался '" + expected + "' в позиции " + pos[0] + ": " + json);
+        }
+        pos[0]++;
+    }
+
+    private static int skipWhitespace(String json, int pos) {
+        while (pos < json.length() && Character.isWhitespace(json.charAt(pos))) {
+            pos++;
+        }
+        return pos;
+    }
+}
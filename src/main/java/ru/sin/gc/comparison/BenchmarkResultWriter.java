@@ -0,0 +1,179 @@
+package ru.sin.gc.comparison;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Запись BenchmarkResult в машиночитаемом виде
+ *
+ * В каталог из -Dbenchmark.results=<каталог> дописываются:
+ * - results.jsonl             - по одному JSON объекту на запуск (все бенчмарки)
+ * - results_<бенчмарк>.csv    - таблица по бенчмарку, заголовок пишется при создании
+ *
+ * Файлы только дописываются, поэтому ночные запуски накапливаются в одном месте
+ * и сравниваются между собой. В один каталог могут писать несколько JVM сразу
+ * (GcComparisonRunner с compare.parallel > 1), поэтому запись идет под
+ * FileLock на .results.lock: иначе две JVM обе видят, что CSV еще нет, и
+ * заголовок попадает в таблицу дважды.
+ *
+ * Без свойства запись выключена.
+ */
+public class BenchmarkResultWriter {
+
+    public static final String RESULTS_PROPERTY = "benchmark.results";
+    public static final String JSONL_FILE = "results.jsonl";
+    private static final String LOCK_FILE = ".results.lock";
+
+    private static final List<String> ENVIRONMENT_COLUMNS =
+        List.of("timestamp", "benchmark", "gc", "heap_max_mb", "heap_init_mb", "cpus", "java_version");
+
+    private final Path directory;
+
+    BenchmarkResultWriter(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Writer по -Dbenchmark.results, либо выключенный writer.
+     */
+    public static BenchmarkResultWriter fromSystemProperties() {
+        String dir = System.getProperty(RESULTS_PROPERTY);
+        return new BenchmarkResultWriter(dir == null || dir.isBlank() ? null : Path.of(dir));
+    }
+
+    public boolean isEnabled() {
+        return directory != null;
+    }
+
+    public void write(BenchmarkResult result) {
+        if (!isEnabled()) {
+            return;
+        }
+        try {
+            Files.createDirectories(directory);
+            try (FileChannel lock = FileChannel.open(directory.resolve(LOCK_FILE),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                // Лок между процессами; снимается при закрытии канала
+                lock.lock();
+                append(directory.resolve(JSONL_FILE), toJson(result) + "\n");
+                writeCsv(result);
+            }
+            System.out.println("\nРезультат записан в " + directory.resolve(JSONL_FILE));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Не удалось записать результат в " + directory, e);
+        }
+    }
+
+    private void writeCsv(BenchmarkResult result) throws IOException {
+        Map<String, Double> metrics = result.metrics();
+        List<String> columns = new ArrayList<>(ENVIRONMENT_COLUMNS);
+        columns.addAll(metrics.keySet());
+        String header = String.join(",", columns);
+
+        Path file = directory.resolve("results_" + result.getBenchmark() + ".csv");
+        if (Files.exists(file)) {
+            String existingHeader;
+            try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                existingHeader = reader.readLine();
+            }
+            if (!header.equals(existingHeader)) {
+                // Набор метрик изменился - не смешиваем разные колонки в одной таблице
+                file = directory.resolve("results_" + result.getBenchmark() + "_"
+                    + result.getTimestamp().toEpochMilli() + ".csv");
+            }
+        }
+        if (!Files.exists(file)) {
+            append(file, header + "\n");
+        }
+
+        List<String> row = new ArrayList<>();
+        row.add(result.getTimestamp().toString());
+        row.add(csv(result.getBenchmark()));
+        row.add(csv(result.getGc()));
+        row.add(String.valueOf(result.getHeapMaxMb()));
+        row.add(String.valueOf(result.getHeapInitMb()));
+        row.add(String.valueOf(result.getCpus()));
+        row.add(csv(result.getJavaVersion()));
+        for (double value : metrics.values()) {
+            row.add(Double.isNaN(value) ? "" : number(value));
+        }
+        append(file, String.join(",", row) + "\n");
+    }
+
+    static String toJson(BenchmarkResult result) {
+        StringBuilder sb = new StringBuilder("{");
+        sb.append("\"timestamp\":").append(json(result.getTimestamp().toString()));
+        sb.append(",\"benchmark\":").append(json(result.getBenchmark()));
+        sb.append(",\"gc\":").append(json(result.getGc()));
+        sb.append(",\"heap_max_mb\":").append(result.getHeapMaxMb());
+        sb.append(",\"heap_init_mb\":").append(result.getHeapInitMb());
+        sb.append(",\"cpus\":").append(result.getCpus());
+        sb.append(",\"java_version\":").append(json(result.getJavaVersion()));
+        for (Map.Entry<String, Double> metric : result.metrics().entrySet()) {
+            double value = metric.getValue();
+            sb.append(',').append(json(metric.getKey())).append(':')
+                .append(Double.isNaN(value) || Double.isInfinite(value) ? "null" : number(value));
+        }
+        return sb.append('}').toString();
+    }
+
+    private static String number(double value) {
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            return String.valueOf((long) value);
+        }
+        return String.format(Locale.ROOT, "%.6f", value);
+    }
+
+    private static String json(String value) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    private static String csv(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) {
+            return value;
+        }
+        return "\"" + value.replace("\"", "\"\"") + "\"";
+    }
+
+    private static void append(Path file, String text) throws IOException {
+        Files.writeString(file, text, StandardCharsets.UTF_8,
+            StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+}
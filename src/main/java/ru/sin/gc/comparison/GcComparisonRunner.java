@@ -0,0 +1,415 @@
+package ru.sin.gc.comparison;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Оркестратор сравнения GC (замена scripts/compare_gc.sh)
+ *
+ * Для каждой ячейки матрицы бенчмарк × GC × heap × число ядер запускает
+ * отдельную дочернюю JVM (несколько повторов), собирает метрики через
+ * ResultPipe и печатает сравнительную таблицу: среднее ± 95% доверительный
+ * интервал (t-распределение по повторам).
+ *
+ * Дочерние JVM:
+ * - получают -XX:ActiveProcessorCount=N, чтобы GC и пулы видели заданное число ядер
+ * - на Linux (если есть taskset) привязываются к непересекающимся наборам CPU,
+ *   поэтому ячейки можно запускать параллельно без борьбы за ядра
+ * - пишут полный вывод, GC лог и results.jsonl/CSV (BenchmarkResultWriter)
+ *   в gc_benchmarks/compare_<время>/
+ *
+ * Параметры (системные свойства, из Gradle: -PcompareBenchmarks=... и т.д.):
+ *   compare.benchmarks  throughput,latency,mixed,allocation  (или all)
+ *   compare.gcs         serial,parallel,g1,zgc
+ *   compare.heaps       2g
+ *   compare.cores       число ядер на JVM, список (по умолчанию - все)
+ *   compare.reps        повторов на ячейку (по умолчанию 3)
+ *   compare.parallel    сколько JVM одновременно (по умолчанию 1)
+ *
+ * Параллельные ячейки делят кэш L3 и пропускную способность памяти - для
+ * чистых абсолютных цифр оставляйте compare.parallel=1, для быстрого
+ * сравнения относительного порядка GC параллельного запуска достаточно.
+ */
+public class GcComparisonRunner {
+
+    private static final Map<String, String> BENCHMARKS = new LinkedHashMap<>();
+    private static final Map<String, List<String>> GC_ARGS = new LinkedHashMap<>();
+
+    static {
+        BENCHMARKS.put("throughput", ThroughputBenchmark.class.getName());
+        BENCHMARKS.put("latency", LatencyBenchmark.class.getName());
+        BENCHMARKS.put("mixed", MixedWorkloadBenchmark.class.getName());
+        BENCHMARKS.put("allocation", AllocationBenchmark.class.getName());
+
+        GC_ARGS.put("serial", List.of("-XX:+UseSerialGC"));
+        GC_ARGS.put("parallel", List.of("-XX:+UseParallelGC"));
+        GC_ARGS.put("g1", List.of("-XX:+UseG1GC", "-XX:MaxGCPauseMillis=100"));
+        GC_ARGS.put("zgc", List.of("-XX:+UseZGC"));
+    }
+
+    private static final int CPUS = Runtime.getRuntime().availableProcessors();
+
+    private static final List<String> BENCHMARK_NAMES =
+        listProperty("compare.benchmarks", "throughput,latency,mixed,allocation");
+    private static final List<String> GC_NAMES = listProperty("compare.gcs", "serial,parallel,g1,zgc");
+    private static final List<String> HEAPS = listProperty("compare.heaps", "2g");
+    private static final List<String> CORES = listProperty("compare.cores", String.valueOf(CPUS));
+    private static final int REPETITIONS = Integer.getInteger("compare.reps", 3);
+    private static final int PARALLEL = Integer.getInteger("compare.parallel", 1);
+
+    private static final Path RESULTS_DIR = Path.of("gc_benchmarks");
+
+    /**
+     * Одна ячейка матрицы сравнения.
+     */
+    static final class Cell {
+        final String benchmark;
+        final String gc;
+        final String heap;
+        final int cores;
+
+        // метрика -> значения по повторам (в порядке завершения)
+        final Map<String, List<Double>> samples = new LinkedHashMap<>();
+        int failedRuns;
+
+        Cell(String benchmark, String gc, String heap, int cores) {
+            this.benchmark = benchmark;
+            this.gc = gc;
+            this.heap = heap;
+            this.cores = cores;
+        }
+
+        String id() {
+            return benchmark + "_" + gc + "_" + heap + "_" + cores + "c";
+        }
+
+        synchronized void addRun(Map<String, Double> metrics) {
+            for (Map.Entry<String, Double> e : metrics.entrySet()) {
+                samples.computeIfAbsent(e.getKey(), k -> new ArrayList<>()).add(e.getValue());
+            }
+        }
+
+        synchronized void addFailure() {
+            failedRuns++;
+        }
+    }
+
+    /**
+     * Раздает непересекающиеся наборы CPU параллельно работающим JVM.
+     */
+    static final class CpuAllocator {
+        private final BitSet free = new BitSet();
+
+        CpuAllocator(int cpus) {
+            free.set(0, cpus);
+        }
+
+        synchronized int[] acquire(int count) throws InterruptedException {
+            while (free.cardinality() < count) {
+                wait();
+            }
+            int[] cpus = new int[count];
+            int cpu = -1;
+            for (int i = 0; i < count; i++) {
+                cpu = free.nextSetBit(cpu + 1);
+                cpus[i] = cpu;
+                free.clear(cpu);
+            }
+            return cpus;
+        }
+
+        synchronized void release(int[] cpus) {
+            for (int cpu : cpus) {
+                free.set(cpu);
+            }
+            notifyAll();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("=== GC Comparison Runner ===");
+        System.out.println("Java: " + System.getProperty("java.version"));
+
+        List<Cell> cells = buildMatrix();
+        if (cells.isEmpty()) {
+            System.out.println("Нет ячеек для запуска - проверьте compare.* параметры");
+            return;
+        }
+
+        String timestamp = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss"));
+        Path runDir = RESULTS_DIR.resolve("compare_" + timestamp);
+        Files.createDirectories(runDir);
+
+        boolean pinning = tasksetAvailable();
+        System.out.println("Бенчмарки: " + BENCHMARK_NAMES);
+        System.out.println("GC: " + GC_NAMES + ", heap: " + HEAPS + ", ядер: " + CORES);
+        System.out.println("Ячеек: " + cells.size() + " × " + REPETITIONS + " повторов, параллельно: " + PARALLEL);
+        System.out.println("Привязка к CPU: " + (pinning ? "taskset" : "нет (только ActiveProcessorCount)"));
+        System.out.println("Логи: " + runDir);
+        System.out.println();
+
+        runAll(cells, runDir, pinning);
+
+        String report = formatReport(cells);
+        System.out.println();
+        System.out.println(report);
+
+        Path reportFile = RESULTS_DIR.resolve("comparison_" + timestamp + ".txt");
+        Files.writeString(reportFile, report, StandardCharsets.UTF_8);
+        System.out.println("Результаты сохранены в: " + reportFile);
+    }
+
+    private static List<Cell> buildMatrix() {
+        List<String> benchmarks = BENCHMARK_NAMES.contains("all")
+            ? new ArrayList<>(BENCHMARKS.keySet()) : BENCHMARK_NAMES;
+        int javaVersion = Runtime.version().feature();
+
+        List<Cell> cells = new ArrayList<>();
+        for (String benchmark : benchmarks) {
+            if (!BENCHMARKS.containsKey(benchmark)) {
+                throw new IllegalArgumentException("Неизвестный бенчмарк: " + benchmark
+                    + " (доступны: " + BENCHMARKS.keySet() + ")");
+            }
+            for (String gc : GC_NAMES) {
+                if (!GC_ARGS.containsKey(gc)) {
+                    throw new IllegalArgumentException("Неизвестный GC: " + gc + " (доступны: " + GC_ARGS.keySet() + ")");
+                }
+                if (gc.equals("zgc") && javaVersion < 15) {
+                    System.out.println("⚠️  ZGC требует Java 15+, пропускаем");
+                    continue;
+                }
+                for (String heap : HEAPS) {
+                    for (String cores : CORES) {
+                        int n = Integer.parseInt(cores);
+                        if (n <= 0 || n > CPUS) {
+                            throw new IllegalArgumentException("Число ядер вне диапазона 1.." + CPUS + ": " + n);
+                        }
+                        cells.add(new Cell(benchmark, gc, heap, n));
+                    }
+                }
+            }
+        }
+        return cells;
+    }
+
+    private static void runAll(List<Cell> cells, Path runDir, boolean pinning)
+            throws InterruptedException, ExecutionException {
+        CpuAllocator cpus = new CpuAllocator(CPUS);
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, PARALLEL));
+        List<Future<?>> futures = new ArrayList<>();
+
+        // Повторы чередуются по ячейкам: медленный дрейф машины (нагрев, фоновые
+        // процессы) размазывается по всем ячейкам, а не смещает одну
+        for (int rep = 1; rep <= REPETITIONS; rep++) {
+            for (Cell cell : cells) {
+                int repetition = rep;
+                futures.add(executor.submit(() -> {
+                    int[] assigned = cpus.acquire(cell.cores);
+                    try {
+                        runOnce(cell, repetition, assigned, runDir, pinning);
+                    } finally {
+                        cpus.release(assigned);
+                    }
+                    return null;
+                }));
+            }
+        }
+
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+    }
+
+    private static void runOnce(Cell cell, int rep, int[] cpus, Path runDir, boolean pinning)
+            throws IOException, InterruptedException {
+        String runId = cell.id() + "_rep" + rep;
+        Path logFile = runDir.resolve(runId + ".log");
+        Path gcLogFile = runDir.resolve(runId + "_gc.log");
+
+        List<String> command = new ArrayList<>();
+        if (pinning) {
+            command.add("taskset");
+            command.add("-c");
+            command.add(cpuList(cpus));
+        }
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(GC_ARGS.get(cell.gc));
+        command.add("-Xmx" + cell.heap);
+        command.add("-Xms" + cell.heap);
+        command.add("-XX:ActiveProcessorCount=" + cell.cores);
+        command.add("-Xlog:gc:file=" + gcLogFile + ":time,uptime,level,tags");
+        command.add("-D" + ResultPipe.ENABLE_PROPERTY + "=true");
+        command.add("-D" + BenchmarkResultWriter.RESULTS_PROPERTY + "=" + runDir);
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(BENCHMARKS.get(cell.benchmark));
+
+        long start = System.nanoTime();
+        log("▶ " + runId + " (CPU " + cpuList(cpus) + ")");
+
+        Process process = new ProcessBuilder(command)
+            .redirectErrorStream(true)
+            .start();
+
+        Map<String, Double> metrics = new LinkedHashMap<>();
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+             PrintWriter out = new PrintWriter(Files.newBufferedWriter(logFile, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                out.println(line);
+                String[] result = ResultPipe.parse(line);
+                if (result != null) {
+                    metrics.put(result[0], Double.parseDouble(result[1]));
+                }
+            }
+        }
+
+        int exitCode = process.waitFor();
+        long elapsedSec = (System.nanoTime() - start) / 1_000_000_000;
+        if (exitCode != 0 || metrics.isEmpty()) {
+            cell.addFailure();
+            log("✗ " + runId + " завершился с кодом " + exitCode + ", см. " + logFile);
+        } else {
+            cell.addRun(metrics);
+            log("✓ " + runId + " за " + elapsedSec + " сек");
+        }
+    }
+
+    /**
+     * Сравнительная таблица: по блоку на бенчмарк, строка на ячейку, столбец на метрику.
+     */
+    static String formatReport(List<Cell> cells) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("=== Сравнение GC: среднее ± 95% CI по ").append(REPETITIONS).append(" повторам ===\n");
+
+        Map<String, List<Cell>> byBenchmark = new LinkedHashMap<>();
+        for (Cell cell : cells) {
+            byBenchmark.computeIfAbsent(cell.benchmark, k -> new ArrayList<>()).add(cell);
+        }
+
+        for (Map.Entry<String, List<Cell>> entry : byBenchmark.entrySet()) {
+            Set<String> metrics = new LinkedHashSet<>();
+            for (Cell cell : entry.getValue()) {
+                metrics.addAll(cell.samples.keySet());
+            }
+
+            sb.append("\n").append(entry.getKey()).append(":\n");
+            sb.append(String.format("%-26s", "GC / heap / ядра"));
+            for (String metric : metrics) {
+                sb.append(String.format(" %24s", metric));
+            }
+            sb.append("\n");
+
+            for (Cell cell : entry.getValue()) {
+                sb.append(String.format("%-26s", cell.gc + " / " + cell.heap + " / " + cell.cores));
+                for (String metric : metrics) {
+                    List<Double> values = cell.samples.get(metric);
+                    sb.append(String.format(" %24s", values == null ? "-" : formatMeanCi(values)));
+                }
+                if (cell.failedRuns > 0) {
+                    sb.append("  (ошибок: ").append(cell.failedRuns).append(")");
+                }
+                sb.append("\n");
+            }
+        }
+        return sb.toString();
+    }
+
+    static String formatMeanCi(List<Double> values) {
+        int n = values.size();
+        double mean = 0;
+        for (double v : values) {
+            mean += v;
+        }
+        mean /= n;
+        if (n < 2) {
+            return String.format(Locale.ROOT, "%.2f", mean);
+        }
+
+        double sumSq = 0;
+        for (double v : values) {
+            sumSq += (v - mean) * (v - mean);
+        }
+        double stdDev = Math.sqrt(sumSq / (n - 1));
+        double halfWidth = tQuantile975(n - 1) * stdDev / Math.sqrt(n);
+        return String.format(Locale.ROOT, "%.2f ± %.2f", mean, halfWidth);
+    }
+
+    /**
+     * Квантиль 0.975 t-распределения Стьюдента (двусторонний 95% интервал).
+     * Повторов обычно единицы, поэтому нормальное приближение (1.96) заметно занижает интервал.
+     */
+    static double tQuantile975(int degreesOfFreedom) {
+        final double[] table = {
+            12.706, 4.303, 3.182, 2.776, 2.571, 2.447, 2.365, 2.306, 2.262, 2.228,
+            2.201, 2.179, 2.160, 2.145, 2.131, 2.120, 2.110, 2.101, 2.093, 2.086,
+            2.080, 2.074, 2.069, 2.064, 2.060, 2.056, 2.052, 2.048, 2.045, 2.042
+        };
+        if (degreesOfFreedom <= table.length) {
+            return table[degreesOfFreedom - 1];
+        }
+        return 1.96;
+    }
+
+    private static boolean tasksetAvailable() {
+        if (!System.getProperty("os.name").toLowerCase(Locale.ROOT).contains("linux")) {
+            return false;
+        }
+        for (String dir : System.getenv().getOrDefault("PATH", "").split(File.pathSeparator)) {
+            if (Files.isExecutable(Path.of(dir, "taskset"))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String cpuList(int[] cpus) {
+        StringBuilder sb = new StringBuilder();
+        for (int cpu : cpus) {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(cpu);
+        }
+        return sb.toString();
+    }
+
+    private static List<String> listProperty(String name, String defaultValue) {
+        List<String> values = new ArrayList<>();
+        for (String value : System.getProperty(name, defaultValue).split(",")) {
+            if (!value.isBlank()) {
+                values.add(value.trim().toLowerCase(Locale.ROOT));
+            }
+        }
+        return values;
+    }
+
+    private static synchronized void log(String message) {
+        System.out.printf("[%s] %s%n",
+            LocalDateTime.now().format(DateTimeFormatter.ofPattern("HH:mm:ss")), message);
+    }
+}
@@ -1,8 +1,10 @@
 package ru.sin.gc.comparison;
 
+import ru.sin.gc.monitoring.GcPauseRecorder;
+import ru.sin.gc.monitoring.JfrEventMonitor;
+
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
  * Latency Benchmark - оптимизация для минимальных пауз
@@ -19,12 +21,19 @@ public class LatencyBenchmark {
 
     private static final int WARMUP_DURATION_SEC = 5;
     private static final int BENCHMARK_DURATION_SEC = 30;
-    private static final int REQUEST_INTERVAL_MICROS = 100; // 10,000 req/sec
+
+    // Суммарная нагрузка и число потоков: -Dlatency.rate=100000 -Dlatency.threads=8
+    private static final long TARGET_RATE = Long.getLong("latency.rate", 10_000); // req/sec
+    private static final int THREADS = Integer.getInteger("latency.threads", 1);
 
     // Размер "запроса" - будет аллоцировать память
     private static final int REQUEST_SIZE = 10; // объектов на запрос
 
-    private static final ConcurrentLinkedQueue<Long> latencies = new ConcurrentLinkedQueue<>();
+    // Каждая реальная сборка мусора - для сопоставления со всплесками latency
+    private static final GcPauseRecorder gcPauses = GcPauseRecorder.install();
+
+    // Живые JFR метрики по интервалам (-Dbenchmark.jfr=true)
+    private static final JfrEventMonitor jfr = JfrEventMonitor.create();
 
     static class Request {
         private final long startTime;
@@ -67,127 +76,125 @@ public class LatencyBenchmark {
         System.out.println("=== Latency Benchmark ===");
         System.out.println("GC: " + getGCName());
         System.out.println("Heap: " + Runtime.getRuntime().maxMemory() / 1024 / 1024 + " MB");
+        System.out.printf("Нагрузка: %,d req/sec, потоков: %d (CPU: %d)%n",
+            TARGET_RATE, THREADS, Runtime.getRuntime().availableProcessors());
         System.out.println("\nЦель: Минимизировать latency (время отклика)");
         System.out.println("Throughput вторичен.\n");
 
         // Прогрев
         System.out.println("Прогрев JVM (" + WARMUP_DURATION_SEC + " сек)...");
         runBenchmark(WARMUP_DURATION_SEC, false);
-        latencies.clear();
+        gcPauses.reset();
+        BenchmarkResult result = BenchmarkResult.start("latency", gcPauses);
 
         // Бенчмарк
         System.out.println("\nЗапуск бенчмарка (" + BENCHMARK_DURATION_SEC + " сек)...");
-        long totalRequests = runBenchmark(BENCHMARK_DURATION_SEC, true);
+        MultiThreadedLoadDriver driver = runBenchmark(BENCHMARK_DURATION_SEC, true);
+        result.finish();
 
         // Анализ результатов
-        analyzeResults(totalRequests);
+        analyzeResults(driver, result);
+        jfr.printSummary();
+        jfr.close();
     }
 
-    private static long runBenchmark(int durationSec, boolean collect) throws InterruptedException {
-        long startTime = System.nanoTime();
-        long endTime = startTime + (durationSec * 1_000_000_000L);
-        long requestCount = 0;
-        long nextRequestTime = startTime;
-
-        while (System.nanoTime() < endTime) {
-            // Ожидаем следующего "запроса"
-            long now = System.nanoTime();
-            if (now < nextRequestTime) {
-                long sleepNanos = nextRequestTime - now;
-                if (sleepNanos > 1000) {
-                    Thread.sleep(sleepNanos / 1_000_000, (int) (sleepNanos % 1_000_000));
-                }
-                continue;
-            }
-
+    private static MultiThreadedLoadDriver runBenchmark(int durationSec, boolean collect)
+            throws InterruptedException {
+        // Open-loop расписание: запросы "приходят" с заданной частотой
+        // независимо от того, успели ли мы обработать предыдущие.
+        // Каждый поток пишет latency в свою гистограмму.
+        MultiThreadedLoadDriver driver = new MultiThreadedLoadDriver(TARGET_RATE, THREADS, () -> {
             // Обрабатываем запрос
             Request req = new Request();
             Response resp = req.process();
+            return resp.getLatencyNanos();
+        });
 
-            if (collect) {
-                latencies.add(resp.getLatencyNanos());
-            }
-
-            requestCount++;
-            nextRequestTime += REQUEST_INTERVAL_MICROS * 1000; // в наносекундах
-
-            // Периодический вывод прогресса
-            if (collect && requestCount % 10000 == 0) {
-                long elapsed = (System.nanoTime() - startTime) / 1_000_000_000;
-                System.out.printf("  %d сек: %,d запросов обработано%n", elapsed, requestCount);
-            }
-        }
-
-        return requestCount;
+        // Периодический вывод прогресса
+        driver.setProgressListener(jfr::printInterval);
+        driver.run(durationSec, collect, collect ? 5000 : 0);
+        return driver;
     }
 
-    private static void analyzeResults(long totalRequests) {
+    private static void analyzeResults(MultiThreadedLoadDriver driver, BenchmarkResult result) {
         System.out.println("\n" + "=".repeat(60));
         System.out.println("РЕЗУЛЬТАТЫ");
         System.out.println("=".repeat(60));
 
-        List<Long> sortedLatencies = new ArrayList<>(latencies);
-        sortedLatencies.sort(Long::compareTo);
-
-        long sum = 0;
-        for (Long latency : sortedLatencies) {
-            sum += latency;
-        }
-
-        double avgLatency = sum / (double) sortedLatencies.size();
-        long p50 = sortedLatencies.get(sortedLatencies.size() / 2);
-        long p90 = sortedLatencies.get((int) (sortedLatencies.size() * 0.90));
-        long p95 = sortedLatencies.get((int) (sortedLatencies.size() * 0.95));
-        long p99 = sortedLatencies.get((int) (sortedLatencies.size() * 0.99));
-        long p999 = sortedLatencies.get((int) (sortedLatencies.size() * 0.999));
-        long max = sortedLatencies.get(sortedLatencies.size() - 1);
+        long totalRequests = driver.getCompletedRequests();
+        LatencyHistogram latencies = driver.getCorrected();
+        LatencyHistogram uncorrected = driver.getUncorrected();
 
         System.out.printf("Всего запросов: %,d%n", totalRequests);
-        System.out.printf("Throughput: %,.0f req/sec%n", totalRequests / (double) BENCHMARK_DURATION_SEC);
+        System.out.printf("Throughput: %,.0f req/sec (цель: %,d req/sec, потоков: %d)%n",
+            totalRequests / (double) BENCHMARK_DURATION_SEC, driver.getAggregateRate(), driver.getThreads());
+        System.out.printf("Запросов с отставанием от расписания: %,d (макс. отставание %.2f ms)%n",
+            driver.getLateRequests(), driver.getMaxLagNanos() / 1_000_000.0);
 
+        // corrected - от запланированного времени отправки (учитывает ожидание во время GC паузы)
+        // uncorrected - только время обработки (coordinated omission занижает хвосты)
         System.out.println("\nLatency (время отклика):");
-        System.out.printf("  avg:  %,8.2f μs%n", avgLatency / 1000.0);
-        System.out.printf("  p50:  %,8.2f μs%n", p50 / 1000.0);
-        System.out.printf("  p90:  %,8.2f μs%n", p90 / 1000.0);
-        System.out.printf("  p95:  %,8.2f μs%n", p95 / 1000.0);
-        System.out.printf("  p99:  %,8.2f μs  ← ВАЖНО для latency-sensitive!%n", p99 / 1000.0);
-        System.out.printf("  p999: %,8.2f μs%n", p999 / 1000.0);
-        System.out.printf("  max:  %,8.2f μs%n", max / 1000.0);
+        System.out.printf("        %14s %14s%n", "corrected", "uncorrected");
+        printLatencyRow("avg: ", latencies.getMean(), uncorrected.getMean(), "");
+        printLatencyRow("p50: ", latencies.getValueAtPercentile(50), uncorrected.getValueAtPercentile(50), "");
+        printLatencyRow("p90: ", latencies.getValueAtPercentile(90), uncorrected.getValueAtPercentile(90), "");
+        printLatencyRow("p95: ", latencies.getValueAtPercentile(95), uncorrected.getValueAtPercentile(95), "");
+        printLatencyRow("p99: ", latencies.getValueAtPercentile(99), uncorrected.getValueAtPercentile(99),
+            "  ← ВАЖНО для latency-sensitive!");
+        printLatencyRow("p999:", latencies.getValueAtPercentile(99.9), uncorrected.getValueAtPercentile(99.9), "");
+        printLatencyRow("max: ", latencies.getMax(), uncorrected.getMax(), "");
 
         // Подсчет запросов с high latency
         long highLatencyThreshold = 1_000_000; // 1ms
-        long highLatencyCount = sortedLatencies.stream()
-            .filter(l -> l > highLatencyThreshold)
-            .count();
+        long highLatencyCount = latencies.getCountAbove(highLatencyThreshold);
 
         System.out.printf("\nЗапросы с latency > 1ms: %,d (%.2f%%)%n",
             highLatencyCount,
-            (highLatencyCount * 100.0) / sortedLatencies.size());
+            (highLatencyCount * 100.0) / latencies.getTotalCount());
 
         // Анализ GC пауз
-        analyzeGCImpact(sortedLatencies);
+        analyzeGCImpact(latencies, driver.getOutliers());
+
+        result.setThroughput(totalRequests / (double) BENCHMARK_DURATION_SEC);
+        result.setLatency(latencies);
+        result.putExtra("uncorrected_p99_us", uncorrected.getValueAtPercentile(99) / 1000.0);
+        result.putExtra("late_requests", driver.getLateRequests());
+        result.putExtra("threads", driver.getThreads());
+        result.publish();
 
         printMemoryStats();
     }
 
-    private static void analyzeGCImpact(List<Long> sortedLatencies) {
-        // Ищем "всплески" latency (вероятно GC паузы)
-        long gcPauseThreshold = 10_000_000; // 10ms
-        long suspectedGCPauses = sortedLatencies.stream()
-            .filter(l -> l > gcPauseThreshold)
-            .count();
+    private static void printLatencyRow(String label, double correctedNanos, double uncorrectedNanos, String note) {
+        System.out.printf("  %s %,11.2f μs %,11.2f μs%s%n",
+            label, correctedNanos / 1000.0, uncorrectedNanos / 1000.0, note);
+    }
 
-        if (suspectedGCPauses > 0) {
-            System.out.printf("\nВозможные GC паузы (latency > 10ms): %,d (%.3f%%)%n",
-                suspectedGCPauses,
-                (suspectedGCPauses * 100.0) / sortedLatencies.size());
+    private static void analyzeGCImpact(LatencyHistogram histogram, LatencyOutliers outliers) {
+        // Всплески latency
+        long gcPauseThreshold = 10_000_000; // 10ms
+        long slowRequests = histogram.getCountAbove(gcPauseThreshold);
 
-            long maxGCPause = sortedLatencies.stream()
-                .filter(l -> l > gcPauseThreshold)
-                .max(Long::compareTo)
-                .orElse(0L);
+        if (slowRequests > 0) {
+            System.out.printf("\nЗапросы с latency > 10ms: %,d (%.3f%%)%n",
+                slowRequests,
+                (slowRequests * 100.0) / histogram.getTotalCount());
+        }
 
-            System.out.printf("Максимальная пауза: %.2f ms%n", maxGCPause / 1_000_000.0);
+        // Реальные паузы вместо догадок по latency
+        gcPauses.printSummary();
+
+        // Какая пауза стоит за каждым из самых медленных запросов
+        if (outliers.size() > 0) {
+            System.out.println("\nСамые медленные запросы и GC паузы в их интервале:");
+            for (int i : outliers.sortedIndices()) {
+                long latency = outliers.getLatency(i);
+                long end = outliers.getEndTime(i);
+                List<GcPauseRecorder.GcEvent> pauses = gcPauses.pausesOverlapping(end - latency, end);
+                System.out.printf("  %,10.2f ms  ← %s%n",
+                    latency / 1_000_000.0,
+                    pauses.isEmpty() ? "GC пауз нет" : pauses.toString());
+            }
         }
     }
 
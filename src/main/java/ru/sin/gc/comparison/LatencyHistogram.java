@@ -0,0 +1,231 @@
+package ru.sin.gc.comparison;
+
+import java.util.Arrays;
+
+/**
+ * Log-linear гистограмма latency без аллокаций на запись
+ *
+ * Значения раскладываются по логарифмическим "бакетам" (степени двойки),
+ * каждый из которых делится на линейные "под-бакеты". Это дает фиксированную
+ * относительную точность (significantDigits) во всем диапазоне значений
+ * при фиксированном размере памяти - один массив long[].
+ *
+ * Зачем:
+ * - record() - O(1), без boxing и без аллокаций (не засоряет heap во время замера)
+ * - память не растет с количеством запросов
+ * - гистограммы можно объединять (add) и копировать (copy) - снимки для отчетов
+ *
+ * Класс не потокобезопасен: каждый поток пишет в свою гистограмму,
+ * а для отчета они объединяются через add().
+ */
+public class LatencyHistogram {
+
+    private final long highestTrackableValue;
+    private final int significantDigits;
+
+    private final int subBucketHalfCountMagnitude;
+    private final int subBucketHalfCount;
+    private final long subBucketMask;
+    private final int leadingZeroCountBase;
+
+    private final long[] counts;
+
+    private long totalCount;
+    private long saturatedCount; // значения > highestTrackableValue
+    private long minValue = Long.MAX_VALUE;
+    private long maxValue;
+    private double sum;
+
+    /**
+     * @param highestTrackableValue максимальное отслеживаемое значение (например, в наносекундах)
+     * @param significantDigits     количество значащих десятичных цифр (1..5)
+     */
+    public LatencyHistogram(long highestTrackableValue, int significantDigits) {
+        if (significantDigits < 1 || significantDigits > 5) {
+            throw new IllegalArgumentException("significantDigits должно быть в диапазоне 1..5: " + significantDigits);
+        }
+        if (highestTrackableValue < 2) {
+            throw new IllegalArgumentException("highestTrackableValue должно быть >= 2: " + highestTrackableValue);
+        }
+        this.highestTrackableValue = highestTrackableValue;
+        this.significantDigits = significantDigits;
+
+        long largestValueWithSingleUnitResolution = 2 * (long) Math.pow(10, significantDigits);
+        int subBucketCountMagnitude = (int) Math.ceil(Math.log(largestValueWithSingleUnitResolution) / Math.log(2));
+        this.subBucketHalfCountMagnitude = subBucketCountMagnitude - 1;
+        int subBucketCount = 1 << subBucketCountMagnitude;
+        this.subBucketHalfCount = subBucketCount / 2;
+        this.subBucketMask = subBucketCount - 1;
+        this.leadingZeroCountBase = 64 - subBucketHalfCountMagnitude - 1;
+
+        // Сколько логарифмических бакетов нужно, чтобы покрыть highestTrackableValue
+        long smallestUntrackableValue = subBucketCount;
+        int bucketsNeeded = 1;
+        while (smallestUntrackableValue <= highestTrackableValue) {
+            if (smallestUntrackableValue > Long.MAX_VALUE / 2) {
+                bucketsNeeded++;
+                break;
+            }
+            smallestUntrackableValue <<= 1;
+            bucketsNeeded++;
+        }
+        this.counts = new long[(bucketsNeeded + 1) * subBucketHalfCount];
+    }
+
+    /**
+     * Гистограмма для latency в наносекундах: до 1 часа, 3 значащие цифры (~0.1%).
+     */
+    public static LatencyHistogram forNanos() {
+        return new LatencyHistogram(3_600_000_000_000L, 3);
+    }
+
+    /**
+     * Записать одно значение. O(1), без аллокаций.
+     * Значения больше highestTrackableValue учитываются как highestTrackableValue.
+     */
+    public void record(long value) {
+        recordCount(value, 1);
+    }
+
+    /**
+     * Записать значение count раз.
+     */
+    public void recordCount(long value, long count) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Отрицательное значение: " + value);
+        }
+        if (value > highestTrackableValue) {
+            saturatedCount += count;
+            value = highestTrackableValue;
+        }
+        counts[countsIndexFor(value)] += count;
+        totalCount += count;
+        sum += (double) value * count;
+        if (value < minValue) minValue = value;
+        if (value > maxValue) maxValue = value;
+    }
+
+    /**
+     * Добавить все значения другой гистограммы (с теми же параметрами).
+     */
+    public void add(LatencyHistogram other) {
+        if (other.counts.length != counts.length || other.significantDigits != significantDigits) {
+            throw new IllegalArgumentException("Гистограммы с разными параметрами нельзя объединить");
+        }
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        totalCount += other.totalCount;
+        saturatedCount += other.saturatedCount;
+        sum += other.sum;
+        if (other.totalCount > 0) {
+            minValue = Math.min(minValue, other.minValue);
+            maxValue = Math.max(maxValue, other.maxValue);
+        }
+    }
+
+    /**
+     * Снимок текущего состояния (независимая копия).
+     */
+    public LatencyHistogram copy() {
+        LatencyHistogram copy = new LatencyHistogram(highestTrackableValue, significantDigits);
+        copy.add(this);
+        return copy;
+    }
+
+    public void reset() {
+        Arrays.fill(counts, 0);
+        totalCount = 0;
+        saturatedCount = 0;
+        minValue = Long.MAX_VALUE;
+        maxValue = 0;
+        sum = 0;
+    }
+
+    /**
+     * Значение на заданном перцентиле (0..100).
+     * Возвращает верхнюю границу бакета, в котором лежит перцентиль,
+     * но не больше реального максимума.
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (totalCount == 0) {
+            return 0;
+        }
+        double requested = Math.min(Math.max(percentile, 0.0), 100.0);
+        long countAtPercentile = Math.max(1, (long) Math.ceil(requested / 100.0 * totalCount));
+
+        long cumulative = 0;
+        for (int i = 0; i < counts.length; i++) {
+            cumulative += counts[i];
+            if (cumulative >= countAtPercentile) {
+                long value = highestEquivalentValue(valueFromIndex(i));
+                return Math.max(Math.min(value, maxValue), minValue);
+            }
+        }
+        return maxValue;
+    }
+
+    /**
+     * Количество значений строго больше threshold (с точностью до бакета).
+     */
+    public long getCountAbove(long threshold) {
+        if (threshold >= maxValue) {
+            return 0;
+        }
+        long count = 0;
+        int startIndex = countsIndexFor(Math.min(threshold, highestTrackableValue));
+        // Бакет, содержащий threshold, считается "не выше" порога
+        for (int i = startIndex + 1; i < counts.length; i++) {
+            count += counts[i];
+        }
+        return count;
+    }
+
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+    public long getSaturatedCount() {
+        return saturatedCount;
+    }
+
+    public long getMin() {
+        return totalCount == 0 ? 0 : minValue;
+    }
+
+    public long getMax() {
+        return maxValue;
+    }
+
+    public double getMean() {
+        return totalCount == 0 ? 0.0 : sum / totalCount;
+    }
+
+    /**
+     * Размер массива счетчиков в байтах (фиксирован с момента создания).
+     */
+    public int getFootprintBytes() {
+        return counts.length * Long.BYTES;
+    }
+
+    private int countsIndexFor(long value) {
+        int bucketIndex = leadingZeroCountBase - Long.numberOfLeadingZeros(value | subBucketMask);
+        int subBucketIndex = (int) (value >>> bucketIndex);
+        return ((bucketIndex + 1) << subBucketHalfCountMagnitude) + (subBucketIndex - subBucketHalfCount);
+    }
+
+    private long valueFromIndex(int index) {
+        int bucketIndex = (index >> subBucketHalfCountMagnitude) - 1;
+        int subBucketIndex = (index & (subBucketHalfCount - 1)) + subBucketHalfCount;
+        if (bucketIndex < 0) {
+            subBucketIndex -= subBucketHalfCount;
+            bucketIndex = 0;
+        }
+        return ((long) subBucketIndex) << bucketIndex;
+    }
+
+    private long highestEquivalentValue(long value) {
+        int bucketIndex = leadingZeroCountBase - Long.numberOfLeadingZeros(value | subBucketMask);
+        return value + (1L << bucketIndex) - 1;
+    }
+}
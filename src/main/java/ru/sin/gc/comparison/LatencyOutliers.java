@@ -0,0 +1,93 @@
+package ru.sin.gc.comparison;
+
+import java.util.Arrays;
+
+/**
+ * Фиксированный набор самых медленных запросов (top-N) с моментом завершения
+ *
+ * Гистограмма отвечает "сколько" медленных запросов, а этот класс - "когда":
+ * по времени завершения и latency всплеск можно сопоставить с конкретной GC паузой.
+ *
+ * Хранение в примитивных массивах, запись без аллокаций. Не потокобезопасен -
+ * у каждого потока свой экземпляр, объединение через add().
+ */
+public class LatencyOutliers {
+
+    private final long[] latencies;
+    private final long[] endTimes;
+    private int size;
+    private int minIndex;
+
+    public LatencyOutliers(int capacity) {
+        this.latencies = new long[capacity];
+        this.endTimes = new long[capacity];
+    }
+
+    /**
+     * @param latencyNanos latency запроса
+     * @param endNanos     System.nanoTime() завершения запроса
+     */
+    public void record(long latencyNanos, long endNanos) {
+        if (size < latencies.length) {
+            latencies[size] = latencyNanos;
+            endTimes[size] = endNanos;
+            size++;
+            if (size == latencies.length) {
+                updateMinIndex();
+            }
+        } else if (latencyNanos > latencies[minIndex]) {
+            latencies[minIndex] = latencyNanos;
+            endTimes[minIndex] = endNanos;
+            updateMinIndex();
+        }
+    }
+
+    public void add(LatencyOutliers other) {
+        for (int i = 0; i < other.size; i++) {
+            record(other.latencies[i], other.endTimes[i]);
+        }
+    }
+
+    public void reset() {
+        size = 0;
+        minIndex = 0;
+    }
+
+    /**
+     * Индексы записей, отсортированные по убыванию latency.
+     */
+    public int[] sortedIndices() {
+        Integer[] boxed = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            boxed[i] = i;
+        }
+        Arrays.sort(boxed, (a, b) -> Long.compare(latencies[b], latencies[a]));
+        int[] result = new int[size];
+        for (int i = 0; i < size; i++) {
+            result[i] = boxed[i];
+        }
+        return result;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long getLatency(int index) {
+        return latencies[index];
+    }
+
+    public long getEndTime(int index) {
+        return endTimes[index];
+    }
+
+    private void updateMinIndex() {
+        int min = 0;
+        for (int i = 1; i < size; i++) {
+            if (latencies[i] < latencies[min]) {
+                min = i;
+            }
+        }
+        minIndex = min;
+    }
+}
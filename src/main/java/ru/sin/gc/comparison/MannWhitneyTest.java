@@ -0,0 +1,155 @@
+package ru.sin.gc.comparison;
+
+import java.util.Arrays;
+
+/**
+ * Односторонний U-критерий Манна-Уитни
+ *
+ * Повторов бенчмарка обычно единицы, а распределение результатов далеко от
+ * нормального (редкие выбросы от Full GC или фоновых процессов), поэтому
+ * t-test не подходит. U-критерий сравнивает только ранги.
+ *
+ * Малые выборки без совпадений - точное распределение U (подсчет сочетаний),
+ * иначе - нормальная аппроксимация с поправкой на совпадения и непрерывность.
+ *
+ * Важно: при 3 повторах с каждой стороны минимально возможное p = 1/20 = 0.05,
+ * при 5 - 1/252. Для порога alpha = 0.05 нужно не меньше 3 повторов.
+ */
+public final class MannWhitneyTest {
+
+    // Точное распределение считаем, пока число сочетаний C(m+n, m) умеренное
+    private static final int EXACT_MAX_TOTAL = 40;
+
+    private MannWhitneyTest() {
+    }
+
+    /**
+     * p-value гипотезы "значения candidate стохастически больше значений baseline".
+     */
+    public static double pValueGreater(double[] baseline, double[] candidate) {
+        int m = candidate.length;
+        int n = baseline.length;
+        if (m == 0 || n == 0) {
+            return 1.0;
+        }
+
+        // Ранги объединенной выборки (средние ранги для совпадений)
+        double[] all = new double[m + n];
+        System.arraycopy(candidate, 0, all, 0, m);
+        System.arraycopy(baseline, 0, all, m, n);
+        double[] sorted = all.clone();
+        Arrays.sort(sorted);
+
+        double rankSumCandidate = 0;
+        for (int i = 0; i < m; i++) {
+            rankSumCandidate += averageRank(sorted, candidate[i]);
+        }
+        double u = rankSumCandidate - m * (m + 1) / 2.0;
+
+        double tieTerm = 0;
+        boolean ties = false;
+        for (int i = 0; i < sorted.length; ) {
+            int j = i;
+            while (j < sorted.length && sorted[j] == sorted[i]) {
+                j++;
+            }
+            int t = j - i;
+            if (t > 1) {
+                ties = true;
+                tieTerm += (double) t * t * t - t;
+            }
+            i = j;
+        }
+
+        if (!ties && m + n <= EXACT_MAX_TOTAL) {
+            return exactUpperTail(m, n, (long) Math.rint(u));
+        }
+
+        int total = m + n;
+        double mean = m * n / 2.0;
+        double variance = m * n / 12.0 * ((total + 1) - tieTerm / ((double) total * (total - 1)));
+        if (variance <= 0) {
+            return 1.0;
+        }
+        double z = (u - mean - 0.5) / Math.sqrt(variance);
+        return 1.0 - standardNormalCdf(z);
+    }
+
+    /**
+     * p-value гипотезы "значения candidate стохастически меньше значений baseline".
+     */
+    public static double pValueLess(double[] baseline, double[] candidate) {
+        return pValueGreater(negate(baseline), negate(candidate));
+    }
+
+    private static double averageRank(double[] sorted, double value) {
+        int first = Arrays.binarySearch(sorted, value);
+        int lo = first;
+        while (lo > 0 && sorted[lo - 1] == value) {
+            lo--;
+        }
+        int hi = first;
+        while (hi < sorted.length - 1 && sorted[hi + 1] == value) {
+            hi++;
+        }
+        return (lo + hi) / 2.0 + 1;
+    }
+
+    /**
+     * P(U >= u) для выборок размера m и n без совпадений.
+     * counts[k] - число расстановок с U = k, строится рекуррентно:
+     * f(m, n, u) = f(m - 1, n, u - n) + f(m, n - 1, u).
+     */
+    private static double exactUpperTail(int m, int n, long u) {
+        int maxU = m * n;
+        double[][] prev = new double[n + 1][];
+        for (int j = 0; j <= n; j++) {
+            prev[j] = new double[maxU + 1];
+            prev[j][0] = 1; // m = 0: единственная расстановка, U = 0
+        }
+        for (int i = 1; i <= m; i++) {
+            double[][] cur = new double[n + 1][maxU + 1];
+            cur[0][0] = 1; // n = 0
+            for (int j = 1; j <= n; j++) {
+                for (int k = 0; k <= i * j; k++) {
+                    double value = cur[j - 1][k];
+                    if (k >= j) {
+                        value += prev[j][k - j];
+                    }
+                    cur[j][k] = value;
+                }
+            }
+            prev = cur;
+        }
+
+        double[] counts = prev[n];
+        double total = 0;
+        double tail = 0;
+        for (int k = 0; k <= maxU; k++) {
+            total += counts[k];
+            if (k >= u) {
+                tail += counts[k];
+            }
+        }
+        return tail / total;
+    }
+
+    private static double[] negate(double[] values) {
+        double[] result = new double[values.length];
+        for (int i = 0; i < values.length; i++) {
+            result[i] = -values[i];
+        }
+        return result;
+    }
+
+    /**
+     * Φ(z) через erf (аппроксимация Абрамовица-Стиган 7.1.26, погрешность < 1.5e-7).
+     */
+    static double standardNormalCdf(double z) {
+        double x = Math.abs(z) / Math.sqrt(2);
+        double t = 1 / (1 + 0.3275911 * x);
+        double erf = 1 - (((((1.061405429 * t - 1.453152027) * t) + 1.421413741) * t - 0.284496736) * t
+            + 0.254829592) * t * Math.exp(-x * x);
+        return z >= 0 ? (1 + erf) / 2 : (1 - erf) / 2;
+    }
+}
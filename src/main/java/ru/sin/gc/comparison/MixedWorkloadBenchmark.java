@@ -1,7 +1,15 @@
 package ru.sin.gc.comparison;
 
+import ru.sin.gc.monitoring.GcPauseRecorder;
+import ru.sin.gc.monitoring.JfrEventMonitor;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Mixed Workload Benchmark - реалистичная смешанная нагрузка
@@ -12,6 +20,19 @@ import java.util.concurrent.*;
  * - Периодическими всплесками нагрузки
  *
  * Демонстрирует как разные GC справляются с реалистичной нагрузкой.
+ *
+ * Режимы исполнения воркеров (-Dmixed.mode=...):
+ * - platform - один platform thread на воркера (по умолчанию)
+ * - pool     - воркеры как задачи в фиксированном пуле потоков
+ * - virtual  - виртуальный поток на воркера (Java 21+).
+ *              Стек запаркованного виртуального потока (StackChunk) лежит в heap,
+ *              поэтому тысячи/миллионы воркеров заметно меняют работу GC.
+ * Количество воркеров: -Dmixed.workers=100000
+ *
+ * Кеш долгоживущих объектов (-Dmixed.cache=...):
+ * - map     - неограниченный ConcurrentHashMap + полный обход раз в 10 сек (по умолчанию)
+ * - tinylfu - ограниченный W-TinyLFU кеш с таймер-колесом (-Dmixed.cacheMaxMb=64)
+ * - offheap - тот же кеш как индекс в heap, payload в direct ByteBuffer slab'ах
  */
 public class MixedWorkloadBenchmark {
 
@@ -19,12 +40,38 @@ public class MixedWorkloadBenchmark {
     private static final int LONG_LIVED_OBJECTS = 10_000;
     private static final int BURST_INTERVAL_MS = 5000;
 
+    enum ExecutionMode {
+        PLATFORM("Worker-"),
+        POOL("MixedPool-"),
+        VIRTUAL("ForkJoinPool-"); // carrier-потоки планировщика виртуальных потоков
+
+        private final String carrierThreadPrefix;
+
+        ExecutionMode(String carrierThreadPrefix) {
+            this.carrierThreadPrefix = carrierThreadPrefix;
+        }
+    }
+
+    private static final ExecutionMode MODE =
+        ExecutionMode.valueOf(System.getProperty("mixed.mode", "platform").toUpperCase(Locale.ROOT));
+    private static final int CPUS = Runtime.getRuntime().availableProcessors();
+    private static final int WORKERS = Integer.getInteger("mixed.workers",
+        MODE == ExecutionMode.PLATFORM ? CPUS : 10_000);
+
     // "Кеш" долгоживущих объектов
-    private static final Map<String, CachedObject> cache = new ConcurrentHashMap<>();
+    private static final String CACHE_TYPE = System.getProperty("mixed.cache", "map").toLowerCase(Locale.ROOT);
+    private static final WorkloadCache cache = WorkloadCache.create(CACHE_TYPE, CPUS);
 
     // Метрики
-    private static final List<Long> operationLatencies = new CopyOnWriteArrayList<>();
-    private static volatile long totalOperations = 0;
+    private static final StripedLatencyRecorder operationLatencies = new StripedLatencyRecorder(CPUS);
+    private static final LongAdder totalOperations = new LongAdder();
+    private static volatile boolean running = true;
+
+    // Каждая сборка мусора (а не только итоговые счетчики MXBean)
+    private static final GcPauseRecorder gcPauses = GcPauseRecorder.install();
+
+    // Живые JFR метрики по интервалам (-Dbenchmark.jfr=true)
+    private static final JfrEventMonitor jfr = JfrEventMonitor.create();
 
     static class CachedObject {
         private final String key;
@@ -49,61 +96,193 @@ public class MixedWorkloadBenchmark {
         public boolean isExpired(long ttlMs) {
             return System.currentTimeMillis() - lastAccessed > ttlMs;
         }
+
+        public int size() {
+            return data.length;
+        }
     }
 
-    static class WorkerThread extends Thread {
-        private final int workerId;
-        private volatile boolean running = true;
-        private long localOperations = 0;
+    /**
+     * Один симулированный воркер. Состояние минимально, чтобы миллионы воркеров
+     * не раздували heap сами по себе.
+     */
+    static class Worker implements Runnable {
+
+        /**
+         * Одна операция: короткоживущие объекты + обращение к кешу.
+         */
+        static void runOperation() {
+            long startTime = System.nanoTime();
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+
+            // Короткоживущие объекты
+            List<byte[]> shortLived = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                shortLived.add(new byte[1024]); // 1KB
+            }
+
+            // Работа с кешем (долгоживущие объекты)
+            String key = "cache_" + random.nextInt(LONG_LIVED_OBJECTS);
+            cache.access(key, 10 * 1024); // 10KB
+
+            // Симулируем обработку
+            int result = 0;
+            for (byte[] bytes : shortLived) {
+                result += bytes.length;
+            }
 
-        public WorkerThread(int workerId) {
-            this.workerId = workerId;
-            setName("Worker-" + workerId);
+            long latency = System.nanoTime() - startTime;
+            operationLatencies.record(latency);
+            totalOperations.increment();
         }
 
         @Override
         public void run() {
-            Random random = new Random(workerId);
-
             while (running) {
-                long startTime = System.nanoTime();
-
-                // Короткоживущие объекты
-                List<byte[]> shortLived = new ArrayList<>();
-                for (int i = 0; i < 100; i++) {
-                    shortLived.add(new byte[1024]); // 1KB
-                }
-
-                // Работа с кешем (долгоживущие объекты)
-                String key = "cache_" + random.nextInt(LONG_LIVED_OBJECTS);
-                CachedObject obj = cache.computeIfAbsent(key,
-                    k -> new CachedObject(k, 10 * 1024)); // 10KB
-                obj.access();
-
-                // Симулируем обработку
-                int result = 0;
-                for (byte[] bytes : shortLived) {
-                    result += bytes.length;
-                }
-
-                long latency = System.nanoTime() - startTime;
-                operationLatencies.add(latency);
+                runOperation();
 
-                localOperations++;
-
-                // Небольшая задержка
+                // Небольшая задержка (виртуальный поток здесь паркуется и освобождает carrier)
                 try {
                     Thread.sleep(1);
                 } catch (InterruptedException e) {
                     break;
                 }
             }
+        }
+    }
+
+    /**
+     * Запуск воркеров в выбранном режиме и их остановка.
+     */
+    static class WorkerGroup {
+        private final List<Thread> platformThreads = new ArrayList<>();
+        private ExecutorService executor;
+
+        void start(ExecutionMode mode, int workers) {
+            switch (mode) {
+                case PLATFORM:
+                    for (int i = 0; i < workers; i++) {
+                        Thread thread = new Thread(new Worker(), "Worker-" + i);
+                        platformThreads.add(thread);
+                        thread.start();
+                    }
+                    break;
+
+                case POOL:
+                    // Воркер не держит поток во время "sleep": после операции
+                    // он перепланирует себя через 1ms
+                    AtomicInteger threadIndex = new AtomicInteger();
+                    ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(CPUS,
+                        r -> new Thread(r, "MixedPool-" + threadIndex.getAndIncrement()));
+                    executor = scheduler;
+                    for (int i = 0; i < workers; i++) {
+                        scheduler.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                if (!running) {
+                                    return;
+                                }
+                                Worker.runOperation();
+                                try {
+                                    scheduler.schedule(this, 1, TimeUnit.MILLISECONDS);
+                                } catch (RejectedExecutionException e) {
+                                    // Пул уже остановлен
+                                }
+                            }
+                        });
+                    }
+                    break;
 
-            totalOperations += localOperations;
+                case VIRTUAL:
+                    executor = newVirtualThreadPerTaskExecutor();
+                    for (int i = 0; i < workers; i++) {
+                        executor.execute(new Worker());
+                    }
+                    break;
+            }
         }
 
-        public void shutdown() {
+        /**
+         * Остановить воркеров и дождаться их завершения.
+         *
+         * @return false, если кто-то из воркеров так и не завершился (даже после
+         *         interrupt) - он может еще писать в operationLatencies
+         */
+        boolean stop() throws InterruptedException {
             running = false;
+            boolean stopped = true;
+            for (Thread thread : platformThreads) {
+                thread.join(5000);
+                if (thread.isAlive()) {
+                    thread.interrupt();
+                    thread.join(1000);
+                }
+                if (thread.isAlive()) {
+                    System.err.println("✗ Воркер " + thread.getName() + " не завершился за 6 секунд");
+                    stopped = false;
+                }
+            }
+            if (executor != null) {
+                executor.shutdown();
+                if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+                    executor.shutdownNow();
+                    if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
+                        System.err.println("✗ Воркеры " + MODE + " не завершились за 35 секунд");
+                        stopped = false;
+                    }
+                }
+            }
+            return stopped;
+        }
+    }
+
+    /**
+     * Executors.newVirtualThreadPerTaskExecutor() через reflection,
+     * чтобы проект собирался и на Java 17.
+     */
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class
+                .getMethod("newVirtualThreadPerTaskExecutor")
+                .invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(
+                "Виртуальные потоки требуют Java 21+ (текущая: " + Runtime.version() + ")", e);
+        }
+    }
+
+    /**
+     * Суммарное CPU время carrier-потоков выбранного режима.
+     */
+    static class CarrierSample {
+        final long timestampNanos = System.nanoTime();
+        long cpuNanos;
+        int threads;
+
+        static CarrierSample take(ExecutionMode mode) {
+            ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+            CarrierSample sample = new CarrierSample();
+            for (ThreadInfo info : threadBean.getThreadInfo(threadBean.getAllThreadIds())) {
+                if (info != null && info.getThreadName().startsWith(mode.carrierThreadPrefix)) {
+                    long cpu = threadBean.getThreadCpuTime(info.getThreadId());
+                    if (cpu > 0) {
+                        sample.cpuNanos += cpu;
+                    }
+                    sample.threads++;
+                }
+            }
+            return sample;
+        }
+
+        /**
+         * Утилизация carrier-потоков между двумя замерами, в процентах.
+         */
+        double utilizationSince(CarrierSample previous) {
+            long wallNanos = timestampNanos - previous.timestampNanos;
+            if (threads == 0 || wallNanos <= 0) {
+                return 0.0;
+            }
+            return (cpuNanos - previous.cpuNanos) * 100.0 / (wallNanos * (double) threads);
         }
     }
 
@@ -120,19 +299,14 @@ public class MixedWorkloadBenchmark {
         // Инициализация кеша
         System.out.println("Инициализация кеша...");
         for (int i = 0; i < LONG_LIVED_OBJECTS / 2; i++) {
-            cache.put("cache_" + i, new CachedObject("cache_" + i, 10 * 1024));
+            cache.populate("cache_" + i, 10 * 1024);
         }
 
         // Запуск воркеров
-        int numWorkers = Runtime.getRuntime().availableProcessors();
-        System.out.println("Запуск " + numWorkers + " воркеров...\n");
-
-        List<WorkerThread> workers = new ArrayList<>();
-        for (int i = 0; i < numWorkers; i++) {
-            WorkerThread worker = new WorkerThread(i);
-            workers.add(worker);
-            worker.start();
-        }
+        System.out.printf("Запуск %,d воркеров (режим: %s)...%n%n", WORKERS, MODE.name().toLowerCase(Locale.ROOT));
+
+        WorkerGroup workers = new WorkerGroup();
+        workers.start(MODE, WORKERS);
 
         // Periodic burst generator
         Thread burstThread = new Thread(() -> {
@@ -152,7 +326,7 @@ public class MixedWorkloadBenchmark {
             while (!Thread.currentThread().isInterrupted()) {
                 try {
                     Thread.sleep(10_000);
-                    cleanupCache();
+                    cache.cleanup();
                 } catch (InterruptedException e) {
                     break;
                 }
@@ -160,40 +334,54 @@ public class MixedWorkloadBenchmark {
         }, "CacheCleanup");
         cleanupThread.start();
 
-        // Мониторинг
+        // Мониторинг (инициализация кеша в статистику пауз не входит)
+        gcPauses.reset();
+        BenchmarkResult result = BenchmarkResult.start("mixed", gcPauses);
         long startTime = System.currentTimeMillis();
-        long lastReportTime = startTime;
+        CarrierSample firstSample = CarrierSample.take(MODE);
+        CarrierSample lastSample = firstSample;
 
         while (System.currentTimeMillis() - startTime < DURATION_SEC * 1000) {
             Thread.sleep(5000);
 
             long now = System.currentTimeMillis();
             long elapsedSec = (now - startTime) / 1000;
-            long intervalSec = (now - lastReportTime) / 1000;
+            CarrierSample sample = CarrierSample.take(MODE);
 
-            System.out.printf("[%2d сек] Операций: %,d, Кеш: %d объектов, Память: %d MB%n",
+            System.out.printf("[%2d сек] Операций: %,d, Кеш: %d объектов, Память: %d MB, Carrier: %d потоков %.1f%%%n",
                 elapsedSec,
-                totalOperations,
+                totalOperations.sum(),
                 cache.size(),
-                (Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory()) / 1024 / 1024
+                (Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory()) / 1024 / 1024,
+                sample.threads,
+                sample.utilizationSince(lastSample)
             );
+            jfr.printInterval();
 
-            lastReportTime = now;
+            lastSample = sample;
         }
 
+        double carrierUtilization = lastSample.utilizationSince(firstSample);
+        long elapsedMs = System.currentTimeMillis() - startTime;
+        result.finish();
+
+        // Стеки запаркованных виртуальных потоков смотрим до остановки воркеров
+        long[] stackChunks = MODE == ExecutionMode.VIRTUAL ? measureStackChunks() : null;
+
         // Остановка
         System.out.println("\nОстановка воркеров...");
-        for (WorkerThread worker : workers) {
-            worker.shutdown();
-        }
-        for (WorkerThread worker : workers) {
-            worker.join(5000);
-        }
+        boolean stopped = workers.stop();
         burstThread.interrupt();
         cleanupThread.interrupt();
+        if (!stopped) {
+            // Снимок гистограммы, пока в нее пишут, дал бы несогласованные перцентили;
+            // exit, а не исключение - зависший не-daemon воркер не дал бы JVM завершиться
+            System.err.println("✗ Воркеры не остановились - результаты не сохраняются");
+            System.exit(1);
+        }
 
         // Результаты
-        analyzeResults();
+        analyzeResults(elapsedMs, lastSample.threads, carrierUtilization, stackChunks, result);
     }
 
     private static void generateBurst() {
@@ -205,43 +393,61 @@ public class MixedWorkloadBenchmark {
         // Burst data будет собран GC
     }
 
-    private static void cleanupCache() {
-        long ttl = 30_000; // 30 секунд
-        int removed = 0;
-
-        Iterator<Map.Entry<String, CachedObject>> iterator = cache.entrySet().iterator();
-        while (iterator.hasNext()) {
-            Map.Entry<String, CachedObject> entry = iterator.next();
-            if (entry.getValue().isExpired(ttl)) {
-                iterator.remove();
-                removed++;
+    /**
+     * Количество и объем живых jdk.internal.vm.StackChunk (стеки запаркованных
+     * виртуальных потоков) по class histogram. Вызывает Full GC.
+     *
+     * @return {instances, bytes} или null, если histogram недоступен
+     */
+    private static long[] measureStackChunks() {
+        try {
+            String histogram = (String) ManagementFactory.getPlatformMBeanServer().invoke(
+                new javax.management.ObjectName("com.sun.management:type=DiagnosticCommand"),
+                "gcClassHistogram",
+                new Object[]{new String[0]},
+                new String[]{String[].class.getName()});
+
+            for (String line : histogram.split("\n")) {
+                // Формат: " num:  #instances  #bytes  class name (module)"
+                String[] parts = line.trim().split("\\s+");
+                if (parts.length >= 4 && parts[3].equals("jdk.internal.vm.StackChunk")) {
+                    return new long[]{Long.parseLong(parts[1]), Long.parseLong(parts[2])};
+                }
             }
-        }
-
-        if (removed > 0) {
-            System.out.println("  [Cleanup] Удалено из кеша: " + removed + " объектов");
+            return new long[]{0, 0};
+        } catch (Exception e) {
+            System.out.println("  Не удалось получить class histogram: " + e.getMessage());
+            return null;
         }
     }
 
-    private static void analyzeResults() {
+    private static void analyzeResults(long elapsedMs, int carrierThreads, double carrierUtilization,
+                                       long[] stackChunks, BenchmarkResult result) {
         System.out.println("\n" + "=".repeat(60));
         System.out.println("РЕЗУЛЬТАТЫ");
         System.out.println("=".repeat(60));
 
-        System.out.printf("Всего операций: %,d%n", totalOperations);
-        System.out.printf("Throughput: %,.1f ops/sec%n", totalOperations / (double) DURATION_SEC);
-
-        if (!operationLatencies.isEmpty()) {
-            List<Long> sorted = new ArrayList<>(operationLatencies);
-            sorted.sort(Long::compareTo);
+        long operations = totalOperations.sum();
+        System.out.printf("Режим: %s, воркеров: %,d%n", MODE.name().toLowerCase(Locale.ROOT), WORKERS);
+        System.out.printf("Всего операций: %,d%n", operations);
+        System.out.printf("Throughput: %,.1f ops/sec%n", operations * 1000.0 / elapsedMs);
+        System.out.printf("Carrier-потоки: %d, утилизация CPU: %.1f%%%n", carrierThreads, carrierUtilization);
+
+        if (stackChunks != null) {
+            System.out.printf("Стеки запаркованных виртуальных потоков: %,d StackChunk, %,.1f MB (%,.0f байт/воркер)%n",
+                stackChunks[0],
+                stackChunks[1] / 1024.0 / 1024.0,
+                stackChunks[1] / (double) WORKERS);
+        }
 
-            long sum = sorted.stream().mapToLong(Long::longValue).sum();
-            double avg = sum / (double) sorted.size();
+        LatencyHistogram latencies = operationLatencies.snapshot();
+        if (latencies.getTotalCount() > 0) {
+            double avg = latencies.getMean();
 
-            long p50 = sorted.get(sorted.size() / 2);
-            long p95 = sorted.get((int) (sorted.size() * 0.95));
-            long p99 = sorted.get((int) (sorted.size() * 0.99));
-            long max = sorted.get(sorted.size() - 1);
+            long p50 = latencies.getValueAtPercentile(50);
+            long p95 = latencies.getValueAtPercentile(95);
+            long p99 = latencies.getValueAtPercentile(99);
+            long max = latencies.getMax();
 
             System.out.println("\nLatency операций:");
             System.out.printf("  avg: %,8.2f μs%n", avg / 1000.0);
@@ -251,10 +457,21 @@ public class MixedWorkloadBenchmark {
             System.out.printf("  max: %,8.2f μs%n", max / 1000.0);
         }
 
-        System.out.printf("\nФинальный размер кеша: %,d объектов%n", cache.size());
+        System.out.printf("\nФинальный размер кеша (%s): %,d объектов%n", CACHE_TYPE, cache.size());
+        cache.printStats();
 
         printMemoryStats();
         printGCStats();
+        gcPauses.printSummary();
+
+        result.setThroughput(operations * 1000.0 / elapsedMs);
+        result.setLatency(latencies);
+        result.putExtra("carrier_utilization_pct", carrierUtilization);
+        result.putExtra("workers", WORKERS);
+        result.publish();
+
+        jfr.printSummary();
+        jfr.close();
     }
 
     private static String getGCName() {
@@ -0,0 +1,188 @@
+package ru.sin.gc.comparison;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Многопоточный драйвер нагрузки с заданным суммарным rate
+ *
+ * Суммарная интенсивность (req/sec) делится поровну между N потоками.
+ * Каждый поток - свой OpenLoopLoadGenerator со своей гистограммой,
+ * поэтому запись latency не требует синхронизации. Расписания потоков
+ * сдвинуты друг относительно друга, чтобы запросы шли равномерно,
+ * а не пачками по N штук.
+ *
+ * Гистограммы объединяются только при построении отчета.
+ *
+ * Позволяет увидеть, как паузы и барьеры G1/ZGC/Parallel масштабируются
+ * с числом потоков, разделяющих один heap.
+ */
+public class MultiThreadedLoadDriver {
+
+    /**
+     * Обработка одного запроса.
+     *
+     * @return время собственно обработки в наносекундах (uncorrected latency)
+     */
+    public interface RequestHandler {
+        long handle();
+    }
+
+    private final long aggregateRate;
+    private final int threads;
+    private final RequestHandler handler;
+
+    private final List<Worker> workers = new ArrayList<>();
+    private Runnable progressListener = () -> { };
+
+    public MultiThreadedLoadDriver(long aggregateRate, int threads, RequestHandler handler) {
+        if (aggregateRate <= 0) {
+            throw new IllegalArgumentException("aggregateRate должен быть > 0: " + aggregateRate);
+        }
+        if (threads <= 0) {
+            throw new IllegalArgumentException("threads должен быть > 0: " + threads);
+        }
+        if (aggregateRate / threads > 1_000_000_000L) {
+            throw new IllegalArgumentException("Слишком высокий rate на поток: " + aggregateRate / threads);
+        }
+        this.aggregateRate = aggregateRate;
+        this.threads = threads;
+        this.handler = handler;
+    }
+
+    /**
+     * Вызывается после каждой строки прогресса (например, для метрик JFR).
+     */
+    public void setProgressListener(Runnable progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    /**
+     * Запустить нагрузку на durationSec секунд и дождаться завершения.
+     *
+     * @param collect            писать ли latency (false - прогрев)
+     * @param progressIntervalMs период вывода прогресса, 0 - без вывода
+     */
+    public void run(int durationSec, boolean collect, long progressIntervalMs) throws InterruptedException {
+        workers.clear();
+
+        long perThreadInterval = threads * 1_000_000_000L / aggregateRate;
+        long stagger = 1_000_000_000L / aggregateRate;
+        long startTime = System.nanoTime();
+        long endTime = startTime + durationSec * 1_000_000_000L;
+
+        for (int i = 0; i < threads; i++) {
+            OpenLoopLoadGenerator generator = new OpenLoopLoadGenerator(perThreadInterval, startTime + i * stagger);
+            Worker worker = new Worker(i, generator, endTime, collect);
+            workers.add(worker);
+            worker.start();
+        }
+
+        if (progressIntervalMs > 0) {
+            while (System.nanoTime() < endTime) {
+                long remainingMs = (endTime - System.nanoTime()) / 1_000_000;
+                Thread.sleep(Math.max(1, Math.min(progressIntervalMs, remainingMs)));
+                if (System.nanoTime() < endTime) {
+                    long elapsed = (System.nanoTime() - startTime) / 1_000_000_000;
+                    System.out.printf("  %d сек: %,d запросов обработано%n", elapsed, getCompletedRequests());
+                    progressListener.run();
+                }
+            }
+        }
+
+        for (Worker worker : workers) {
+            worker.join();
+        }
+    }
+
+    /**
+     * Объединенная гистограмма latency от запланированного времени отправки.
+     */
+    public LatencyHistogram getCorrected() {
+        LatencyHistogram merged = LatencyHistogram.forNanos();
+        for (Worker worker : workers) {
+            merged.add(worker.generator.getCorrected());
+        }
+        return merged;
+    }
+
+    /**
+     * Объединенная гистограмма времени обработки (без учета ожидания).
+     */
+    public LatencyHistogram getUncorrected() {
+        LatencyHistogram merged = LatencyHistogram.forNanos();
+        for (Worker worker : workers) {
+            merged.add(worker.generator.getUncorrected());
+        }
+        return merged;
+    }
+
+    /**
+     * Самые медленные запросы по всем потокам.
+     */
+    public LatencyOutliers getOutliers() {
+        LatencyOutliers merged = new LatencyOutliers(16);
+        for (Worker worker : workers) {
+            merged.add(worker.generator.getOutliers());
+        }
+        return merged;
+    }
+
+    public long getCompletedRequests() {
+        long total = 0;
+        for (Worker worker : workers) {
+            total += worker.completed;
+        }
+        return total;
+    }
+
+    public long getLateRequests() {
+        long total = 0;
+        for (Worker worker : workers) {
+            total += worker.generator.getLateRequests();
+        }
+        return total;
+    }
+
+    public long getMaxLagNanos() {
+        long max = 0;
+        for (Worker worker : workers) {
+            max = Math.max(max, worker.generator.getMaxLagNanos());
+        }
+        return max;
+    }
+
+    public long getAggregateRate() {
+        return aggregateRate;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    private class Worker extends Thread {
+        private final OpenLoopLoadGenerator generator;
+        private final long endTime;
+        private final boolean collect;
+        private volatile long completed;
+
+        Worker(int id, OpenLoopLoadGenerator generator, long endTime, boolean collect) {
+            this.generator = generator;
+            this.endTime = endTime;
+            this.collect = collect;
+            setName("LoadDriver-" + id);
+        }
+
+        @Override
+        public void run() {
+            long intendedStart;
+            while ((intendedStart = generator.awaitNextSlot(endTime)) >= 0) {
+                long serviceNanos = handler.handle();
+                if (collect) {
+                    generator.recordCompletion(intendedStart, serviceNanos);
+                }
+                completed++;
+            }
+        }
+    }
+}
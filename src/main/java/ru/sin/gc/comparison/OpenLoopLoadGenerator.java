@@ -0,0 +1,148 @@
+package ru.sin.gc.comparison;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Open-loop генератор нагрузки с коррекцией coordinated omission
+ *
+ * Проблема closed-loop замера: если GC остановил поток на 50ms, то запросы,
+ * которые должны были прийти за эти 50ms, создаются уже после паузы и
+ * "не видят" ожидания - p99/p999 получаются заниженными.
+ *
+ * Решение: запросы идут по фиксированному расписанию (intendedStart = start + n * interval).
+ * Пропущенные слоты не выбрасываются - после паузы они выдаются подряд (catch-up),
+ * и каждый получает latency от своего ЗАПЛАНИРОВАННОГО времени отправки.
+ *
+ * Одновременно пишутся две гистограммы:
+ * - corrected   - от запланированного времени (то, что увидел бы клиент)
+ * - uncorrected - от фактического начала обработки (классический замер)
+ *
+ * Использование:
+ *   long intended;
+ *   while ((intended = generator.awaitNextSlot(endTime)) >= 0) {
+ *       long serviceNanos = handle();
+ *       generator.recordCompletion(intended, serviceNanos);
+ *   }
+ *
+ * Один экземпляр обслуживается одним потоком.
+ */
+public class OpenLoopLoadGenerator {
+
+    // Короче этого интервала не паркуемся, а крутимся: park/sleep слишком неточны
+    private static final long SPIN_THRESHOLD_NANOS = 50_000;
+
+    private final long intervalNanos;
+    private final LatencyHistogram corrected = LatencyHistogram.forNanos();
+    private final LatencyHistogram uncorrected = LatencyHistogram.forNanos();
+    private final LatencyOutliers outliers = new LatencyOutliers(16);
+
+    private long nextSlotNanos;
+    private long issuedRequests;
+    private long lateRequests;
+    private long maxLagNanos;
+
+    /**
+     * @param intervalNanos интервал между запросами (1 / rate)
+     * @param startNanos    время первого слота (System.nanoTime())
+     */
+    public OpenLoopLoadGenerator(long intervalNanos, long startNanos) {
+        if (intervalNanos <= 0) {
+            throw new IllegalArgumentException("intervalNanos должен быть > 0: " + intervalNanos);
+        }
+        this.intervalNanos = intervalNanos;
+        this.nextSlotNanos = startNanos;
+    }
+
+    /**
+     * Дождаться следующего слота расписания.
+     *
+     * @return запланированное время отправки (System.nanoTime()), или -1 если слот позже endNanos
+     */
+    public long awaitNextSlot(long endNanos) {
+        long slot = nextSlotNanos;
+        if (slot >= endNanos) {
+            return -1;
+        }
+
+        long now = System.nanoTime();
+        while (now < slot) {
+            long remaining = slot - now;
+            if (remaining > SPIN_THRESHOLD_NANOS) {
+                LockSupport.parkNanos(remaining - SPIN_THRESHOLD_NANOS);
+            } else {
+                Thread.onSpinWait();
+            }
+            now = System.nanoTime();
+        }
+
+        long lag = now - slot;
+        if (lag > intervalNanos) {
+            // Отстаем от расписания больше чем на один слот (GC пауза, перегрузка)
+            lateRequests++;
+        }
+        if (lag > maxLagNanos) {
+            maxLagNanos = lag;
+        }
+
+        nextSlotNanos = slot + intervalNanos;
+        issuedRequests++;
+        return slot;
+    }
+
+    /**
+     * Зафиксировать завершение запроса.
+     *
+     * @param intendedStartNanos значение, полученное из awaitNextSlot()
+     * @param serviceNanos       время собственно обработки (без ожидания в очереди)
+     */
+    public void recordCompletion(long intendedStartNanos, long serviceNanos) {
+        long now = System.nanoTime();
+        long correctedNanos = Math.max(now - intendedStartNanos, serviceNanos);
+        corrected.record(correctedNanos);
+        uncorrected.record(serviceNanos);
+        outliers.record(correctedNanos, now);
+    }
+
+    /**
+     * Сбросить метрики (например, после прогрева). Расписание не меняется.
+     */
+    public void resetMetrics() {
+        corrected.reset();
+        uncorrected.reset();
+        outliers.reset();
+        issuedRequests = 0;
+        lateRequests = 0;
+        maxLagNanos = 0;
+    }
+
+    public LatencyHistogram getCorrected() {
+        return corrected;
+    }
+
+    public LatencyHistogram getUncorrected() {
+        return uncorrected;
+    }
+
+    /**
+     * Самые медленные (corrected) запросы с моментом завершения.
+     */
+    public LatencyOutliers getOutliers() {
+        return outliers;
+    }
+
+    public long getIntervalNanos() {
+        return intervalNanos;
+    }
+
+    public long getIssuedRequests() {
+        return issuedRequests;
+    }
+
+    public long getLateRequests() {
+        return lateRequests;
+    }
+
+    public long getMaxLagNanos() {
+        return maxLagNanos;
+    }
+}
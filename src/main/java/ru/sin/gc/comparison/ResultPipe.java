@@ -0,0 +1,52 @@
+package ru.sin.gc.comparison;
+
+import java.util.Locale;
+
+/**
+ * Структурированные метрики бенчмарка для родительского процесса
+ *
+ * Когда бенчмарк запущен оркестратором (GcComparisonRunner) с -Dbenchmark.pipe=true,
+ * итоговые метрики дополнительно печатаются в stdout строками вида
+ *   @@result p99_us=1234.5
+ * Оркестратор читает stdout дочерней JVM и разбирает только такие строки,
+ * не завися от текста человекочитаемого отчета.
+ */
+public final class ResultPipe {
+
+    public static final String ENABLE_PROPERTY = "benchmark.pipe";
+    public static final String PREFIX = "@@result ";
+
+    private static final boolean ENABLED = Boolean.getBoolean(ENABLE_PROPERTY);
+
+    private ResultPipe() {
+    }
+
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    /**
+     * Передать метрику родительскому процессу (no-op без -Dbenchmark.pipe=true).
+     */
+    public static void emit(String metric, double value) {
+        if (ENABLED) {
+            System.out.println(PREFIX + metric + "=" + String.format(Locale.ROOT, "%.6f", value));
+        }
+    }
+
+    /**
+     * Разобрать строку stdout дочерней JVM.
+     *
+     * @return {метрика, значение} или null, если это не строка результата
+     */
+    public static String[] parse(String line) {
+        if (!line.startsWith(PREFIX)) {
+            return null;
+        }
+        int eq = line.indexOf('=', PREFIX.length());
+        if (eq < 0) {
+            return null;
+        }
+        return new String[]{line.substring(PREFIX.length(), eq), line.substring(eq + 1).trim()};
+    }
+}
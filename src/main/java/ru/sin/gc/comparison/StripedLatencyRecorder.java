@@ -0,0 +1,51 @@
+package ru.sin.gc.comparison;
+
+/**
+ * Потокобезопасная запись latency в набор "полос" (stripes) гистограмм
+ *
+ * Когда потоков очень много (тысячи виртуальных потоков), гистограмма
+ * на каждый поток слишком дорога по памяти. Вместо этого поток пишет в одну
+ * из K гистограмм, выбранную по его id, под коротким локом этой полосы.
+ * K берется с запасом относительно числа ядер, поэтому конкуренция за лок низкая.
+ *
+ * Внутри лока нет блокирующих операций, так что pinning виртуального
+ * потока на carrier длится только время одного record().
+ */
+public class StripedLatencyRecorder {
+
+    private final LatencyHistogram[] stripes;
+    private final int mask;
+
+    /**
+     * @param concurrency ожидаемое число одновременно пишущих потоков (обычно - число ядер)
+     */
+    public StripedLatencyRecorder(int concurrency) {
+        int size = Integer.highestOneBit(Math.max(1, concurrency * 4 - 1)) << 1;
+        this.stripes = new LatencyHistogram[size];
+        this.mask = size - 1;
+        for (int i = 0; i < size; i++) {
+            stripes[i] = LatencyHistogram.forNanos();
+        }
+    }
+
+    @SuppressWarnings("deprecation") // Thread.threadId() появился только в Java 19
+    public void record(long valueNanos) {
+        LatencyHistogram stripe = stripes[(int) Thread.currentThread().getId() & mask];
+        synchronized (stripe) {
+            stripe.record(valueNanos);
+        }
+    }
+
+    /**
+     * Объединенный снимок всех полос.
+     */
+    public LatencyHistogram snapshot() {
+        LatencyHistogram merged = LatencyHistogram.forNanos();
+        for (LatencyHistogram stripe : stripes) {
+            synchronized (stripe) {
+                merged.add(stripe);
+            }
+        }
+        return merged;
+    }
+}
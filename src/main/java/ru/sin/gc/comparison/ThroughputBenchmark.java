@@ -1,5 +1,8 @@
 package ru.sin.gc.comparison;
 
+import ru.sin.gc.monitoring.GcPauseRecorder;
+import ru.sin.gc.monitoring.JfrEventMonitor;
+
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
@@ -21,6 +24,12 @@ public class ThroughputBenchmark {
     private static final int BENCHMARK_ITERATIONS = 5;
     private static final int OPERATIONS_PER_ITERATION = 100_000;
 
+    // Каждая сборка мусора (а не только итоговые счетчики MXBean)
+    private static final GcPauseRecorder gcPauses = GcPauseRecorder.install();
+
+    // Живые JFR метрики по интервалам (-Dbenchmark.jfr=true)
+    private static final JfrEventMonitor jfr = JfrEventMonitor.create();
+
     static class DataPoint {
         private final long timestamp;
         private final double value;
@@ -51,6 +60,8 @@ public class ThroughputBenchmark {
         for (int i = 0; i < WARMUP_ITERATIONS; i++) {
             runIteration(OPERATIONS_PER_ITERATION / 10);
         }
+        gcPauses.reset();
+        BenchmarkResult result = BenchmarkResult.start("throughput", gcPauses);
 
         // Бенчмарк
         System.out.println("\nЗапуск бенчмарка...\n");
@@ -73,7 +84,9 @@ public class ThroughputBenchmark {
             double opsPerSec = (ops * 1_000_000_000.0) / elapsed;
             System.out.printf("Итерация %2d: %,10d ops, %,8d ms, %,.0f ops/sec%n",
                 i + 1, ops, elapsed / 1_000_000, opsPerSec);
+            jfr.printInterval();
         }
+        result.finish();
 
         // Статистика
         System.out.println("\n" + "=".repeat(60));
@@ -98,6 +111,15 @@ public class ThroughputBenchmark {
         System.out.printf("  p99: %,6d ms%n", p99 / 1_000_000);
         System.out.printf("  max: %,6d ms%n", max / 1_000_000);
 
+        gcPauses.printSummary();
+
+        result.setThroughput(avgOpsPerSec);
+        result.putExtra("iteration_p50_ms", p50 / 1_000_000.0);
+        result.putExtra("iteration_max_ms", max / 1_000_000.0);
+        result.publish();
+
+        jfr.printSummary();
+        jfr.close();
         printMemoryStats();
     }
 
@@ -0,0 +1,242 @@
+package ru.sin.gc.comparison;
+
+import ru.sin.gc.cache.BoundedCache;
+import ru.sin.gc.cache.OffHeapSlabAllocator;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Кеш долгоживущих объектов MixedWorkloadBenchmark
+ *
+ * Реализации (-Dmixed.cache=...):
+ * - map     - ConcurrentHashMap без ограничения + полный обход раз в 10 сек (по умолчанию)
+ * - tinylfu - BoundedCache: граница по весу, W-TinyLFU, истечение по таймер-колесу
+ * - offheap - тот же BoundedCache как индекс в heap, payload - в direct ByteBuffer slab'ах
+ *
+ * Все удаляют записи без обращений дольше TTL, так что разница в GC нагрузке
+ * определяется только устройством кеша.
+ */
+interface WorkloadCache {
+
+    long TTL_MS = 30_000;
+
+    /**
+     * Обращение воркера: взять объект по ключу или создать (payloadSize байт).
+     */
+    void access(String key, int payloadSize);
+
+    /**
+     * Заполнить кеш при старте.
+     */
+    void populate(String key, int payloadSize);
+
+    /**
+     * Периодическое обслуживание (поток CacheCleanup, раз в 10 сек).
+     */
+    void cleanup();
+
+    long size();
+
+    /**
+     * Дополнительная статистика для итогового отчета.
+     */
+    void printStats();
+
+    static WorkloadCache create(String type, int concurrency) {
+        switch (type) {
+            case "map":
+                return new MapCache();
+            case "tinylfu":
+                return new TinyLfuCache(Long.getLong("mixed.cacheMaxMb", 64) * 1024 * 1024, concurrency);
+            case "offheap":
+                return new OffHeapCache(Long.getLong("mixed.cacheMaxMb", 64) * 1024 * 1024, concurrency);
+            default:
+                throw new IllegalArgumentException("Неизвестный mixed.cache: " + type + " (map, tinylfu, offheap)");
+        }
+    }
+
+    /**
+     * Исходный вариант: неограниченная карта и O(n) чистка.
+     */
+    final class MapCache implements WorkloadCache {
+        private final Map<String, MixedWorkloadBenchmark.CachedObject> cache = new ConcurrentHashMap<>();
+
+        @Override
+        public void access(String key, int payloadSize) {
+            MixedWorkloadBenchmark.CachedObject obj = cache.computeIfAbsent(key,
+                k -> new MixedWorkloadBenchmark.CachedObject(k, payloadSize));
+            obj.access();
+        }
+
+        @Override
+        public void populate(String key, int payloadSize) {
+            cache.put(key, new MixedWorkloadBenchmark.CachedObject(key, payloadSize));
+        }
+
+        @Override
+        public void cleanup() {
+            int removed = 0;
+
+            Iterator<Map.Entry<String, MixedWorkloadBenchmark.CachedObject>> iterator = cache.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<String, MixedWorkloadBenchmark.CachedObject> entry = iterator.next();
+                if (entry.getValue().isExpired(TTL_MS)) {
+                    iterator.remove();
+                    removed++;
+                }
+            }
+
+            if (removed > 0) {
+                System.out.println("  [Cleanup] Удалено из кеша: " + removed + " объектов");
+            }
+        }
+
+        @Override
+        public long size() {
+            return cache.size();
+        }
+
+        @Override
+        public void printStats() {
+        }
+    }
+
+    /**
+     * BoundedCache: вес записи - размер payload, истечение через TTL без обращений.
+     * Время доступа и частоты хранит сам кеш, поэтому CachedObject.access() не нужен.
+     */
+    final class TinyLfuCache implements WorkloadCache {
+        // Заголовки CachedObject, byte[], узла кеша и ключа
+        private static final int ENTRY_OVERHEAD = 128;
+
+        private final BoundedCache<String, MixedWorkloadBenchmark.CachedObject> cache;
+        private final long maximumBytes;
+
+        TinyLfuCache(long maximumBytes, int concurrency) {
+            this.maximumBytes = maximumBytes;
+            this.cache = new BoundedCache<>(maximumBytes,
+                (key, value) -> value.size() + ENTRY_OVERHEAD,
+                TimeUnit.MILLISECONDS.toNanos(TTL_MS), concurrency, null);
+        }
+
+        @Override
+        public void access(String key, int payloadSize) {
+            cache.computeIfAbsent(key, k -> new MixedWorkloadBenchmark.CachedObject(k, payloadSize));
+        }
+
+        @Override
+        public void populate(String key, int payloadSize) {
+            cache.put(key, new MixedWorkloadBenchmark.CachedObject(key, payloadSize));
+        }
+
+        @Override
+        public void cleanup() {
+            // Истечение уже идет по таймер-колесу при каждом обращении;
+            // здесь только догоняем сегменты, к которым давно не обращались
+            cache.cleanUp();
+        }
+
+        @Override
+        public long size() {
+            return cache.size();
+        }
+
+        @Override
+        public void printStats() {
+            System.out.printf("Кеш W-TinyLFU: %,d сегментов, граница %,d MB, занято %,.1f MB%n",
+                cache.segmentCount(), maximumBytes / 1024 / 1024, cache.weightedSize() / 1024.0 / 1024.0);
+            System.out.printf("  hit rate: %.1f%% (%,d / %,d), вытеснено: %,d (%,.1f MB), истекло: %,d%n",
+                cache.hitRate() * 100, cache.hitCount(), cache.hitCount() + cache.missCount(),
+                cache.evictionCount(), cache.evictionWeight() / 1024.0 / 1024.0, cache.expirationCount());
+        }
+    }
+
+    /**
+     * Payload вне heap: в heap остается только индекс (узел BoundedCache, ключ и
+     * OffHeapEntry ~ 100 байт на запись), 10KB данных лежат в slab'ах и не
+     * участвуют в маркировке old gen (G1 mixed collections, ZGC marking).
+     *
+     * Граница mixed.cacheMaxMb считается по фактическим блокам slab-аллокатора;
+     * при вытеснении/истечении блок возвращается аллокатору.
+     */
+    final class OffHeapCache implements WorkloadCache {
+        private static final int INDEX_OVERHEAD = 128;
+
+        /**
+         * Ссылка на блок payload.
+         */
+        static final class OffHeapEntry {
+            final long handle;
+            final int size;
+
+            OffHeapEntry(long handle, int size) {
+                this.handle = handle;
+                this.size = size;
+            }
+        }
+
+        private final OffHeapSlabAllocator allocator = new OffHeapSlabAllocator(OffHeapSlabAllocator.DEFAULT_SLAB_SIZE);
+        private final BoundedCache<String, OffHeapEntry> index;
+        private final long maximumBytes;
+
+        OffHeapCache(long maximumBytes, int concurrency) {
+            this.maximumBytes = maximumBytes;
+            this.index = new BoundedCache<>(maximumBytes,
+                (key, entry) -> allocator.chunkSize(entry.size) + INDEX_OVERHEAD,
+                TimeUnit.MILLISECONDS.toNanos(TTL_MS), concurrency,
+                (key, entry, cause) -> allocator.free(entry.handle, entry.size));
+        }
+
+        @Override
+        public void access(String key, int payloadSize) {
+            // Чтение payload под локом сегмента: блок не может быть освобожден и переиспользован
+            index.access(key, k -> create(k, payloadSize), entry -> {
+                long value = allocator.getLong(entry.handle, Long.BYTES);
+                allocator.putLong(entry.handle, 0, System.currentTimeMillis() ^ value);
+            });
+        }
+
+        @Override
+        public void populate(String key, int payloadSize) {
+            index.put(key, create(key, payloadSize));
+        }
+
+        private OffHeapEntry create(String key, int payloadSize) {
+            long handle = allocator.allocate(payloadSize);
+            allocator.fill(handle, payloadSize, key.hashCode());
+            return new OffHeapEntry(handle, payloadSize);
+        }
+
+        @Override
+        public void cleanup() {
+            index.cleanUp();
+        }
+
+        @Override
+        public long size() {
+            return index.size();
+        }
+
+        @Override
+        public void printStats() {
+            System.out.printf("Кеш off-heap: граница %,d MB, slab'ов: %,d (%,.1f MB зарезервировано, %,.1f MB занято)%n",
+                maximumBytes / 1024 / 1024, allocator.slabCount(),
+                allocator.reservedBytes() / 1024.0 / 1024.0, allocator.usedBytes() / 1024.0 / 1024.0);
+            System.out.printf("  hit rate: %.1f%% (%,d / %,d), вытеснено: %,d, истекло: %,d%n",
+                index.hitRate() * 100, index.hitCount(), index.hitCount() + index.missCount(),
+                index.evictionCount(), index.expirationCount());
+            for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+                if (pool.getName().equals("direct")) {
+                    System.out.printf("  Direct buffers (BufferPoolMXBean): %,d шт., %,.1f MB%n",
+                        pool.getCount(), pool.getMemoryUsed() / 1024.0 / 1024.0);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,289 @@
+package ru.sin.gc.heap;
+
+import java.util.BitSet;
+
+/**
+ * Дерево доминаторов графа объектов (Lengauer-Tarjan) и retained size
+ *
+ * Объект A доминирует над B, если любой путь от GC корней к B проходит
+ * через A. Retained size A - сумма shallow size всех объектов, над которыми
+ * A доминирует: ровно столько памяти освободится, если A станет недостижим.
+ * Все корни подвешены к виртуальному супер-корню (номер objectCount()).
+ *
+ * Алгоритм - Lengauer-Tarjan с простым сжатием путей (O(m log n)), в
+ * варианте с samedom из Appel, "Modern Compiler Implementation":
+ * 1. DFS нумерует достижимые вершины (итеративно: цепочки из миллионов
+ *    узлов LinkedList переполнили бы стек рекурсии).
+ * 2. В обратном порядке номеров для каждой вершины вычисляется
+ *    полудоминатор по предкам (обратный CSR граф), вершина связывается в лес
+ *    со сжатием путей, а вершины из корзины родителя получают idom или
+ *    отсылку samedom.
+ * 3. Прямой проход разрешает отсылки samedom.
+ * Retained size накапливается от листьев к корню в обратном порядке DFS -
+ * idom вершины всегда имеет меньший номер.
+ *
+ * Все массивы по вершинам - NativeIntArray/NativeLongArray вне heap. Рабочие
+ * массивы отпускаются сразу после своего этапа: стек DFS - до полудоминаторов,
+ * обратный граф и массивы леса - до retained size и детей. Пик - на этапе 2:
+ * ~52 байта на вершину и 4 на ребро (вместе с HeapIndex ~88 и 8); после
+ * построения остается 20 байт на вершину. Отпущенные буферы освобождает GC -
+ * при нехватке -XX:MaxDirectMemorySize JVM сама вызывает System.gc().
+ */
+final class DominatorTree {
+
+    private static final int NONE = -1;
+
+    private final int superRoot;
+    private final BitSet rootSet;
+
+    private final NativeIntArray idom;
+    private final NativeLongArray retained;
+    private final NativeIntArray childStart;
+    private final NativeIntArray children;
+    private final int reachableCount;
+    private final long millis;
+
+    // Рабочие массивы Lengauer-Tarjan (живут только в конструкторе)
+    private NativeIntArray dfnum;
+    private NativeIntArray semi;
+    private NativeIntArray ancestor;
+    private NativeIntArray best;
+    private NativeIntArray chain;
+
+    DominatorTree(HeapIndex heap) {
+        long start = System.nanoTime();
+        int count = heap.objectCount();
+        this.superRoot = count;
+        int vertices = count + 1;
+
+        rootSet = new BitSet(count);
+        for (long k = 0; k < heap.rootCount(); k++) {
+            rootSet.set(heap.root(k));
+        }
+        int[] rootList = rootSet.stream().toArray();
+
+        // Обратный граф: predecessors[predStart[v] .. predStart[v + 1]]
+        NativeLongArray predStart = NativeLongArray.filled(vertices + 1L, 0);
+        for (long edge = 0; edge < heap.edgeCount(); edge++) {
+            predStart.add(heap.edgeTarget(edge) + 1L, 1);
+        }
+        for (long v = 1; v <= vertices; v++) {
+            predStart.add(v, predStart.get(v - 1));
+        }
+        NativeIntArray predecessors = NativeIntArray.filled(heap.edgeCount(), 0);
+        for (int source = 0; source < count; source++) {
+            for (long edge = heap.edgeStart(source); edge < heap.edgeEnd(source); edge++) {
+                int target = heap.edgeTarget(edge);
+                predecessors.set(predStart.get(target), source);
+                predStart.add(target, 1);
+            }
+        }
+        // После заполнения predStart[v] указывает на конец v - сдвигаем обратно
+        for (long v = vertices; v > 0; v--) {
+            predStart.set(v, predStart.get(v - 1));
+        }
+        predStart.set(0, 0);
+
+        // 1. DFS от супер-корня
+        dfnum = NativeIntArray.filled(vertices, NONE);
+        NativeIntArray vertex = NativeIntArray.filled(vertices, 0);
+        NativeIntArray parent = NativeIntArray.filled(vertices, NONE);
+        NativeIntArray stackNode = NativeIntArray.filled(vertices, 0);
+        NativeLongArray stackEdge = NativeLongArray.filled(vertices, 0);
+        int numbered = 0;
+        int top = 0;
+        dfnum.set(superRoot, numbered);
+        vertex.set(numbered++, superRoot);
+        stackNode.set(top, superRoot);
+        stackEdge.set(top++, 0);
+        while (top > 0) {
+            int v = stackNode.get(top - 1);
+            long edge = stackEdge.get(top - 1);
+            long end = v == superRoot ? rootList.length : heap.edgeEnd(v);
+            if (edge == end) {
+                top--;
+                continue;
+            }
+            stackEdge.set(top - 1, edge + 1);
+            int w = v == superRoot ? rootList[(int) edge] : heap.edgeTarget(edge);
+            if (dfnum.get(w) == NONE) {
+                dfnum.set(w, numbered);
+                vertex.set(numbered++, w);
+                parent.set(w, v);
+                stackNode.set(top, w);
+                stackEdge.set(top++, heap.edgeStart(w));
+            }
+        }
+        this.reachableCount = numbered - 1;
+        stackNode = null;
+        stackEdge = null;
+
+        // 2. Полудоминаторы и неявные доминаторы
+        semi = NativeIntArray.filled(vertices, NONE);
+        ancestor = NativeIntArray.filled(vertices, NONE);
+        best = NativeIntArray.filled(vertices, NONE);
+        chain = NativeIntArray.filled(vertices, 0);
+        NativeIntArray samedom = NativeIntArray.filled(vertices, NONE);
+        NativeIntArray bucketHead = NativeIntArray.filled(vertices, NONE);
+        NativeIntArray bucketNext = NativeIntArray.filled(vertices, NONE);
+        this.idom = NativeIntArray.filled(vertices, NONE);
+
+        for (int i = numbered - 1; i > 0; i--) {
+            int w = vertex.get(i);
+            int p = parent.get(w);
+            int s = p;
+            for (long k = predStart.get(w); k < predStart.get(w + 1L); k++) {
+                s = lowerSemi(s, predecessors.get(k), w);
+            }
+            if (rootSet.get(w)) {
+                s = lowerSemi(s, superRoot, w);
+            }
+            semi.set(w, s);
+            bucketNext.set(w, bucketHead.get(s));
+            bucketHead.set(s, w);
+            ancestor.set(w, p);
+            best.set(w, w);
+
+            for (int v = bucketHead.get(p); v != NONE; v = bucketNext.get(v)) {
+                int y = ancestorWithLowestSemi(v);
+                if (semi.get(y) == semi.get(v)) {
+                    idom.set(v, p);
+                } else {
+                    samedom.set(v, y);
+                }
+            }
+            bucketHead.set(p, NONE);
+        }
+        predStart = null;
+        predecessors = null;
+        parent = null;
+        bucketHead = null;
+        bucketNext = null;
+        dfnum = null;
+        semi = null;
+        ancestor = null;
+        best = null;
+        chain = null;
+
+        // 3. Отсылки samedom
+        for (int i = 1; i < numbered; i++) {
+            int w = vertex.get(i);
+            if (samedom.get(w) != NONE) {
+                idom.set(w, idom.get(samedom.get(w)));
+            }
+        }
+        samedom = null;
+
+        // Retained size: от листьев к корню
+        this.retained = NativeLongArray.filled(vertices, 0);
+        for (int i = 1; i < numbered; i++) {
+            int w = vertex.get(i);
+            retained.set(w, heap.shallowSize(w));
+        }
+        for (int i = numbered - 1; i > 0; i--) {
+            int w = vertex.get(i);
+            retained.add(idom.get(w), retained.get(w));
+        }
+
+        // Дети в дереве доминаторов (CSR, в порядке DFS)
+        this.childStart = NativeIntArray.filled(vertices + 1L, 0);
+        for (int i = 1; i < numbered; i++) {
+            childStart.increment(idom.get(vertex.get(i)) + 1L);
+        }
+        for (long v = 1; v <= vertices; v++) {
+            childStart.set(v, childStart.get(v) + childStart.get(v - 1));
+        }
+        this.children = NativeIntArray.filled(reachableCount, 0);
+        for (int i = 1; i < numbered; i++) {
+            int w = vertex.get(i);
+            int d = idom.get(w);
+            children.set(childStart.get(d), w);
+            childStart.increment(d);
+        }
+        for (long v = vertices; v > 0; v--) {
+            childStart.set(v, childStart.get(v - 1));
+        }
+        childStart.set(0, 0);
+
+        this.millis = (System.nanoTime() - start) / 1_000_000;
+    }
+
+    /**
+     * Кандидат в полудоминаторы w через предка v; возвращает кандидата с меньшим номером.
+     */
+    private int lowerSemi(int current, int v, int w) {
+        int vNumber = dfnum.get(v);
+        if (vNumber == NONE) {
+            // Предок недостижим из корней
+            return current;
+        }
+        int candidate = vNumber <= dfnum.get(w) ? v : semi.get(ancestorWithLowestSemi(v));
+        return dfnum.get(candidate) < dfnum.get(current) ? candidate : current;
+    }
+
+    /**
+     * Вершина с минимальным полудоминатором на пути леса от v, со сжатием пути.
+     * Итеративная версия рекурсивного EVAL: сначала подъем по цепочке, затем сжатие сверху вниз.
+     */
+    private int ancestorWithLowestSemi(int v) {
+        int depth = 0;
+        int x = v;
+        while (ancestor.get(ancestor.get(x)) != NONE) {
+            chain.set(depth++, x);
+            x = ancestor.get(x);
+        }
+        while (depth > 0) {
+            int y = chain.get(--depth);
+            int a = ancestor.get(y);
+            int b = best.get(a);
+            ancestor.set(y, ancestor.get(a));
+            if (dfnum.get(semi.get(b)) < dfnum.get(semi.get(best.get(y)))) {
+                best.set(y, b);
+            }
+        }
+        return best.get(v);
+    }
+
+    int superRoot() {
+        return superRoot;
+    }
+
+    /**
+     * Непосредственный доминатор; superRoot() для объектов верхнего уровня, -1 для недостижимых.
+     */
+    int idom(int v) {
+        return idom.get(v);
+    }
+
+    boolean isReachable(int v) {
+        return v == superRoot || idom.get(v) != NONE;
+    }
+
+    long retained(int v) {
+        return retained.get(v);
+    }
+
+    int childCount(int v) {
+        return childStart.get(v + 1L) - childStart.get(v);
+    }
+
+    int child(int v, int k) {
+        return children.get(childStart.get(v) + (long) k);
+    }
+
+    int reachableCount() {
+        return reachableCount;
+    }
+
+    long reachableBytes() {
+        return retained.get(superRoot);
+    }
+
+    boolean isRoot(int v) {
+        return rootSet.get(v);
+    }
+
+    long millis() {
+        return millis;
+    }
+}
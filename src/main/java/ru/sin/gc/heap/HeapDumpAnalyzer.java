@@ -0,0 +1,277 @@
+package ru.sin.gc.heap;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Анализ HPROF heap dump'а без внешних инструментов
+ *
+ * Замена jmap -histo / jhat / ручного поиска в VisualVM: dump разбирается
+ * потоково через memory-mapped I/O (HeapIndex), по графу ссылок строится
+ * дерево доминаторов Lengauer-Tarjan (DominatorTree). Индекс и рабочие
+ * массивы живут вне heap, поэтому анализатору хватает -Xmx в сотни MB
+ * для dump'ов в десятки GB. -XX:MaxDirectMemorySize - по пику построения
+ * дерева доминаторов: ~88 байт на объект плюс ~8 байт на ссылку (детали -
+ * в HeapIndex и DominatorTree).
+ *
+ * Отчет:
+ * - гистограмма классов: экземпляры, shallow и retained* (сумма retained
+ *   экземпляров, над которыми не доминирует другой экземпляр того же класса)
+ * - крупнейшие доминаторы верхнего уровня (их idom - GC корни)
+ * - подозрения на утечку: от крупного доминатора вниз по дереву, пока один
+ *   ребенок удерживает >= 80% родителя; где этого нет - точка накопления.
+ *   Цепочка печатается с именами полей, а путь от последнего класса -
+ *   в виде "MemoryLeakExample.ACTIVE_SESSIONS.elementData".
+ *
+ * Параметры:
+ *   первый аргумент или -Dheap.dump   путь к .hprof
+ *   -Dheap.top=25                     строк в гистограмме и списке доминаторов
+ *   -Dheap.suspectPercent=10          минимальная доля достижимой памяти для подозрения
+ */
+public class HeapDumpAnalyzer {
+
+    private static final int TOP = Integer.getInteger("heap.top", 25);
+    private static final double SUSPECT_PERCENT =
+        Double.parseDouble(System.getProperty("heap.suspectPercent", "10"));
+    private static final int MAX_SUSPECTS = 5;
+    private static final double DESCEND_RATIO = 0.8;
+    private static final int MAX_CHAIN = 64;
+
+    public static void main(String[] args) {
+        String dump = args.length > 0 ? args[0] : System.getProperty("heap.dump");
+        if (dump == null || !Files.isRegularFile(Path.of(dump))) {
+            System.err.println("Использование: HeapDumpAnalyzer <heap_dump.hprof> (или -Dheap.dump=...)");
+            System.exit(1);
+        }
+
+        HeapIndex heap = HeapIndex.build(Path.of(dump));
+        DominatorTree tree = new DominatorTree(heap);
+
+        printSummary(heap, tree);
+        printHistogram(heap, retainedByClass(heap, tree), TOP);
+        printTopDominators(heap, tree);
+        printSuspects(heap, tree);
+    }
+
+    static void printSummary(HeapIndex heap, DominatorTree tree) {
+        HprofFile file = heap.file();
+        System.out.println("=== Анализ heap dump ===");
+        System.out.printf("Файл: %s (%s, %s, id %d байт, снят %s)%n", file.path(), formatBytes(file.length()),
+            file.format(), file.idSize(), Instant.ofEpochMilli(file.timestampMs()));
+        System.out.printf("Объектов: %,d, классов: %,d, ссылок: %,d, GC корней: %,d%n",
+            heap.objectCount(), heap.classes().size(), heap.edgeCount(), heap.rootCount());
+        System.out.printf("Достижимо: %,d объектов, %s (shallow всех объектов %s)%n",
+            tree.reachableCount(), formatBytes(tree.reachableBytes()), formatBytes(heap.totalShallow()));
+        Runtime runtime = Runtime.getRuntime();
+        System.out.printf("Время: разбор %,d ms, граф %,d ms, доминаторы %,d ms; память анализатора: heap %s, вне heap %s%n",
+            heap.scanMillis(), heap.graphMillis(), tree.millis(),
+            formatBytes(runtime.totalMemory() - runtime.freeMemory()), formatBytes(directMemoryUsed()));
+    }
+
+    /**
+     * retained* по классам (индекс - ClassInfo.index): обход дерева доминаторов
+     * со счетчиком экземпляров каждого класса на текущем пути от корня.
+     * Учитываются только самые верхние экземпляры - их retained-множества не пересекаются.
+     */
+    static long[] retainedByClass(HeapIndex heap, DominatorTree tree) {
+        long[] retained = new long[heap.classes().size()];
+        int[] onPath = new int[retained.length];
+        NativeIntArray stack = new NativeIntArray(1024);
+        NativeIntArray nextChild = new NativeIntArray(1024);
+        stack.append(tree.superRoot());
+        nextChild.append(0);
+        int depth = 1;
+        while (depth > 0) {
+            int v = stack.get(depth - 1);
+            int k = nextChild.get(depth - 1);
+            if (k == tree.childCount(v)) {
+                depth--;
+                if (v != tree.superRoot()) {
+                    onPath[heap.classOf(v).index]--;
+                }
+                continue;
+            }
+            nextChild.set(depth - 1, k + 1);
+            int child = tree.child(v, k);
+            int type = heap.classOf(child).index;
+            if (onPath[type]++ == 0) {
+                retained[type] += tree.retained(child);
+            }
+            if (depth == stack.size()) {
+                stack.append(child);
+                nextChild.append(0);
+            } else {
+                stack.set(depth, child);
+                nextChild.set(depth, 0);
+            }
+            depth++;
+        }
+        return retained;
+    }
+
+    static void printHistogram(HeapIndex heap, long[] retained, int limit) {
+        List<HeapIndex.ClassInfo> classes = new ArrayList<>(heap.classes());
+        classes.sort(Comparator.comparingLong((HeapIndex.ClassInfo c) -> retained[c.index]).reversed());
+        System.out.printf("%nГистограмма классов (top %d по retained*):%n", limit);
+        System.out.printf("  %14s %12s %12s  %s%n", "экземпляров", "shallow", "retained*", "класс");
+        for (HeapIndex.ClassInfo type : classes.subList(0, Math.min(limit, classes.size()))) {
+            System.out.printf("  %,14d %12s %12s  %s%n", type.instances(), formatBytes(type.shallowBytes()),
+                formatBytes(retained[type.index]), type.name());
+        }
+        System.out.println("  * retained верхних экземпляров: без тех, над которыми доминирует экземпляр того же класса");
+    }
+
+    static void printTopDominators(HeapIndex heap, DominatorTree tree) {
+        System.out.printf("%nКрупнейшие доминаторы верхнего уровня (top %d):%n", TOP);
+        for (int v : topChildren(tree, tree.superRoot(), TOP)) {
+            System.out.printf("  %12s %5.1f%%  %s%s%n", formatBytes(tree.retained(v)), percent(tree, v),
+                describe(heap, v), rootSuffix(heap, v));
+        }
+    }
+
+    static void printSuspects(HeapIndex heap, DominatorTree tree) {
+        System.out.printf("%nПодозрения на утечку (>= %.0f%% достижимой памяти):%n", SUSPECT_PERCENT);
+        int number = 0;
+        for (int top : topChildren(tree, tree.superRoot(), MAX_SUSPECTS)) {
+            if (percent(tree, top) < SUSPECT_PERCENT) {
+                break;
+            }
+            number++;
+            System.out.printf("%nПодозрение #%d: %s (%.1f%% достижимой памяти)%n",
+                number, formatBytes(tree.retained(top)), percent(tree, top));
+            List<Integer> chain = dominatorChain(tree, top);
+            System.out.println("  " + describe(heap, top) + rootSuffix(heap, top));
+            for (int i = 1; i < chain.size(); i++) {
+                String via = heap.describeReference(chain.get(i - 1), chain.get(i));
+                System.out.printf("  %s└─ %s → %s (%s)%n", "  ".repeat(Math.min(i - 1, 12)),
+                    via == null ? "…" : via, describe(heap, chain.get(i)), formatBytes(tree.retained(chain.get(i))));
+            }
+            int accumulation = chain.get(chain.size() - 1);
+            String path = fieldPath(heap, chain);
+            if (path != null) {
+                System.out.println("  Путь: " + path);
+            }
+            printAccumulation(heap, tree, accumulation);
+        }
+        if (number == 0) {
+            System.out.println("  Нет доминаторов крупнее порога - память распределена равномерно");
+        }
+    }
+
+    /**
+     * Спуск по дереву доминаторов, пока самый крупный ребенок держит почти всё.
+     */
+    static List<Integer> dominatorChain(DominatorTree tree, int start) {
+        List<Integer> chain = new ArrayList<>();
+        chain.add(start);
+        int v = start;
+        while (chain.size() < MAX_CHAIN && tree.childCount(v) > 0) {
+            int biggest = topChildren(tree, v, 1).get(0);
+            if (tree.retained(biggest) < DESCEND_RATIO * tree.retained(v)) {
+                break;
+            }
+            chain.add(biggest);
+            v = biggest;
+        }
+        return chain;
+    }
+
+    private static void printAccumulation(HeapIndex heap, DominatorTree tree, int v) {
+        Map<HeapIndex.ClassInfo, long[]> byClass = new HashMap<>();
+        for (int k = 0; k < tree.childCount(v); k++) {
+            int child = tree.child(v, k);
+            long[] stats = byClass.computeIfAbsent(heap.classOf(child), c -> new long[2]);
+            stats[0]++;
+            stats[1] += tree.retained(child);
+        }
+        System.out.printf("  Точка накопления: %s держит %,d объектов, %s:%n",
+            describe(heap, v), tree.childCount(v), formatBytes(tree.retained(v)));
+        byClass.entrySet().stream()
+            .sorted((a, b) -> Long.compare(b.getValue()[1], a.getValue()[1]))
+            .limit(5)
+            .forEach(e -> System.out.printf("    %,10d × %-50s %12s%n",
+                e.getValue()[0], e.getKey().name(), formatBytes(e.getValue()[1])));
+    }
+
+    /**
+     * "Класс.статическоеПоле.поле..." от последнего класса в цепочке, если он есть.
+     */
+    private static String fieldPath(HeapIndex heap, List<Integer> chain) {
+        for (int i = chain.size() - 2; i >= 0; i--) {
+            String via = heap.describeReference(chain.get(i), chain.get(i + 1));
+            if (via != null && via.startsWith("static ")) {
+                StringBuilder path = new StringBuilder(heap.classNameOfClassObject(chain.get(i)))
+                    .append('.').append(via.substring("static ".length()));
+                for (int j = i + 1; j < chain.size() - 1; j++) {
+                    String next = heap.describeReference(chain.get(j), chain.get(j + 1));
+                    path.append(next == null ? ".…" : next.startsWith("[") ? next : "." + next);
+                }
+                return path.toString();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * До limit детей v по убыванию retained.
+     */
+    static List<Integer> topChildren(DominatorTree tree, int v, int limit) {
+        PriorityQueue<Integer> top = new PriorityQueue<>(Comparator.comparingLong(tree::retained));
+        for (int k = 0; k < tree.childCount(v); k++) {
+            int child = tree.child(v, k);
+            if (top.size() < limit) {
+                top.add(child);
+            } else if (tree.retained(child) > tree.retained(top.peek())) {
+                top.poll();
+                top.add(child);
+            }
+        }
+        List<Integer> result = new ArrayList<>(top);
+        result.sort(Comparator.comparingLong((Integer c) -> tree.retained(c)).reversed());
+        return result;
+    }
+
+    static String describe(HeapIndex heap, int v) {
+        String className = heap.classNameOfClassObject(v);
+        if (className != null) {
+            return "class " + className;
+        }
+        return String.format("%s @0x%x", heap.classOf(v).name(), heap.objectId(v));
+    }
+
+    private static String rootSuffix(HeapIndex heap, int v) {
+        String root = heap.rootKind(v);
+        return root == null ? "" : " [GC корень: " + root + "]";
+    }
+
+    private static double percent(DominatorTree tree, int v) {
+        return tree.reachableBytes() == 0 ? 0 : tree.retained(v) * 100.0 / tree.reachableBytes();
+    }
+
+    static String formatBytes(long bytes) {
+        if (bytes >= 1L << 30) {
+            return String.format("%,.2f GB", bytes / (double) (1L << 30));
+        } else if (bytes >= 1L << 20) {
+            return String.format("%,.1f MB", bytes / (double) (1L << 20));
+        }
+        return String.format("%,.1f KB", bytes / 1024.0);
+    }
+
+    private static long directMemoryUsed() {
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if (pool.getName().equals("direct")) {
+                return pool.getMemoryUsed();
+            }
+        }
+        return 0;
+    }
+}
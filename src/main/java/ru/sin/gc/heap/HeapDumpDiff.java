@@ -0,0 +1,278 @@
+package ru.sin.gc.heap;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Сравнение двух heap dump'ов одного приложения: что выросло между снимками
+ *
+ * Оба dump'а разбираются параллельно (HeapIndex + DominatorTree - состояние
+ * только в экземплярах, данные вне heap), затем сравниваются:
+ * - классы: Δ экземпляров, Δ shallow, Δ retained* (по имени класса -
+ *   id объектов и классов в разных dump'ах не совпадают)
+ * - пути ссылок (ReferencePaths): Δ объектов в каждой цепочке вида
+ *   EventBus.listeners → CopyOnWriteArrayList.array → Object[][*] → DataProcessor.buffer → byte[]
+ * - подозрения: пути верхнего уровня с наибольшим ростом retained; спуск,
+ *   пока один дочерний путь дает >= 80% роста родителя. Первый шаг, где
+ *   растет число объектов, - точка накопления.
+ *
+ * Утечка из ListenerLeakExample подтверждается одним запуском на двух dump'ах,
+ * снятых с интервалом в несколько минут.
+ *
+ * Параметры:
+ *   два аргумента или -Dheap.before / -Dheap.after   пути к .hprof (до и после)
+ *   -Dheap.top=25                 строк в таблицах классов и путей
+ *   -Dheap.minGrowthMb=1          минимальный рост retained для подозрения
+ *   -Dheap.pathFilter=EventBus    только пути, содержащие подстроку
+ */
+public class HeapDumpDiff {
+
+    private static final int TOP = Integer.getInteger("heap.top", 25);
+    private static final long MIN_GROWTH =
+        (long) (Double.parseDouble(System.getProperty("heap.minGrowthMb", "1")) * 1024 * 1024);
+    private static final String PATH_FILTER = System.getProperty("heap.pathFilter", "");
+    private static final int MAX_SUSPECTS = 5;
+    private static final double DESCEND_RATIO = 0.8;
+
+    /**
+     * Разобранный dump: граф, доминаторы, статистика по именам классов и пути ссылок.
+     */
+    private static final class Snapshot {
+        final HeapIndex heap;
+        final DominatorTree tree;
+        final ReferencePaths paths;
+        // Имя класса -> {экземпляры, shallow, retained*}
+        final Map<String, long[]> classes = new HashMap<>();
+        final long millis;
+
+        Snapshot(Path path) {
+            long start = System.nanoTime();
+            this.heap = HeapIndex.build(path);
+            this.tree = new DominatorTree(heap);
+            long[] retained = HeapDumpAnalyzer.retainedByClass(heap, tree);
+            for (HeapIndex.ClassInfo type : heap.classes()) {
+                // Одноименные классы разных загрузчиков складываются
+                long[] stats = classes.computeIfAbsent(type.name(), name -> new long[3]);
+                stats[0] += type.instances();
+                stats[1] += type.shallowBytes();
+                stats[2] += retained[type.index];
+            }
+            this.paths = new ReferencePaths(heap, tree);
+            this.millis = (System.nanoTime() - start) / 1_000_000;
+        }
+
+        long[] classStats(String name) {
+            return classes.getOrDefault(name, new long[3]);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        String before = args.length > 1 ? args[0] : System.getProperty("heap.before");
+        String after = args.length > 1 ? args[1] : System.getProperty("heap.after");
+        if (before == null || after == null
+                || !Files.isRegularFile(Path.of(before)) || !Files.isRegularFile(Path.of(after))) {
+            System.err.println("Использование: HeapDumpDiff <до.hprof> <после.hprof> (или -Dheap.before=... -Dheap.after=...)");
+            System.exit(1);
+        }
+
+        long start = System.nanoTime();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        Future<Snapshot> baselineFuture = executor.submit(() -> new Snapshot(Path.of(before)));
+        Future<Snapshot> currentFuture = executor.submit(() -> new Snapshot(Path.of(after)));
+        Snapshot baseline = baselineFuture.get();
+        Snapshot current = currentFuture.get();
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+        long wallMillis = (System.nanoTime() - start) / 1_000_000;
+
+        printSummary(baseline, current, wallMillis);
+        printClassDiff(baseline, current);
+        printPathGrowth(baseline, current);
+        printSuspects(baseline, current);
+    }
+
+    private static void printSummary(Snapshot baseline, Snapshot current, long wallMillis) {
+        System.out.println("=== Сравнение heap dump'ов ===");
+        printDump("До:    ", baseline);
+        printDump("После: ", current);
+        long growth = current.tree.reachableBytes() - baseline.tree.reachableBytes();
+        long interval = current.heap.file().timestampMs() - baseline.heap.file().timestampMs();
+        if (interval > 0) {
+            double minutes = interval / 60_000.0;
+            System.out.printf("Между снимками %.1f мин: достижимая память %s (%s/мин)%n",
+                minutes, formatDelta(growth), formatDelta((long) (growth / minutes)));
+        } else {
+            System.out.printf("Достижимая память: %s%n", formatDelta(growth));
+        }
+        System.out.printf("Разбор параллельно: %,d ms (по отдельности %,d + %,d ms)%n",
+            wallMillis, baseline.millis, current.millis);
+    }
+
+    private static void printDump(String label, Snapshot snapshot) {
+        HprofFile file = snapshot.heap.file();
+        System.out.printf("%s%s (%s, снят %s): объектов %,d, достижимо %s%n", label, file.path(),
+            HeapDumpAnalyzer.formatBytes(file.length()), Instant.ofEpochMilli(file.timestampMs()),
+            snapshot.heap.objectCount(), HeapDumpAnalyzer.formatBytes(snapshot.tree.reachableBytes()));
+    }
+
+    private static void printClassDiff(Snapshot baseline, Snapshot current) {
+        TreeSet<String> names = new TreeSet<>(baseline.classes.keySet());
+        names.addAll(current.classes.keySet());
+        List<String> grown = new ArrayList<>();
+        for (String name : names) {
+            if (delta(baseline.classStats(name), current.classStats(name), 0) > 0
+                    || delta(baseline.classStats(name), current.classStats(name), 2) > 0) {
+                grown.add(name);
+            }
+        }
+        grown.sort(Comparator.comparingLong((String name) ->
+            delta(baseline.classStats(name), current.classStats(name), 2)).reversed());
+
+        System.out.printf("%nРост по классам (top %d по Δ retained*):%n", TOP);
+        System.out.printf("  %14s %14s %12s %12s %12s  %s%n",
+            "Δ экземпляров", "экземпляров", "Δ shallow", "Δ retained*", "retained*", "класс");
+        for (String name : grown.subList(0, Math.min(TOP, grown.size()))) {
+            long[] was = baseline.classStats(name);
+            long[] now = current.classStats(name);
+            System.out.printf("  %+,14d %,14d %12s %12s %12s  %s%n", delta(was, now, 0), now[0],
+                formatDelta(delta(was, now, 1)), formatDelta(delta(was, now, 2)),
+                HeapDumpAnalyzer.formatBytes(now[2]), name);
+        }
+        if (grown.isEmpty()) {
+            System.out.println("  Ни один класс не вырос");
+        }
+    }
+
+    private static void printPathGrowth(Snapshot baseline, Snapshot current) {
+        ReferencePaths paths = current.paths;
+        List<Integer> grown = new ArrayList<>();
+        for (int node = 0; node < paths.size(); node++) {
+            if (paths.count(node) > baselineCount(baseline, paths, node)
+                    && (PATH_FILTER.isEmpty() || paths.staticPath(node).contains(PATH_FILTER))) {
+                grown.add(node);
+            }
+        }
+        grown.sort(Comparator.comparingLong((Integer node) ->
+            paths.count(node) - baselineCount(baseline, paths, node)).reversed());
+
+        System.out.printf("%nРост путей ссылок (top %d по Δ объектов%s):%n", TOP,
+            PATH_FILTER.isEmpty() ? "" : ", фильтр \"" + PATH_FILTER + "\"");
+        System.out.printf("  %14s %14s %12s  %s%n", "Δ объектов", "объектов", "Δ retained", "путь");
+        for (int node : grown.subList(0, Math.min(TOP, grown.size()))) {
+            System.out.printf("  %+,14d %,14d %12s  %s%n",
+                paths.count(node) - baselineCount(baseline, paths, node), paths.count(node),
+                formatDelta(retainedGrowth(baseline, paths, node)), paths.staticPath(node));
+        }
+        if (grown.isEmpty()) {
+            System.out.println("  Ни один путь не вырос");
+        }
+    }
+
+    private static void printSuspects(Snapshot baseline, Snapshot current) {
+        ReferencePaths paths = current.paths;
+        List<Integer> tops = paths.children(ReferencePaths.NONE);
+        tops.sort(Comparator.comparingLong((Integer node) -> retainedGrowth(baseline, paths, node)).reversed());
+        long totalGrowth = current.tree.reachableBytes() - baseline.tree.reachableBytes();
+
+        System.out.printf("%nПодозрения на утечку (рост retained >= %s):%n", HeapDumpAnalyzer.formatBytes(MIN_GROWTH));
+        int number = 0;
+        for (int top : tops) {
+            long growth = retainedGrowth(baseline, paths, top);
+            if (number == MAX_SUSPECTS || growth < MIN_GROWTH) {
+                break;
+            }
+            number++;
+            List<Integer> chain = growthChain(baseline, paths, top);
+            int last = chain.get(chain.size() - 1);
+            System.out.printf("%nПодозрение #%d: %s retained%s%n", number, formatDelta(growth),
+                totalGrowth > 0 ? String.format(" (%.0f%% роста достижимой памяти)", growth * 100.0 / totalGrowth) : "");
+            System.out.println("  " + paths.staticPath(last));
+            System.out.printf("    %-66s %22s %26s%n", "шаг", "объектов до → после", "retained до → после");
+            boolean accumulationMarked = false;
+            for (int node : chain) {
+                long wasCount = baselineCount(baseline, paths, node);
+                boolean accumulation = !accumulationMarked && paths.count(node) > wasCount;
+                accumulationMarked |= accumulation;
+                System.out.printf("    %-66s %,10d → %,-9d %12s → %-12s%s%n", paths.step(node),
+                    wasCount, paths.count(node),
+                    HeapDumpAnalyzer.formatBytes(paths.retained(node) - retainedGrowth(baseline, paths, node)),
+                    HeapDumpAnalyzer.formatBytes(paths.retained(node)),
+                    accumulation ? "  ← накопление" : "");
+            }
+            printSplit(baseline, paths, last);
+        }
+        if (number == 0) {
+            System.out.println("  Нет путей с таким ростом - утечка между снимками не видна");
+        }
+    }
+
+    /**
+     * Спуск по путям, пока один дочерний путь дает почти весь рост.
+     */
+    private static List<Integer> growthChain(Snapshot baseline, ReferencePaths paths, int start) {
+        List<Integer> chain = new ArrayList<>();
+        chain.add(start);
+        int node = start;
+        while (true) {
+            int biggest = ReferencePaths.NONE;
+            for (int child : paths.children(node)) {
+                if (biggest == ReferencePaths.NONE
+                        || retainedGrowth(baseline, paths, child) > retainedGrowth(baseline, paths, biggest)) {
+                    biggest = child;
+                }
+            }
+            if (biggest == ReferencePaths.NONE
+                    || retainedGrowth(baseline, paths, biggest) < DESCEND_RATIO * retainedGrowth(baseline, paths, node)) {
+                return chain;
+            }
+            chain.add(biggest);
+            node = biggest;
+        }
+    }
+
+    /**
+     * Если рост на конце цепочки делится между несколькими путями - крупнейшие из них.
+     */
+    private static void printSplit(Snapshot baseline, ReferencePaths paths, int node) {
+        List<Integer> children = paths.children(node);
+        children.removeIf(child -> retainedGrowth(baseline, paths, child) <= 0);
+        if (children.size() < 2) {
+            return;
+        }
+        children.sort(Comparator.comparingLong((Integer child) -> retainedGrowth(baseline, paths, child)).reversed());
+        System.out.println("  Рост делится между путями:");
+        for (int child : children.subList(0, Math.min(5, children.size()))) {
+            System.out.printf("    %12s %+,10d объектов  %s%n", formatDelta(retainedGrowth(baseline, paths, child)),
+                paths.count(child) - baselineCount(baseline, paths, child), paths.step(child));
+        }
+    }
+
+    private static long baselineCount(Snapshot baseline, ReferencePaths paths, int node) {
+        int was = baseline.paths.find(paths.hash(node));
+        return was == ReferencePaths.NONE ? 0 : baseline.paths.count(was);
+    }
+
+    private static long retainedGrowth(Snapshot baseline, ReferencePaths paths, int node) {
+        int was = baseline.paths.find(paths.hash(node));
+        return paths.retained(node) - (was == ReferencePaths.NONE ? 0 : baseline.paths.retained(was));
+    }
+
+    private static long delta(long[] was, long[] now, int column) {
+        return now[column] - was[column];
+    }
+
+    private static String formatDelta(long bytes) {
+        return (bytes < 0 ? "-" : "+") + HeapDumpAnalyzer.formatBytes(Math.abs(bytes));
+    }
+}
@@ -0,0 +1,633 @@
+package ru.sin.gc.heap;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static ru.sin.gc.heap.HprofFile.*;
+
+/**
+ * Индекс объектов и граф ссылок heap dump'а в примитивных массивах вне heap
+ *
+ * Два прохода по отображенному файлу:
+ * 1. Последовательный: строки (id -> смещение), LOAD_CLASS, CLASS_DUMP
+ *    (разбираются в ClassInfo - классов немного), для каждого объекта - пара
+ *    (id, смещение записи), для корней - id и тип.
+ * 2. Объекты в порядке возрастания id: класс, shallow size и исходящие ссылки
+ *    в CSR-формате (edgeStart[i] .. edgeStart[i + 1] - номера объектов в edges).
+ *
+ * Номер объекта - позиция его id в отсортированном массиве id, поиск по id -
+ * двоичный (HotSpot пишет объекты в порядке адресов, сортировка обычно не нужна).
+ * На объект уходит 36 байт вне heap (id, смещение записи, класс, shallow size,
+ * начало ссылок) плюс 4 байта на ссылку; в heap - только классы. Смещения
+ * остаются после построения: по ним describeReference() и
+ * classNameOfClassObject() читают запись объекта из файла.
+ *
+ * Ссылки: поля экземпляра (по всей цепочке суперклассов), элементы Object[],
+ * объект -> его класс, класс -> статические поля, суперкласс, загрузчик,
+ * signers, protection domain. Shallow size - оценка по данным dump'а:
+ * заголовок 16 байт + поля/элементы (ссылка - размер id), выравнивание 8.
+ */
+final class HeapIndex {
+
+    private static final int HEADER_BYTES = 16;
+    private static final long REF_SUPER = -1;
+    private static final long REF_LOADER = -2;
+    private static final long REF_SIGNERS = -3;
+    private static final long REF_PROTECTION_DOMAIN = -4;
+    private static final long REF_CONSTANT_POOL = -5;
+    private static final String PRIMITIVE_CODES = "ZCFDBSIJ";
+    private static final String[] PRIMITIVE_NAMES =
+        {"boolean", "char", "float", "double", "byte", "short", "int", "long"};
+
+    /**
+     * Класс из CLASS_DUMP и накопленная по нему статистика.
+     */
+    static final class ClassInfo {
+        final long id;
+        final long superId;
+        final int[] fieldTypes;
+        final long[] fieldNameIds;
+        // Исходящие ссылки класса: id объекта и id имени статического поля (или REF_*)
+        final long[] refIds;
+        final long[] refNameIds;
+        final long staticBytes;
+
+        int index;
+        String name;
+        ClassInfo superClass;
+        long instances;
+        long shallowBytes;
+
+        ClassInfo(long id, long superId, int[] fieldTypes, long[] fieldNameIds,
+                  long[] refIds, long[] refNameIds, long staticBytes) {
+            this.id = id;
+            this.superId = superId;
+            this.fieldTypes = fieldTypes;
+            this.fieldNameIds = fieldNameIds;
+            this.refIds = refIds;
+            this.refNameIds = refNameIds;
+            this.staticBytes = staticBytes;
+        }
+
+        String name() {
+            return name;
+        }
+
+        long instances() {
+            return instances;
+        }
+
+        long shallowBytes() {
+            return shallowBytes;
+        }
+    }
+
+    private final HprofFile file;
+    private final int idSize;
+
+    private final NativeLongArray stringIds = new NativeLongArray(1 << 16);
+    private final NativeLongArray stringOffsets = new NativeLongArray(1 << 16);
+    private final Map<Long, Long> classNameIds = new HashMap<>();
+    private final Map<Long, ClassInfo> classById = new HashMap<>();
+    private final List<ClassInfo> classes = new ArrayList<>();
+    private final ClassInfo[] primitiveArrayClasses = new ClassInfo[TYPE_LONG + 1];
+    private ClassInfo classClass;
+
+    private final NativeLongArray ids = new NativeLongArray(1 << 20);
+    private final NativeLongArray offsets = new NativeLongArray(1 << 20);
+    private final NativeLongArray rootIds = new NativeLongArray(1 << 12);
+    private final NativeIntArray rootTags = new NativeIntArray(1 << 12);
+
+    private NativeIntArray classOf;
+    private NativeLongArray shallow;
+    private NativeLongArray edgeStart;
+    private NativeIntArray edges;
+    private NativeIntArray roots;
+    private final Map<Integer, Integer> rootKinds = new HashMap<>();
+    private long totalShallow;
+
+    private long scanMillis;
+    private long graphMillis;
+
+    private HeapIndex(HprofFile file) {
+        this.file = file;
+        this.idSize = file.idSize();
+    }
+
+    /**
+     * Разобрать dump и построить индекс.
+     */
+    static HeapIndex build(Path path) {
+        HeapIndex index = new HeapIndex(new HprofFile(path));
+        long start = System.nanoTime();
+        index.scan();
+        index.resolve();
+        long scanned = System.nanoTime();
+        index.buildGraph();
+        index.scanMillis = (scanned - start) / 1_000_000;
+        index.graphMillis = (System.nanoTime() - scanned) / 1_000_000;
+        return index;
+    }
+
+    // ---------------------------------------------------------------- проход 1
+
+    private void scan() {
+        long position = file.firstRecord();
+        long end = file.length();
+        while (position + 9 <= end) {
+            int tag = file.u1(position);
+            long length = file.u4(position + 5) & 0xFFFFFFFFL;
+            long body = position + 9;
+            switch (tag) {
+                case TAG_STRING:
+                    stringIds.append(file.id(body));
+                    stringOffsets.append(body);
+                    break;
+                case TAG_LOAD_CLASS:
+                    classNameIds.put(file.id(body + 4), file.id(body + 8 + idSize));
+                    break;
+                case TAG_HEAP_DUMP:
+                case TAG_HEAP_DUMP_SEGMENT:
+                    scanHeap(body, Math.min(end, body + length));
+                    break;
+                default:
+                    break;
+            }
+            position = body + length;
+        }
+    }
+
+    private void scanHeap(long position, long end) {
+        while (position < end) {
+            int tag = file.u1(position);
+            long body = position + 1;
+            switch (tag) {
+                case ROOT_UNKNOWN:
+                case ROOT_STICKY_CLASS:
+                case ROOT_MONITOR_USED:
+                    addRoot(file.id(body), tag);
+                    position = body + idSize;
+                    break;
+                case ROOT_JNI_GLOBAL:
+                    addRoot(file.id(body), tag);
+                    position = body + 2L * idSize;
+                    break;
+                case ROOT_JNI_LOCAL:
+                case ROOT_JAVA_FRAME:
+                case ROOT_THREAD_OBJECT:
+                    addRoot(file.id(body), tag);
+                    position = body + idSize + 8;
+                    break;
+                case ROOT_NATIVE_STACK:
+                case ROOT_THREAD_BLOCK:
+                    addRoot(file.id(body), tag);
+                    position = body + idSize + 4;
+                    break;
+                case CLASS_DUMP:
+                    addObject(file.id(body), position);
+                    position = readClass(body);
+                    break;
+                case INSTANCE_DUMP:
+                    addObject(file.id(body), position);
+                    position = body + 2L * idSize + 8 + (file.u4(body + 2L * idSize + 4) & 0xFFFFFFFFL);
+                    break;
+                case OBJECT_ARRAY_DUMP:
+                    addObject(file.id(body), position);
+                    position = body + 2L * idSize + 8 + (file.u4(body + idSize + 4) & 0xFFFFFFFFL) * idSize;
+                    break;
+                case PRIMITIVE_ARRAY_DUMP:
+                    addObject(file.id(body), position);
+                    position = body + idSize + 9
+                        + (file.u4(body + idSize + 4) & 0xFFFFFFFFL) * file.typeSize(file.u1(body + idSize + 8));
+                    break;
+                default:
+                    throw new IllegalStateException(String.format(
+                        "Неизвестная подзапись heap dump 0x%02x по смещению %,d", tag, position));
+            }
+        }
+    }
+
+    private void addRoot(long id, int tag) {
+        rootIds.append(id);
+        rootTags.append(tag);
+    }
+
+    private void addObject(long id, long position) {
+        ids.append(id);
+        offsets.append(position);
+    }
+
+    /**
+     * Разобрать CLASS_DUMP; возвращает позицию после записи.
+     */
+    private long readClass(long body) {
+        long position = body;
+        long id = file.id(position);
+        position += idSize + 4;
+        List<long[]> refs = new ArrayList<>();
+        long superId = file.id(position);
+        addClassRef(refs, superId, REF_SUPER);
+        addClassRef(refs, file.id(position + idSize), REF_LOADER);
+        addClassRef(refs, file.id(position + 2L * idSize), REF_SIGNERS);
+        addClassRef(refs, file.id(position + 3L * idSize), REF_PROTECTION_DOMAIN);
+        // + два зарезервированных id и u4 instance size
+        position += 6L * idSize + 4;
+
+        int constants = file.u2(position);
+        position += 2;
+        for (int i = 0; i < constants; i++) {
+            int type = file.u1(position + 2);
+            if (type == TYPE_OBJECT) {
+                addClassRef(refs, file.id(position + 3), REF_CONSTANT_POOL);
+            }
+            position += 3 + file.typeSize(type);
+        }
+
+        int statics = file.u2(position);
+        position += 2;
+        long staticBytes = 0;
+        for (int i = 0; i < statics; i++) {
+            long nameId = file.id(position);
+            int type = file.u1(position + idSize);
+            if (type == TYPE_OBJECT) {
+                addClassRef(refs, file.id(position + idSize + 1), nameId);
+            }
+            staticBytes += file.typeSize(type);
+            position += idSize + 1 + file.typeSize(type);
+        }
+
+        int fields = file.u2(position);
+        position += 2;
+        int[] fieldTypes = new int[fields];
+        long[] fieldNameIds = new long[fields];
+        for (int i = 0; i < fields; i++) {
+            fieldNameIds[i] = file.id(position);
+            fieldTypes[i] = file.u1(position + idSize);
+            position += idSize + 1;
+        }
+
+        long[] refIds = new long[refs.size()];
+        long[] refNameIds = new long[refs.size()];
+        for (int i = 0; i < refIds.length; i++) {
+            refIds[i] = refs.get(i)[0];
+            refNameIds[i] = refs.get(i)[1];
+        }
+        ClassInfo info = new ClassInfo(id, superId, fieldTypes, fieldNameIds, refIds, refNameIds, staticBytes);
+        classById.put(id, info);
+        return position;
+    }
+
+    private static void addClassRef(List<long[]> refs, long id, long nameId) {
+        if (id != 0) {
+            refs.add(new long[]{id, nameId});
+        }
+    }
+
+    /**
+     * Сортировка по id, имена и иерархия классов, корни - в номера объектов.
+     */
+    private void resolve() {
+        if (!stringIds.isSorted()) {
+            NativeLongArray.sortPairs(stringIds, stringOffsets);
+        }
+        if (!ids.isSorted()) {
+            NativeLongArray.sortPairs(ids, offsets);
+        }
+        if (ids.size() > Integer.MAX_VALUE - 1) {
+            throw new IllegalStateException("Слишком много объектов для int индекса: " + ids.size());
+        }
+
+        Map<String, ClassInfo> byName = new HashMap<>();
+        for (ClassInfo info : classById.values()) {
+            Long nameId = classNameIds.get(info.id);
+            String internal = nameId == null ? null : string(nameId);
+            info.name = internal == null ? String.format("<класс 0x%x>", info.id) : prettyName(internal);
+            info.superClass = classById.get(info.superId);
+            info.index = classes.size();
+            classes.add(info);
+            if (internal != null) {
+                byName.put(internal, info);
+            }
+        }
+        classClass = syntheticIfAbsent(byName, "java/lang/Class");
+        for (int type = TYPE_BOOLEAN; type <= TYPE_LONG; type++) {
+            primitiveArrayClasses[type] = syntheticIfAbsent(byName, primitiveArrayName(type));
+        }
+
+        roots = new NativeIntArray(rootIds.size());
+        for (long i = 0; i < rootIds.size(); i++) {
+            long index = ids.binarySearch(rootIds.get(i));
+            if (index >= 0) {
+                roots.append((int) index);
+                rootKinds.putIfAbsent((int) index, rootTags.get(i));
+            }
+        }
+    }
+
+    private ClassInfo syntheticIfAbsent(Map<String, ClassInfo> byName, String internalName) {
+        return byName.computeIfAbsent(internalName, name -> {
+            ClassInfo info = new ClassInfo(0, 0, new int[0], new long[0], new long[0], new long[0], 0);
+            info.name = prettyName(name);
+            info.index = classes.size();
+            classes.add(info);
+            return info;
+        });
+    }
+
+    // ---------------------------------------------------------------- проход 2
+
+    private void buildGraph() {
+        long count = ids.size();
+        classOf = NativeIntArray.filled(count, 0);
+        shallow = NativeLongArray.filled(count, 0);
+        edgeStart = NativeLongArray.filled(count + 1, 0);
+        edges = new NativeIntArray(count * 2);
+        ClassInfo unknown = null;
+
+        for (long i = 0; i < count; i++) {
+            edgeStart.set(i, edges.size());
+            long position = offsets.get(i);
+            long body = position + 1;
+            ClassInfo type;
+            long size;
+            switch (file.u1(position)) {
+                case CLASS_DUMP: {
+                    ClassInfo described = classById.get(ids.get(i));
+                    for (long ref : described.refIds) {
+                        addEdge(ref);
+                    }
+                    type = classClass;
+                    size = align(HEADER_BYTES + described.staticBytes);
+                    break;
+                }
+                case INSTANCE_DUMP: {
+                    long classId = file.id(body + idSize + 4);
+                    type = classById.get(classId);
+                    if (type == null) {
+                        unknown = unknown != null ? unknown : syntheticUnknown();
+                        type = unknown;
+                    }
+                    long dataBytes = file.u4(body + 2L * idSize + 4) & 0xFFFFFFFFL;
+                    size = align(HEADER_BYTES + dataBytes);
+                    addEdge(classId);
+                    long field = body + 2L * idSize + 8;
+                    for (ClassInfo k = type; k != null; k = k.superClass) {
+                        for (int f = 0; f < k.fieldTypes.length; f++) {
+                            if (k.fieldTypes[f] == TYPE_OBJECT) {
+                                addEdge(file.id(field));
+                            }
+                            field += file.typeSize(k.fieldTypes[f]);
+                        }
+                    }
+                    break;
+                }
+                case OBJECT_ARRAY_DUMP: {
+                    long length = file.u4(body + idSize + 4) & 0xFFFFFFFFL;
+                    long classId = file.id(body + idSize + 8);
+                    type = classById.get(classId);
+                    if (type == null) {
+                        unknown = unknown != null ? unknown : syntheticUnknown();
+                        type = unknown;
+                    }
+                    size = align(HEADER_BYTES + length * idSize);
+                    addEdge(classId);
+                    long element = body + 2L * idSize + 8;
+                    for (long e = 0; e < length; e++) {
+                        addEdge(file.id(element + e * idSize));
+                    }
+                    break;
+                }
+                default: {
+                    long length = file.u4(body + idSize + 4) & 0xFFFFFFFFL;
+                    int elementType = file.u1(body + idSize + 8);
+                    type = primitiveArrayClasses[elementType];
+                    size = align(HEADER_BYTES + length * file.typeSize(elementType));
+                    break;
+                }
+            }
+            classOf.set(i, type.index);
+            shallow.set(i, size);
+            type.instances++;
+            type.shallowBytes += size;
+            totalShallow += size;
+        }
+        edgeStart.set(count, edges.size());
+    }
+
+    private void addEdge(long targetId) {
+        if (targetId != 0) {
+            long target = ids.binarySearch(targetId);
+            if (target >= 0) {
+                edges.append((int) target);
+            }
+        }
+    }
+
+    private ClassInfo syntheticUnknown() {
+        ClassInfo info = new ClassInfo(0, 0, new int[0], new long[0], new long[0], new long[0], 0);
+        info.name = "<класс не найден в dump>";
+        info.index = classes.size();
+        classes.add(info);
+        return info;
+    }
+
+    private static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+
+    // ---------------------------------------------------------------- доступ
+
+    int objectCount() {
+        return (int) ids.size();
+    }
+
+    long objectId(int index) {
+        return ids.get(index);
+    }
+
+    ClassInfo classOf(int index) {
+        return classes.get(classOf.get(index));
+    }
+
+    long shallowSize(int index) {
+        return shallow.get(index);
+    }
+
+    long edgeStart(int index) {
+        return edgeStart.get(index);
+    }
+
+    long edgeEnd(int index) {
+        return edgeStart.get(index + 1L);
+    }
+
+    int edgeTarget(long edge) {
+        return edges.get(edge);
+    }
+
+    long edgeCount() {
+        return edges.size();
+    }
+
+    long rootCount() {
+        return roots.size();
+    }
+
+    int root(long k) {
+        return roots.get(k);
+    }
+
+    /**
+     * Тип GC корня объекта или null, если объект не корень.
+     */
+    String rootKind(int index) {
+        Integer tag = rootKinds.get(index);
+        if (tag == null) {
+            return null;
+        }
+        switch (tag) {
+            case ROOT_JNI_GLOBAL:
+                return "JNI global";
+            case ROOT_JNI_LOCAL:
+                return "JNI local";
+            case ROOT_JAVA_FRAME:
+                return "Java frame";
+            case ROOT_NATIVE_STACK:
+                return "native stack";
+            case ROOT_STICKY_CLASS:
+                return "system class";
+            case ROOT_THREAD_BLOCK:
+                return "thread block";
+            case ROOT_MONITOR_USED:
+                return "busy monitor";
+            case ROOT_THREAD_OBJECT:
+                return "thread";
+            default:
+                return "unknown";
+        }
+    }
+
+    List<ClassInfo> classes() {
+        return classes;
+    }
+
+    long totalShallow() {
+        return totalShallow;
+    }
+
+    HprofFile file() {
+        return file;
+    }
+
+    long scanMillis() {
+        return scanMillis;
+    }
+
+    long graphMillis() {
+        return graphMillis;
+    }
+
+    /**
+     * Имя класса, если объект - сам класс (CLASS_DUMP), иначе null.
+     */
+    String classNameOfClassObject(int index) {
+        if (file.u1(offsets.get(index)) != CLASS_DUMP) {
+            return null;
+        }
+        return classById.get(ids.get(index)).name;
+    }
+
+    /**
+     * Как объект from ссылается на to: имя поля, статического поля или индекс
+     * элемента; null, если прямой ссылки нет.
+     */
+    String describeReference(int from, int to) {
+        long targetId = ids.get(to);
+        long position = offsets.get(from);
+        long body = position + 1;
+        switch (file.u1(position)) {
+            case CLASS_DUMP: {
+                ClassInfo described = classById.get(ids.get(from));
+                for (int i = 0; i < described.refIds.length; i++) {
+                    if (described.refIds[i] == targetId) {
+                        return refName(described.refNameIds[i]);
+                    }
+                }
+                return null;
+            }
+            case INSTANCE_DUMP: {
+                long field = body + 2L * idSize + 8;
+                for (ClassInfo k = classOf(from); k != null; k = k.superClass) {
+                    for (int f = 0; f < k.fieldTypes.length; f++) {
+                        if (k.fieldTypes[f] == TYPE_OBJECT && file.id(field) == targetId) {
+                            return string(k.fieldNameIds[f]);
+                        }
+                        field += file.typeSize(k.fieldTypes[f]);
+                    }
+                }
+                return file.id(body + idSize + 4) == targetId ? "<class>" : null;
+            }
+            case OBJECT_ARRAY_DUMP: {
+                long length = file.u4(body + idSize + 4) & 0xFFFFFFFFL;
+                long element = body + 2L * idSize + 8;
+                for (long e = 0; e < length; e++) {
+                    if (file.id(element + e * idSize) == targetId) {
+                        return "[" + e + "]";
+                    }
+                }
+                return file.id(body + idSize + 8) == targetId ? "<class>" : null;
+            }
+            default:
+                return null;
+        }
+    }
+
+    private String refName(long nameId) {
+        if (nameId == REF_SUPER) {
+            return "<super>";
+        } else if (nameId == REF_LOADER) {
+            return "<classloader>";
+        } else if (nameId == REF_SIGNERS) {
+            return "<signers>";
+        } else if (nameId == REF_PROTECTION_DOMAIN) {
+            return "<protection domain>";
+        } else if (nameId == REF_CONSTANT_POOL) {
+            return "<constant pool>";
+        }
+        return "static " + string(nameId);
+    }
+
+    /**
+     * Строка по id записи STRING или null.
+     */
+    String string(long id) {
+        long index = stringIds.binarySearch(id);
+        if (index < 0) {
+            return null;
+        }
+        long body = stringOffsets.get(index);
+        int length = file.u4(body - 4) - idSize;
+        return file.utf8(body + idSize, length);
+    }
+
+    /**
+     * Внутреннее имя класса ("java/lang/String", "[[I") в имя для отчета.
+     */
+    static String prettyName(String internal) {
+        int dimensions = 0;
+        while (dimensions < internal.length() && internal.charAt(dimensions) == '[') {
+            dimensions++;
+        }
+        if (dimensions == 0) {
+            return internal.replace('/', '.');
+        }
+        char kind = internal.charAt(dimensions);
+        int primitive = PRIMITIVE_CODES.indexOf(kind);
+        String element = primitive >= 0 ? PRIMITIVE_NAMES[primitive]
+            : internal.substring(dimensions + 1, internal.length() - 1).replace('/', '.');
+        return element + "[]".repeat(dimensions);
+    }
+}
@@ -0,0 +1,213 @@
+package ru.sin.gc.heap;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * HPROF файл, отображенный в память, с чтением по абсолютному смещению
+ *
+ * Файл не читается в heap: он отображается регионами по 1 GB
+ * (MappedByteBuffer ограничен 2 GB), данные подтягивает page cache по мере
+ * обращения. Каждый регион отображается с перекрытием в несколько байт,
+ * поэтому примитив, начинающийся в регионе, всегда читается из него целиком.
+ *
+ * Формат (big-endian):
+ *   "JAVA PROFILE 1.0.2\0", u4 размер id, u8 время (мс)
+ *   записи: u1 тег, u4 смещение времени, u4 длина, тело
+ * Heap лежит в записях HEAP_DUMP / HEAP_DUMP_SEGMENT как поток подзаписей
+ * (корни, CLASS_DUMP, INSTANCE_DUMP, массивы), см. HeapIndex.
+ */
+final class HprofFile {
+
+    // Записи верхнего уровня
+    static final int TAG_STRING = 0x01;
+    static final int TAG_LOAD_CLASS = 0x02;
+    static final int TAG_HEAP_DUMP = 0x0C;
+    static final int TAG_HEAP_DUMP_SEGMENT = 0x1C;
+
+    // Подзаписи heap dump
+    static final int ROOT_UNKNOWN = 0xFF;
+    static final int ROOT_JNI_GLOBAL = 0x01;
+    static final int ROOT_JNI_LOCAL = 0x02;
+    static final int ROOT_JAVA_FRAME = 0x03;
+    static final int ROOT_NATIVE_STACK = 0x04;
+    static final int ROOT_STICKY_CLASS = 0x05;
+    static final int ROOT_THREAD_BLOCK = 0x06;
+    static final int ROOT_MONITOR_USED = 0x07;
+    static final int ROOT_THREAD_OBJECT = 0x08;
+    static final int CLASS_DUMP = 0x20;
+    static final int INSTANCE_DUMP = 0x21;
+    static final int OBJECT_ARRAY_DUMP = 0x22;
+    static final int PRIMITIVE_ARRAY_DUMP = 0x23;
+
+    // Базовые типы полей и элементов массивов
+    static final int TYPE_OBJECT = 2;
+    static final int TYPE_BOOLEAN = 4;
+    static final int TYPE_CHAR = 5;
+    static final int TYPE_FLOAT = 6;
+    static final int TYPE_DOUBLE = 7;
+    static final int TYPE_BYTE = 8;
+    static final int TYPE_SHORT = 9;
+    static final int TYPE_INT = 10;
+    static final int TYPE_LONG = 11;
+
+    private static final int REGION_SHIFT = 30;
+    private static final long REGION_SIZE = 1L << REGION_SHIFT;
+    private static final long REGION_MASK = REGION_SIZE - 1;
+    private static final int REGION_OVERLAP = 64;
+
+    private final Path path;
+    private final long length;
+    private final MappedByteBuffer[] regions;
+    private final String format;
+    private final int idSize;
+    private final long timestampMs;
+    private final long firstRecord;
+
+    HprofFile(Path path) {
+        this.path = path;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            this.length = channel.size();
+            int count = (int) ((length + REGION_SIZE - 1) >>> REGION_SHIFT);
+            this.regions = new MappedByteBuffer[count];
+            for (int i = 0; i < count; i++) {
+                long position = (long) i << REGION_SHIFT;
+                long size = Math.min(REGION_SIZE + REGION_OVERLAP, length - position);
+                // Отображение живет и после закрытия канала
+                regions[i] = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Не удалось отобразить " + path, e);
+        }
+
+        long position = 0;
+        while (position < length && u1(position) != 0) {
+            position++;
+        }
+        this.format = utf8(0, (int) position);
+        if (!format.startsWith("JAVA PROFILE")) {
+            throw new IllegalArgumentException(path + " - не HPROF файл (заголовок: " + format + ")");
+        }
+        this.idSize = u4(position + 1);
+        if (idSize != 4 && idSize != 8) {
+            throw new IllegalArgumentException("Неподдерживаемый размер id: " + idSize);
+        }
+        this.timestampMs = u8(position + 5);
+        this.firstRecord = position + 13;
+    }
+
+    int u1(long position) {
+        return region(position).get(offset(position)) & 0xFF;
+    }
+
+    int u2(long position) {
+        return region(position).getShort(offset(position)) & 0xFFFF;
+    }
+
+    int u4(long position) {
+        return region(position).getInt(offset(position));
+    }
+
+    long u8(long position) {
+        return region(position).getLong(offset(position));
+    }
+
+    long id(long position) {
+        return idSize == 8 ? u8(position) : u4(position) & 0xFFFFFFFFL;
+    }
+
+    String utf8(long position, int byteCount) {
+        byte[] bytes = new byte[byteCount];
+        for (int i = 0; i < byteCount; i++) {
+            bytes[i] = (byte) u1(position + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Размер значения базового типа в dump'е.
+     */
+    int typeSize(int type) {
+        switch (type) {
+            case TYPE_OBJECT:
+                return idSize;
+            case TYPE_BOOLEAN:
+            case TYPE_BYTE:
+                return 1;
+            case TYPE_CHAR:
+            case TYPE_SHORT:
+                return 2;
+            case TYPE_FLOAT:
+            case TYPE_INT:
+                return 4;
+            case TYPE_DOUBLE:
+            case TYPE_LONG:
+                return 8;
+            default:
+                throw new IllegalStateException("Неизвестный базовый тип " + type);
+        }
+    }
+
+    /**
+     * Внутреннее имя класса массива для типа элементов PRIMITIVE_ARRAY_DUMP.
+     */
+    static String primitiveArrayName(int type) {
+        switch (type) {
+            case TYPE_BOOLEAN:
+                return "[Z";
+            case TYPE_CHAR:
+                return "[C";
+            case TYPE_FLOAT:
+                return "[F";
+            case TYPE_DOUBLE:
+                return "[D";
+            case TYPE_BYTE:
+                return "[B";
+            case TYPE_SHORT:
+                return "[S";
+            case TYPE_INT:
+                return "[I";
+            case TYPE_LONG:
+                return "[J";
+            default:
+                throw new IllegalStateException("Неизвестный тип элементов массива " + type);
+        }
+    }
+
+    Path path() {
+        return path;
+    }
+
+    long length() {
+        return length;
+    }
+
+    String format() {
+        return format;
+    }
+
+    int idSize() {
+        return idSize;
+    }
+
+    long timestampMs() {
+        return timestampMs;
+    }
+
+    long firstRecord() {
+        return firstRecord;
+    }
+
+    private MappedByteBuffer region(long position) {
+        return regions[(int) (position >>> REGION_SHIFT)];
+    }
+
+    private static int offset(long position) {
+        return (int) (position & REGION_MASK);
+    }
+}
@@ -0,0 +1,91 @@
+package ru.sin.gc.heap;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+/**
+ * Растущий массив int вне heap с индексом long - пара к NativeLongArray
+ *
+ * Сегменты по 2^28 элементов (1 GB), полные все, кроме последнего.
+ * Не потокобезопасен.
+ */
+final class NativeIntArray {
+
+    private static final int SEGMENT_SHIFT = 28;
+    private static final int SEGMENT_SIZE = 1 << SEGMENT_SHIFT;
+    private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+    private static final int MIN_SEGMENT = 1024;
+
+    private IntBuffer[] segments = new IntBuffer[0];
+    private long capacity;
+    private long size;
+
+    NativeIntArray(long initialCapacity) {
+        ensureCapacity(initialCapacity);
+    }
+
+    /**
+     * Массив заданного размера, заполненный value.
+     */
+    static NativeIntArray filled(long size, int value) {
+        NativeIntArray array = new NativeIntArray(size);
+        array.size = size;
+        if (value != 0) {
+            for (long i = 0; i < size; i++) {
+                array.set(i, value);
+            }
+        }
+        return array;
+    }
+
+    int get(long index) {
+        return segments[(int) (index >>> SEGMENT_SHIFT)].get((int) (index & SEGMENT_MASK));
+    }
+
+    void set(long index, int value) {
+        segments[(int) (index >>> SEGMENT_SHIFT)].put((int) (index & SEGMENT_MASK), value);
+    }
+
+    void increment(long index) {
+        IntBuffer segment = segments[(int) (index >>> SEGMENT_SHIFT)];
+        int offset = (int) (index & SEGMENT_MASK);
+        segment.put(offset, segment.get(offset) + 1);
+    }
+
+    void append(int value) {
+        if (size == capacity) {
+            ensureCapacity(size + 1);
+        }
+        set(size++, value);
+    }
+
+    long size() {
+        return size;
+    }
+
+    private void ensureCapacity(long required) {
+        while (capacity < required) {
+            int last = segments.length - 1;
+            if (last >= 0 && segments[last].capacity() < SEGMENT_SIZE) {
+                IntBuffer current = segments[last];
+                long wanted = Math.max(current.capacity() * 2L, required - (long) last * SEGMENT_SIZE);
+                IntBuffer grown = allocate((int) Math.min(SEGMENT_SIZE, wanted));
+                grown.put(current.duplicate().clear());
+                segments[last] = grown;
+                capacity += grown.capacity() - current.capacity();
+            } else {
+                IntBuffer[] grown = new IntBuffer[segments.length + 1];
+                System.arraycopy(segments, 0, grown, 0, segments.length);
+                long wanted = Math.max(MIN_SEGMENT, required - capacity);
+                grown[segments.length] = allocate((int) Math.min(SEGMENT_SIZE, wanted));
+                segments = grown;
+                capacity += grown[segments.length - 1].capacity();
+            }
+        }
+    }
+
+    private static IntBuffer allocate(int elements) {
+        return ByteBuffer.allocateDirect(elements * Integer.BYTES).order(ByteOrder.nativeOrder()).asIntBuffer();
+    }
+}
@@ -0,0 +1,188 @@
+package ru.sin.gc.heap;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+
+/**
+ * Растущий массив long вне heap с индексом long
+ *
+ * Индекс dump'а на десятки GB - это сотни миллионов записей: в long[]
+ * не влезает (2^31 элементов), а в heap занимал бы столько же, сколько
+ * сам анализируемый heap. Здесь данные лежат в direct буферах по сегментам
+ * 2^27 элементов (1 GB); полные все сегменты, кроме последнего, поэтому
+ * адресация - сдвиг и маска. Последний сегмент растет удвоением с копированием.
+ *
+ * Память ограничена -XX:MaxDirectMemorySize и освобождается, когда буферы
+ * соберет GC. Не потокобезопасен.
+ */
+final class NativeLongArray {
+
+    private static final int SEGMENT_SHIFT = 27;
+    private static final int SEGMENT_SIZE = 1 << SEGMENT_SHIFT;
+    private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+    private static final int MIN_SEGMENT = 1024;
+
+    private LongBuffer[] segments = new LongBuffer[0];
+    private long capacity;
+    private long size;
+
+    NativeLongArray(long initialCapacity) {
+        ensureCapacity(initialCapacity);
+    }
+
+    /**
+     * Массив заданного размера, заполненный value.
+     */
+    static NativeLongArray filled(long size, long value) {
+        NativeLongArray array = new NativeLongArray(size);
+        array.size = size;
+        if (value != 0) {
+            for (long i = 0; i < size; i++) {
+                array.set(i, value);
+            }
+        }
+        return array;
+    }
+
+    long get(long index) {
+        return segments[(int) (index >>> SEGMENT_SHIFT)].get((int) (index & SEGMENT_MASK));
+    }
+
+    void set(long index, long value) {
+        segments[(int) (index >>> SEGMENT_SHIFT)].put((int) (index & SEGMENT_MASK), value);
+    }
+
+    void add(long index, long delta) {
+        LongBuffer segment = segments[(int) (index >>> SEGMENT_SHIFT)];
+        int offset = (int) (index & SEGMENT_MASK);
+        segment.put(offset, segment.get(offset) + delta);
+    }
+
+    void append(long value) {
+        if (size == capacity) {
+            ensureCapacity(size + 1);
+        }
+        set(size++, value);
+    }
+
+    long size() {
+        return size;
+    }
+
+    /**
+     * Отсортировать keys по возрастанию, переставляя values вместе с ними.
+     * Быстрая сортировка без рекурсии (меньшая часть - в стек, большая - в цикл).
+     */
+    static void sortPairs(NativeLongArray keys, NativeLongArray values) {
+        long[] stack = new long[128];
+        int top = 0;
+        long low = 0;
+        long high = keys.size - 1;
+        while (true) {
+            while (high - low > 16) {
+                long middle = low + (high - low) / 2;
+                // Медиана трех - в keys[high]
+                if (keys.get(middle) < keys.get(low)) {
+                    swap(keys, values, middle, low);
+                }
+                if (keys.get(high) < keys.get(low)) {
+                    swap(keys, values, high, low);
+                }
+                if (keys.get(middle) < keys.get(high)) {
+                    swap(keys, values, middle, high);
+                }
+                long pivot = keys.get(high);
+                long store = low;
+                for (long i = low; i < high; i++) {
+                    if (keys.get(i) < pivot) {
+                        swap(keys, values, i, store++);
+                    }
+                }
+                swap(keys, values, store, high);
+                if (store - low < high - store) {
+                    stack[top++] = store + 1;
+                    stack[top++] = high;
+                    high = store - 1;
+                } else {
+                    stack[top++] = low;
+                    stack[top++] = store - 1;
+                    low = store + 1;
+                }
+            }
+            for (long i = low + 1; i <= high; i++) {
+                for (long j = i; j > low && keys.get(j) < keys.get(j - 1); j--) {
+                    swap(keys, values, j, j - 1);
+                }
+            }
+            if (top == 0) {
+                return;
+            }
+            high = stack[--top];
+            low = stack[--top];
+        }
+    }
+
+    /**
+     * Индекс key в отсортированном массиве или -1.
+     */
+    long binarySearch(long key) {
+        long low = 0;
+        long high = size - 1;
+        while (low <= high) {
+            long middle = (low + high) >>> 1;
+            long value = get(middle);
+            if (value < key) {
+                low = middle + 1;
+            } else if (value > key) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    boolean isSorted() {
+        for (long i = 1; i < size; i++) {
+            if (get(i) < get(i - 1)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void swap(NativeLongArray keys, NativeLongArray values, long a, long b) {
+        long key = keys.get(a);
+        keys.set(a, keys.get(b));
+        keys.set(b, key);
+        long value = values.get(a);
+        values.set(a, values.get(b));
+        values.set(b, value);
+    }
+
+    private void ensureCapacity(long required) {
+        while (capacity < required) {
+            int last = segments.length - 1;
+            if (last >= 0 && segments[last].capacity() < SEGMENT_SIZE) {
+                LongBuffer current = segments[last];
+                long wanted = Math.max(current.capacity() * 2L, required - (long) last * SEGMENT_SIZE);
+                LongBuffer grown = allocate((int) Math.min(SEGMENT_SIZE, wanted));
+                grown.put(current.duplicate().clear());
+                segments[last] = grown;
+                capacity += grown.capacity() - current.capacity();
+            } else {
+                LongBuffer[] grown = new LongBuffer[segments.length + 1];
+                System.arraycopy(segments, 0, grown, 0, segments.length);
+                long wanted = Math.max(MIN_SEGMENT, required - capacity);
+                grown[segments.length] = allocate((int) Math.min(SEGMENT_SIZE, wanted));
+                segments = grown;
+                capacity += grown[segments.length - 1].capacity();
+            }
+        }
+    }
+
+    private static LongBuffer allocate(int elements) {
+        return ByteBuffer.allocateDirect(elements * Long.BYTES).order(ByteOrder.nativeOrder()).asLongBuffer();
+    }
+}
@@ -0,0 +1,260 @@
+package ru.sin.gc.heap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Дерево доминаторов, свернутое по путям ссылок
+ *
+ * Каждый достижимый объект относится к узлу-пути - цепочке шагов
+ * "владелец.поле → класс" от объекта верхнего уровня вниз по дереву
+ * доминаторов, например:
+ *   EventBus.listeners → CopyOnWriteArrayList.array → Object[][*] → DataProcessor.buffer → byte[]
+ * Адреса объектов и индексы элементов в путь не входят, поэтому один и тот же
+ * путь находится в двух dump'ах одного приложения по hash() - так HeapDumpDiff
+ * сравнивает не только классы, но и цепочки, по которым растет память.
+ *
+ * - элементы массива сливаются в один шаг [*]
+ * - шаг, повторяющий шаг владельца или его родителя (LinkedList$Node.next,
+ *   TreeMap$Entry.left/right), относит объект к тому же узлу: рекурсивные
+ *   структуры не раздувают дерево путей
+ * - глубже MAX_DEPTH шагов и после MAX_PATHS узлов объект остается в узле владельца
+ *
+ * По узлу: число объектов и retained верхних объектов узла (без вложенных
+ * в объект того же узла - как retained* в гистограмме классов).
+ */
+final class ReferencePaths {
+
+    static final int NONE = -1;
+    private static final int MAX_DEPTH = 24;
+    private static final int MAX_PATHS = 100_000;
+    private static final int RECURSION_DISTANCE = 2;
+
+    private int[] parent = new int[1024];
+    private int[] depth = new int[1024];
+    private String[] via = new String[1024];
+    private String[] target = new String[1024];
+    private long[] hash = new long[1024];
+    private long[] count = new long[1024];
+    private long[] retained = new long[1024];
+    private int size;
+    private final Map<Long, Integer> byHash = new HashMap<>();
+
+    ReferencePaths(HeapIndex heap, DominatorTree tree) {
+        int[] onPath = new int[MAX_PATHS];
+        NativeIntArray stack = new NativeIntArray(1024);
+        NativeIntArray nextChild = new NativeIntArray(1024);
+        NativeIntArray nodeOf = new NativeIntArray(1024);
+        stack.append(tree.superRoot());
+        nextChild.append(0);
+        nodeOf.append(NONE);
+        int top = 1;
+        while (top > 0) {
+            int v = stack.get(top - 1);
+            int k = nextChild.get(top - 1);
+            if (k == tree.childCount(v)) {
+                top--;
+                if (v != tree.superRoot()) {
+                    onPath[nodeOf.get(top)]--;
+                }
+                continue;
+            }
+            nextChild.set(top - 1, k + 1);
+            int child = tree.child(v, k);
+            int node = nodeFor(heap, v, nodeOf.get(top - 1), child);
+            count[node]++;
+            if (onPath[node]++ == 0) {
+                retained[node] += tree.retained(child);
+            }
+            if (top == stack.size()) {
+                stack.append(child);
+                nextChild.append(0);
+                nodeOf.append(node);
+            } else {
+                stack.set(top, child);
+                nextChild.set(top, 0);
+                nodeOf.set(top, node);
+            }
+            top++;
+        }
+    }
+
+    /**
+     * Узел для object, в который ведет ссылка из owner (узел ownerNode).
+     */
+    private int nodeFor(HeapIndex heap, int owner, int ownerNode, int object) {
+        String className = heap.classNameOfClassObject(object);
+        String objectTarget = className != null ? "class " + className : heap.classOf(object).name();
+        if (ownerNode == NONE) {
+            return node(NONE, null, objectTarget);
+        }
+        String step = simpleName(target[ownerNode]) + label(heap, owner, object);
+        // Рекурсия: тот же шаг у владельца или через один (TreeMap$Entry.left/right)
+        for (int n = ownerNode, up = 0; n != NONE && up < RECURSION_DISTANCE; n = parent[n], up++) {
+            if (step.equals(via[n]) && objectTarget.equals(target[n])) {
+                return n;
+            }
+        }
+        if (depth[ownerNode] + 1 >= MAX_DEPTH) {
+            return ownerNode;
+        }
+        return node(ownerNode, step, objectTarget);
+    }
+
+    /**
+     * Шаг по ссылке owner -> object: ".поле", "[*]" для элементов массива.
+     * Непосредственный доминатор не обязательно ссылается напрямую - тогда ".…".
+     */
+    private static String label(HeapIndex heap, int owner, int object) {
+        if (heap.classOf(owner).name().endsWith("]")) {
+            // Элемент Object[] - без поиска индекса, массив может быть огромным
+            return "[*]";
+        }
+        String reference = heap.describeReference(owner, object);
+        if (reference == null) {
+            return ".…";
+        }
+        return "." + (reference.startsWith("static ") ? reference.substring("static ".length()) : reference);
+    }
+
+    private int node(int parentNode, String step, String nodeTarget) {
+        long parentHash = parentNode == NONE ? 0 : hash[parentNode];
+        long nodeHash = mix(parentHash * 0x100000001B3L + fnv(step) * 31 + fnv(nodeTarget));
+        Integer existing = byHash.get(nodeHash);
+        if (existing != null) {
+            return existing;
+        }
+        if (size == MAX_PATHS) {
+            return parentNode == NONE ? 0 : parentNode;
+        }
+        if (size == parent.length) {
+            int capacity = Math.min(MAX_PATHS, size * 2);
+            parent = Arrays.copyOf(parent, capacity);
+            depth = Arrays.copyOf(depth, capacity);
+            via = Arrays.copyOf(via, capacity);
+            target = Arrays.copyOf(target, capacity);
+            hash = Arrays.copyOf(hash, capacity);
+            count = Arrays.copyOf(count, capacity);
+            retained = Arrays.copyOf(retained, capacity);
+        }
+        int node = size++;
+        parent[node] = parentNode;
+        depth[node] = parentNode == NONE ? 0 : depth[parentNode] + 1;
+        via[node] = step;
+        target[node] = nodeTarget;
+        hash[node] = nodeHash;
+        byHash.put(nodeHash, node);
+        return node;
+    }
+
+    private static long fnv(String text) {
+        long h = 0xCBF29CE484222325L;
+        if (text != null) {
+            for (int i = 0; i < text.length(); i++) {
+                h = (h ^ text.charAt(i)) * 0x100000001B3L;
+            }
+        }
+        return h;
+    }
+
+    private static long mix(long h) {
+        h = (h ^ (h >>> 33)) * 0xFF51AFD7ED558CCDL;
+        h = (h ^ (h >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return h ^ (h >>> 33);
+    }
+
+    int size() {
+        return size;
+    }
+
+    int parent(int node) {
+        return parent[node];
+    }
+
+    /**
+     * Класс объектов узла ("class X" для самих классов).
+     */
+    String target(int node) {
+        return target[node];
+    }
+
+    long count(int node) {
+        return count[node];
+    }
+
+    long retained(int node) {
+        return retained[node];
+    }
+
+    /**
+     * Не зависит от dump'а: тот же путь в другом dump'е имеет тот же hash.
+     */
+    long hash(int node) {
+        return hash[node];
+    }
+
+    /**
+     * Узел с таким hash или NONE.
+     */
+    int find(long nodeHash) {
+        return byHash.getOrDefault(nodeHash, NONE);
+    }
+
+    List<Integer> children(int node) {
+        List<Integer> children = new ArrayList<>();
+        for (int n = 0; n < size; n++) {
+            if (parent[n] == node) {
+                children.add(n);
+            }
+        }
+        return children;
+    }
+
+    /**
+     * Путь для отчета: "EventBus.listeners → CopyOnWriteArrayList.array → Object[][*] → byte[]".
+     */
+    String path(int node) {
+        List<String> steps = new ArrayList<>();
+        for (int n = node; parent[n] != NONE; n = parent[n]) {
+            steps.add(0, via[n]);
+        }
+        steps.add(simpleName(target[node]));
+        return String.join(" → ", steps);
+    }
+
+    /**
+     * Путь от последнего статического поля ("EventBus.listeners → ... → byte[]"),
+     * если оно есть, иначе весь путь.
+     */
+    String staticPath(int node) {
+        for (int n = node; parent[n] != NONE; n = parent[n]) {
+            if (target[parent[n]].startsWith("class ")) {
+                List<String> steps = new ArrayList<>();
+                for (int m = node; m != parent[n]; m = parent[m]) {
+                    steps.add(0, via[m]);
+                }
+                steps.add(simpleName(target[node]));
+                return String.join(" → ", steps);
+            }
+        }
+        return path(node);
+    }
+
+    /**
+     * Шаг, которым путь пришел в узел ("ArrayList.elementData"), или класс для узла верхнего уровня.
+     */
+    String step(int node) {
+        return parent[node] == NONE ? target[node] : via[node] + " → " + simpleName(target[node]);
+    }
+
+    /**
+     * "class java.util.ArrayList" -> "ArrayList", "java.lang.Object[]" -> "Object[]".
+     */
+    static String simpleName(String name) {
+        String className = name.startsWith("class ") ? name.substring("class ".length()) : name;
+        return className.substring(className.lastIndexOf('.') + 1);
+    }
+}
@@ -0,0 +1,331 @@
+package ru.sin.gc.leak;
+
+import ru.sin.gc.comparison.LatencyHistogram;
+import ru.sin.gc.comparison.StripedLatencyRecorder;
+
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Асинхронная доставка событий EventBus пачками через ограниченный MPSC ring buffer
+ *
+ * Синхронный publish() вызывает каждый listener в потоке публикатора: один
+ * медленный onEvent() тормозит всех, кто публикует. Здесь publish() только
+ * кладет событие в кольцевой буфер, а доставкой занимается один поток-диспетчер.
+ *
+ * Очередь - ограниченная MPSC (вариант очереди Вьюкова): у каждой ячейки свой
+ * sequence. Производитель захватывает позицию CAS'ом на tail и публикует
+ * ячейку записью sequence = pos + 1; единственный потребитель забирает ячейки
+ * подряд, пока sequence совпадает, и возвращает их записью pos + capacity.
+ * Блокировок нет, мусора на событие нет (кроме самого события).
+ *
+ * Диспетчер вынимает до batchSize событий за проход и только потом отдает их
+ * listener'ам - доступ к разделяемым счетчикам и кешу - раз на пачку.
+ *
+ * Ожидание (-Devents.wait=...), и для диспетчера на пустой очереди,
+ * и для производителя на полной:
+ * - spin  - Thread.onSpinWait(): минимальная задержка, занимает ядро целиком
+ * - yield - крутится, потом Thread.yield()
+ * - park  - крутится, потом LockSupport.parkNanos(); производитель будит
+ *           уснувшего диспетчера unpark'ом (после полного барьера - см. publish)
+ *
+ * Back-pressure (-Devents.backpressure=...) при заполненной очереди:
+ * - block - производитель ждет свободную ячейку (по своей стратегии ожидания)
+ * - drop  - событие отбрасывается и учитывается в статистике
+ *
+ * Время publish() и глубина очереди снимаются на каждом 64-м событии.
+ * Нагрузочные публикаторы (-Devents.loadPublishers=N) публикуют без пауз,
+ * чтобы проверить очередь на миллионах событий в секунду.
+ */
+final class AsyncEventDispatcher<E> {
+
+    enum WaitStrategy {
+        BUSY_SPIN, YIELD, PARK;
+
+        static WaitStrategy parse(String name) {
+            switch (name) {
+                case "spin":
+                    return BUSY_SPIN;
+                case "yield":
+                    return YIELD;
+                case "park":
+                    return PARK;
+                default:
+                    throw new IllegalArgumentException("Неизвестная стратегия ожидания: " + name + " (spin, yield, park)");
+            }
+        }
+
+        /**
+         * Один шаг ожидания; attempt - номер неудачной попытки подряд.
+         */
+        void idle(int attempt) {
+            if (this == BUSY_SPIN || attempt < SPIN_ATTEMPTS) {
+                Thread.onSpinWait();
+            } else if (this == YIELD || attempt < SPIN_ATTEMPTS + YIELD_ATTEMPTS) {
+                Thread.yield();
+            } else {
+                LockSupport.parkNanos(PARK_NANOS);
+            }
+        }
+    }
+
+    private static final int SPIN_ATTEMPTS = 100;
+    private static final int YIELD_ATTEMPTS = 100;
+    private static final long PARK_NANOS = 50_000;
+    private static final int SAMPLE_MASK = 63;
+
+    private final Object[] buffer;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private volatile long head;
+
+    private final Consumer<? super E> handler;
+    private final int batchSize;
+    private final WaitStrategy waitStrategy;
+    private final boolean dropWhenFull;
+    private final Thread consumer;
+    private volatile boolean consumerParked;
+
+    private final StripedLatencyRecorder publishLatency =
+        new StripedLatencyRecorder(Runtime.getRuntime().availableProcessors());
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder depthSamples = new LongAdder();
+    private final LongAdder depthSum = new LongAdder();
+    private final AtomicLong maxDepth = new AtomicLong();
+    private final long startNanos = System.nanoTime();
+    private volatile long delivered;
+    private volatile long batches;
+
+    /**
+     * @param capacity     размер кольца (округляется вверх до степени двойки)
+     * @param batchSize    максимум событий за один проход диспетчера
+     * @param dropWhenFull true - отбрасывать при полной очереди, false - ждать
+     * @param handler      доставка одного события (вызывается только из потока диспетчера)
+     */
+    AsyncEventDispatcher(int capacity, int batchSize, WaitStrategy waitStrategy, boolean dropWhenFull,
+                         Consumer<? super E> handler) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.buffer = new Object[size];
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        this.mask = size - 1;
+        this.batchSize = Math.max(1, batchSize);
+        this.waitStrategy = waitStrategy;
+        this.dropWhenFull = dropWhenFull;
+        this.handler = handler;
+
+        this.consumer = new Thread(this::runConsumer, "event-dispatcher");
+        consumer.setDaemon(true);
+        consumer.start();
+    }
+
+    /**
+     * Настройки из system properties; null, если -Devents.dispatch не async.
+     */
+    static <E> AsyncEventDispatcher<E> fromSystemProperties(Consumer<? super E> handler) {
+        if (!"async".equals(System.getProperty("events.dispatch", "sync"))) {
+            return null;
+        }
+        String backPressure = System.getProperty("events.backpressure", "block");
+        if (!backPressure.equals("block") && !backPressure.equals("drop")) {
+            throw new IllegalArgumentException("Неизвестный events.backpressure: " + backPressure + " (block, drop)");
+        }
+        return new AsyncEventDispatcher<>(
+            Integer.getInteger("events.queueSize", 65_536),
+            Integer.getInteger("events.batch", 256),
+            WaitStrategy.parse(System.getProperty("events.wait", "park")),
+            backPressure.equals("drop"),
+            handler);
+    }
+
+    /**
+     * Запустить потоки, публикующие event без пауз (-Devents.loadPublishers=N).
+     */
+    void startLoadPublishers(E event) {
+        int threads = Integer.getInteger("events.loadPublishers", 0);
+        for (int i = 0; i < threads; i++) {
+            Thread thread = new Thread(() -> {
+                while (true) {
+                    publish(event);
+                }
+            }, "load-publisher-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Поставить событие в очередь. false - очередь полна и событие отброшено (режим drop).
+     */
+    boolean publish(E event) {
+        long start = System.nanoTime();
+        int attempt = 0;
+        long position;
+        while (true) {
+            position = tail.get();
+            int index = (int) position & mask;
+            long difference = sequences.getAcquire(index) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    buffer[index] = event;
+                    sequences.setRelease(index, position + 1);
+                    break;
+                }
+            } else if (difference < 0) {
+                // Ячейка еще не освобождена потребителем - очередь полна
+                if (dropWhenFull) {
+                    dropped.increment();
+                    return false;
+                }
+                waitStrategy.idle(attempt++);
+            }
+        }
+
+        if (waitStrategy == WaitStrategy.PARK) {
+            // StoreLoad: запись sequence (release) не должна переупорядочиться с чтением флага,
+            // иначе производитель и засыпающий диспетчер не увидят записи друг друга
+            VarHandle.fullFence();
+            if (consumerParked) {
+                LockSupport.unpark(consumer);
+            }
+        }
+        if ((position & SAMPLE_MASK) == 0) {
+            publishLatency.record(System.nanoTime() - start);
+            // head мог устареть за время publish() - глубина не больше кольца
+            long depth = Math.min(position + 1 - head, buffer.length);
+            depthSamples.increment();
+            depthSum.add(depth);
+            maxDepth.accumulateAndGet(depth, Math::max);
+        }
+        return true;
+    }
+
+    private void runConsumer() {
+        Object[] batch = new Object[batchSize];
+        int attempt = 0;
+        while (true) {
+            int count = drain(batch);
+            if (count == 0) {
+                idleConsumer(attempt);
+                if (attempt < SPIN_ATTEMPTS + YIELD_ATTEMPTS) {
+                    attempt++;
+                }
+                continue;
+            }
+            attempt = 0;
+            for (int i = 0; i < count; i++) {
+                @SuppressWarnings("unchecked")
+                E event = (E) batch[i];
+                batch[i] = null;
+                try {
+                    handler.accept(event);
+                } catch (RuntimeException e) {
+                    System.err.println("Ошибка в listener'е: " + e);
+                }
+            }
+            delivered += count;
+            batches++;
+        }
+    }
+
+    private int drain(Object[] batch) {
+        long position = head;
+        int count = 0;
+        while (count < batch.length) {
+            int index = (int) position & mask;
+            if (sequences.getAcquire(index) != position + 1) {
+                break;
+            }
+            batch[count++] = buffer[index];
+            buffer[index] = null;
+            sequences.setRelease(index, position + mask + 1);
+            position++;
+        }
+        head = position;
+        return count;
+    }
+
+    private void idleConsumer(int attempt) {
+        if (waitStrategy != WaitStrategy.PARK || attempt < SPIN_ATTEMPTS + YIELD_ATTEMPTS) {
+            waitStrategy.idle(attempt);
+            return;
+        }
+        consumerParked = true;
+        // Повторная проверка после флага: производитель мог положить событие до того, как увидел флаг.
+        // Запись флага и это чтение - volatile, они не переупорядочиваются (пара к fullFence в publish)
+        long position = head;
+        if (sequences.get((int) position & mask) != position + 1) {
+            LockSupport.parkNanos(this, PARK_NANOS * 20);
+        }
+        consumerParked = false;
+    }
+
+    long depth() {
+        return tail.get() - head;
+    }
+
+    int capacity() {
+        return buffer.length;
+    }
+
+    long publishedCount() {
+        return tail.get();
+    }
+
+    long deliveredCount() {
+        return delivered;
+    }
+
+    long droppedCount() {
+        return dropped.sum();
+    }
+
+    double averageBatch() {
+        long b = batches;
+        return b == 0 ? 0 : (double) delivered / b;
+    }
+
+    double averageDepth() {
+        long samples = depthSamples.sum();
+        return samples == 0 ? 0 : (double) depthSum.sum() / samples;
+    }
+
+    long maxDepth() {
+        return maxDepth.get();
+    }
+
+    LatencyHistogram publishLatency() {
+        return publishLatency.snapshot();
+    }
+
+    /**
+     * Строки статистики в формате таблиц printStatus() примеров.
+     */
+    void printStats() {
+        LatencyHistogram latency = publishLatency();
+        printRow("Async dispatch:", waitStrategy + ", кольцо " + String.format("%,d", capacity()));
+        // Сначала доставленные: счетчики читаются не атомарно, опубликованных не меньше
+        long deliveredCount = deliveredCount();
+        long publishedCount = publishedCount();
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        printRow("Опубликовано событий:", String.format("%,d (%,.0f/сек)", publishedCount, publishedCount / seconds));
+        printRow("Доставлено / отброшено:", String.format("%,d / %,d", deliveredCount, droppedCount()));
+        printRow("Средняя пачка:", String.format("%.1f событий", averageBatch()));
+        printRow("Глубина очереди:", String.format("%,d (средняя %.1f, макс %,d)", depth(), averageDepth(), maxDepth()));
+        printRow("publish() p50/p99:", String.format("%,d / %,d ns", latency.getValueAtPercentile(50),
+            latency.getValueAtPercentile(99)));
+        printRow("publish() p99.9/max:", String.format("%,d / %,d ns", latency.getValueAtPercentile(99.9),
+            latency.getMax()));
+    }
+
+    private static void printRow(String label, String value) {
+        System.out.printf("│ %-24s%-35s│%n", label, value);
+    }
+}
@@ -1,5 +1,7 @@
 package ru.sin.gc.leak;
 
+import ru.sin.gc.monitoring.HeapGrowthLeakDetector;
+
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
@@ -15,6 +17,9 @@ import java.util.concurrent.CopyOnWriteArrayList;
  */
 public class ListenerLeakExample {
 
+    // Рост live set после GC -> heap dump и гистограмма классов в heap_dumps/
+    private static final HeapGrowthLeakDetector LEAK_DETECTOR = HeapGrowthLeakDetector.create();
+
     // Event bus для публикации событий
     static class EventBus {
         private static final List<EventListener> listeners = new CopyOnWriteArrayList<>();
@@ -24,7 +29,19 @@ public class ListenerLeakExample {
             // ПРОБЛЕМА: Нет механизма отписки!
         }
 
+        // -Devents.dispatch=async: доставка в отдельном потоке через ring buffer
+        private static final AsyncEventDispatcher<String> dispatcher =
+            AsyncEventDispatcher.fromSystemProperties(EventBus::deliver);
+
         public static void publish(String event) {
+            if (dispatcher != null) {
+                dispatcher.publish(event);
+                return;
+            }
+            deliver(event);
+        }
+
+        private static void deliver(String event) {
             for (EventListener listener : listeners) {
                 listener.onEvent(event);
             }
@@ -76,7 +93,13 @@ public class ListenerLeakExample {
         System.out.println("\nПроблема:");
         System.out.println("✗ DataProcessor регистрируется в EventBus");
         System.out.println("✗ После использования процессор не нужен, но EventBus хранит ссылку");
-        System.out.println("✗ GC не может собрать объекты, так как они \"живые\" через listener\n");
+        System.out.println("✗ GC не может собрать объекты, так как они \"живые\" через listener");
+        System.out.println("Детектор утечек снимет heap dump при устойчивом росте live set (-Dleak.detect=false - выключить)\n");
+
+        if (EventBus.dispatcher != null) {
+            System.out.println("Асинхронная доставка событий: -Devents.dispatch=async\n");
+            EventBus.dispatcher.startLoadPublishers("Load_Event");
+        }
 
         System.out.println("Начинаем создание процессоров...\n");
 
@@ -148,8 +171,13 @@ public class ListenerLeakExample {
         System.out.printf("│ Listeners в EventBus:   %,10d (!!)                    │%n", EventBus.getListenerCount());
         System.out.printf("│ Память на процессоры:   %,10d MB (~10MB каждый)      │%n",
             (long) EventBus.getListenerCount() * 10);
+        if (EventBus.dispatcher != null) {
+            System.out.println("├────────────────────────────────────────────────────────────┤");
+            EventBus.dispatcher.printStats();
+        }
         System.out.println("├────────────────────────────────────────────────────────────┤");
         printMemoryInfo();
+        LEAK_DETECTOR.printStatus();
         System.out.println("└────────────────────────────────────────────────────────────┘");
         System.out.println();
     }
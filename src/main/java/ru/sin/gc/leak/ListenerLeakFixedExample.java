@@ -1,11 +1,8 @@
 package ru.sin.gc.leak;
 
-import java.lang.ref.WeakReference;
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Random;
-import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * ИСПРАВЛЕННАЯ ВЕРСИЯ: Listener WITHOUT Leak
@@ -14,53 +11,52 @@ import java.util.concurrent.CopyOnWriteArrayList;
  * 1. Добавлен метод unregister() для отписки
  * 2. Использование WeakReference для автоматической очистки
  * 3. Паттерн try-with-resources для автоматического cleanup
+ * 4. Listener'ы хранятся в WeakListenerTable: регистрация и отписка O(1),
+ *    публикация без блокировок и без копирования массива
+ * 5. Каждая регистрация на учете в Cleaner (ListenerLeakTracker): забытый close()
+ *    отписывается автоматически и попадает в отчет об утечках с местом регистрации.
+ *    Проверка: -Devents.forgetCloseEvery=50 - каждый 50-й процессор не закрывается.
  */
 public class ListenerLeakFixedExample {
 
     // ИСПРАВЛЕНО: EventBus с механизмом отписки и weak references
     static class EventBus {
-        // Используем WeakReference для автоматической очистки мертвых listeners
-        private static final List<WeakReference<EventListener>> listeners = new CopyOnWriteArrayList<>();
+        // WeakReference для автоматической очистки мертвых listeners;
+        // слоты с поколениями вместо CopyOnWriteArrayList (копия массива на каждую подписку)
+        private static final WeakListenerTable<EventListener> listeners = new WeakListenerTable<>(64);
+
+        // Отписка listener'ов, которые собрал GC без close(), и учет таких утечек
+        private static final ListenerLeakTracker leakTracker = ListenerLeakTracker.fromSystemProperties();
 
         public static Registration register(EventListener listener) {
-            WeakReference<EventListener> weakListener = new WeakReference<>(listener);
-            listeners.add(weakListener);
+            long handle = listeners.register(listener);
+            ListenerLeakTracker.Tracked tracked = leakTracker.track(listener, () -> listeners.unregister(handle));
 
-            // Возвращаем объект Registration для возможности отписки
-            return () -> unregister(weakListener);
+            // Возвращаем объект Registration для возможности отписки.
+            // Повторный вызов безопасен: Cleanable выполняется один раз
+            return tracked::close;
         }
 
-        private static void unregister(WeakReference<EventListener> weakListener) {
-            listeners.remove(weakListener);
-        }
+        // -Devents.dispatch=async: доставка в отдельном потоке через ring buffer
+        private static final AsyncEventDispatcher<String> dispatcher =
+            AsyncEventDispatcher.fromSystemProperties(EventBus::deliver);
 
         public static void publish(String event) {
-            // Очищаем мертвые ссылки и публикуем события
-            Iterator<WeakReference<EventListener>> iterator = listeners.iterator();
-            while (iterator.hasNext()) {
-                WeakReference<EventListener> weakListener = iterator.next();
-                EventListener listener = weakListener.get();
-
-                if (listener == null) {
-                    // Объект был собран GC, удаляем weak reference
-                    iterator.remove();
-                } else {
-                    listener.onEvent(event);
-                }
+            if (dispatcher != null) {
+                dispatcher.publish(event);
+                return;
             }
+            deliver(event);
         }
 
-        public static int getListenerCount() {
-            // Считаем только живые listeners
-            int count = 0;
-            for (WeakReference<EventListener> ref : listeners) {
-                if (ref.get() != null) count++;
-            }
-            return count;
+        private static void deliver(String event) {
+            // Мертвые ссылки пропускаются; их слоты освобождает ReferenceQueue
+            listeners.forEach(listener -> listener.onEvent(event));
         }
 
-        public static void cleanup() {
-            listeners.removeIf(ref -> ref.get() == null);
+        public static int getListenerCount() {
+            listeners.expungeStaleEntries();
+            return listeners.size();
         }
     }
 
@@ -114,13 +110,18 @@ public class ListenerLeakFixedExample {
         System.out.println("✓ Добавлен метод unregister() для явной отписки");
         System.out.println("✓ Использование WeakReference в EventBus");
         System.out.println("✓ AutoCloseable для автоматического cleanup");
-        System.out.println("✓ Периодическая очистка мертвых ссылок\n");
+        System.out.println("✓ Автоматическая отписка забытых listeners через Cleaner с отчетом об утечках\n");
+
+        if (EventBus.dispatcher != null) {
+            System.out.println("Асинхронная доставка событий: -Devents.dispatch=async\n");
+            EventBus.dispatcher.startLoadPublishers("Load_Event");
+        }
 
         System.out.println("Начинаем создание процессоров...\n");
 
         long startTime = System.currentTimeMillis();
         long lastReportTime = startTime;
-        long lastCleanupTime = startTime;
+        int forgetCloseEvery = Integer.getInteger("events.forgetCloseEvery", 0);
         int totalProcessorsCreated = 0;
         int totalProcessorsClosed = 0;
 
@@ -130,6 +131,12 @@ public class ListenerLeakFixedExample {
 
                 // ИСПРАВЛЕНО: Используем try-with-resources для автоматического cleanup
                 for (int i = 0; i < 5; i++) {
+                    if (forgetCloseEvery > 0 && totalProcessorsCreated % forgetCloseEvery == 0) {
+                        // Ошибка вызывающего кода: close() забыт. Отпишет Cleaner, утечка попадет в отчет
+                        new DataProcessor("PROC_" + totalProcessorsCreated++);
+                        EventBus.publish("Event_" + System.currentTimeMillis());
+                        continue;
+                    }
                     try (DataProcessor processor = new DataProcessor("PROC_" + totalProcessorsCreated++)) {
 
                         // Имитируем использование процессора
@@ -148,15 +155,10 @@ public class ListenerLeakFixedExample {
                     EventBus.publish("Periodic_Event_" + System.currentTimeMillis());
                 }
 
-                // ИСПРАВЛЕНО: Периодическая очистка мертвых ссылок
-                long currentTime = System.currentTimeMillis();
-                if (currentTime - lastCleanupTime >= 30_000) {
-                    EventBus.cleanup();
-                    System.gc(); // Подсказка GC (не гарантирует немедленную сборку)
-                    lastCleanupTime = currentTime;
-                }
+                // ИСПРАВЛЕНО: ручная очистка мертвых ссылок не нужна - их отписывает Cleaner
 
                 // Выводим статистику каждую минуту
+                long currentTime = System.currentTimeMillis();
                 if (currentTime - lastReportTime >= 60_000) {
                     printStatus(startTime, totalProcessorsCreated, totalProcessorsClosed);
                     lastReportTime = currentTime;
@@ -189,9 +191,19 @@ public class ListenerLeakFixedExample {
         System.out.printf("│ Создано процессоров:    %,10d                         │%n", totalCreated);
         System.out.printf("│ Закрыто процессоров:    %,10d                         │%n", totalClosed);
         System.out.printf("│ Активных listeners:     %,10d (должно быть ~0)        │%n", EventBus.getListenerCount());
+        System.out.printf("│ Слотов EventBus:        %,10d                         │%n", EventBus.listeners.capacity());
+        System.out.printf("│ Утечек (GC без close): %,10d                          │%n", EventBus.leakTracker.leakCount());
+        if (EventBus.dispatcher != null) {
+            System.out.println("├────────────────────────────────────────────────────────────┤");
+            EventBus.dispatcher.printStats();
+        }
         System.out.println("├────────────────────────────────────────────────────────────┤");
         printMemoryInfo();
         System.out.println("└────────────────────────────────────────────────────────────┘");
+        if (EventBus.leakTracker.leakCount() > 0) {
+            System.out.println("Места регистрации утекших listeners:");
+            EventBus.leakTracker.printReport(5);
+        }
         System.out.println();
     }
 
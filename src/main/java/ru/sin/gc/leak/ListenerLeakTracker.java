@@ -0,0 +1,136 @@
+package ru.sin.gc.leak;
+
+import java.lang.ref.Cleaner;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * Автоматическая отписка listener'ов через Cleaner и учет утечек
+ *
+ * Каждая регистрация ставится на учет в Cleaner. Если listener стал
+ * недостижим, а close() так и не вызвали, Cleaner в своем потоке выполняет
+ * отписку и считает это утечкой - вместо поиска причины по heap dump'у
+ * в логе сразу видно, где была сделана забытая регистрация.
+ *
+ * Стоимость: PhantomReference и небольшой объект состояния на регистрацию.
+ * Место регистрации (StackWalker, несколько кадров) снимается только для
+ * каждой N-й регистрации (-Devents.leakSiteEvery=64, 1 - для всех, 0 - никогда),
+ * поэтому утечки считаются все, а место видно для выборки.
+ * Каждое место утечки печатается один раз, дальше только растет счетчик.
+ */
+final class ListenerLeakTracker {
+
+    private static final Cleaner CLEANER = Cleaner.create();
+    private static final int SITE_FRAMES = 6;
+    private static final String UNKNOWN_SITE = "(место не записано, см. -Devents.leakSiteEvery)";
+
+    /**
+     * Регистрация под наблюдением. close() - штатная отписка, не утечка.
+     */
+    static final class Tracked {
+        private final Cleaner.Cleanable cleanable;
+        private final LeakAction action;
+
+        private Tracked(Cleaner.Cleanable cleanable, LeakAction action) {
+            this.cleanable = cleanable;
+            this.action = action;
+        }
+
+        void close() {
+            action.closed = true;
+            cleanable.clean();
+        }
+    }
+
+    /**
+     * Действие Cleaner'а. Не должно ссылаться на listener, иначе тот никогда не станет недостижим.
+     */
+    private static final class LeakAction implements Runnable {
+        private final ListenerLeakTracker tracker;
+        private final Runnable release;
+        private final String site;
+        private volatile boolean closed;
+
+        LeakAction(ListenerLeakTracker tracker, Runnable release, String site) {
+            this.tracker = tracker;
+            this.release = release;
+            this.site = site;
+        }
+
+        @Override
+        public void run() {
+            release.run();
+            if (!closed) {
+                tracker.reportLeak(site);
+            }
+        }
+    }
+
+    private final int siteEvery;
+    private final AtomicLong registrations = new AtomicLong();
+    private final LongAdder leaked = new LongAdder();
+    private final Map<String, LongAdder> leakSites = new ConcurrentHashMap<>();
+
+    ListenerLeakTracker(int siteEvery) {
+        this.siteEvery = siteEvery;
+    }
+
+    static ListenerLeakTracker fromSystemProperties() {
+        return new ListenerLeakTracker(Integer.getInteger("events.leakSiteEvery", 64));
+    }
+
+    /**
+     * Поставить регистрацию на учет.
+     *
+     * @param listener за достижимостью чего следить
+     * @param release  отписка; выполняется ровно один раз - при close() или после сборки listener'а
+     */
+    Tracked track(Object listener, Runnable release) {
+        long number = registrations.getAndIncrement();
+        String site = siteEvery > 0 && number % siteEvery == 0 ? captureSite() : null;
+        LeakAction action = new LeakAction(this, release, site);
+        return new Tracked(CLEANER.register(listener, action), action);
+    }
+
+    private void reportLeak(String site) {
+        leaked.increment();
+        String key = site != null ? site : UNKNOWN_SITE;
+        LongAdder count = leakSites.computeIfAbsent(key, k -> new LongAdder());
+        count.increment();
+        if (count.sum() == 1 && site != null) {
+            System.out.println("⚠ УТЕЧКА: listener собран GC без close(), регистрация:\n\tat " + site);
+        }
+    }
+
+    // Кадры до первого вызова вне EventBus и трекера
+    private static String captureSite() {
+        return StackWalker.getInstance().walk(frames -> frames
+            .dropWhile(frame -> frame.getClassName().startsWith(ListenerLeakTracker.class.getName())
+                || frame.getClassName().endsWith("$EventBus"))
+            .limit(SITE_FRAMES)
+            .map(StackWalker.StackFrame::toString)
+            .collect(Collectors.joining("\n\tat ")));
+    }
+
+    long registrationCount() {
+        return registrations.get();
+    }
+
+    long leakCount() {
+        return leaked.sum();
+    }
+
+    /**
+     * Места утечек по убыванию числа утечек.
+     */
+    void printReport(int limit) {
+        leakSites.entrySet().stream()
+            .sorted((a, b) -> Long.compare(b.getValue().sum(), a.getValue().sum()))
+            .limit(limit)
+            .forEach(entry -> System.out.printf("  %,d утечек:%n\t%s%s%n", entry.getValue().sum(),
+                entry.getKey().equals(UNKNOWN_SITE) ? "" : "at ", entry.getKey()));
+    }
+}
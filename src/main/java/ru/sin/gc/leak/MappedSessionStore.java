@@ -0,0 +1,219 @@
+package ru.sin.gc.leak;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Хранилище данных холодных сессий в memory-mapped файле
+ *
+ * Файл разбит на слоты фиксированного размера: заголовок + sessionData.
+ * Вытесненная из heap сессия записывает данные в свободный слот и отпускает
+ * byte[]; при обращении данные читаются обратно в новый массив, а слот
+ * освобождается. Емкость ограничена диском и page cache, а не -Xmx:
+ * в heap от холодной сессии остается только сам объект UserSession.
+ *
+ * Формат слота:
+ *   int  magic
+ *   int  длина данных
+ *   long время записи (мс)
+ *   short длина sessionId, затем UTF-8 байты sessionId (до 110 байт)
+ *   ... выравнивание до HEADER_SIZE ...
+ *   данные (до dataSize байт)
+ *
+ * Один MappedByteBuffer ограничен 2 GB, поэтому файл отображается регионами
+ * по SLOTS_PER_REGION слотов; регион отображается при первом обращении.
+ * Отображение расширяет файл без записи (sparse), место на диске занимают
+ * только записанные страницы.
+ *
+ * Потокобезопасен: слоты выдаются под монитором, чтение и запись идут
+ * абсолютными get/put по разным слотам и позицию буфера не меняют.
+ * Отображение нельзя явно закрыть до Java 22 (Arena) - память освобождается,
+ * когда MappedByteBuffer соберет GC.
+ */
+final class MappedSessionStore {
+
+    private static final int MAGIC = 0x53455353; // "SESS"
+    private static final int HEADER_SIZE = 128;
+    private static final int MAX_ID_BYTES = HEADER_SIZE - 18;
+    private static final int SLOTS_PER_REGION = 64;
+
+    private final Path file;
+    private final FileChannel channel;
+    private final int dataSize;
+    private final long slotSize;
+    private final int capacity;
+    private final MappedByteBuffer[] regions;
+
+    // Стек свободных слотов; слоты выдаются от младших к старшим, чтобы файл рос постепенно
+    private final int[] freeSlots;
+    private int freeCount;
+
+    private long spilledTotal;
+    private long loadedTotal;
+
+    /**
+     * @param file     файл слотов (пересоздается)
+     * @param dataSize максимальный размер данных сессии
+     * @param capacity число слотов
+     */
+    MappedSessionStore(Path file, int dataSize, int capacity) {
+        this.file = file;
+        this.dataSize = dataSize;
+        this.slotSize = HEADER_SIZE + (long) dataSize;
+        this.capacity = capacity;
+        this.regions = new MappedByteBuffer[(capacity + SLOTS_PER_REGION - 1) / SLOTS_PER_REGION];
+        if (slotSize * SLOTS_PER_REGION > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Слот слишком большой для региона: " + slotSize);
+        }
+
+        this.freeSlots = new int[capacity];
+        for (int i = 0; i < capacity; i++) {
+            freeSlots[i] = capacity - 1 - i;
+        }
+        this.freeCount = capacity;
+
+        try {
+            Path parent = file.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+            file.toFile().deleteOnExit();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Не удалось открыть " + file, e);
+        }
+    }
+
+    /**
+     * Записать данные сессии в свободный слот.
+     *
+     * @return номер слота или -1, если свободных слотов нет
+     */
+    int spill(String sessionId, byte[] data) {
+        if (data.length > dataSize) {
+            throw new IllegalArgumentException("Данные сессии больше слота: " + data.length);
+        }
+        int slot;
+        synchronized (this) {
+            if (freeCount == 0) {
+                return -1;
+            }
+            slot = freeSlots[--freeCount];
+            spilledTotal++;
+        }
+
+        MappedByteBuffer region = region(slot);
+        int base = offsetInRegion(slot);
+        byte[] id = sessionId.getBytes(StandardCharsets.UTF_8);
+        int idLength = Math.min(id.length, MAX_ID_BYTES);
+
+        region.putInt(base + 4, data.length);
+        region.putLong(base + 8, System.currentTimeMillis());
+        region.putShort(base + 16, (short) idLength);
+        region.put(base + 18, id, 0, idLength);
+        region.put(base + HEADER_SIZE, data);
+        // magic последним: частично записанный слот не выглядит валидным
+        region.putInt(base, MAGIC);
+        return slot;
+    }
+
+    /**
+     * Прочитать данные сессии из слота и освободить слот.
+     */
+    byte[] load(int slot) {
+        MappedByteBuffer region = region(slot);
+        int base = offsetInRegion(slot);
+        if (region.getInt(base) != MAGIC) {
+            throw new IllegalStateException("Слот " + slot + " не содержит данных сессии");
+        }
+        byte[] data = new byte[region.getInt(base + 4)];
+        region.get(base + HEADER_SIZE, data);
+        release(slot);
+        synchronized (this) {
+            loadedTotal++;
+        }
+        return data;
+    }
+
+    /**
+     * Освободить слот без чтения (сессия удалена).
+     */
+    void release(int slot) {
+        region(slot).putInt(offsetInRegion(slot), 0);
+        synchronized (this) {
+            freeSlots[freeCount++] = slot;
+        }
+    }
+
+    synchronized int usedSlots() {
+        return capacity - freeCount;
+    }
+
+    int capacity() {
+        return capacity;
+    }
+
+    synchronized long spilledTotal() {
+        return spilledTotal;
+    }
+
+    synchronized long loadedTotal() {
+        return loadedTotal;
+    }
+
+    /**
+     * Сколько байт файла отображено в адресное пространство.
+     */
+    synchronized long mappedBytes() {
+        long mapped = 0;
+        for (MappedByteBuffer region : regions) {
+            if (region != null) {
+                mapped += region.capacity();
+            }
+        }
+        return mapped;
+    }
+
+    Path file() {
+        return file;
+    }
+
+    private int offsetInRegion(int slot) {
+        return (int) ((slot % SLOTS_PER_REGION) * slotSize);
+    }
+
+    private MappedByteBuffer region(int slot) {
+        if (slot < 0 || slot >= capacity) {
+            throw new IndexOutOfBoundsException("Слот вне диапазона: " + slot);
+        }
+        int index = slot / SLOTS_PER_REGION;
+        synchronized (this) {
+            MappedByteBuffer region = regions[index];
+            if (region == null) {
+                region = map(index);
+                regions[index] = region;
+            }
+            return region;
+        }
+    }
+
+    private MappedByteBuffer map(int index) {
+        long position = index * SLOTS_PER_REGION * slotSize;
+        int slots = Math.min(SLOTS_PER_REGION, capacity - index * SLOTS_PER_REGION);
+        try {
+            MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_WRITE, position, slots * slotSize);
+            region.order(ByteOrder.nativeOrder());
+            return region;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Не удалось отобразить регион " + index + " файла " + file, e);
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package ru.sin.gc.leak;
 
+import ru.sin.gc.monitoring.HeapGrowthLeakDetector;
+
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
@@ -22,6 +24,9 @@ public class MemoryLeakExample {
     private static long totalSessionsCreated = 0;
     private static long totalDataAllocated = 0;
 
+    // Рост live set после GC -> heap dump и гистограмма классов в heap_dumps/
+    private static final HeapGrowthLeakDetector LEAK_DETECTOR = HeapGrowthLeakDetector.create();
+
     static class UserSession {
         private final String sessionId;
         private final long createdAt;
@@ -65,7 +70,8 @@ public class MemoryLeakExample {
         System.out.println("1. Запустите приложение");
         System.out.println("2. Мониторьте память через jconsole, VisualVM или JMC");
         System.out.println("3. Снимите heap dump через: jcmd <pid> GC.heap_dump heap_leak.hprof");
-        System.out.println("4. Проанализируйте heap dump в VisualVM или Eclipse MAT\n");
+        System.out.println("4. Проанализируйте heap dump в VisualVM или Eclipse MAT");
+        System.out.println("   (детектор утечек снимет dump сам при устойчивом росте live set, -Dleak.detect=false - выключить)\n");
         System.out.println("Начинаем создание сессий...\n");
 
         long startTime = System.currentTimeMillis();
@@ -141,6 +147,7 @@ public class MemoryLeakExample {
         System.out.printf("│ Аллоцировано данных:   %,10d MB                       │%n", totalDataAllocated / 1024 / 1024);
         System.out.println("├────────────────────────────────────────────────────────────┤");
         printMemoryInfo();
+        LEAK_DETECTOR.printStatus();
         System.out.println("└────────────────────────────────────────────────────────────┘");
         System.out.println();
     }
@@ -1,9 +1,15 @@
 package ru.sin.gc.leak;
 
+import ru.sin.gc.cache.BoundedCache;
+import ru.sin.gc.cache.SessionRegistry;
+
+import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * ИСПРАВЛЕННАЯ ВЕРСИЯ: Static Collection WITHOUT Leak
@@ -13,34 +19,56 @@ import java.util.Random;
  * 2. Добавлено ограничение на максимальное количество сессий
  * 3. Периодическая очистка устаревших данных
  *
+ * Сессии хранит SessionRegistry: поиск по sessionId, LRU-вытеснение и
+ * истечение TTL (таймер-колесо) - O(1), без обходов всех сессий под общим
+ * локом. Запросы пользователей обслуживают несколько потоков одновременно
+ * (-Dsessions.requestThreads=4), реестр разбит на сегменты со своими локами.
+ *
+ * Режим вытеснения на диск (-Dsessions.store=mmap): самая старая сессия при
+ * достижении лимита не удаляется, а ее sessionData уходит в memory-mapped файл
+ * (MappedSessionStore). Вернувшийся пользователь получает сессию обратно,
+ * данные перечитываются в heap. Число холодных сессий ограничено диском
+ * (-Dsessions.spillMax=2000 слотов по 1MB, -Dsessions.spillFile=...), а не -Xmx.
+ *
  * Это приложение будет работать стабильно и не вызовет OutOfMemoryError.
  */
 public class MemoryLeakFixedExample {
 
-    // ИСПРАВЛЕНО: Все еще статическая коллекция, но теперь с управлением размером
-    private static final List<UserSession> ACTIVE_SESSIONS = new ArrayList<>();
-
     // Конфигурация для предотвращения утечки
     private static final int MAX_SESSIONS = 500; // Максимум сессий в памяти
     private static final long SESSION_TTL = 5 * 60 * 1000; // 5 минут TTL
+    private static final int SESSION_DATA_SIZE = 1024 * 1024;
+    private static final int REQUEST_THREADS = Integer.getInteger("sessions.requestThreads", 4);
 
     // Счетчики для статистики
-    private static long totalSessionsCreated = 0;
-    private static long totalSessionsRemoved = 0;
+    private static volatile long totalSessionsCreated = 0;
+    private static final LongAdder totalSessionsRemoved = new LongAdder();
+    private static final LongAdder totalSessionsRestored = new LongAdder();
+    private static final LongAdder totalRequests = new LongAdder();
     private static long totalDataAllocated = 0;
 
+    // Холодные сессии: данные в файле, в heap только UserSession
+    private static final MappedSessionStore SPILL_STORE = createSpillStore();
+    private static final SessionRegistry<String, UserSession> SPILLED_SESSIONS = createSpilledRegistry();
+
+    // ИСПРАВЛЕНО: Все еще статическое хранилище, но теперь с управлением размером
+    private static final SessionRegistry<String, UserSession> ACTIVE_SESSIONS = new SessionRegistry<>(
+        MAX_SESSIONS, SESSION_TTL, TimeUnit.MILLISECONDS, REQUEST_THREADS + 1,
+        MemoryLeakFixedExample::onActiveSessionRemoved);
+
     static class UserSession {
         private final String sessionId;
         private final long createdAt;
         private long lastAccessTime;
-        private final byte[] sessionData;
+        private byte[] sessionData; // null, пока данные лежат в файле
+        private int spillSlot = -1;
         private final List<String> activityLog;
 
         public UserSession(String sessionId) {
             this.sessionId = sessionId;
             this.createdAt = System.currentTimeMillis();
             this.lastAccessTime = this.createdAt;
-            this.sessionData = new byte[1024 * 1024]; // 1MB данных
+            this.sessionData = new byte[SESSION_DATA_SIZE]; // 1MB данных
             this.activityLog = new ArrayList<>();
 
             Random random = new Random();
@@ -57,11 +85,7 @@ public class MemoryLeakFixedExample {
             return createdAt;
         }
 
-        public boolean isExpired() {
-            return System.currentTimeMillis() - lastAccessTime > SESSION_TTL;
-        }
-
-        public void addActivity(String activity) {
+        public synchronized void addActivity(String activity) {
             this.lastAccessTime = System.currentTimeMillis();
             activityLog.add(activity);
         }
@@ -69,6 +93,67 @@ public class MemoryLeakFixedExample {
         public long getLastAccessTime() {
             return lastAccessTime;
         }
+
+        /**
+         * Выгрузить sessionData в файл. false - в файле нет свободных слотов.
+         */
+        synchronized boolean spillTo(MappedSessionStore store) {
+            int slot = store.spill(sessionId, sessionData);
+            if (slot < 0) {
+                return false;
+            }
+            spillSlot = slot;
+            sessionData = null;
+            return true;
+        }
+
+        synchronized void restoreFrom(MappedSessionStore store) {
+            sessionData = store.load(spillSlot);
+            spillSlot = -1;
+        }
+
+        synchronized void discardFrom(MappedSessionStore store) {
+            store.release(spillSlot);
+            spillSlot = -1;
+        }
+    }
+
+    private static MappedSessionStore createSpillStore() {
+        if (!"mmap".equals(System.getProperty("sessions.store", "heap"))) {
+            return null;
+        }
+        Path file = Path.of(System.getProperty("sessions.spillFile",
+            Path.of(System.getProperty("java.io.tmpdir"), "sessions_spill.dat").toString()));
+        return new MappedSessionStore(file, SESSION_DATA_SIZE, Integer.getInteger("sessions.spillMax", 2000));
+    }
+
+    private static SessionRegistry<String, UserSession> createSpilledRegistry() {
+        if (SPILL_STORE == null) {
+            return null;
+        }
+        // Запас слотов на одновременные выгрузки: слот занимается до вставки в реестр
+        int maximum = Math.max(1, SPILL_STORE.capacity() - REQUEST_THREADS - 1);
+        return new SessionRegistry<>(maximum, SESSION_TTL, TimeUnit.MILLISECONDS, REQUEST_THREADS + 1,
+            (sessionId, session, cause) -> {
+                // EXPLICIT - сессию забрали обратно в heap, слот освобождает restoreFrom()
+                if (cause != BoundedCache.RemovalCause.EXPLICIT) {
+                    session.discardFrom(SPILL_STORE);
+                    totalSessionsRemoved.increment();
+                }
+            });
+    }
+
+    // Вызывается под локом сегмента ACTIVE_SESSIONS
+    private static void onActiveSessionRemoved(String sessionId, UserSession session,
+                                               BoundedCache.RemovalCause cause) {
+        if (cause == BoundedCache.RemovalCause.SIZE && SPILL_STORE != null) {
+            // ИСПРАВЛЕНИЕ: самая давняя сессия при достижении лимита уходит в файл
+            if (session.spillTo(SPILL_STORE)) {
+                SPILLED_SESSIONS.put(sessionId, session);
+                return;
+            }
+        }
+        totalSessionsRemoved.increment();
     }
 
     public static void main(String[] args) {
@@ -80,7 +165,14 @@ public class MemoryLeakFixedExample {
         System.out.println("\nИсправления:");
         System.out.println("✓ Добавлено автоматическое удаление старых сессий (TTL: 5 минут)");
         System.out.println("✓ Ограничение на максимальное количество сессий: " + MAX_SESSIONS);
-        System.out.println("✓ Периодическая очистка памяти\n");
+        System.out.println("✓ Периодическая очистка памяти");
+        System.out.println("✓ O(1) LRU/TTL реестр сессий, " + ACTIVE_SESSIONS.segmentCount()
+            + " сегментов, потоков запросов: " + REQUEST_THREADS);
+        if (SPILL_STORE != null) {
+            System.out.println("✓ Вытеснение холодных сессий в " + SPILL_STORE.file()
+                + " (до " + SPILL_STORE.capacity() + " слотов)");
+        }
+        System.out.println();
 
         System.out.println("Инструкции:");
         System.out.println("1. Запустите приложение");
@@ -94,6 +186,12 @@ public class MemoryLeakFixedExample {
         long lastCleanupTime = startTime;
         int iteration = 0;
 
+        for (int i = 0; i < REQUEST_THREADS; i++) {
+            Thread thread = new Thread(MemoryLeakFixedExample::serveRequests, "request-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
         try {
             // Работаем ~40 минут
             while (System.currentTimeMillis() - startTime < 40 * 60 * 1000) {
@@ -101,27 +199,13 @@ public class MemoryLeakFixedExample {
 
                 // Создаем новые сессии (имитируем новых пользователей)
                 for (int i = 0; i < 10; i++) {
-                    String sessionId = "SESSION_" + totalSessionsCreated++;
+                    String sessionId = "SESSION_" + totalSessionsCreated;
                     UserSession session = new UserSession(sessionId);
 
-                    // ИСПРАВЛЕНО: Проверяем лимит перед добавлением
-                    synchronized (ACTIVE_SESSIONS) {
-                        if (ACTIVE_SESSIONS.size() < MAX_SESSIONS) {
-                            ACTIVE_SESSIONS.add(session);
-                            totalDataAllocated += 1024 * 1024;
-                        } else {
-                            // Если достигли лимита, удаляем самую старую сессию
-                            removeOldestSession();
-                            ACTIVE_SESSIONS.add(session);
-                        }
-                    }
-
-                    // Имитируем активность в случайных сессиях
-                    if (!ACTIVE_SESSIONS.isEmpty()) {
-                        Random random = new Random();
-                        int randomIndex = random.nextInt(ACTIVE_SESSIONS.size());
-                        ACTIVE_SESSIONS.get(randomIndex).addActivity("Activity at " + System.currentTimeMillis());
-                    }
+                    // ИСПРАВЛЕНО: при достижении лимита реестр сам вытесняет самую давнюю сессию
+                    ACTIVE_SESSIONS.put(sessionId, session);
+                    totalSessionsCreated++;
+                    totalDataAllocated += SESSION_DATA_SIZE;
                 }
 
                 // ИСПРАВЛЕНО: Периодическая очистка устаревших сессий (каждые 30 секунд)
@@ -158,41 +242,61 @@ public class MemoryLeakFixedExample {
         }
     }
 
-    // ИСПРАВЛЕНИЕ: Удаление устаревших сессий
-    private static void cleanupExpiredSessions() {
-        synchronized (ACTIVE_SESSIONS) {
-            Iterator<UserSession> iterator = ACTIVE_SESSIONS.iterator();
-            int removedCount = 0;
-
-            while (iterator.hasNext()) {
-                UserSession session = iterator.next();
-                if (session.isExpired()) {
-                    iterator.remove();
-                    totalSessionsRemoved++;
-                    removedCount++;
+    // Поток запросов: активность пользователей недавних сессий, поиск по sessionId
+    private static void serveRequests() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        try {
+            while (true) {
+                long created = totalSessionsCreated;
+                if (created > 0) {
+                    long recent = Math.min(created, MAX_SESSIONS * 4L);
+                    String sessionId = "SESSION_" + (created - 1 - random.nextLong(recent));
+                    UserSession session = ACTIVE_SESSIONS.get(sessionId);
+                    if (session == null && SPILL_STORE != null) {
+                        session = restoreSession(sessionId);
+                    }
+                    if (session != null) {
+                        session.addActivity("Activity at " + System.currentTimeMillis());
+                    }
+                    totalRequests.increment();
                 }
+                Thread.sleep(random.nextInt(2, 8));
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
 
-            if (removedCount > 0) {
-                System.out.println("🧹 Очистка: удалено " + removedCount + " устаревших сессий");
-            }
+    // ИСПРАВЛЕНИЕ: истечение TTL - только наступившие корзины таймер-колеса, без обхода всех сессий
+    private static void cleanupExpiredSessions() {
+        long expiredBefore = expiredCount();
+        ACTIVE_SESSIONS.cleanUp();
+        if (SPILLED_SESSIONS != null) {
+            SPILLED_SESSIONS.cleanUp();
+        }
+
+        long removedCount = expiredCount() - expiredBefore;
+        if (removedCount > 0) {
+            System.out.println("🧹 Очистка: удалено " + removedCount + " устаревших сессий");
         }
     }
 
-    // ИСПРАВЛЕНИЕ: Удаление самой старой сессии при достижении лимита
-    private static void removeOldestSession() {
-        synchronized (ACTIVE_SESSIONS) {
-            if (!ACTIVE_SESSIONS.isEmpty()) {
-                UserSession oldest = ACTIVE_SESSIONS.stream()
-                    .min((s1, s2) -> Long.compare(s1.getLastAccessTime(), s2.getLastAccessTime()))
-                    .orElse(null);
-
-                if (oldest != null) {
-                    ACTIVE_SESSIONS.remove(oldest);
-                    totalSessionsRemoved++;
-                }
-            }
+    private static long expiredCount() {
+        return ACTIVE_SESSIONS.expirationCount()
+            + (SPILLED_SESSIONS == null ? 0 : SPILLED_SESSIONS.expirationCount());
+    }
+
+    // Обращение к холодной сессии: данные читаются из файла, сессия снова в heap
+    private static UserSession restoreSession(String sessionId) {
+        UserSession session = SPILLED_SESSIONS.remove(sessionId);
+        if (session == null) {
+            return null;
         }
+        session.restoreFrom(SPILL_STORE);
+        totalSessionsRestored.increment();
+        // Может вытеснить в файл другую сессию (лок сегмента ACTIVE_SESSIONS -> SPILLED_SESSIONS)
+        ACTIVE_SESSIONS.put(sessionId, session);
+        return session;
     }
 
     private static void printStatus(long startTime) {
@@ -203,10 +307,20 @@ public class MemoryLeakFixedExample {
         System.out.println("├────────────────────────────────────────────────────────────┤");
         System.out.printf("│ Время работы:          %3d минут                           │%n", elapsedMinutes);
         System.out.printf("│ Активных сессий:       %,10d / %d (макс)              │%n",
-            ACTIVE_SESSIONS.size(), MAX_SESSIONS);
+            ACTIVE_SESSIONS.size(), ACTIVE_SESSIONS.maximumSize());
         System.out.printf("│ Создано сессий всего:  %,10d                          │%n", totalSessionsCreated);
-        System.out.printf("│ Удалено сессий:        %,10d                          │%n", totalSessionsRemoved);
+        System.out.printf("│ Удалено сессий:        %,10d                          │%n", totalSessionsRemoved.sum());
         System.out.printf("│ Аллоцировано данных:   %,10d MB                       │%n", totalDataAllocated / 1024 / 1024);
+        System.out.printf("│ Запросов обработано:   %,10d                          │%n", totalRequests.sum());
+        if (SPILL_STORE != null) {
+            System.out.printf("│ Сессий в файле:        %,10d / %d (слотов)           │%n",
+                SPILLED_SESSIONS.size(), SPILL_STORE.capacity());
+            System.out.printf("│ Выгружено / загружено: %,10d / %,d                   │%n",
+                SPILL_STORE.spilledTotal(), SPILL_STORE.loadedTotal());
+            System.out.printf("│ Восстановлено сессий:  %,10d                          │%n", totalSessionsRestored.sum());
+            System.out.printf("│ Отображено файла:      %,10d MB                       │%n",
+                SPILL_STORE.mappedBytes() / 1024 / 1024);
+        }
         System.out.println("├────────────────────────────────────────────────────────────┤");
         printMemoryInfo();
         System.out.println("└────────────────────────────────────────────────────────────┘");
@@ -0,0 +1,180 @@
+package ru.sin.gc.leak;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * Таблица слабых ссылок на listener'ы с O(1) регистрацией и отпиской
+ *
+ * Проблема CopyOnWriteArrayList: каждая регистрация и отписка копирует весь
+ * массив, а удаление мертвых ссылок при публикации - еще одна копия на
+ * каждую. При тысячах listener'ов, которые постоянно подписываются и
+ * отписываются, это O(n^2).
+ *
+ * Устройство:
+ * - Listener лежит в слоте массива; свободные слоты - в стеке индексов.
+ *   Регистрация берет слот из стека, отписка возвращает - O(1).
+ * - У каждого слота счетчик поколений. Handle регистрации = (поколение << 32) | индекс;
+ *   отписка с устаревшим handle (повторный close, слот уже переиспользован)
+ *   ничего не делает и не может удалить чужой listener.
+ * - Ссылки зарегистрированы в ReferenceQueue: собранные GC listener'ы
+ *   освобождают слоты по очереди ссылок (O(число собранных)), без обхода таблицы.
+ * - Публикация читает volatile-ссылку на массив и обходит слоты без блокировок.
+ *   Массив только растет (удвоение с копированием под локом писателей),
+ *   поэтому публикатор, взявший старый массив, просто не увидит самые новые слоты.
+ *
+ * Писатели (register/unregister/expunge) сериализуются монитором таблицы.
+ */
+final class WeakListenerTable<L> {
+
+    /**
+     * Слабая ссылка, помнящая свой слот и поколение.
+     */
+    private static final class SlotReference<L> extends WeakReference<L> {
+        final int index;
+        final int generation;
+
+        SlotReference(L listener, ReferenceQueue<? super L> queue, int index, int generation) {
+            super(listener, queue);
+            this.index = index;
+            this.generation = generation;
+        }
+    }
+
+    private final ReferenceQueue<L> queue = new ReferenceQueue<>();
+
+    // Публикуется целиком: запись в элементы - через set() AtomicReferenceArray
+    private volatile AtomicReferenceArray<SlotReference<L>> slots;
+    // Граница обхода: слоты с индексом >= highWater ни разу не использовались
+    private volatile int highWater;
+
+    private int[] generations;
+    private int[] freeSlots;
+    private int freeCount;
+    private int size;
+
+    WeakListenerTable(int initialCapacity) {
+        int capacity = Math.max(16, initialCapacity);
+        this.slots = new AtomicReferenceArray<>(capacity);
+        this.generations = new int[capacity];
+        this.freeSlots = new int[capacity];
+    }
+
+    /**
+     * Зарегистрировать listener.
+     *
+     * @return handle для unregister()
+     */
+    synchronized long register(L listener) {
+        expungeStaleEntries();
+        int index;
+        if (freeCount > 0) {
+            index = freeSlots[--freeCount];
+        } else {
+            index = highWater;
+            if (index == slots.length()) {
+                grow();
+            }
+            highWater = index + 1;
+        }
+        int generation = generations[index];
+        slots.set(index, new SlotReference<>(listener, queue, index, generation));
+        size++;
+        return ((long) generation << 32) | index;
+    }
+
+    /**
+     * Отписать listener по handle. Возвращает false, если handle устарел.
+     */
+    synchronized boolean unregister(long handle) {
+        int index = (int) handle;
+        int generation = (int) (handle >>> 32);
+        if (index < 0 || index >= highWater || generations[index] != generation) {
+            return false;
+        }
+        SlotReference<L> reference = slots.get(index);
+        if (reference == null) {
+            return false;
+        }
+        reference.clear();
+        free(index);
+        expungeStaleEntries();
+        return true;
+    }
+
+    /**
+     * Освободить слоты listener'ов, собранных GC. Просматривает только
+     * ссылки, уже попавшие в ReferenceQueue.
+     *
+     * @return сколько слотов освобождено
+     */
+    synchronized int expungeStaleEntries() {
+        int expunged = 0;
+        Reference<? extends L> polled;
+        while ((polled = queue.poll()) != null) {
+            SlotReference<?> reference = (SlotReference<?>) polled;
+            // Слот мог быть уже освобожден отпиской и занят другим listener'ом
+            if (generations[reference.index] == reference.generation && slots.get(reference.index) == reference) {
+                free(reference.index);
+                expunged++;
+            }
+        }
+        return expunged;
+    }
+
+    /**
+     * Обойти живые listener'ы без блокировок.
+     */
+    void forEach(Consumer<? super L> action) {
+        AtomicReferenceArray<SlotReference<L>> snapshot = slots;
+        int limit = Math.min(highWater, snapshot.length());
+        for (int i = 0; i < limit; i++) {
+            SlotReference<L> reference = snapshot.get(i);
+            if (reference != null) {
+                L listener = reference.get();
+                if (listener != null) {
+                    action.accept(listener);
+                }
+            }
+        }
+    }
+
+    /**
+     * Занятые слоты (listener'ы, собранные GC, но еще не вынутые из очереди, тоже считаются).
+     */
+    synchronized int size() {
+        return size;
+    }
+
+    synchronized int capacity() {
+        return slots.length();
+    }
+
+    private void free(int index) {
+        slots.set(index, null);
+        generations[index]++;
+        freeSlots[freeCount++] = index;
+        size--;
+    }
+
+    private void grow() {
+        AtomicReferenceArray<SlotReference<L>> current = slots;
+        int capacity = current.length() * 2;
+        AtomicReferenceArray<SlotReference<L>> grown = new AtomicReferenceArray<>(capacity);
+        for (int i = 0; i < current.length(); i++) {
+            grown.set(i, current.get(i));
+        }
+        slots = grown;
+
+        int[] grownGenerations = new int[capacity];
+        System.arraycopy(generations, 0, grownGenerations, 0, generations.length);
+        generations = grownGenerations;
+
+        int[] grownFree = new int[capacity];
+        System.arraycopy(freeSlots, 0, grownFree, 0, freeCount);
+        freeSlots = grownFree;
+    }
+}
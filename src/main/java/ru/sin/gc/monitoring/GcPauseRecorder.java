@@ -0,0 +1,379 @@
+package ru.sin.gc.monitoring;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import com.sun.management.GcInfo;
+import ru.sin.gc.comparison.LatencyHistogram;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.*;
+
+/**
+ * Запись каждой сборки мусора через GarbageCollectionNotificationInfo
+ *
+ * В отличие от getCollectionCount()/getCollectionTime(), которые дают только
+ * накопленные итоги, здесь сохраняется каждая сборка:
+ * - коллектор, действие и причина (cause)
+ * - время начала/конца (JVM uptime) и длительность
+ * - использование каждого memory pool до и после
+ *
+ * События хранятся в кольцевом буфере фиксированного размера, длительности -
+ * в гистограммах по каждому коллектору. По времени начала/конца можно
+ * сопоставить конкретный всплеск latency с конкретной паузой.
+ *
+ * Использование:
+ *   GcPauseRecorder recorder = GcPauseRecorder.install();
+ *   ... нагрузка ...
+ *   recorder.printSummary();
+ *   recorder.close();
+ */
+public class GcPauseRecorder implements NotificationListener, AutoCloseable {
+
+    private static final int DEFAULT_CAPACITY = 4096;
+
+    // Пулы heap: в GcInfo есть и Metaspace, CodeHeap, Compressed Class Space
+    private static final Set<String> HEAP_POOLS = heapPoolNames();
+
+    /**
+     * Одна сборка мусора.
+     */
+    public static class GcEvent {
+        private final long id;
+        private final String collector;
+        private final String action;
+        private final String cause;
+        private final long startUptimeMs;
+        private final long endUptimeMs;
+        private final long durationMs;
+        private final Map<String, MemoryUsage> usageBefore;
+        private final Map<String, MemoryUsage> usageAfter;
+
+        GcEvent(GarbageCollectionNotificationInfo info) {
+            GcInfo gcInfo = info.getGcInfo();
+            this.id = gcInfo.getId();
+            this.collector = info.getGcName();
+            this.action = info.getGcAction();
+            this.cause = info.getGcCause();
+            this.startUptimeMs = gcInfo.getStartTime();
+            this.endUptimeMs = gcInfo.getEndTime();
+            this.durationMs = gcInfo.getDuration();
+            this.usageBefore = gcInfo.getMemoryUsageBeforeGc();
+            this.usageAfter = gcInfo.getMemoryUsageAfterGc();
+        }
+
+        /**
+         * Stop-the-world пауза или конкурентный цикл (ZGC/Shenandoah Cycles, G1 Concurrent GC).
+         */
+        public boolean isPause() {
+            return isPauseCollector(collector);
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public String getCollector() {
+            return collector;
+        }
+
+        public String getAction() {
+            return action;
+        }
+
+        public String getCause() {
+            return cause;
+        }
+
+        public long getStartUptimeMs() {
+            return startUptimeMs;
+        }
+
+        public long getEndUptimeMs() {
+            return endUptimeMs;
+        }
+
+        public long getDurationMs() {
+            return durationMs;
+        }
+
+        public Map<String, MemoryUsage> getUsageBefore() {
+            return usageBefore;
+        }
+
+        public Map<String, MemoryUsage> getUsageAfter() {
+            return usageAfter;
+        }
+
+        public long getHeapUsedBefore() {
+            return sumUsed(usageBefore);
+        }
+
+        public long getHeapUsedAfter() {
+            return sumUsed(usageAfter);
+        }
+
+        /**
+         * Есть ли в событии использование пулов heap (у ZGC Pauses его нет - только у циклов).
+         */
+        public boolean hasHeapUsage() {
+            for (String pool : usageAfter.keySet()) {
+                if (HEAP_POOLS.contains(pool)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Сумма по пулам heap - та же величина, что MemoryMXBean.getHeapMemoryUsage().
+         */
+        private static long sumUsed(Map<String, MemoryUsage> usage) {
+            long total = 0;
+            for (Map.Entry<String, MemoryUsage> entry : usage.entrySet()) {
+                if (HEAP_POOLS.contains(entry.getKey())) {
+                    total += entry.getValue().getUsed();
+                }
+            }
+            return total;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("#%d %s (%s) %d ms, heap %,d -> %,d MB",
+                id, collector, cause, durationMs,
+                getHeapUsedBefore() / 1024 / 1024, getHeapUsedAfter() / 1024 / 1024);
+        }
+    }
+
+    private final GcEvent[] ring;
+    private long written;
+
+    // Длительности по коллекторам, в наносекундах (точность GcInfo - 1 ms)
+    private final Map<String, LatencyHistogram> durations = new TreeMap<>();
+    private final Map<String, Map<String, Integer>> causes = new TreeMap<>();
+    private long pauseTotalMs;
+    private long pauseCount;
+
+    // Оценка аллокаций по занятости heap: рост между концом одной сборки и началом следующей
+    private long allocatedBytes;
+    private long lastHeapUsedAfter = currentHeapUsed();
+
+    // Привязка System.nanoTime() к JVM uptime, в котором GcInfo отдает время
+    private final long nanoBase;
+    private final long uptimeBaseMs;
+
+    private final List<NotificationEmitter> emitters = new ArrayList<>();
+
+    public GcPauseRecorder(int capacity) {
+        this.ring = new GcEvent[capacity];
+        this.nanoBase = System.nanoTime();
+        this.uptimeBaseMs = ManagementFactory.getRuntimeMXBean().getUptime();
+    }
+
+    /**
+     * Создать recorder и подписаться на уведомления всех коллекторов.
+     */
+    public static GcPauseRecorder install() {
+        GcPauseRecorder recorder = new GcPauseRecorder(DEFAULT_CAPACITY);
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (gc instanceof NotificationEmitter) {
+                NotificationEmitter emitter = (NotificationEmitter) gc;
+                emitter.addNotificationListener(recorder, null, null);
+                recorder.emitters.add(emitter);
+            }
+        }
+        return recorder;
+    }
+
+    private static Set<String> heapPoolNames() {
+        Set<String> names = new HashSet<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                names.add(pool.getName());
+            }
+        }
+        return names;
+    }
+
+    static boolean isPauseCollector(String collector) {
+        return !(collector.endsWith("Cycles") || collector.endsWith("Concurrent GC"));
+    }
+
+    @Override
+    public void handleNotification(Notification notification, Object handback) {
+        if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+            return;
+        }
+        GarbageCollectionNotificationInfo info =
+            GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+        record(new GcEvent(info));
+    }
+
+    private synchronized void record(GcEvent event) {
+        ring[(int) (written % ring.length)] = event;
+        written++;
+
+        durations.computeIfAbsent(event.collector, k -> LatencyHistogram.forNanos())
+            .record(event.durationMs * 1_000_000L);
+        causes.computeIfAbsent(event.collector, k -> new TreeMap<>())
+            .merge(event.cause, 1, Integer::sum);
+        if (event.isPause()) {
+            pauseTotalMs += event.durationMs;
+            pauseCount++;
+        }
+        if (event.hasHeapUsage()) {
+            allocatedBytes += Math.max(0, event.getHeapUsedBefore() - lastHeapUsedAfter);
+            lastHeapUsedAfter = event.getHeapUsedAfter();
+        }
+    }
+
+    /**
+     * Забыть все записанные события (например, после прогрева).
+     */
+    public synchronized void reset() {
+        Arrays.fill(ring, null);
+        written = 0;
+        durations.clear();
+        causes.clear();
+        pauseTotalMs = 0;
+        pauseCount = 0;
+        allocatedBytes = 0;
+        lastHeapUsedAfter = currentHeapUsed();
+    }
+
+    /**
+     * Перевести System.nanoTime() во время JVM uptime (ms), в котором записаны события.
+     */
+    public long toUptimeMs(long nanoTime) {
+        return uptimeBaseMs + (nanoTime - nanoBase) / 1_000_000;
+    }
+
+    /**
+     * События из буфера в порядке возникновения.
+     */
+    public synchronized List<GcEvent> getEvents() {
+        int size = (int) Math.min(written, ring.length);
+        List<GcEvent> events = new ArrayList<>(size);
+        for (long i = written - size; i < written; i++) {
+            events.add(ring[(int) (i % ring.length)]);
+        }
+        return events;
+    }
+
+    /**
+     * Паузы (STW), пересекающиеся с интервалом [fromNanos, toNanos] по System.nanoTime().
+     */
+    public List<GcEvent> pausesOverlapping(long fromNanos, long toNanos) {
+        // Погрешность 1 ms: GcInfo дает время с миллисекундной точностью
+        long from = toUptimeMs(fromNanos) - 1;
+        long to = toUptimeMs(toNanos) + 1;
+        List<GcEvent> result = new ArrayList<>();
+        for (GcEvent event : getEvents()) {
+            if (event.isPause() && event.endUptimeMs >= from && event.startUptimeMs <= to) {
+                result.add(event);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Общее время STW пауз с последнего reset(), ms (не ограничено размером буфера).
+     */
+    public synchronized long getTotalPauseMs() {
+        return pauseTotalMs;
+    }
+
+    /**
+     * Длительности STW пауз всех коллекторов в одной гистограмме (наносекунды).
+     */
+    public synchronized LatencyHistogram getPauseDurations() {
+        LatencyHistogram merged = LatencyHistogram.forNanos();
+        for (Map.Entry<String, LatencyHistogram> entry : durations.entrySet()) {
+            if (isPauseCollector(entry.getKey())) {
+                merged.add(entry.getValue());
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Копия гистограммы длительностей коллектора (наносекунды), или null.
+     */
+    public synchronized LatencyHistogram getDurations(String collector) {
+        LatencyHistogram histogram = durations.get(collector);
+        return histogram == null ? null : histogram.copy();
+    }
+
+    /**
+     * Примерный объем аллокаций в heap с последнего reset(), байт.
+     * Считается по GC событиям (как allocation rate в анализаторах GC логов),
+     * поэтому учитывает все потоки, включая уже завершившиеся.
+     */
+    public synchronized long getAllocatedBytes() {
+        return allocatedBytes + Math.max(0, currentHeapUsed() - lastHeapUsedAfter);
+    }
+
+    private static long currentHeapUsed() {
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    /**
+     * Все записанные события, включая конкурентные циклы (ZGC Cycles и т.п.).
+     */
+    public synchronized long getRecordedCount() {
+        return written;
+    }
+
+    /**
+     * Число STW пауз с последнего reset() (не ограничено размером буфера).
+     */
+    public synchronized long getPauseCount() {
+        return pauseCount;
+    }
+
+    /**
+     * Вывести статистику пауз по каждому коллектору.
+     */
+    public synchronized void printSummary() {
+        System.out.println("\nПаузы GC (по уведомлениям GarbageCollectionNotificationInfo):");
+        if (durations.isEmpty()) {
+            System.out.println("  Сборок не было");
+            return;
+        }
+        for (Map.Entry<String, LatencyHistogram> entry : durations.entrySet()) {
+            String collector = entry.getKey();
+            LatencyHistogram h = entry.getValue();
+            System.out.printf("  %s%s:%n", collector, isPauseCollector(collector) ? "" : " (конкурентный цикл)");
+            System.out.printf("    Сборок: %,d, суммарно: %,.0f ms%n",
+                h.getTotalCount(), h.getMean() * h.getTotalCount() / 1_000_000.0);
+            System.out.printf("    p50: %.0f ms, p99: %.0f ms, max: %.0f ms%n",
+                h.getValueAtPercentile(50) / 1_000_000.0,
+                h.getValueAtPercentile(99) / 1_000_000.0,
+                h.getMax() / 1_000_000.0);
+            System.out.println("    Причины: " + causes.get(collector));
+        }
+        if (written > ring.length) {
+            System.out.printf("  (в буфере последние %,d из %,d событий)%n", ring.length, written);
+        }
+    }
+
+    @Override
+    public void close() {
+        for (NotificationEmitter emitter : emitters) {
+            try {
+                emitter.removeNotificationListener(this);
+            } catch (ListenerNotFoundException e) {
+                // Уже отписан
+            }
+        }
+        emitters.clear();
+    }
+}
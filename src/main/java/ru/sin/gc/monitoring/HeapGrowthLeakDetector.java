@@ -0,0 +1,349 @@
+package ru.sin.gc.monitoring;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import com.sun.management.HotSpotDiagnosticMXBean;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Обнаружение утечки внутри процесса по росту live set после GC
+ *
+ * Занятость heap сама по себе ничего не говорит: между сборками она растет
+ * у любого приложения. Признак утечки - рост того, что остается после
+ * сборки, устойчивый на протяжении многих сборок. Детектор:
+ * - Находит old gen пулы (heap пулы с поддержкой CollectionUsageThreshold,
+ *   кроме Eden/Survivor) и ставит им порог -Dleak.thresholdPercent от max.
+ *   Уведомление MEMORY_COLLECTION_THRESHOLD_EXCEEDED взводит детектор.
+ * - По GarbageCollectionNotificationInfo берет занятость old gen после
+ *   каждой сборки. Collection usage пула для этого не годится: у G1
+ *   Old Gen он обновляется только полной сборкой, а young/mixed сборки
+ *   его не трогают - поэтому же порог взводится и по самим сэмплам.
+ * - Строит линейную регрессию (наименьшие квадраты) по нижней огибающей
+ *   сэмплов за окно: каждый сэмпл заменяется минимумом из него и всех
+ *   последующих. Пила "накопили - собрали" дает ровную огибающую,
+ *   а утечка - растущую. Наклон переводится в MB/мин, R² показывает,
+ *   насколько рост похож на прямую, а не на шум.
+ * - Утечка = наклон >= -Dleak.minGrowthMbPerMin, R² >= -Dleak.minR2,
+ *   детектор взведен и условие выполнилось -Dleak.confirmations раз подряд.
+ *
+ * При обнаружении (один раз за процесс) в отдельном потоке снимается heap
+ * dump через HotSpotDiagnosticMXBean.dumpHeap (только живые объекты) и
+ * гистограмма классов через DiagnosticCommand GC.class_histogram - она
+ * пишется рядом с dump'ом, верхние строки печатаются в лог.
+ *
+ * Включен по умолчанию в примерах с утечками; -Dleak.detect=false - выключенный
+ * детектор, все методы которого no-op.
+ *
+ * Использование:
+ *   HeapGrowthLeakDetector detector = HeapGrowthLeakDetector.create();
+ *   ... в отчете: detector.printStatus();
+ *   detector.close();
+ */
+public class HeapGrowthLeakDetector implements NotificationListener, AutoCloseable {
+
+    public static final String ENABLE_PROPERTY = "leak.detect";
+
+    private static final int MAX_SAMPLES = 256;
+    private static final int MIN_SAMPLES = 6;
+    private static final int HISTOGRAM_LINES = 15;
+    private static final ObjectName DIAGNOSTIC_COMMAND = diagnosticCommandName();
+
+    private final boolean enabled;
+    private final List<MemoryPoolMXBean> oldPools = new ArrayList<>();
+    private final long oldMaxBytes;
+    private final int thresholdPercent;
+    private final long thresholdBytes;
+    private final long windowMs;
+    private final double minGrowthBytesPerMs;
+    private final double minR2;
+    private final int confirmations;
+    private final boolean heapDump;
+    private final Path dumpDir;
+
+    // Сэмплы: время конца сборки (JVM uptime, ms) и занятость old gen после нее
+    private final long[] sampleTimes = new long[MAX_SAMPLES];
+    private final long[] sampleBytes = new long[MAX_SAMPLES];
+    private long written;
+
+    private long thresholdNotifications;
+    private boolean armed;
+    private int consecutiveGrowth;
+    private double slopeBytesPerMs;
+    private double r2;
+    private int windowSamples;
+    private volatile boolean detected;
+    private volatile String report;
+
+    private final List<NotificationEmitter> emitters = new ArrayList<>();
+
+    private HeapGrowthLeakDetector(boolean enabled) {
+        this.enabled = enabled;
+        long max = 0;
+        if (enabled) {
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                if (isOldPool(pool)) {
+                    oldPools.add(pool);
+                    long poolMax = pool.getUsage().getMax();
+                    max = poolMax < 0 || max < 0 ? -1 : max + poolMax;
+                }
+            }
+        }
+        this.oldMaxBytes = max > 0 ? max : Runtime.getRuntime().maxMemory();
+        this.thresholdPercent = Integer.getInteger("leak.thresholdPercent", 50);
+        this.thresholdBytes = oldMaxBytes * thresholdPercent / 100;
+        this.windowMs = Integer.getInteger("leak.windowSec", 300) * 1000L;
+        this.minGrowthBytesPerMs = Double.parseDouble(System.getProperty("leak.minGrowthMbPerMin", "1"))
+            * 1024 * 1024 / 60_000.0;
+        this.minR2 = Double.parseDouble(System.getProperty("leak.minR2", "0.8"));
+        this.confirmations = Math.max(1, Integer.getInteger("leak.confirmations", 3));
+        this.heapDump = !"false".equals(System.getProperty("leak.heapDump"));
+        this.dumpDir = Paths.get(System.getProperty("leak.dumpDir", "heap_dumps"));
+    }
+
+    /**
+     * Запустить детектор, если не задано -Dleak.detect=false; иначе - выключенный детектор.
+     */
+    public static HeapGrowthLeakDetector create() {
+        return "false".equals(System.getProperty(ENABLE_PROPERTY)) ? new HeapGrowthLeakDetector(false) : install();
+    }
+
+    /**
+     * Запустить детектор безусловно: пороги на old gen пулах и подписка на уведомления.
+     */
+    public static HeapGrowthLeakDetector install() {
+        HeapGrowthLeakDetector detector = new HeapGrowthLeakDetector(true);
+        for (MemoryPoolMXBean pool : detector.oldPools) {
+            long max = pool.getUsage().getMax();
+            pool.setCollectionUsageThreshold(max > 0 ? max * detector.thresholdPercent / 100 : detector.thresholdBytes);
+        }
+        NotificationEmitter memory = (NotificationEmitter) ManagementFactory.getMemoryMXBean();
+        memory.addNotificationListener(detector, null, null);
+        detector.emitters.add(memory);
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (gc instanceof NotificationEmitter) {
+                NotificationEmitter emitter = (NotificationEmitter) gc;
+                emitter.addNotificationListener(detector, null, null);
+                detector.emitters.add(emitter);
+            }
+        }
+        return detector;
+    }
+
+    private static boolean isOldPool(MemoryPoolMXBean pool) {
+        String name = pool.getName();
+        return pool.getType() == MemoryType.HEAP && pool.isCollectionUsageThresholdSupported()
+            && !name.contains("Eden") && !name.contains("Survivor");
+    }
+
+    @Override
+    public void handleNotification(Notification notification, Object handback) {
+        String type = notification.getType();
+        if (MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED.equals(type)) {
+            onThresholdExceeded();
+        } else if (GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(type)) {
+            GarbageCollectionNotificationInfo info =
+                GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+            Map<String, MemoryUsage> after = info.getGcInfo().getMemoryUsageAfterGc();
+            long used = 0;
+            for (MemoryPoolMXBean pool : oldPools) {
+                MemoryUsage usage = after.get(pool.getName());
+                if (usage != null) {
+                    used += usage.getUsed();
+                }
+            }
+            onSample(info.getGcInfo().getEndTime(), used);
+        }
+    }
+
+    private synchronized void onThresholdExceeded() {
+        thresholdNotifications++;
+        armed = true;
+    }
+
+    private synchronized void onSample(long uptimeMs, long usedBytes) {
+        int slot = (int) (written % MAX_SAMPLES);
+        sampleTimes[slot] = uptimeMs;
+        sampleBytes[slot] = usedBytes;
+        written++;
+        if (usedBytes >= thresholdBytes) {
+            armed = true;
+        }
+
+        evaluateTrend(uptimeMs);
+        boolean growing = windowSamples >= MIN_SAMPLES && slopeBytesPerMs >= minGrowthBytesPerMs && r2 >= minR2;
+        consecutiveGrowth = growing ? consecutiveGrowth + 1 : 0;
+        if (growing && armed && consecutiveGrowth >= confirmations && !detected) {
+            detected = true;
+            String summary = String.format("рост live set %.1f MB/мин (R² %.2f) по %d сборкам, old gen %,d MB из %,d MB",
+                slopeBytesPerMs * 60_000 / 1024 / 1024, r2, windowSamples,
+                usedBytes / 1024 / 1024, oldMaxBytes / 1024 / 1024);
+            Thread dumper = new Thread(() -> captureEvidence(summary), "heap-leak-dump");
+            dumper.setDaemon(true);
+            dumper.start();
+        }
+    }
+
+    /**
+     * Наименьшие квадраты по нижней огибающей сэмплов окна.
+     */
+    private void evaluateTrend(long nowMs) {
+        int available = (int) Math.min(written, MAX_SAMPLES);
+        int count = 0;
+        while (count < available) {
+            int slot = (int) ((written - 1 - count) % MAX_SAMPLES);
+            if (nowMs - sampleTimes[slot] > windowMs) {
+                break;
+            }
+            count++;
+        }
+        windowSamples = count;
+        if (count < 2) {
+            slopeBytesPerMs = 0;
+            r2 = 0;
+            return;
+        }
+
+        // Обход от новых к старым: огибающая - минимум из текущего и всех более поздних
+        long firstTime = sampleTimes[(int) ((written - count) % MAX_SAMPLES)];
+        double envelope = Double.MAX_VALUE;
+        double sumX = 0, sumY = 0, sumXX = 0, sumXY = 0, sumYY = 0;
+        for (int i = 0; i < count; i++) {
+            int slot = (int) ((written - 1 - i) % MAX_SAMPLES);
+            double x = sampleTimes[slot] - firstTime;
+            envelope = Math.min(envelope, sampleBytes[slot]);
+            sumX += x;
+            sumY += envelope;
+            sumXX += x * x;
+            sumXY += x * envelope;
+            sumYY += envelope * envelope;
+        }
+        double sxx = sumXX - sumX * sumX / count;
+        double sxy = sumXY - sumX * sumY / count;
+        double syy = sumYY - sumY * sumY / count;
+        if (sxx <= 0) {
+            slopeBytesPerMs = 0;
+            r2 = 0;
+            return;
+        }
+        slopeBytesPerMs = sxy / sxx;
+        // Ровная огибающая (syy = 0) - роста нет, а не идеальная прямая
+        r2 = syy <= 0 ? 0 : sxy * sxy / (sxx * syy);
+    }
+
+    private void captureEvidence(String summary) {
+        StringBuilder message = new StringBuilder("\n⚠ ОБНАРУЖЕНА УТЕЧКА: ").append(summary);
+        String stamp = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss"));
+        String prefix = "leak_" + ProcessHandle.current().pid() + "_" + stamp;
+        try {
+            Files.createDirectories(dumpDir);
+            String histogram = classHistogram();
+            Path histogramFile = dumpDir.resolve(prefix + ".histo.txt");
+            Files.writeString(histogramFile, histogram);
+            message.append("\nГистограмма классов: ").append(histogramFile);
+            String[] lines = histogram.split("\n");
+            for (int i = 0; i < Math.min(lines.length, HISTOGRAM_LINES + 2); i++) {
+                message.append("\n  ").append(lines[i]);
+            }
+            if (heapDump) {
+                Path dumpFile = dumpDir.resolve(prefix + ".hprof");
+                ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class)
+                    .dumpHeap(dumpFile.toString(), true);
+                message.append("\nHeap dump: ").append(dumpFile);
+            }
+        } catch (IOException | RuntimeException | OutOfMemoryError e) {
+            message.append("\nНе удалось снять dump/гистограмму: ").append(e);
+        }
+        report = message.toString();
+        System.out.println(report);
+    }
+
+    private static String classHistogram() {
+        try {
+            return (String) ManagementFactory.getPlatformMBeanServer().invoke(DIAGNOSTIC_COMMAND,
+                "gcClassHistogram", new Object[]{new String[0]}, new String[]{String[].class.getName()});
+        } catch (Exception e) {
+            throw new IllegalStateException("GC.class_histogram недоступен", e);
+        }
+    }
+
+    private static ObjectName diagnosticCommandName() {
+        try {
+            return new ObjectName("com.sun.management:type=DiagnosticCommand");
+        } catch (Exception e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    public boolean isLeakDetected() {
+        return detected;
+    }
+
+    /**
+     * Наклон нижней огибающей live set, MB/мин.
+     */
+    public synchronized double getGrowthMbPerMinute() {
+        return slopeBytesPerMs * 60_000 / 1024 / 1024;
+    }
+
+    /**
+     * Строки состояния в формате таблиц printStatus() примеров.
+     */
+    public synchronized void printStatus() {
+        if (!enabled) {
+            return;
+        }
+        long last = written == 0 ? 0 : sampleBytes[(int) ((written - 1) % MAX_SAMPLES)];
+        printRow("Old gen после GC:", String.format("%,d MB (%.0f%%), порог %,d MB",
+            last / 1024 / 1024, last * 100.0 / oldMaxBytes, thresholdBytes / 1024 / 1024));
+        printRow("Тренд live set:", windowSamples < MIN_SAMPLES
+            ? String.format("мало сборок (%d из %d)", windowSamples, MIN_SAMPLES)
+            : String.format("%+.1f MB/мин, R² %.2f, %d сборок", getGrowthMbPerMinute(), r2, windowSamples));
+        String state;
+        if (detected) {
+            state = report == null ? "УТЕЧКА, снимается dump" : "УТЕЧКА, dump снят";
+        } else if (consecutiveGrowth > 0) {
+            state = String.format("рост %d/%d%s", Math.min(consecutiveGrowth, confirmations), confirmations,
+                armed ? "" : ", порог не достигнут");
+        } else {
+            state = armed ? "взведен, роста нет" : "наблюдение";
+        }
+        printRow("Детектор утечек:", state + (thresholdNotifications > 0
+            ? String.format(" (порог x%d)", thresholdNotifications) : ""));
+    }
+
+    private static void printRow(String label, String value) {
+        System.out.printf("│ %-24s%-35s│%n", label, value);
+    }
+
+    @Override
+    public void close() {
+        for (NotificationEmitter emitter : emitters) {
+            try {
+                emitter.removeNotificationListener(this);
+            } catch (ListenerNotFoundException e) {
+                // Уже отписан
+            }
+        }
+        emitters.clear();
+    }
+}
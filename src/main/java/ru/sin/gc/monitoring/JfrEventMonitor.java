@@ -0,0 +1,242 @@
+package ru.sin.gc.monitoring;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingStream;
+
+import java.time.Duration;
+
+/**
+ * Живой поток JFR событий внутри процесса (RecordingStream, Java 14+)
+ *
+ * Вместо записи .jfr файла и разбора его после запуска, события читаются
+ * прямо во время бенчмарка и агрегируются по интервалам:
+ * - jdk.GarbageCollection       - сборки, сумма и максимум пауз
+ * - jdk.ObjectAllocationSample  - оценка allocation rate по сэмплам (weight)
+ * - jdk.SafepointBegin          - safepoint'ы и их длительность
+ * - jdk.Compilation             - JIT компиляции и время компиляции
+ * - jdk.ThreadPark              - парковки потоков дольше 10ms
+ *
+ * Включается системным свойством -Dbenchmark.jfr=true. Без него все методы -
+ * no-op, так что бенчмарки вызывают их без проверок.
+ *
+ * Использование:
+ *   JfrEventMonitor jfr = JfrEventMonitor.create();
+ *   ... каждые 5 секунд: jfr.printInterval();
+ *   jfr.printSummary(); jfr.close();
+ */
+public class JfrEventMonitor implements AutoCloseable {
+
+    public static final String ENABLE_PROPERTY = "benchmark.jfr";
+
+    // Каждые ~10ms сэмплировать аллокации достаточно для оценки rate при малом overhead
+    private static final String ALLOCATION_THROTTLE = "100/s";
+    private static final Duration PARK_THRESHOLD = Duration.ofMillis(10);
+
+    /**
+     * Агрегаты за интервал.
+     */
+    public static class IntervalMetrics {
+        long gcCount;
+        long gcPauseNanos;
+        long gcLongestPauseNanos;
+        long allocationSampledBytes;
+        long safepointCount;
+        long safepointNanos;
+        long compilationCount;
+        long compilationNanos;
+        long parkCount;
+        long parkNanos;
+
+        void add(IntervalMetrics other) {
+            gcCount += other.gcCount;
+            gcPauseNanos += other.gcPauseNanos;
+            gcLongestPauseNanos = Math.max(gcLongestPauseNanos, other.gcLongestPauseNanos);
+            allocationSampledBytes += other.allocationSampledBytes;
+            safepointCount += other.safepointCount;
+            safepointNanos += other.safepointNanos;
+            compilationCount += other.compilationCount;
+            compilationNanos += other.compilationNanos;
+            parkCount += other.parkCount;
+            parkNanos += other.parkNanos;
+        }
+
+        public long getGcCount() {
+            return gcCount;
+        }
+
+        public long getGcPauseNanos() {
+            return gcPauseNanos;
+        }
+
+        public long getGcLongestPauseNanos() {
+            return gcLongestPauseNanos;
+        }
+
+        public long getAllocationSampledBytes() {
+            return allocationSampledBytes;
+        }
+
+        public long getSafepointCount() {
+            return safepointCount;
+        }
+
+        public long getSafepointNanos() {
+            return safepointNanos;
+        }
+
+        public long getCompilationCount() {
+            return compilationCount;
+        }
+
+        public long getCompilationNanos() {
+            return compilationNanos;
+        }
+
+        public long getParkCount() {
+            return parkCount;
+        }
+
+        public long getParkNanos() {
+            return parkNanos;
+        }
+
+        String format(double seconds) {
+            return String.format(
+                "GC: %d (паузы %.1f ms, max %.1f ms), alloc ~%,.0f MB/s, safepoints: %d (%.1f ms), " +
+                    "JIT: %d (%.0f ms), park>10ms: %d (%.0f ms)",
+                gcCount, gcPauseNanos / 1e6, gcLongestPauseNanos / 1e6,
+                seconds > 0 ? allocationSampledBytes / 1024.0 / 1024.0 / seconds : 0.0,
+                safepointCount, safepointNanos / 1e6,
+                compilationCount, compilationNanos / 1e6,
+                parkCount, parkNanos / 1e6);
+        }
+    }
+
+    private final RecordingStream stream;
+
+    // Пишет только поток RecordingStream, читает поток бенчмарка - под локом this
+    private IntervalMetrics current = new IntervalMetrics();
+    private final IntervalMetrics total = new IntervalMetrics();
+    private long intervalStartNanos = System.nanoTime();
+    private final long startNanos = intervalStartNanos;
+
+    private JfrEventMonitor(RecordingStream stream) {
+        this.stream = stream;
+    }
+
+    /**
+     * Запустить мониторинг, если задано -Dbenchmark.jfr=true; иначе - выключенный монитор.
+     */
+    public static JfrEventMonitor create() {
+        return Boolean.getBoolean(ENABLE_PROPERTY) ? start() : new JfrEventMonitor(null);
+    }
+
+    /**
+     * Запустить мониторинг безусловно.
+     */
+    public static JfrEventMonitor start() {
+        RecordingStream stream = new RecordingStream();
+        JfrEventMonitor monitor = new JfrEventMonitor(stream);
+
+        stream.enable("jdk.GarbageCollection");
+        stream.enable("jdk.ObjectAllocationSample").with("throttle", ALLOCATION_THROTTLE);
+        stream.enable("jdk.SafepointBegin");
+        stream.enable("jdk.Compilation").withThreshold(Duration.ZERO);
+        stream.enable("jdk.ThreadPark").withThreshold(PARK_THRESHOLD);
+
+        // Не копим историю: события нужны только для агрегатов
+        stream.setMaxAge(Duration.ofSeconds(10));
+
+        stream.onEvent("jdk.GarbageCollection", monitor::onGarbageCollection);
+        stream.onEvent("jdk.ObjectAllocationSample", monitor::onAllocationSample);
+        stream.onEvent("jdk.SafepointBegin", monitor::onSafepoint);
+        stream.onEvent("jdk.Compilation", monitor::onCompilation);
+        stream.onEvent("jdk.ThreadPark", monitor::onThreadPark);
+
+        stream.startAsync();
+        return monitor;
+    }
+
+    public boolean isEnabled() {
+        return stream != null;
+    }
+
+    private synchronized void onGarbageCollection(RecordedEvent event) {
+        long pause = event.getDuration("sumOfPauses").toNanos();
+        current.gcCount++;
+        current.gcPauseNanos += pause;
+        current.gcLongestPauseNanos = Math.max(current.gcLongestPauseNanos,
+            event.getDuration("longestPause").toNanos());
+    }
+
+    private synchronized void onAllocationSample(RecordedEvent event) {
+        current.allocationSampledBytes += event.getLong("weight");
+    }
+
+    private synchronized void onSafepoint(RecordedEvent event) {
+        current.safepointCount++;
+        current.safepointNanos += event.getDuration().toNanos();
+    }
+
+    private synchronized void onCompilation(RecordedEvent event) {
+        current.compilationCount++;
+        current.compilationNanos += event.getDuration().toNanos();
+    }
+
+    private synchronized void onThreadPark(RecordedEvent event) {
+        current.parkCount++;
+        current.parkNanos += event.getDuration().toNanos();
+    }
+
+    /**
+     * Забрать агрегаты текущего интервала и начать новый.
+     */
+    public synchronized IntervalMetrics nextInterval() {
+        IntervalMetrics finished = current;
+        total.add(finished);
+        current = new IntervalMetrics();
+        intervalStartNanos = System.nanoTime();
+        return finished;
+    }
+
+    /**
+     * Вывести строку с метриками интервала (рядом с периодическим отчетом бенчмарка).
+     * События доставляются с задержкой ~1 сек, поэтому границы интервалов приблизительны.
+     */
+    public void printInterval() {
+        if (!isEnabled()) {
+            return;
+        }
+        double seconds;
+        IntervalMetrics metrics;
+        synchronized (this) {
+            seconds = (System.nanoTime() - intervalStartNanos) / 1e9;
+            metrics = nextInterval();
+        }
+        System.out.println("    [JFR] " + metrics.format(seconds));
+    }
+
+    /**
+     * Вывести агрегаты за все время мониторинга.
+     */
+    public void printSummary() {
+        if (!isEnabled()) {
+            return;
+        }
+        IntervalMetrics metrics;
+        synchronized (this) {
+            nextInterval();
+            metrics = new IntervalMetrics();
+            metrics.add(total);
+        }
+        System.out.println("\nJFR (RecordingStream) за весь запуск:");
+        System.out.println("  " + metrics.format((System.nanoTime() - startNanos) / 1e9));
+    }
+
+    @Override
+    public void close() {
+        if (stream != null) {
+            stream.close();
+        }
+    }
+}
@@ -67,7 +67,7 @@ public class BranchPredictionExample {
         testBranchFree();
     }
 
-    private static long sumIfGreaterThan128(int[] data) {
+    static long sumIfGreaterThan128(int[] data) {
         long sum = 0;
         for (int i = 0; i < data.length; i++) {
             if (data[i] >= 128) {
@@ -78,7 +78,7 @@ public class BranchPredictionExample {
     }
 
     // Версия без ветвлений - использует битовые маски
-    private static long sumIfGreaterThan128BranchFree(int[] data) {
+    static long sumIfGreaterThan128BranchFree(int[] data) {
         long sum = 0;
         for (int i = 0; i < data.length; i++) {
             // Если data[i] >= 128, то (data[i] - 128) >> 31 будет 0, иначе -1 (все биты 1)
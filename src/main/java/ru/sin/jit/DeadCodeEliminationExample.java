@@ -45,7 +45,7 @@ public class DeadCodeEliminationExample {
         testConstantFolding();
     }
 
-    private static int withDeadCode(int x) {
+    static int withDeadCode(int x) {
         // Эти вычисления не используются
         int unused1 = x * 100;
         int unused2 = unused1 + 500;
@@ -60,7 +60,7 @@ public class DeadCodeEliminationExample {
         return x * 2 + 1;
     }
 
-    private static int withoutDeadCode(int x) {
+    static int withoutDeadCode(int x) {
         // Только необходимые вычисления
         return x * 2 + 1;
     }
@@ -93,13 +93,13 @@ public class DeadCodeEliminationExample {
         System.out.println("JIT вычислит константы заранее и производительность будет одинаковой.");
     }
 
-    private static int withConstants(int x) {
+    static int withConstants(int x) {
         int factor = 10 * 20 + 5; // 205 - константа, вычисляется на каждом вызове
         int multiplier = 3 * 7; // 21 - тоже константа
         return x * factor + multiplier;
     }
 
-    private static int optimizedConstants(int x) {
+    static int optimizedConstants(int x) {
         int factor = 205; // Уже вычислено
         int multiplier = 21; // Уже вычислено
         return x * factor + multiplier;
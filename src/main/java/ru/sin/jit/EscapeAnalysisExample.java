@@ -63,13 +63,13 @@ public class EscapeAnalysisExample {
     }
 
     // Объект не убегает - JIT может оптимизировать
-    private static double noEscape(double x, double y) {
+    static double noEscape(double x, double y) {
         Point p = new Point(x, y);
         return p.distance(); // Объект используется только внутри метода
     }
 
     // Объект убегает - возвращается наружу
-    private static Point escapes(double x, double y) {
+    static Point escapes(double x, double y) {
         return new Point(x, y); // Объект уходит из метода
     }
 
@@ -92,7 +92,7 @@ public class EscapeAnalysisExample {
         System.out.println("JIT может полностью убрать объект Point и работать только с x, y напрямую.");
     }
 
-    private static double calculateDistance(double x, double y) {
+    static double calculateDistance(double x, double y) {
         Point p = new Point(x, y);
         // JIT видит, что нам нужны только x и y, поэтому может не создавать объект вообще
         return p.x * p.x + p.y * p.y;
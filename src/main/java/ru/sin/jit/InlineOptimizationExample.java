@@ -56,14 +56,14 @@ public class InlineOptimizationExample {
         return multiply(x, x);
     }
 
-    private static int calculateWithMethodCalls(int x) {
+    static int calculateWithMethodCalls(int x) {
         int result = square(x);
         result = add(result, x);
         result = multiply(result, 2);
         return result;
     }
 
-    private static int calculateInlined(int x) {
+    static int calculateInlined(int x) {
         // Тот же код, но без вызовов методов
         int result = x * x;
         result = result + x;
@@ -48,7 +48,7 @@ public class LoopOptimizationExample {
     }
 
     // Инвариант (data.length) пересчитывается каждую итерацию
-    private static int sumArrayWithInvariant(int[] data) {
+    static int sumArrayWithInvariant(int[] data) {
         int sum = 0;
         for (int i = 0; i < data.length; i++) {
             sum += data[i];
@@ -57,7 +57,7 @@ public class LoopOptimizationExample {
     }
 
     // Инвариант вынесен заранее
-    private static int sumArrayOptimized(int[] data) {
+    static int sumArrayOptimized(int[] data) {
         int sum = 0;
         int length = data.length;
         for (int i = 0; i < length; i++) {
@@ -97,7 +97,7 @@ public class LoopOptimizationExample {
         System.out.println("JIT сам разворачивает простые циклы для лучшей производительности.");
     }
 
-    private static long simpleLoop(int[] arr) {
+    static long simpleLoop(int[] arr) {
         long sum = 0;
         for (int i = 0; i < arr.length; i++) {
             sum += arr[i];
@@ -106,7 +106,7 @@ public class LoopOptimizationExample {
     }
 
     // Вручную развернутый цикл (обрабатывает 4 элемента за итерацию)
-    private static long unrolledLoop(int[] arr) {
+    static long unrolledLoop(int[] arr) {
         long sum = 0;
         int i = 0;
         int length = arr.length;
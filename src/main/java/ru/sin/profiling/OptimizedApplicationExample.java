@@ -1,6 +1,13 @@
 package ru.sin.profiling;
 
+import ru.sin.profiling.collections.IntHashSet;
+import ru.sin.profiling.collections.IntObjectMap;
+
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.IntStream;
 
 /**
  * ОПТИМИЗИРОВАННАЯ ВЕРСИЯ после анализа flame graph
@@ -11,12 +18,19 @@ import java.util.*;
  * 3. ✓ Кэширование вычислений и битовые операции
  * 4. ✓ Переиспользование объектов, правильная итерация по Map
  *
+ * Для фаз с коллекциями есть третий, "примитивный" вариант
+ * (processCollectionsPrimitive, createObjectsPrimitive) на IntHashSet и
+ * IntObjectMap - сравнивается в ./gradlew comparePhases.
+ *
+ * Параллельный режим (ForkJoinPool с рекурсивным делением и parallel streams)
+ * для heavyComputation и createObjects - ./gradlew parallelScaling (ParallelScaling).
+ *
  * Ожидаемый результат: ~5-10x ускорение
  */
 public class OptimizedApplicationExample {
 
-    private static final int ITERATIONS = 1_000_000;
-    private static final int DATA_SIZE = 1000;
+    static final int ITERATIONS = 1_000_000;
+    static final int DATA_SIZE = 1000;
 
     // ОПТИМИЗАЦИЯ: Кэшируем часто используемые значения
     private static final double CACHED_SQRT = Math.sqrt(123.456);
@@ -68,7 +82,7 @@ public class OptimizedApplicationExample {
     }
 
     // ИСПРАВЛЕНО: Использование StringBuilder
-    private static void processStringsOptimized() {
+    static void processStringsOptimized() {
         StringBuilder result = new StringBuilder(DATA_SIZE * 20); // Pre-allocate capacity
         for (int i = 0; i < DATA_SIZE; i++) {
             result.append("Item_").append(i).append(',');
@@ -77,7 +91,7 @@ public class OptimizedApplicationExample {
     }
 
     // ИСПРАВЛЕНО: Использование Set для быстрого поиска + initial capacity
-    private static void processCollectionsOptimized() {
+    static void processCollectionsOptimized() {
         // Pre-allocate capacity to avoid resizing
         Set<Integer> numbers = new HashSet<>(DATA_SIZE);
 
@@ -97,7 +111,11 @@ public class OptimizedApplicationExample {
     }
 
     // ИСПРАВЛЕНО: Кэширование значений и битовые операции
-    private static void heavyComputationOptimized() {
+    static void heavyComputationOptimized() {
+        blackhole(heavyComputationRange(0, ITERATIONS / 10));
+    }
+
+    static double heavyComputationRange(int from, int to) {
         double result = 0;
 
         // Кэшируем sin и cos от константы
@@ -105,7 +123,7 @@ public class OptimizedApplicationExample {
         double cosValue = Math.cos(CACHED_SQRT);
         double product = sinValue * cosValue;
 
-        for (int i = 0; i < ITERATIONS / 10; i++) {
+        for (int i = from; i < to; i++) {
             // Используем кэшированное значение
             result += product;
 
@@ -115,11 +133,11 @@ public class OptimizedApplicationExample {
             }
         }
 
-        blackhole(result);
+        return result;
     }
 
     // ИСПРАВЛЕНО: Переиспользование объектов и правильная итерация по Map
-    private static void createObjectsOptimized() {
+    static void createObjectsOptimized() {
         // Pre-allocate capacity
         Map<String, DataPoint> data = new HashMap<>(DATA_SIZE);
 
@@ -139,6 +157,136 @@ public class OptimizedApplicationExample {
         blackhole(sum);
     }
 
+    // ПРИМИТИВНЫЙ ВАРИАНТ: int ключи без Integer и без узлов HashMap на элемент
+    static void processCollectionsPrimitive() {
+        IntHashSet numbers = new IntHashSet(DATA_SIZE);
+
+        for (int i = 0; i < DATA_SIZE; i++) {
+            numbers.add(i);
+        }
+
+        int found = 0;
+        for (int i = 0; i < DATA_SIZE / 10; i++) {
+            if (numbers.contains(i * 2)) {
+                found++;
+            }
+        }
+
+        blackhole(found);
+    }
+
+    // ПРИМИТИВНЫЙ ВАРИАНТ: ключ - сам id вместо строки "key_" + id
+    static void createObjectsPrimitive() {
+        IntObjectMap<DataPoint> data = new IntObjectMap<>(DATA_SIZE);
+
+        for (int i = 0; i < DATA_SIZE; i++) {
+            data.put(i, new DataPoint(i, Math.random()));
+        }
+
+        double[] sum = {0};
+        data.forEach((id, point) -> sum[0] += point.getValue());
+
+        blackhole(sum[0]);
+    }
+
+    // ПАРАЛЛЕЛЬНЫЙ РЕЖИМ: диапазон делится пополам, пока не станет не больше одной фазы
+
+    /**
+     * Тело createObjectsOptimized на диапазоне id, возвращает сумму значений.
+     * ThreadLocalRandom вместо Math.random: у Math.random один общий seed
+     * (AtomicLong + CAS), и потоки упирались бы в него, а не в GC.
+     */
+    static double createObjectsRange(int from, int to) {
+        Map<String, DataPoint> data = new HashMap<>(to - from);
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+
+        for (int i = from; i < to; i++) {
+            data.put("key_" + i, new DataPoint(i, random.nextDouble()));
+        }
+
+        double sum = 0;
+        for (Map.Entry<String, DataPoint> entry : data.entrySet()) {
+            sum += entry.getValue().getValue();
+        }
+        return sum;
+    }
+
+    // База для ускорения: те же листья по ITERATIONS / 10, но в одном потоке
+    static double heavyComputationSequential(int iterations) {
+        double sum = 0;
+        for (int from = 0; from < iterations; from += ITERATIONS / 10) {
+            sum += heavyComputationRange(from, Math.min(iterations, from + ITERATIONS / 10));
+        }
+        return sum;
+    }
+
+    // База для ускорения: те же листья по DATA_SIZE, но в одном потоке
+    static double createObjectsSequential(int objects) {
+        double sum = 0;
+        for (int from = 0; from < objects; from += DATA_SIZE) {
+            sum += createObjectsRange(from, Math.min(objects, from + DATA_SIZE));
+        }
+        return sum;
+    }
+
+    static double heavyComputationParallel(ForkJoinPool pool, int iterations) {
+        return pool.invoke(new RangeTask(0, iterations, ITERATIONS / 10,
+            OptimizedApplicationExample::heavyComputationRange));
+    }
+
+    static double createObjectsParallel(ForkJoinPool pool, int objects) {
+        return pool.invoke(new RangeTask(0, objects, DATA_SIZE, OptimizedApplicationExample::createObjectsRange));
+    }
+
+    // Parallel stream, запущенный из задачи пула, исполняется в этом пуле, а не в commonPool
+    static double heavyComputationStream(ForkJoinPool pool, int iterations) {
+        double product = Math.sin(CACHED_SQRT) * Math.cos(CACHED_SQRT);
+        return pool.submit(() -> IntStream.range(0, iterations).parallel()
+            .mapToDouble(i -> (i & 1) == 0 ? product + (i >> 1) : product)
+            .sum()).join();
+    }
+
+    static double createObjectsStream(ForkJoinPool pool, int objects) {
+        int chunks = (objects + DATA_SIZE - 1) / DATA_SIZE;
+        return pool.submit(() -> IntStream.range(0, chunks).parallel()
+            .mapToDouble(chunk -> createObjectsRange(chunk * DATA_SIZE, Math.min(objects, (chunk + 1) * DATA_SIZE)))
+            .sum()).join();
+    }
+
+    @FunctionalInterface
+    interface RangeFunction {
+        double apply(int from, int to);
+    }
+
+    // Рекурсивное деление [from, to): левая половина уходит в очередь (fork), правую считаем сами
+    static final class RangeTask extends RecursiveTask<Double> {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+        private final int leaf;
+        private final RangeFunction body;
+
+        RangeTask(int from, int to, int leaf, RangeFunction body) {
+            this.from = from;
+            this.to = to;
+            this.leaf = leaf;
+            this.body = body;
+        }
+
+        @Override
+        protected Double compute() {
+            if (to - from <= leaf) {
+                return body.apply(from, to);
+            }
+            int middle = (from + to) >>> 1;
+            RangeTask left = new RangeTask(from, middle, leaf, body);
+            left.fork();
+            double right = new RangeTask(middle, to, leaf, body).compute();
+            return left.join() + right;
+        }
+    }
+
     static class DataPoint {
         private final int id;
         private final double value;
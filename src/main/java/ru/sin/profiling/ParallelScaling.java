@@ -0,0 +1,200 @@
+package ru.sin.profiling;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Масштабирование OptimizedApplicationExample по числу потоков
+ *
+ * Две нагрузки с разным характером:
+ * - heavyComputation - чистый CPU без аллокаций: должна масштабироваться
+ *   почти линейно до числа физических ядер
+ * - createObjects - HashMap, строки и DataPoint на каждый id: каждый поток
+ *   выделяет сотни MB/с, и рост упирается в GC (паузы останавливают всех)
+ *   и пропускную способность памяти, а не в число ядер
+ *
+ * Варианты:
+ * - sequential - те же листья подряд в одном потоке, база для ускорения
+ * - forkJoin   - RecursiveTask делит диапазон пополам до одной фазы
+ *   (ITERATIONS / 10 итераций или DATA_SIZE объектов)
+ * - stream     - parallel stream, запущенный внутри пула нужного размера
+ *   (heavyComputation - поэлементно, createObjects - по чанкам DATA_SIZE)
+ *
+ * Для каждого числа потоков (1, 2, 4, ... до числа ядер) печатаются медиана
+ * времени, ускорение и эффективность (ускорение / потоки) относительно
+ * sequential, доля времени в паузах GC (GarbageCollectorMXBean) и темп
+ * аллокаций всех потоков (ThreadMXBean.getThreadAllocatedBytes).
+ * Эффективность createObjects падает раньше, чем у heavyComputation, - там,
+ * где GC и память становятся узким местом.
+ *
+ * Запуск:
+ *   ./gradlew parallelScaling
+ *   ./gradlew parallelScaling -PparallelMaxWorkers=16 -PparallelGc=Parallel
+ *
+ * Параметры:
+ *   -Dparallel.iterations=50000000   итераций heavyComputation за прогон
+ *   -Dparallel.objects=5000000       объектов createObjects за прогон
+ *   -Dparallel.maxWorkers=<ядра>     больше ядер - видно переподписку
+ *   -Dparallel.repetitions=5         прогонов на точку (медиана)
+ */
+public class ParallelScaling {
+
+    private static final int ITERATIONS = Integer.getInteger("parallel.iterations", 50_000_000);
+    private static final int OBJECTS = Integer.getInteger("parallel.objects", 5_000_000);
+    private static final int CORES = Runtime.getRuntime().availableProcessors();
+    private static final int MAX_WORKERS = Integer.getInteger("parallel.maxWorkers", CORES);
+    private static final int REPETITIONS = Integer.getInteger("parallel.repetitions", 5);
+    private static final long WARMUP_NANOS = 1_000_000_000L;
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private static final List<GarbageCollectorMXBean> COLLECTORS = ManagementFactory.getGarbageCollectorMXBeans();
+
+    private static volatile double sink;
+
+    /**
+     * Вариант нагрузки; пул игнорируется у sequential.
+     */
+    private static final class Variant {
+        final String name;
+        final ToDoubleFunction<ForkJoinPool> run;
+
+        Variant(String name, ToDoubleFunction<ForkJoinPool> run) {
+            this.name = name;
+            this.run = run;
+        }
+    }
+
+    private static final class Measurement {
+        double nanos;
+        double gcPercent;
+        double allocatedMbPerSecond;
+    }
+
+    public static void main(String[] args) {
+        THREADS.setThreadAllocatedMemoryEnabled(true);
+
+        System.out.println("=== Масштабирование OptimizedApplicationExample: ForkJoinPool и parallel streams ===");
+        System.out.printf("Ядер: %d, heap: %,d MB, GC: %s, %d прогонов на точку (медиана)%n", CORES,
+            Runtime.getRuntime().maxMemory() >> 20, collectorNames(), REPETITIONS);
+        if (CORES == 1) {
+            System.out.println("Доступно одно ядро - ускорения не будет, видны только накладные расходы пула");
+        }
+
+        scale(String.format("heavyComputation: %,d итераций, лист %,d", ITERATIONS,
+            OptimizedApplicationExample.ITERATIONS / 10), List.of(
+            new Variant("sequential", pool -> OptimizedApplicationExample.heavyComputationSequential(ITERATIONS)),
+            new Variant("forkJoin", pool -> OptimizedApplicationExample.heavyComputationParallel(pool, ITERATIONS)),
+            new Variant("stream", pool -> OptimizedApplicationExample.heavyComputationStream(pool, ITERATIONS))
+        ));
+        scale(String.format("createObjects: %,d объектов, лист %,d", OBJECTS,
+            OptimizedApplicationExample.DATA_SIZE), List.of(
+            new Variant("sequential", pool -> OptimizedApplicationExample.createObjectsSequential(OBJECTS)),
+            new Variant("forkJoin", pool -> OptimizedApplicationExample.createObjectsParallel(pool, OBJECTS)),
+            new Variant("stream", pool -> OptimizedApplicationExample.createObjectsStream(pool, OBJECTS))
+        ));
+    }
+
+    private static void scale(String title, List<Variant> variants) {
+        System.out.println();
+        System.out.println(title);
+        System.out.printf("  %-12s %7s %11s %10s %13s %7s %12s%n",
+            "вариант", "потоков", "время", "ускорение", "эффективность", "GC", "аллоц MB/с");
+
+        Variant sequential = variants.get(0);
+        Measurement base = measure(sequential, null);
+        print(sequential.name, 1, base, base);
+
+        for (int workers : workerCounts()) {
+            ForkJoinPool pool = new ForkJoinPool(workers);
+            try {
+                for (Variant variant : variants.subList(1, variants.size())) {
+                    print(variant.name, workers, measure(variant, pool), base);
+                }
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+
+    /**
+     * 1, 2, 4, ... и MAX_WORKERS, если это не степень двойки.
+     */
+    private static List<Integer> workerCounts() {
+        List<Integer> counts = new ArrayList<>();
+        for (int workers = 1; workers < MAX_WORKERS; workers *= 2) {
+            counts.add(workers);
+        }
+        counts.add(MAX_WORKERS);
+        return counts;
+    }
+
+    private static Measurement measure(Variant variant, ForkJoinPool pool) {
+        // Прогрев: JIT и рост потоков пула до заданного числа
+        long end = System.nanoTime() + WARMUP_NANOS;
+        do {
+            sink += variant.run.applyAsDouble(pool);
+        } while (System.nanoTime() < end);
+        System.gc();
+
+        double[] nanos = new double[REPETITIONS];
+        long gcBefore = gcMillis();
+        long allocatedBefore = allocatedBytes();
+        long begin = System.nanoTime();
+        for (int r = 0; r < REPETITIONS; r++) {
+            long start = System.nanoTime();
+            sink += variant.run.applyAsDouble(pool);
+            nanos[r] = System.nanoTime() - start;
+        }
+        long elapsed = System.nanoTime() - begin;
+
+        Measurement measurement = new Measurement();
+        Arrays.sort(nanos);
+        measurement.nanos = nanos[REPETITIONS / 2];
+        measurement.gcPercent = (gcMillis() - gcBefore) * 1e8 / elapsed;
+        measurement.allocatedMbPerSecond = (allocatedBytes() - allocatedBefore) / (elapsed / 1e9) / (1 << 20);
+        return measurement;
+    }
+
+    private static void print(String variant, int workers, Measurement measurement, Measurement base) {
+        double speedup = base.nanos / measurement.nanos;
+        System.out.printf("  %-12s %7d %8.1f ms %9.2fx %12.0f%% %6.1f%% %12.0f%n", variant, workers,
+            measurement.nanos / 1e6, speedup, speedup * 100 / workers, measurement.gcPercent,
+            measurement.allocatedMbPerSecond);
+    }
+
+    /**
+     * Суммарное время сборок всех коллекторов (для G1/Parallel - паузы, для ZGC - циклы).
+     */
+    private static long gcMillis() {
+        long total = 0;
+        for (GarbageCollectorMXBean collector : COLLECTORS) {
+            total += Math.max(0, collector.getCollectionTime());
+        }
+        return total;
+    }
+
+    /**
+     * Байты, выделенные всеми живыми потоками; у завершившихся -1, их пропускаем.
+     */
+    private static long allocatedBytes() {
+        long total = 0;
+        for (long bytes : THREADS.getThreadAllocatedBytes(THREADS.getAllThreadIds())) {
+            total += Math.max(0, bytes);
+        }
+        return total;
+    }
+
+    private static String collectorNames() {
+        List<String> names = new ArrayList<>();
+        for (GarbageCollectorMXBean collector : COLLECTORS) {
+            names.add(collector.getName());
+        }
+        return String.join(", ", names);
+    }
+}
@@ -0,0 +1,266 @@
+package ru.sin.profiling;
+
+import ru.sin.gc.comparison.MannWhitneyTest;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Пофазное сравнение SlowApplicationExample и OptimizedApplicationExample
+ *
+ * Оба приложения гоняют четыре фазы одним циклом и печатают только общее
+ * время - вклад каждой оптимизации не виден. Здесь каждая фаза меряется
+ * отдельно, медленная и оптимизированная версии в одной JVM:
+ * - прогрев: фаза крутится phases.warmupMs, чтобы C2 успел скомпилировать
+ * - калибровка: число вызовов в пачке подбирается так, чтобы пачка шла
+ *   ~phases.batchMs (быстрые фазы - микросекунды, таймер бы их не различил)
+ * - повторы: пачки slow и optimized чередуются, чтобы дрейф частоты CPU и
+ *   фоновые процессы били по обеим версиям одинаково
+ *
+ * На пачку снимаются wall time (nanoTime), CPU time потока и выделенные
+ * потоком байты (com.sun.management.ThreadMXBean.getThreadAllocatedBytes),
+ * в таблицу идут медианы на один вызов. Значимость ускорения - односторонний
+ * U-критерий Манна-Уитни по временам пачек (MannWhitneyTest).
+ *
+ * Фазы с коллекциями меряются и в третьем, примитивном варианте
+ * (IntHashSet / IntObjectMap) - отдельной таблицей против optimized.
+ *
+ * Запуск:
+ *   ./gradlew comparePhases
+ *   ./gradlew comparePhases -PphaseRepetitions=20 -PphaseWarmupMs=3000
+ *
+ * Параметры:
+ *   -Dphases.warmupMs=2000     прогрев каждой версии каждой фазы
+ *   -Dphases.batchMs=100       длительность одной пачки
+ *   -Dphases.repetitions=10    повторов (пачек) на версию
+ */
+public class PhaseComparison {
+
+    private static final long WARMUP_NANOS = Long.getLong("phases.warmupMs", 2000) * 1_000_000;
+    private static final long BATCH_NANOS = Long.getLong("phases.batchMs", 100) * 1_000_000;
+    private static final int REPETITIONS = Integer.getInteger("phases.repetitions", 10);
+    private static final double ALPHA = 0.05;
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private static final class Phase {
+        final String name;
+        final Runnable slow;
+        final Runnable optimized;
+        // null, если примитивного варианта нет
+        final Runnable primitive;
+
+        Phase(String name, Runnable slow, Runnable optimized, Runnable primitive) {
+            this.name = name;
+            this.slow = slow;
+            this.optimized = optimized;
+            this.primitive = primitive;
+        }
+    }
+
+    private static final List<Phase> PHASES = List.of(
+        new Phase("processStrings",
+            SlowApplicationExample::processStrings, OptimizedApplicationExample::processStringsOptimized, null),
+        new Phase("processCollections",
+            SlowApplicationExample::processCollections, OptimizedApplicationExample::processCollectionsOptimized,
+            OptimizedApplicationExample::processCollectionsPrimitive),
+        new Phase("heavyComputation",
+            SlowApplicationExample::heavyComputation, OptimizedApplicationExample::heavyComputationOptimized, null),
+        new Phase("createManyObjects",
+            SlowApplicationExample::createManyObjects, OptimizedApplicationExample::createObjectsOptimized,
+            OptimizedApplicationExample::createObjectsPrimitive)
+    );
+
+    /**
+     * Медианы одной версии фазы на вызов; times - время вызова в каждой пачке (для U-критерия).
+     */
+    private static final class Result {
+        final double[] times;
+        final double nanos;
+        final double cpuNanos;
+        final double bytes;
+
+        Result(double[] times, double[] cpuNanos, double[] bytes) {
+            this.times = times;
+            this.nanos = median(times);
+            this.cpuNanos = median(cpuNanos);
+            this.bytes = median(bytes);
+        }
+    }
+
+    public static void main(String[] args) {
+        if (!THREADS.isThreadAllocatedMemorySupported() || !THREADS.isCurrentThreadCpuTimeSupported()) {
+            System.err.println("JVM не поддерживает учет CPU времени и аллокаций потока");
+            System.exit(1);
+        }
+        THREADS.setThreadAllocatedMemoryEnabled(true);
+        THREADS.setThreadCpuTimeEnabled(true);
+
+        System.out.println("=== Пофазное сравнение: SlowApplicationExample vs OptimizedApplicationExample ===");
+        System.out.printf("Прогрев %d ms на версию, %d повторов по ~%d ms, медианы на один вызов%n%n",
+            WARMUP_NANOS / 1_000_000, REPETITIONS, BATCH_NANOS / 1_000_000);
+
+        Result[][] results = new Result[PHASES.size()][];
+        for (int p = 0; p < PHASES.size(); p++) {
+            Phase phase = PHASES.get(p);
+            System.out.printf("  %-20s ...", phase.name);
+            results[p] = measure(phase);
+            System.out.printf(" %s -> %s%n", formatNanos(results[p][0].nanos), formatNanos(results[p][1].nanos));
+        }
+
+        System.out.println();
+        System.out.printf("%-20s %11s %11s %9s %11s %11s %11s %11s %10s %8s%n", "Фаза",
+            "slow", "optimized", "ускорение", "CPU slow", "CPU opt", "alloc slow", "alloc opt", "аллокаций", "p");
+        double slowRound = 0;
+        double optimizedRound = 0;
+        double slowRoundBytes = 0;
+        double optimizedRoundBytes = 0;
+        for (int p = 0; p < PHASES.size(); p++) {
+            Result slow = results[p][0];
+            Result optimized = results[p][1];
+            double p1 = MannWhitneyTest.pValueLess(slow.times, optimized.times);
+            System.out.printf("%-20s %11s %11s %8.1fx %11s %11s %11s %11s %10s %8.4f%s%n", PHASES.get(p).name,
+                formatNanos(slow.nanos), formatNanos(optimized.nanos), slow.nanos / optimized.nanos,
+                formatNanos(slow.cpuNanos), formatNanos(optimized.cpuNanos),
+                formatBytes(slow.bytes), formatBytes(optimized.bytes),
+                reduction(slow.bytes, optimized.bytes), p1, p1 < ALPHA ? "" : " (не значимо)");
+            slowRound += slow.nanos;
+            optimizedRound += optimized.nanos;
+            slowRoundBytes += slow.bytes;
+            optimizedRoundBytes += optimized.bytes;
+        }
+        System.out.printf("%-20s %11s %11s %8.1fx %11s %11s %11s %11s %10s%n", "раунд (сумма фаз)",
+            formatNanos(slowRound), formatNanos(optimizedRound), slowRound / optimizedRound, "", "",
+            formatBytes(slowRoundBytes), formatBytes(optimizedRoundBytes), reduction(slowRoundBytes, optimizedRoundBytes));
+
+        System.out.println();
+        System.out.println("Вклад фаз в выигрыш раунда:");
+        for (int p = 0; p < PHASES.size(); p++) {
+            double saved = results[p][0].nanos - results[p][1].nanos;
+            System.out.printf("  %-20s %6.1f%% (%s на раунд)%n", PHASES.get(p).name,
+                saved * 100 / (slowRound - optimizedRound), formatNanos(saved));
+        }
+        System.out.println();
+        System.out.println("Примитивные коллекции (IntHashSet / IntObjectMap) против optimized:");
+        System.out.printf("%-20s %11s %11s %9s %11s %11s %10s %8s%n", "Фаза",
+            "optimized", "primitive", "ускорение", "alloc opt", "alloc prim", "аллокаций", "p");
+        for (int p = 0; p < PHASES.size(); p++) {
+            if (results[p].length < 3) {
+                continue;
+            }
+            Result optimized = results[p][1];
+            Result primitive = results[p][2];
+            double p2 = MannWhitneyTest.pValueLess(optimized.times, primitive.times);
+            System.out.printf("%-20s %11s %11s %8.1fx %11s %11s %10s %8.4f%s%n", PHASES.get(p).name,
+                formatNanos(optimized.nanos), formatNanos(primitive.nanos), optimized.nanos / primitive.nanos,
+                formatBytes(optimized.bytes), formatBytes(primitive.bytes),
+                reduction(optimized.bytes, primitive.bytes), p2, p2 < ALPHA ? "" : " (не значимо)");
+        }
+
+        System.out.println();
+        System.out.println("Wall > CPU - поток ждал (GC, планировщик); аллокации - байты, выделенные потоком за вызов.");
+    }
+
+    /**
+     * [0] - slow, [1] - optimized, [2] - primitive (если есть).
+     */
+    private static Result[] measure(Phase phase) {
+        Runnable[] variants = phase.primitive == null
+            ? new Runnable[] {phase.slow, phase.optimized}
+            : new Runnable[] {phase.slow, phase.optimized, phase.primitive};
+        int[] batches = new int[variants.length];
+        for (int v = 0; v < variants.length; v++) {
+            warmUp(variants[v]);
+            batches[v] = calibrate(variants[v]);
+        }
+
+        double[][][] samples = new double[variants.length][3][REPETITIONS];
+        for (int r = 0; r < REPETITIONS; r++) {
+            // Сдвигаем порядок, чтобы ни одна версия не шла всегда после сборки мусора другой
+            for (int k = 0; k < variants.length; k++) {
+                int v = (r + k) % variants.length;
+                runBatch(variants[v], batches[v], samples[v], r);
+            }
+        }
+        Result[] results = new Result[variants.length];
+        for (int v = 0; v < variants.length; v++) {
+            results[v] = new Result(samples[v][0], samples[v][1], samples[v][2]);
+        }
+        return results;
+    }
+
+    private static void warmUp(Runnable phase) {
+        long end = System.nanoTime() + WARMUP_NANOS;
+        while (System.nanoTime() < end) {
+            phase.run();
+        }
+    }
+
+    /**
+     * Сколько вызовов укладывается в BATCH_NANOS (по уже прогретому коду).
+     */
+    private static int calibrate(Runnable phase) {
+        int calls = 1;
+        while (true) {
+            long begin = System.nanoTime();
+            for (int i = 0; i < calls; i++) {
+                phase.run();
+            }
+            long elapsed = System.nanoTime() - begin;
+            if (elapsed >= BATCH_NANOS / 4 || calls >= 1 << 24) {
+                return (int) Math.max(1, Math.min(1 << 24, calls * BATCH_NANOS / Math.max(1, elapsed)));
+            }
+            calls *= 2;
+        }
+    }
+
+    private static void runBatch(Runnable phase, int calls, double[][] out, int repetition) {
+        long thread = Thread.currentThread().getId();
+        long bytesBefore = THREADS.getThreadAllocatedBytes(thread);
+        long cpuBefore = THREADS.getCurrentThreadCpuTime();
+        long begin = System.nanoTime();
+        for (int i = 0; i < calls; i++) {
+            phase.run();
+        }
+        long elapsed = System.nanoTime() - begin;
+        long cpu = THREADS.getCurrentThreadCpuTime() - cpuBefore;
+        long bytes = THREADS.getThreadAllocatedBytes(thread) - bytesBefore;
+        out[0][repetition] = (double) elapsed / calls;
+        out[1][repetition] = (double) cpu / calls;
+        out[2][repetition] = (double) bytes / calls;
+    }
+
+    private static double median(double[] values) {
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        int middle = sorted.length / 2;
+        return sorted.length % 2 == 1 ? sorted[middle] : (sorted[middle - 1] + sorted[middle]) / 2;
+    }
+
+    private static String reduction(double slowBytes, double optimizedBytes) {
+        if (slowBytes < 1) {
+            return "-";
+        }
+        return String.format("%+.1f%%", (optimizedBytes - slowBytes) * 100 / slowBytes);
+    }
+
+    private static String formatNanos(double nanos) {
+        if (nanos >= 1_000_000) {
+            return String.format("%.2f ms", nanos / 1_000_000);
+        } else if (nanos >= 1_000) {
+            return String.format("%.1f us", nanos / 1_000);
+        }
+        return String.format("%.0f ns", nanos);
+    }
+
+    private static String formatBytes(double bytes) {
+        if (bytes >= 1 << 20) {
+            return String.format("%.1f MB", bytes / (1 << 20));
+        } else if (bytes >= 1024) {
+            return String.format("%.1f KB", bytes / 1024);
+        }
+        return String.format("%.0f B", bytes);
+    }
+}
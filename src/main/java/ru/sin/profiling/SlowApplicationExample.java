@@ -73,7 +73,7 @@ public class SlowApplicationExample {
     }
 
     // ПРОБЛЕМА 1: String concatenation в цикле (очень медленно!)
-    private static void processStrings() {
+    static void processStrings() {
         String result = "";
         for (int i = 0; i < DATA_SIZE; i++) {
             // Каждая операция += создает новый String объект
@@ -84,7 +84,7 @@ public class SlowApplicationExample {
     }
 
     // ПРОБЛЕМА 2: Неэффективная работа с коллекциями
-    private static void processCollections() {
+    static void processCollections() {
         List<Integer> numbers = new ArrayList<>();
 
         // Медленное добавление без initial capacity
@@ -104,7 +104,7 @@ public class SlowApplicationExample {
     }
 
     // ПРОБЛЕМА 3: Избыточные вычисления
-    private static void heavyComputation() {
+    static void heavyComputation() {
         double result = 0;
 
         for (int i = 0; i < ITERATIONS / 10; i++) {
@@ -122,7 +122,7 @@ public class SlowApplicationExample {
     }
 
     // ПРОБЛЕМА 4: Создание множества мелких объектов
-    private static void createManyObjects() {
+    static void createManyObjects() {
         Map<String, DataPoint> data = new HashMap<>();
 
         for (int i = 0; i < DATA_SIZE; i++) {
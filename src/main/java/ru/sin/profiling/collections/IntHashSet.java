@@ -0,0 +1,207 @@
+package ru.sin.profiling.collections;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Множество int без боксинга: открытая адресация с линейным пробированием
+ *
+ * HashSet<Integer> хранит на каждый элемент Integer (16 байт), узел HashMap.Node
+ * (32 байта) и ссылку в таблице - ~50-60 байт и два объекта для GC. Здесь
+ * элементы лежат прямо в int[] размером степень двойки: 4 байта на слот,
+ * ~5-11 байт на элемент с учетом заполнения, ноль объектов на элемент.
+ * Поиск идет по соседним слотам одной кеш-линии, а не по цепочке указателей.
+ *
+ * - 0 помечает свободный слот, поэтому сам элемент 0 хранится флагом
+ * - хеш: умножение на золотое сечение и xor старших бит - последовательные
+ *   ключи (id, индексы) не образуют кластеров
+ * - таблица удваивается при заполнении больше LOAD_FACTOR
+ * - удаление сдвигает следующие элементы кластера назад, без "надгробий":
+ *   после удалений поиск не замедляется
+ *
+ * Не потокобезопасен.
+ */
+public final class IntHashSet {
+
+    static final float LOAD_FACTOR = 0.75f;
+    static final int MAX_CAPACITY = 1 << 30;
+    private static final int FREE = 0;
+
+    private int[] keys;
+    private int mask;
+    private int resizeAt;
+    private int size;
+    private boolean containsZero;
+
+    public IntHashSet() {
+        this(16);
+    }
+
+    /**
+     * @param expectedSize сколько элементов поместится без увеличения таблицы
+     */
+    public IntHashSet(int expectedSize) {
+        allocate(tableSize(expectedSize));
+    }
+
+    /**
+     * Степень двойки, при которой expectedSize элементов не превышают LOAD_FACTOR.
+     */
+    static int tableSize(int expectedSize) {
+        long needed = (long) Math.ceil(Math.max(expectedSize, 2) / (double) LOAD_FACTOR);
+        if (needed > MAX_CAPACITY) {
+            throw new IllegalArgumentException("Слишком много элементов: " + expectedSize);
+        }
+        return Math.max(4, Integer.highestOneBit((int) needed - 1) << 1);
+    }
+
+    static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        mask = capacity - 1;
+        resizeAt = (int) Math.min(capacity - 1L, (long) (capacity * (double) LOAD_FACTOR));
+    }
+
+    /**
+     * @return true, если элемента еще не было
+     */
+    public boolean add(int key) {
+        if (key == FREE) {
+            if (containsZero) {
+                return false;
+            }
+            containsZero = true;
+            size++;
+            return true;
+        }
+        int slot = hash(key) & mask;
+        for (int current; (current = keys[slot]) != FREE; slot = (slot + 1) & mask) {
+            if (current == key) {
+                return false;
+            }
+        }
+        keys[slot] = key;
+        if (++size - (containsZero ? 1 : 0) > resizeAt) {
+            rehash(keys.length << 1);
+        }
+        return true;
+    }
+
+    public boolean contains(int key) {
+        if (key == FREE) {
+            return containsZero;
+        }
+        int[] table = keys;
+        int slot = hash(key) & mask;
+        for (int current; (current = table[slot]) != FREE; slot = (slot + 1) & mask) {
+            if (current == key) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true, если элемент был
+     */
+    public boolean remove(int key) {
+        if (key == FREE) {
+            if (!containsZero) {
+                return false;
+            }
+            containsZero = false;
+            size--;
+            return true;
+        }
+        int slot = hash(key) & mask;
+        for (int current; (current = keys[slot]) != FREE; slot = (slot + 1) & mask) {
+            if (current == key) {
+                shiftKeys(slot);
+                size--;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Закрыть дыру в slot: элементы кластера за ней, чей идеальный слот не
+     * лежит циклически в (дыра, текущий], переезжают в дыру.
+     */
+    private void shiftKeys(int slot) {
+        while (true) {
+            int last = slot;
+            slot = (slot + 1) & mask;
+            int current;
+            while (true) {
+                current = keys[slot];
+                if (current == FREE) {
+                    keys[last] = FREE;
+                    return;
+                }
+                int ideal = hash(current) & mask;
+                if (last <= slot ? last >= ideal || ideal > slot : last >= ideal && ideal > slot) {
+                    break;
+                }
+                slot = (slot + 1) & mask;
+            }
+            keys[last] = current;
+        }
+    }
+
+    private void rehash(int capacity) {
+        if (capacity > MAX_CAPACITY || capacity <= 0) {
+            throw new IllegalStateException("Множество больше " + MAX_CAPACITY + " слотов");
+        }
+        int[] old = keys;
+        allocate(capacity);
+        for (int key : old) {
+            if (key != FREE) {
+                int slot = hash(key) & mask;
+                while (keys[slot] != FREE) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = key;
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, FREE);
+        containsZero = false;
+        size = 0;
+    }
+
+    /**
+     * Обход без итератора и боксинга; порядок - порядок слотов.
+     */
+    public void forEach(IntConsumer action) {
+        if (containsZero) {
+            action.accept(FREE);
+        }
+        for (int key : keys) {
+            if (key != FREE) {
+                action.accept(key);
+            }
+        }
+    }
+
+    /**
+     * Число слотов таблицы (для оценки занимаемой памяти: 4 байта на слот).
+     */
+    public int capacity() {
+        return keys.length;
+    }
+}
@@ -0,0 +1,221 @@
+package ru.sin.profiling.collections;
+
+import java.util.Arrays;
+
+/**
+ * Отображение int -> V без боксинга ключей и без узлов на запись
+ *
+ * Та же схема, что у IntHashSet: ключи в int[], значения в параллельном
+ * Object[] по тому же индексу, линейное пробирование, таблица - степень
+ * двойки. HashMap<Integer, V> тратит на запись Integer и HashMap.Node
+ * (~48 байт и два объекта); здесь - 8 байт на слот (int + сжатая ссылка).
+ *
+ * Ключ 0 помечает свободный слот и хранится отдельно. Значения null
+ * допустимы, но get() для них, как и у HashMap, не отличим от отсутствия
+ * ключа - используйте containsKey().
+ *
+ * Не потокобезопасен.
+ *
+ * @param <V> тип значения
+ */
+public final class IntObjectMap<V> {
+
+    /**
+     * Обход пар без боксинга ключа.
+     */
+    @FunctionalInterface
+    public interface IntObjectConsumer<V> {
+        void accept(int key, V value);
+    }
+
+    private static final int FREE = 0;
+
+    private int[] keys;
+    private Object[] values;
+    private int mask;
+    private int resizeAt;
+    private int size;
+    private boolean containsZero;
+    private V zeroValue;
+
+    public IntObjectMap() {
+        this(16);
+    }
+
+    /**
+     * @param expectedSize сколько записей поместится без увеличения таблицы
+     */
+    public IntObjectMap(int expectedSize) {
+        allocate(IntHashSet.tableSize(expectedSize));
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+        resizeAt = (int) Math.min(capacity - 1L, (long) (capacity * (double) IntHashSet.LOAD_FACTOR));
+    }
+
+    private int find(int key) {
+        int[] table = keys;
+        int slot = IntHashSet.hash(key) & mask;
+        for (int current; (current = table[slot]) != FREE; slot = (slot + 1) & mask) {
+            if (current == key) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(int key) {
+        if (key == FREE) {
+            return zeroValue;
+        }
+        int slot = find(key);
+        return slot < 0 ? null : (V) values[slot];
+    }
+
+    public boolean containsKey(int key) {
+        return key == FREE ? containsZero : find(key) >= 0;
+    }
+
+    /**
+     * @return прежнее значение или null
+     */
+    @SuppressWarnings("unchecked")
+    public V put(int key, V value) {
+        if (key == FREE) {
+            V previous = zeroValue;
+            zeroValue = value;
+            if (!containsZero) {
+                containsZero = true;
+                size++;
+            }
+            return previous;
+        }
+        int slot = IntHashSet.hash(key) & mask;
+        for (int current; (current = keys[slot]) != FREE; slot = (slot + 1) & mask) {
+            if (current == key) {
+                V previous = (V) values[slot];
+                values[slot] = value;
+                return previous;
+            }
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        if (++size - (containsZero ? 1 : 0) > resizeAt) {
+            rehash(keys.length << 1);
+        }
+        return null;
+    }
+
+    /**
+     * @return удаленное значение или null
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(int key) {
+        if (key == FREE) {
+            if (!containsZero) {
+                return null;
+            }
+            V previous = zeroValue;
+            zeroValue = null;
+            containsZero = false;
+            size--;
+            return previous;
+        }
+        int slot = find(key);
+        if (slot < 0) {
+            return null;
+        }
+        V previous = (V) values[slot];
+        shiftKeys(slot);
+        size--;
+        return previous;
+    }
+
+    /**
+     * Удаление без надгробий - см. IntHashSet.shiftKeys; значения едут вместе с ключами.
+     */
+    private void shiftKeys(int slot) {
+        while (true) {
+            int last = slot;
+            slot = (slot + 1) & mask;
+            int current;
+            while (true) {
+                current = keys[slot];
+                if (current == FREE) {
+                    keys[last] = FREE;
+                    values[last] = null;
+                    return;
+                }
+                int ideal = IntHashSet.hash(current) & mask;
+                if (last <= slot ? last >= ideal || ideal > slot : last >= ideal && ideal > slot) {
+                    break;
+                }
+                slot = (slot + 1) & mask;
+            }
+            keys[last] = current;
+            values[last] = values[slot];
+        }
+    }
+
+    private void rehash(int capacity) {
+        if (capacity > IntHashSet.MAX_CAPACITY || capacity <= 0) {
+            throw new IllegalStateException("Отображение больше " + IntHashSet.MAX_CAPACITY + " слотов");
+        }
+        int[] oldKeys = keys;
+        Object[] oldValues = values;
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            int key = oldKeys[i];
+            if (key != FREE) {
+                int slot = IntHashSet.hash(key) & mask;
+                while (keys[slot] != FREE) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = key;
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, FREE);
+        Arrays.fill(values, null);
+        containsZero = false;
+        zeroValue = null;
+        size = 0;
+    }
+
+    /**
+     * Обход без итератора и Map.Entry; порядок - порядок слотов.
+     */
+    @SuppressWarnings("unchecked")
+    public void forEach(IntObjectConsumer<? super V> action) {
+        if (containsZero) {
+            action.accept(FREE, zeroValue);
+        }
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != FREE) {
+                action.accept(keys[i], (V) values[i]);
+            }
+        }
+    }
+
+    /**
+     * Число слотов таблицы (int ключа + ссылка на значение на слот).
+     */
+    public int capacity() {
+        return keys.length;
+    }
+}
@@ -0,0 +1,258 @@
+package ru.sin.profiling.collections;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * HashSet<Integer> / HashMap<Integer, V> против IntHashSet / IntObjectMap
+ *
+ * Для каждого размера (по умолчанию 1K ... 100M) и каждой структуры:
+ * - вставка size ключей в пустую структуру (с ростом таблицы), нс на ключ
+ * - поиск существующих ключей (hit) и отсутствующих (miss), нс на поиск
+ * - удержание: байт на запись после GC (Runtime used до/после построения)
+ * - аллокации при построении: байт на запись (getThreadAllocatedBytes),
+ *   включая старые таблицы - это мусор, который потом соберет GC
+ *
+ * Ключи - i * 0x9E3779B9 (биекция int): без последовательного порядка, который
+ * бы нечестно помог кешу; отсутствующие ключи - тот же ряд дальше size.
+ * Значение во всех отображениях - один общий объект: меряется сама
+ * структура, а не полезные данные.
+ *
+ * Малые размеры повторяются, пока операции не займут ~opsMs (и строится
+ * несколько копий для замера удержания, иначе разница used тонет в шуме).
+ * Структура, которая по оценке не поместится в свободный heap, пропускается
+ * с пометкой - для HashSet<Integer> на 100M это ~6 GB против ~0.5 GB у IntHashSet.
+ *
+ * Запуск:
+ *   ./gradlew benchmarkPrimitiveCollections
+ *   ./gradlew benchmarkPrimitiveCollections -PcollectionsSizes=1000,1000000 -PcollectionsXmx=8g
+ *
+ * Параметры:
+ *   -Dcollections.sizes=1000,10000,100000,1000000,10000000,100000000
+ *   -Dcollections.opsMs=200   минимальная длительность замера операций
+ */
+public class PrimitiveCollectionsBenchmark {
+
+    private static final long OPS_NANOS = Long.getLong("collections.opsMs", 200) * 1_000_000;
+    private static final int RETAINED_MIN_ENTRIES = 1_000_000;
+    private static final Object VALUE = new Object();
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    /**
+     * Структура под замером; build строит ее из ключей 0..size-1 ряда key(i).
+     */
+    private abstract static class Candidate {
+        final String name;
+        // Для оценки пика памяти: объекты на запись и байты на слот таблицы
+        final int bytesPerEntry;
+        final int bytesPerSlot;
+
+        Candidate(String name, int bytesPerEntry, int bytesPerSlot) {
+            this.name = name;
+            this.bytesPerEntry = bytesPerEntry;
+            this.bytesPerSlot = bytesPerSlot;
+        }
+
+        /**
+         * Верхняя оценка памяти при построении: все таблицы - степени двойки с
+         * заполнением 0.75 (как у HashMap), при удвоении живы старая и новая.
+         */
+        long peakBytes(int size) {
+            return (long) size * bytesPerEntry + (long) IntHashSet.tableSize(size) * bytesPerSlot * 3 / 2;
+        }
+
+        abstract Object build(int size);
+
+        abstract boolean contains(Object structure, int key);
+    }
+
+    private static final List<Candidate> CANDIDATES = List.of(
+        new Candidate("HashSet<Integer>", 48, 8) {
+            @Override
+            Object build(int size) {
+                Set<Integer> set = new HashSet<>();
+                for (int i = 0; i < size; i++) {
+                    set.add(key(i));
+                }
+                return set;
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            boolean contains(Object structure, int key) {
+                return ((Set<Integer>) structure).contains(key);
+            }
+        },
+        new Candidate("IntHashSet", 0, 4) {
+            @Override
+            Object build(int size) {
+                IntHashSet set = new IntHashSet();
+                for (int i = 0; i < size; i++) {
+                    set.add(key(i));
+                }
+                return set;
+            }
+
+            @Override
+            boolean contains(Object structure, int key) {
+                return ((IntHashSet) structure).contains(key);
+            }
+        },
+        new Candidate("HashMap<Integer,V>", 48, 8) {
+            @Override
+            Object build(int size) {
+                Map<Integer, Object> map = new HashMap<>();
+                for (int i = 0; i < size; i++) {
+                    map.put(key(i), VALUE);
+                }
+                return map;
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            boolean contains(Object structure, int key) {
+                return ((Map<Integer, Object>) structure).get(key) != null;
+            }
+        },
+        new Candidate("IntObjectMap<V>", 0, 8) {
+            @Override
+            Object build(int size) {
+                IntObjectMap<Object> map = new IntObjectMap<>();
+                for (int i = 0; i < size; i++) {
+                    map.put(key(i), VALUE);
+                }
+                return map;
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            boolean contains(Object structure, int key) {
+                return ((IntObjectMap<Object>) structure).get(key) != null;
+            }
+        }
+    );
+
+    private static int key(int i) {
+        return i * 0x9E3779B9;
+    }
+
+    private static volatile int sink;
+
+    public static void main(String[] args) {
+        THREADS.setThreadAllocatedMemoryEnabled(true);
+        List<Integer> sizes = new ArrayList<>();
+        for (String size : System.getProperty("collections.sizes",
+                "1000,10000,100000,1000000,10000000,100000000").split(",")) {
+            sizes.add(Integer.parseInt(size.trim().replace("_", "")));
+        }
+
+        System.out.println("=== Примитивные коллекции против коллекций с боксингом ===");
+        System.out.printf("Heap: %,d MB, операции ~%d ms на замер%n", Runtime.getRuntime().maxMemory() >> 20,
+            OPS_NANOS / 1_000_000);
+
+        // Прогрев JIT на среднем размере, чтобы первый размер не мерил интерпретатор
+        for (Candidate candidate : CANDIDATES) {
+            long end = System.nanoTime() + 1_000_000_000L;
+            while (System.nanoTime() < end) {
+                Object structure = candidate.build(100_000);
+                sink += lookups(candidate, structure, 100_000, 0, 100_000);
+            }
+        }
+
+        for (int size : sizes) {
+            System.out.printf("%n--- %,d записей ---%n", size);
+            System.out.printf("%-20s %11s %11s %11s %13s %13s%n",
+                "Структура", "вставка", "поиск hit", "поиск miss", "байт/запись", "аллоц/запись");
+            for (Candidate candidate : CANDIDATES) {
+                run(candidate, size);
+            }
+        }
+    }
+
+    private static void run(Candidate candidate, int size) {
+        int copies = Math.max(1, RETAINED_MIN_ENTRIES / size);
+        // Малые размеры еще раз строятся для замера вставки, пока живы копии
+        long needed = candidate.peakBytes(size) * (copies > 1 ? copies + 1 : copies);
+        System.gc();
+        Runtime runtime = Runtime.getRuntime();
+        long free = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+        if (needed > free * 0.9) {
+            System.out.printf("%-20s пропущено: нужно ~%,d MB heap, свободно %,d MB%n",
+                candidate.name, needed >> 20, free >> 20);
+            return;
+        }
+
+        // Удержание и аллокации: строим copies копий и держим их до замера used
+        long usedBefore = usedAfterGc();
+        long thread = Thread.currentThread().getId();
+        long allocatedBefore = THREADS.getThreadAllocatedBytes(thread);
+        Object[] kept = new Object[copies];
+        long buildBegin = System.nanoTime();
+        for (int c = 0; c < copies; c++) {
+            kept[c] = candidate.build(size);
+        }
+        long buildNanos = System.nanoTime() - buildBegin;
+        long allocated = THREADS.getThreadAllocatedBytes(thread) - allocatedBefore;
+        long retained = usedAfterGc() - usedBefore;
+        Object structure = kept[0];
+        kept = null;
+
+        // Вставка: повторяем построение, пока не наберется OPS_NANOS
+        long inserts = (long) size * copies;
+        while (buildNanos < OPS_NANOS) {
+            long begin = System.nanoTime();
+            sink += System.identityHashCode(candidate.build(size));
+            buildNanos += System.nanoTime() - begin;
+            inserts += size;
+        }
+
+        double hit = lookupNanos(candidate, structure, size, 0);
+        double miss = lookupNanos(candidate, structure, size, size);
+        long entries = (long) size * copies;
+        System.out.printf("%-20s %8.1f ns %8.1f ns %8.1f ns %13.1f %13.1f%n", candidate.name,
+            (double) buildNanos / inserts, hit, miss, (double) retained / entries, (double) allocated / entries);
+    }
+
+    /**
+     * Нс на поиск ключей key(offset) ... key(offset + size - 1).
+     */
+    private static double lookupNanos(Candidate candidate, Object structure, int size, int offset) {
+        long lookups = 0;
+        long nanos = 0;
+        while (nanos < OPS_NANOS) {
+            long begin = System.nanoTime();
+            sink += lookups(candidate, structure, size, offset, size);
+            nanos += System.nanoTime() - begin;
+            lookups += size;
+        }
+        return (double) nanos / lookups;
+    }
+
+    private static int lookups(Candidate candidate, Object structure, int size, int offset, int count) {
+        int found = 0;
+        // Шаг взаимно простой с size: порядок поиска отличается от порядка вставки
+        long step = size > 7 && size % 7 != 0 ? 7 : 1;
+        for (int i = 0; i < count; i++) {
+            int index = (int) ((i * step) % size);
+            if (candidate.contains(structure, key(offset + index))) {
+                found++;
+            }
+        }
+        return found;
+    }
+
+    private static long usedAfterGc() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,219 @@
+package ru.sin.profiling.sampler;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedClass;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedStackTrace;
+import jdk.jfr.consumer.RecordingFile;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Профиль аллокаций из JFR: байты по стекам, местам аллокации и типам
+ *
+ * Источники (в порядке предпочтения - смешивать их нельзя, веса пересекаются):
+ * - jdk.ObjectAllocationSample (JDK 16+) - сэмплы с ограничением частоты,
+ *   weight - сколько байт представляет сэмпл; дешево, можно на нагрузке
+ * - jdk.ObjectAllocationInNewTLAB / OutsideTLAB - событие на каждый новый TLAB
+ *   (вес - размер TLAB) и каждую аллокацию вне TLAB; точнее, но дороже
+ *
+ * Стек завершается кадром "new <тип>", поэтому flame graph показывает и путь,
+ * и что именно аллоцируется. Место аллокации в таблице - первый кадр кода
+ * приложения с номером строки (не StringConcatHelper.newArray, а
+ * ThroughputBenchmark.runIteration:135) и кадр JDK, где аллокация произошла.
+ */
+final class AllocationProfile {
+
+    static final String SAMPLE = "jdk.ObjectAllocationSample";
+    static final String IN_NEW_TLAB = "jdk.ObjectAllocationInNewTLAB";
+    static final String OUTSIDE_TLAB = "jdk.ObjectAllocationOutsideTLAB";
+
+    private final StackProfile stacks = new StackProfile();
+    // "тип\tместо\tкадр JDK" -> {байты, события}
+    private final Map<String, long[]> sites = new HashMap<>();
+    private final Map<String, long[]> types = new HashMap<>();
+    private long events;
+    private Instant first;
+    private Instant last;
+    private String source = SAMPLE;
+
+    /**
+     * Включить события аллокаций со стеками в записи.
+     *
+     * @param throttle частота ObjectAllocationSample, например "500/s"
+     * @param tlab     дополнительно события TLAB (точнее, дороже)
+     */
+    static void enable(Recording recording, String throttle, boolean tlab) {
+        recording.enable(SAMPLE).with("throttle", throttle).withStackTrace();
+        if (tlab) {
+            recording.enable(IN_NEW_TLAB).withStackTrace();
+            recording.enable(OUTSIDE_TLAB).withStackTrace();
+        }
+    }
+
+    /**
+     * Профиль из .jfr файла: по ObjectAllocationSample, а если их нет - по событиям TLAB.
+     */
+    static AllocationProfile read(Path file) {
+        AllocationProfile sampled = new AllocationProfile();
+        AllocationProfile tlab = new AllocationProfile();
+        tlab.source = IN_NEW_TLAB + " + " + OUTSIDE_TLAB;
+        try (RecordingFile recording = new RecordingFile(file)) {
+            while (recording.hasMoreEvents()) {
+                RecordedEvent event = recording.readEvent();
+                switch (event.getEventType().getName()) {
+                    case SAMPLE:
+                        sampled.add(event, event.getLong("weight"));
+                        break;
+                    case IN_NEW_TLAB:
+                        tlab.add(event, event.getLong("tlabSize"));
+                        break;
+                    case OUTSIDE_TLAB:
+                        tlab.add(event, event.getLong("allocationSize"));
+                        break;
+                    default:
+                        break;
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Не удалось прочитать JFR запись " + file, e);
+        }
+        return sampled.events > 0 || tlab.events == 0 ? sampled : tlab;
+    }
+
+    private void add(RecordedEvent event, long weight) {
+        RecordedStackTrace trace = event.getStackTrace();
+        RecordedClass objectClass = event.getClass("objectClass");
+        if (trace == null || trace.getFrames().isEmpty() || objectClass == null || weight <= 0) {
+            return;
+        }
+        String type = typeName(objectClass.getName());
+        String stack = JfrFlameGraph.collapse(trace, event.getThread("eventThread"));
+        stacks.add(stack + ";new " + type, weight);
+
+        List<RecordedFrame> frames = trace.getFrames();
+        RecordedFrame leaf = frames.get(0);
+        RecordedFrame site = leaf;
+        for (RecordedFrame frame : frames) {
+            if (!isJdk(frame.getMethod().getType().getName())) {
+                site = frame;
+                break;
+            }
+        }
+        String key = type + "\t" + location(site) + "\t" + (site == leaf ? "" : location(leaf));
+        long[] siteStats = sites.computeIfAbsent(key, k -> new long[2]);
+        siteStats[0] += weight;
+        siteStats[1]++;
+        long[] typeStats = types.computeIfAbsent(type, k -> new long[2]);
+        typeStats[0] += weight;
+        typeStats[1]++;
+
+        events++;
+        if (first == null || event.getStartTime().isBefore(first)) {
+            first = event.getStartTime();
+        }
+        if (last == null || event.getStartTime().isAfter(last)) {
+            last = event.getStartTime();
+        }
+    }
+
+    private static String location(RecordedFrame frame) {
+        String method = StackProfile.frame(frame.getMethod().getType().getName(), frame.getMethod().getName());
+        return frame.getLineNumber() > 0 ? method + ":" + frame.getLineNumber() : method;
+    }
+
+    private static boolean isJdk(String className) {
+        return className.startsWith("java.") || className.startsWith("jdk.")
+            || className.startsWith("sun.") || className.startsWith("com.sun.");
+    }
+
+    /**
+     * "[B" -> "byte[]", "[Ljava.lang.String;" -> "java.lang.String[]"; обычные имена как есть.
+     */
+    static String typeName(String name) {
+        int dimensions = 0;
+        while (dimensions < name.length() && name.charAt(dimensions) == '[') {
+            dimensions++;
+        }
+        if (dimensions == 0) {
+            return name;
+        }
+        String element;
+        switch (name.charAt(dimensions)) {
+            case 'Z': element = "boolean"; break;
+            case 'C': element = "char"; break;
+            case 'F': element = "float"; break;
+            case 'D': element = "double"; break;
+            case 'B': element = "byte"; break;
+            case 'S': element = "short"; break;
+            case 'I': element = "int"; break;
+            case 'J': element = "long"; break;
+            default: element = name.substring(dimensions + 1, name.length() - 1);
+        }
+        return element + "[]".repeat(dimensions);
+    }
+
+    StackProfile stacks() {
+        return stacks;
+    }
+
+    long events() {
+        return events;
+    }
+
+    /**
+     * Сводка, top мест аллокаций и типов.
+     */
+    void print(int top) {
+        long total = stacks.total();
+        System.out.printf("Источник: %s, событий: %,d, всего ~%s", source, events, formatBytes(total));
+        if (first != null && last.isAfter(first)) {
+            double seconds = Duration.between(first, last).toNanos() / 1e9;
+            System.out.printf(" (~%s/с за %.1f с)", formatBytes((long) (total / seconds)), seconds);
+        }
+        System.out.println();
+        if (total == 0) {
+            System.out.println("Нет событий аллокаций со стеками - нужен JFR с " + SAMPLE + " (settings=profile)");
+            return;
+        }
+
+        System.out.printf("%nМеста аллокаций (top %d по байтам):%n", top);
+        System.out.printf("  %12s %7s  %-28s %s%n", "байт", "доля", "тип", "место (через кадр JDK)");
+        for (Map.Entry<String, long[]> entry : sorted(sites, top)) {
+            String[] parts = entry.getKey().split("\t", -1);
+            System.out.printf("  %12s %6.2f%%  %-28s %s%s%n", formatBytes(entry.getValue()[0]),
+                entry.getValue()[0] * 100.0 / total, parts[0], parts[1],
+                parts[2].isEmpty() ? "" : " (" + parts[2] + ")");
+        }
+
+        System.out.printf("%nТипы (top %d по байтам):%n", top);
+        for (Map.Entry<String, long[]> entry : sorted(types, top)) {
+            System.out.printf("  %12s %6.2f%%  %s%n", formatBytes(entry.getValue()[0]),
+                entry.getValue()[0] * 100.0 / total, entry.getKey());
+        }
+    }
+
+    private static List<Map.Entry<String, long[]>> sorted(Map<String, long[]> stats, int limit) {
+        List<Map.Entry<String, long[]>> entries = new ArrayList<>(stats.entrySet());
+        entries.sort((a, b) -> Long.compare(b.getValue()[0], a.getValue()[0]));
+        return entries.subList(0, Math.min(limit, entries.size()));
+    }
+
+    static String formatBytes(long bytes) {
+        if (bytes >= 1L << 30) {
+            return String.format("%,.2f GB", bytes / (double) (1L << 30));
+        } else if (bytes >= 1L << 20) {
+            return String.format("%,.1f MB", bytes / (double) (1L << 20));
+        }
+        return String.format("%,.1f KB", bytes / 1024.0);
+    }
+}
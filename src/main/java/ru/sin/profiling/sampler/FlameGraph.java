@@ -0,0 +1,204 @@
+package ru.sin.profiling.sampler;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Самодостаточный интерактивный flame graph в одном HTML файле
+ *
+ * Дерево стеков встраивается в страницу как JSON, рисует его canvas без
+ * внешних скриптов и шрифтов - файл открывается офлайн и прикладывается к тикету.
+ * - ширина блока - доля веса (сэмплов или байт), снизу вверх - от корня к листьям
+ * - клик - масштаб по блоку, клик по нижнему блоку или "Сброс" - весь граф
+ * - поиск по regex подсвечивает совпадения и показывает их суммарную долю
+ * - цвет: код приложения (ru.sin) оранжевый, JDK желтый, остальное красный,
+ *   аллоцируемый тип ("new byte[]" в профиле аллокаций) синий
+ *
+ * Блоки уже MIN_FRACTION от общего веса отбрасываются: в браузере их все
+ * равно не видно, а файл остается небольшим.
+ */
+final class FlameGraph {
+
+    private static final double MIN_FRACTION = 0.0001;
+
+    private static final class Node {
+        final String name;
+        long value;
+        final Map<String, Node> children = new TreeMap<>();
+
+        Node(String name) {
+            this.name = name;
+        }
+
+        Node child(String frame) {
+            return children.computeIfAbsent(frame, Node::new);
+        }
+    }
+
+    private FlameGraph() {
+    }
+
+    /**
+     * @param unit "samples" или "bytes" - как подписывать вес во всплывающей строке
+     */
+    static void writeHtml(StackProfile profile, Path file, String title, String unit) {
+        Node root = new Node("all");
+        for (Map.Entry<String, Long> entry : profile.stacks().entrySet()) {
+            long weight = entry.getValue();
+            root.value += weight;
+            Node node = root;
+            for (String frame : entry.getKey().split(";")) {
+                node = node.child(frame);
+                node.value += weight;
+            }
+        }
+        StringBuilder json = new StringBuilder();
+        appendJson(json, root, Math.max(1, (long) (root.value * MIN_FRACTION)));
+
+        String html = TEMPLATE
+            .replace("$TITLE", escapeHtml(title))
+            .replace("$UNIT", unit)
+            .replace("$DATA", json.toString());
+        try {
+            Files.writeString(file, html);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Не удалось записать " + file, e);
+        }
+    }
+
+    private static void appendJson(StringBuilder json, Node node, long minValue) {
+        json.append("{\"n\":\"");
+        for (int i = 0; i < node.name.length(); i++) {
+            char c = node.name.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c == '<') {
+                // "</script>" внутри данных закрыл бы тег
+                json.append("\\u003c");
+            } else if (c < 0x20) {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        json.append("\",\"v\":").append(node.value);
+        boolean first = true;
+        for (Node child : node.children.values()) {
+            if (child.value < minValue) {
+                continue;
+            }
+            json.append(first ? ",\"c\":[" : ",");
+            appendJson(json, child, minValue);
+            first = false;
+        }
+        json.append(first ? "}" : "]}");
+    }
+
+    private static String escapeHtml(String text) {
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+    }
+
+    private static final String TEMPLATE = String.join("\n",
+        "<!DOCTYPE html>",
+        "<html><head><meta charset=\"utf-8\"><title>$TITLE</title>",
+        "<style>",
+        "body{font:12px Menlo,Consolas,monospace;margin:0;padding:8px}",
+        "#bar{display:flex;gap:8px;align-items:center;margin-bottom:6px}",
+        "#bar input{font:inherit;width:280px}",
+        "#info{height:18px;white-space:nowrap;overflow:hidden;margin-top:4px}",
+        "canvas{display:block;width:100%}",
+        "</style></head><body>",
+        "<div id=\"bar\"><b>$TITLE</b><span id=\"total\"></span>",
+        "<input id=\"search\" placeholder=\"поиск (regex), Enter\"><button id=\"reset\">Сброс</button>",
+        "<span id=\"matched\"></span></div>",
+        "<canvas id=\"fg\"></canvas><div id=\"info\">&nbsp;</div>",
+        "<script>",
+        "const root = $DATA;",
+        "const unit = '$UNIT';",
+        "const H = 16;",
+        "let maxDepth = 0;",
+        "(function layout(node, x, depth, parent) {",
+        "  node.x = x; node.d = depth; node.p = parent;",
+        "  maxDepth = Math.max(maxDepth, depth);",
+        "  let cx = x;",
+        "  for (const c of node.c || []) { layout(c, cx, depth + 1, node); cx += c.v; }",
+        "})(root, 0, 0, null);",
+        "",
+        "const canvas = document.getElementById('fg');",
+        "const ctx = canvas.getContext('2d');",
+        "let zoomed = root, query = null, rects = [];",
+        "",
+        "function format(v) {",
+        "  if (unit !== 'bytes') return v.toLocaleString() + ' сэмплов';",
+        "  const u = ['B', 'KB', 'MB', 'GB', 'TB']; let i = 0;",
+        "  while (v >= 1024 && i < u.length - 1) { v /= 1024; i++; }",
+        "  return v.toFixed(i ? 1 : 0) + ' ' + u[i];",
+        "}",
+        "function hash(s) { let h = 0; for (let i = 0; i < s.length; i++) h = (h * 31 + s.charCodeAt(i)) | 0; return Math.abs(h); }",
+        "function color(node) {",
+        "  if (query && query.test(node.n)) return 'rgb(230,80,230)';",
+        "  const h = hash(node.n), n = node.n;",
+        "  const hue = n.startsWith('new ') ? 200 : n.startsWith('ru.sin.') ? 25",
+        "    : /^(java|javax|jdk|sun|com\\.sun)\\./.test(n) ? 50 : 5;",
+        "  return 'hsl(' + (hue + h % 10) + ',' + (70 + h % 20) + '%,' + (55 + (h >> 4) % 15) + '%)';",
+        "}",
+        "function isAncestor(node, of) { for (let p = of.p; p; p = p.p) if (p === node) return true; return false; }",
+        "",
+        "function draw() {",
+        "  const width = canvas.clientWidth, height = (maxDepth + 1) * H, dpr = window.devicePixelRatio || 1;",
+        "  canvas.width = width * dpr; canvas.height = height * dpr; canvas.style.height = height + 'px';",
+        "  ctx.setTransform(dpr, 0, 0, dpr, 0, 0);",
+        "  ctx.font = '12px Menlo,Consolas,monospace'; ctx.textBaseline = 'middle';",
+        "  const charWidth = ctx.measureText('m').width;",
+        "  const x0 = zoomed.x, scale = width / zoomed.v;",
+        "  rects = [];",
+        "  (function visit(node) {",
+        "    const left = Math.max(node.x, x0), right = Math.min(node.x + node.v, x0 + zoomed.v);",
+        "    const w = (right - left) * scale;",
+        "    if (w < 0.5) return;",
+        "    const x = (left - x0) * scale, y = height - (node.d + 1) * H;",
+        "    ctx.globalAlpha = isAncestor(node, zoomed) ? 0.5 : 1;",
+        "    ctx.fillStyle = color(node); ctx.fillRect(x, y, w - 0.5, H - 1);",
+        "    const chars = Math.floor((w - 6) / charWidth);",
+        "    if (chars > 2) {",
+        "      ctx.fillStyle = '#000';",
+        "      ctx.fillText(node.n.length <= chars ? node.n : node.n.substring(0, chars - 2) + '..', x + 3, y + H / 2);",
+        "    }",
+        "    rects.push({ node, x, y, w });",
+        "    for (const c of node.c || []) visit(c);",
+        "  })(root);",
+        "  ctx.globalAlpha = 1;",
+        "  document.getElementById('total').textContent = 'всего ' + format(root.v);",
+        "}",
+        "",
+        "function at(e) {",
+        "  const r = canvas.getBoundingClientRect(), x = e.clientX - r.left, y = e.clientY - r.top;",
+        "  return rects.find(b => x >= b.x && x < b.x + b.w && y >= b.y && y < b.y + H);",
+        "}",
+        "canvas.onmousemove = e => {",
+        "  const b = at(e);",
+        "  document.getElementById('info').textContent = b",
+        "    ? b.node.n + ' - ' + format(b.node.v) + ' (' + (100 * b.node.v / root.v).toFixed(2) + '% всего, '",
+        "      + (100 * b.node.v / zoomed.v).toFixed(2) + '% масштаба)'",
+        "    : '\\u00a0';",
+        "  canvas.style.cursor = b ? 'pointer' : 'default';",
+        "};",
+        "canvas.onclick = e => { const b = at(e); if (b) { zoomed = b.node; draw(); } };",
+        "document.getElementById('reset').onclick = () => { zoomed = root; draw(); };",
+        "document.getElementById('search').onkeydown = e => {",
+        "  if (e.key !== 'Enter') return;",
+        "  try { query = e.target.value ? new RegExp(e.target.value) : null; } catch (err) { query = null; }",
+        "  let matched = 0;",
+        "  (function sum(node) { if (query && query.test(node.n)) { matched += node.v; return; } for (const c of node.c || []) sum(c); })(root);",
+        "  document.getElementById('matched').textContent = query ? 'совпадения: ' + (100 * matched / root.v).toFixed(2) + '%' : '';",
+        "  draw();",
+        "};",
+        "window.onresize = draw;",
+        "draw();",
+        "</script></body></html>",
+        "");
+}
@@ -0,0 +1,141 @@
+package ru.sin.profiling.sampler;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedStackTrace;
+import jdk.jfr.consumer.RecordedThread;
+import jdk.jfr.consumer.RecordingFile;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Flame graph из JFR записи или готового collapsed файла
+ *
+ * Для уже запущенного процесса: JFR встроен в JDK и включается через jcmd
+ * без агентов и нативных библиотек (так делает scripts/profile_app.sh, если
+ * async-profiler не установлен):
+ *   jcmd <pid> JFR.start name=profile settings=profile
+ *   jcmd <pid> JFR.dump name=profile filename=/abs/path/app.jfr
+ *   ./gradlew jfrFlameGraph -PjfrFile=profiling_results/app.jfr
+ *
+ * Из .jfr берутся события:
+ * - cpu   - jdk.ExecutionSample: сэмплы потоков, исполняющих Java код, снятые
+ *           вне safepoint'ов (без safepoint bias SamplingProfiler)
+ * - alloc - jdk.ObjectAllocationSample (или события TLAB): байты по стекам
+ *           и таблица мест аллокаций (AllocationProfile)
+ * Файл .collapsed (свой, async-profiler, flamegraph.pl) просто
+ * перерисовывается в HTML.
+ *
+ * Рядом с входным файлом пишутся <имя>[_alloc].collapsed и <имя>[_alloc].html.
+ *
+ * Параметры:
+ *   первый аргумент или -Dflame.input   .jfr или .collapsed
+ *   -Dflame.event=cpu                   cpu | alloc
+ *   -Dprofiler.threads=false            имя потока корнем стека
+ */
+public class JfrFlameGraph {
+
+    private static final String EXECUTION_SAMPLE = "jdk.ExecutionSample";
+    private static final boolean ALLOC = "alloc".equals(System.getProperty("flame.event", "cpu"));
+    private static final boolean THREAD_ROOTS = Boolean.getBoolean("profiler.threads");
+    private static final int TOP = 15;
+
+    public static void main(String[] args) {
+        String input = args.length > 0 ? args[0] : System.getProperty("flame.input");
+        if (input == null || !Files.isRegularFile(Path.of(input))) {
+            System.err.println("Использование: JfrFlameGraph <запись.jfr | стеки.collapsed> (или -Dflame.input=...)");
+            System.exit(1);
+        }
+        Path file = Path.of(input);
+        String fileName = file.getFileName().toString();
+        String base = fileName.contains(".") ? fileName.substring(0, fileName.lastIndexOf('.')) : fileName;
+
+        if (ALLOC && !fileName.endsWith(".collapsed")) {
+            writeAllocationProfile(file, base);
+            return;
+        }
+
+        StackProfile profile;
+        if (fileName.endsWith(".collapsed")) {
+            profile = StackProfile.readCollapsed(file);
+        } else {
+            profile = readExecutionSamples(file);
+            profile.writeCollapsed(file.resolveSibling(base + ".collapsed"));
+        }
+        Path html = file.resolveSibling(base + ".html");
+        FlameGraph.writeHtml(profile, html, base + (ALLOC ? " (alloc)" : " (cpu)"), ALLOC ? "bytes" : "samples");
+
+        System.out.printf("=== Flame graph: %s ===%n", fileName);
+        System.out.printf("Вес: %,d, уникальных стеков: %,d%n", profile.total(), profile.size());
+        if (profile.total() == 0) {
+            System.out.println("В записи нет " + EXECUTION_SAMPLE + " - запускайте JFR с settings=profile");
+        }
+        System.out.println("Горячие методы (self):");
+        for (Map.Entry<String, Long> entry : profile.topSelf(TOP)) {
+            System.out.printf("  %6.2f%%  %s%n", entry.getValue() * 100.0 / profile.total(), entry.getKey());
+        }
+        System.out.println("Flame graph: " + html);
+    }
+
+    /**
+     * Flame graph аллокаций и таблица мест аллокаций; используется и SamplingProfiler в режиме alloc.
+     */
+    static void writeAllocationProfile(Path jfr, String base) {
+        AllocationProfile profile = AllocationProfile.read(jfr);
+        Path collapsed = jfr.resolveSibling(base + "_alloc.collapsed");
+        Path html = jfr.resolveSibling(base + "_alloc.html");
+        profile.stacks().writeCollapsed(collapsed);
+        FlameGraph.writeHtml(profile.stacks(), html, base + " (alloc)", "bytes");
+
+        System.out.printf("=== Allocation profile: %s ===%n", jfr.getFileName());
+        profile.print(TOP);
+        System.out.println();
+        System.out.println("Collapsed stacks: " + collapsed);
+        System.out.println("Flame graph:      " + html);
+    }
+
+    private static StackProfile readExecutionSamples(Path file) {
+        StackProfile profile = new StackProfile();
+        try (RecordingFile recording = new RecordingFile(file)) {
+            while (recording.hasMoreEvents()) {
+                RecordedEvent event = recording.readEvent();
+                if (event.getEventType().getName().equals(EXECUTION_SAMPLE)) {
+                    String stack = collapse(event.getStackTrace(), event.getThread("sampledThread"));
+                    if (stack != null) {
+                        profile.add(stack, 1);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Не удалось прочитать JFR запись " + file, e);
+        }
+        return profile;
+    }
+
+    static String collapse(RecordedStackTrace trace, RecordedThread thread) {
+        if (trace == null || trace.getFrames().isEmpty()) {
+            return null;
+        }
+        List<RecordedFrame> frames = trace.getFrames();
+        StringBuilder key = new StringBuilder(frames.size() * 48);
+        if (THREAD_ROOTS && thread != null) {
+            key.append(String.valueOf(thread.getJavaName()).replace(';', ':')).append(';');
+        }
+        // JFR отдает кадры от листа к корню
+        int skip = StackProfile.launcherFrames(frames.size(),
+            k -> frames.get(frames.size() - 1 - k).getMethod().getType().getName());
+        for (int i = frames.size() - 1 - skip; i >= 0; i--) {
+            RecordedFrame frame = frames.get(i);
+            key.append(StackProfile.frame(frame.getMethod().getType().getName(), frame.getMethod().getName()));
+            if (i > 0) {
+                key.append(';');
+            }
+        }
+        return key.toString();
+    }
+}
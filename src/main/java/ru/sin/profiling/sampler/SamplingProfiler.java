@@ -0,0 +1,319 @@
+package ru.sin.profiling.sampler;
+
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Сэмплирующий CPU профайлер на чистой Java - без async-profiler и нативных библиотек
+ *
+ * Поток-сэмплер периодически снимает стеки всех потоков
+ * (ThreadMXBean.dumpAllThreads без мониторов и локов) и складывает их в
+ * collapsed stacks. По завершении пишет в profiling_results/:
+ * - <имя>_<время>.collapsed - текст для flamegraph.pl / speedscope / diff
+ * - <имя>_<время>.html      - интерактивный flame graph (FlameGraph)
+ *
+ * Режимы (-Dprofiler.mode):
+ * - cpu  - только потоки в состоянии RUNNABLE (ожидание и sleep не попадают;
+ *          блокирующий native I/O виден как RUNNABLE - ограничение Java API)
+ * - wall - все потоки, включая ждущие: куда уходит время, а не CPU
+ * - alloc - не сэмплер, а JFR запись jdk.ObjectAllocationSample в процессе:
+ *          байты по стекам аллокаций (flame graph в байтах, лист - "new <тип>")
+ *          и таблица мест аллокаций; рядом сохраняется .jfr (AllocationProfile)
+ *
+ * Накладные расходы: dumpAllThreads останавливает потоки в safepoint на время
+ * обхода стеков, поэтому длительность каждого сэмпла и есть цена для
+ * приложения. Сэмплер держит ее ниже -Dprofiler.maxOverheadPercent:
+ * - стартовый интервал - по цене первого сэмпла (самого дорогого: код
+ *   обхода еще не скомпилирован), так что старт консервативный
+ * - дальше интервал следует за скользящей средней ценой сэмпла (цель -
+ *   3/4 бюджета) и сужается до заданного, только пока цена это позволяет
+ * - следующий сэмпл не снимается, пока общая доля времени в сэмплах с
+ *   начала выше бюджета - короткий запуск его тоже не превышает
+ * Превышение бюджета (запуск короче, чем нужно одному сэмплу) отчет помечает. Его можно не выключать во
+ * время нагрузочных тестов. Как любой safepoint-профайлер, он видит
+ * стеки только в safepoint'ах (safepoint bias): горячий цикл без вызовов
+ * приписывается ближайшей точке выхода. Для точной атрибуции - JFR
+ * (JfrFlameGraph) или async-profiler.
+ *
+ * Запуск любого main класса под профайлером:
+ *   java -cp ... ru.sin.profiling.sampler.SamplingProfiler ru.sin.profiling.SlowApplicationExample [args]
+ *   ./gradlew profileSlowApp / profileOptimizedApp / profileMain -PprofileMain=<класс>
+ *
+ * Параметры:
+ *   -Dprofiler.intervalMs=10          базовый интервал сэмплирования
+ *   -Dprofiler.mode=cpu               cpu | wall | alloc
+ *   -Dprofiler.allocThrottle=500/s    частота сэмплов аллокаций (alloc)
+ *   -Dprofiler.allocTlab=false        еще и события TLAB - точнее и дороже (alloc)
+ *   -Dprofiler.maxDepth=128           глубина стека
+ *   -Dprofiler.maxOverheadPercent=2   бюджет накладных расходов
+ *   -Dprofiler.threads=false          имя потока корнем стека
+ *   -Dprofiler.output=profiling_results
+ */
+public class SamplingProfiler implements AutoCloseable {
+
+    private static final long INTERVAL_NANOS = Long.getLong("profiler.intervalMs", 10) * 1_000_000;
+    private static final long MAX_INTERVAL_NANOS = 1_000_000_000L;
+    private static final String MODE = System.getProperty("profiler.mode", "cpu");
+    private static final boolean WALL = "wall".equals(MODE);
+    private static final boolean ALLOC = "alloc".equals(MODE);
+    private static final int MAX_DEPTH = Integer.getInteger("profiler.maxDepth", 128);
+    private static final double MAX_OVERHEAD =
+        Double.parseDouble(System.getProperty("profiler.maxOverheadPercent", "2")) / 100;
+    private static final boolean THREAD_ROOTS = Boolean.getBoolean("profiler.threads");
+    private static final Path OUTPUT = Path.of(System.getProperty("profiler.output", "profiling_results"));
+    private static final int TOP = 15;
+    private static final long EXIT_DUMP_TIMEOUT_NANOS = 30_000_000_000L;
+    // Служебные потоки JVM в профиле только шумят
+    private static final Set<String> SYSTEM_THREADS = Set.of("Reference Handler", "Finalizer",
+        "Signal Dispatcher", "Common-Cleaner", "Attach Listener", "Notification Thread");
+
+    private final String name;
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private final StackProfile profile = new StackProfile();
+    private final Map<StackTraceElement, String> frames = new HashMap<>();
+    // null в режиме alloc: вместо сэмплера - JFR запись
+    private final Thread sampler;
+    private final Recording recording;
+    // Имя файлов режима alloc: .jfr задается записи при старте
+    private final String allocBase;
+    private final Path allocJfr;
+    private final long startNanos = System.nanoTime();
+    private volatile boolean running = true;
+
+    // Пишет только поток-сэмплер, читает close() после join()
+    private long samples;
+    private long sampleNanos;
+    private long maxSampleNanos;
+    private long minIntervalNanos = MAX_INTERVAL_NANOS;
+    private long maxIntervalNanos = INTERVAL_NANOS;
+    private long samplerCpuNanos;
+    private boolean closed;
+
+    private SamplingProfiler(String name) {
+        this.name = name;
+        if (ALLOC) {
+            this.sampler = null;
+            this.allocBase = name + "_" + LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss"));
+            this.allocJfr = OUTPUT.resolve(allocBase + ".jfr");
+            this.recording = new Recording();
+            recording.setName("profiler-alloc");
+            AllocationProfile.enable(recording, System.getProperty("profiler.allocThrottle", "500/s"),
+                Boolean.getBoolean("profiler.allocTlab"));
+            // При System.exit()/SIGTERM shutdown hook JFR удаляет чанки записи, возможно раньше
+            // нашего hook'а: с destination и dumpOnExit он сам сохраняет файл перед этим
+            try {
+                Files.createDirectories(OUTPUT);
+                recording.setDestination(allocJfr);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Не удалось создать " + allocJfr, e);
+            }
+            recording.setToDisk(true);
+            recording.setDumpOnExit(true);
+            recording.start();
+            return;
+        }
+        this.allocBase = null;
+        this.allocJfr = null;
+        this.recording = null;
+        this.sampler = new Thread(this::sampleLoop, "profiler-sampler");
+        sampler.setDaemon(true);
+        sampler.start();
+    }
+
+    /**
+     * Запускает сэмплирование; результаты пишет close().
+     */
+    public static SamplingProfiler start(String name) {
+        return new SamplingProfiler(name);
+    }
+
+    public static void main(String[] args) throws Throwable {
+        if (args.length == 0) {
+            System.err.println("Использование: SamplingProfiler <main класс> [аргументы...]");
+            System.exit(1);
+        }
+        Method main = Class.forName(args[0]).getMethod("main", String[].class);
+        SamplingProfiler profiler = start(args[0].substring(args[0].lastIndexOf('.') + 1));
+        // System.exit() в профилируемом приложении не должен терять профиль
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> profiler.close(true), "profiler-shutdown"));
+        try {
+            main.invoke(null, (Object) Arrays.copyOfRange(args, 1, args.length));
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        } finally {
+            profiler.close();
+        }
+    }
+
+    private void sampleLoop() {
+        long self = Thread.currentThread().getId();
+        // Первый вызов загружает классы management - не считаем его сэмплом
+        threads.dumpAllThreads(false, false, 1);
+        double averageCost = -1;
+        while (running) {
+            long begin = System.nanoTime();
+            for (ThreadInfo info : threads.dumpAllThreads(false, false, MAX_DEPTH)) {
+                if (info != null && info.getThreadId() != self && include(info)) {
+                    profile.add(collapse(info), 1);
+                }
+            }
+            long end = System.nanoTime();
+            long cost = end - begin;
+            samples++;
+            sampleNanos += cost;
+            maxSampleNanos = Math.max(maxSampleNanos, cost);
+
+            // Первый сэмпл - самый дорогой (интерпретатор), с него интервал стартует с запасом
+            averageCost = averageCost < 0 ? cost : averageCost + (cost - averageCost) * 0.3;
+            long intervalNanos = intervalFor(averageCost);
+            // Долг по бюджету: ждем, пока общая доля времени в сэмплах не опустится до MAX_OVERHEAD
+            long debtNanos = (long) (sampleNanos / MAX_OVERHEAD) - (end - startNanos);
+            LockSupport.parkNanos(Math.min(MAX_INTERVAL_NANOS, Math.max(intervalNanos, debtNanos)));
+        }
+        samplerCpuNanos = threads.isCurrentThreadCpuTimeSupported() ? threads.getCurrentThreadCpuTime() : -1;
+    }
+
+    /**
+     * Интервал, при котором сэмплы средней цены занимают 3/4 бюджета (не меньше заданного).
+     */
+    private long intervalFor(double averageCost) {
+        long interval = (long) Math.min(MAX_INTERVAL_NANOS, Math.max(INTERVAL_NANOS, averageCost / (MAX_OVERHEAD * 0.75)));
+        minIntervalNanos = Math.min(minIntervalNanos, interval);
+        maxIntervalNanos = Math.max(maxIntervalNanos, interval);
+        return interval;
+    }
+
+    private static boolean include(ThreadInfo info) {
+        if (info.getStackTrace().length == 0 || SYSTEM_THREADS.contains(info.getThreadName())) {
+            return false;
+        }
+        return WALL || info.getThreadState() == Thread.State.RUNNABLE;
+    }
+
+    private String collapse(ThreadInfo info) {
+        StackTraceElement[] stack = info.getStackTrace();
+        StringBuilder key = new StringBuilder(stack.length * 48);
+        if (THREAD_ROOTS) {
+            key.append(info.getThreadName().replace(';', ':')).append(';');
+        }
+        int i = stack.length - 1 - StackProfile.launcherFrames(stack.length, k -> stack[stack.length - 1 - k].getClassName());
+        for (; i >= 0; i--) {
+            key.append(frames.computeIfAbsent(stack[i],
+                element -> StackProfile.frame(element.getClassName(), element.getMethodName())));
+            if (i > 0) {
+                key.append(';');
+            }
+        }
+        return key.toString();
+    }
+
+    /**
+     * Останавливает сэмплер (или JFR запись), пишет collapsed stacks и flame graph, печатает сводку.
+     * Повторный вызов (shutdown hook после main) ничего не делает.
+     */
+    @Override
+    public void close() {
+        close(false);
+    }
+
+    /**
+     * @param atExit вызов из shutdown hook (System.exit(), SIGTERM, Ctrl-C)
+     */
+    private synchronized void close(boolean atExit) {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (ALLOC) {
+            closeRecording(atExit);
+            return;
+        }
+        running = false;
+        LockSupport.unpark(sampler);
+        try {
+            sampler.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+
+        String base = name + "_" + (WALL ? "wall" : "cpu") + "_"
+            + LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss"));
+        Path collapsed = OUTPUT.resolve(base + ".collapsed");
+        Path html = OUTPUT.resolve(base + ".html");
+        try {
+            Files.createDirectories(OUTPUT);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Не удалось создать " + OUTPUT, e);
+        }
+        profile.writeCollapsed(collapsed);
+        FlameGraph.writeHtml(profile, html, name + " (" + (WALL ? "wall" : "cpu") + ", сэмплирование "
+            + INTERVAL_NANOS / 1_000_000 + " ms)", "samples");
+
+        System.out.println();
+        System.out.printf("=== Sampling profiler: %s (%s) ===%n", name, WALL ? "wall" : "cpu");
+        System.out.printf("Сэмплов: %,d за %.1f с, стеков потоков: %,d, уникальных: %,d%n",
+            samples, seconds, profile.total(), profile.size());
+        System.out.printf("Интервал: %d ms (адаптивно %d-%d ms), сэмпл: среднее %.2f ms, максимум %.2f ms%n",
+            INTERVAL_NANOS / 1_000_000, Math.min(minIntervalNanos, maxIntervalNanos) / 1_000_000,
+            maxIntervalNanos / 1_000_000, samples == 0 ? 0 : sampleNanos / 1e6 / samples, maxSampleNanos / 1e6);
+        double overheadPercent = sampleNanos / 1e7 / seconds;
+        System.out.printf("Накладные расходы: %.2f%% времени в сэмплах (бюджет %.1f%%%s)%s%n",
+            overheadPercent, MAX_OVERHEAD * 100, overheadPercent > MAX_OVERHEAD * 100 ? " ПРЕВЫШЕН" : "",
+            samplerCpuNanos < 0 ? "" : String.format(", CPU сэмплера %.2f%% ядра", samplerCpuNanos / 1e7 / seconds));
+        System.out.println("Горячие методы (self):");
+        for (Map.Entry<String, Long> entry : profile.topSelf(TOP)) {
+            System.out.printf("  %6.2f%%  %s%n", entry.getValue() * 100.0 / Math.max(1, profile.total()), entry.getKey());
+        }
+        System.out.println("Collapsed stacks: " + collapsed);
+        System.out.println("Flame graph:      " + html);
+    }
+
+    /**
+     * Обычное завершение: stop() пишет запись в destination.
+     * При выходе JVM запись не трогаем: stop() дописывает файл уже после
+     * снятия лока, и destroy() из shutdown hook'а JFR удалил бы чанки на
+     * середине. Hook JFR сам сохраняет запись (dumpOnExit) и закрывает ее -
+     * ждем этого и строим профиль по готовому файлу.
+     */
+    private void closeRecording(boolean atExit) {
+        if (atExit) {
+            long deadline = System.nanoTime() + EXIT_DUMP_TIMEOUT_NANOS;
+            while (recording.getState() != RecordingState.CLOSED && System.nanoTime() < deadline) {
+                LockSupport.parkNanos(10_000_000L);
+            }
+            if (recording.getState() != RecordingState.CLOSED) {
+                System.err.println("JFR не сохранил запись при выходе: " + allocJfr);
+                return;
+            }
+        } else {
+            recording.stop();
+            recording.close();
+        }
+        if (!Files.exists(allocJfr)) {
+            System.err.println("JFR запись не сохранена: " + allocJfr);
+            return;
+        }
+        System.out.println();
+        JfrFlameGraph.writeAllocationProfile(allocJfr, allocBase);
+        System.out.println("JFR запись:       " + allocJfr);
+    }
+}
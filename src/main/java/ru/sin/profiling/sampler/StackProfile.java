@@ -0,0 +1,124 @@
+package ru.sin.profiling.sampler;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.IntFunction;
+
+/**
+ * Агрегат стеков в формате collapsed stacks (как у flamegraph.pl и async-profiler)
+ *
+ * Строка - кадры от корня к листу через ';' и вес через пробел:
+ *   main;ru.sin.profiling.SlowApplicationExample.main;...processStrings 1234
+ * Вес - число сэмплов для CPU профиля или байты для профиля аллокаций.
+ * Формат понимают flamegraph.pl, speedscope, async-profiler converter.
+ *
+ * Не потокобезопасен: пишет один поток (сэмплер или разбор JFR).
+ */
+final class StackProfile {
+
+    private final Map<String, Long> stacks = new HashMap<>();
+    private long total;
+
+    void add(String stack, long weight) {
+        stacks.merge(stack, weight, Long::sum);
+        total += weight;
+    }
+
+    long total() {
+        return total;
+    }
+
+    int size() {
+        return stacks.size();
+    }
+
+    Map<String, Long> stacks() {
+        return stacks;
+    }
+
+    /**
+     * Имя кадра: "пакет.Класс.метод". Номера скрытых классов лямбд и
+     * LambdaForm (Foo$$Lambda$123/0x0000..., LambdaForm$MH/0x0000...)
+     * отбрасываются - они разные от запуска к запуску.
+     */
+    static String frame(String className, String method) {
+        int lambda = className.indexOf("$$Lambda");
+        if (lambda >= 0) {
+            className = className.substring(0, lambda + "$$Lambda".length());
+        } else {
+            int hidden = className.indexOf("/0x");
+            if (hidden >= 0) {
+                className = className.substring(0, hidden);
+            }
+        }
+        return className + "." + method;
+    }
+
+    /**
+     * Сколько нижних кадров стека - запуск приложения через SamplingProfiler.main
+     * (сам main и reflection до main приложения); их в профиле не показываем.
+     *
+     * @param classFromRoot имя класса кадра по номеру от корня стека
+     */
+    static int launcherFrames(int length, IntFunction<String> classFromRoot) {
+        if (length == 0 || !classFromRoot.apply(0).equals(SamplingProfiler.class.getName())) {
+            return 0;
+        }
+        int skip = 1;
+        while (skip < length - 1 && (classFromRoot.apply(skip).startsWith("jdk.internal.reflect.")
+                || classFromRoot.apply(skip).equals("java.lang.reflect.Method"))) {
+            skip++;
+        }
+        return skip;
+    }
+
+    void writeCollapsed(Path file) {
+        try (BufferedWriter writer = Files.newBufferedWriter(file)) {
+            for (Map.Entry<String, Long> entry : new TreeMap<>(stacks).entrySet()) {
+                writer.write(entry.getKey());
+                writer.write(' ');
+                writer.write(Long.toString(entry.getValue()));
+                writer.newLine();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Не удалось записать " + file, e);
+        }
+    }
+
+    static StackProfile readCollapsed(Path file) {
+        StackProfile profile = new StackProfile();
+        try {
+            for (String line : Files.readAllLines(file)) {
+                int space = line.lastIndexOf(' ');
+                if (space > 0) {
+                    profile.add(line.substring(0, space), Long.parseLong(line.substring(space + 1).trim()));
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Не удалось прочитать " + file, e);
+        }
+        return profile;
+    }
+
+    /**
+     * Методы по собственному весу (лист стека), по убыванию.
+     */
+    List<Map.Entry<String, Long>> topSelf(int limit) {
+        Map<String, Long> self = new HashMap<>();
+        for (Map.Entry<String, Long> entry : stacks.entrySet()) {
+            String stack = entry.getKey();
+            self.merge(stack.substring(stack.lastIndexOf(';') + 1), entry.getValue(), Long::sum);
+        }
+        List<Map.Entry<String, Long>> top = new ArrayList<>(self.entrySet());
+        top.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+        return top.subList(0, Math.min(limit, top.size()));
+    }
+}
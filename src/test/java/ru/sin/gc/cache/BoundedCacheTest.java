@@ -0,0 +1,177 @@
+package ru.sin.gc.cache;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BoundedCacheTest {
+
+    /** Размер, при котором concurrency = 1 дает ровно один сегмент */
+    private static final int SINGLE_SEGMENT = 30;
+
+    private final AtomicLong ticker = new AtomicLong(1_000_000_000L);
+    private final List<Removal> removals = new ArrayList<>();
+
+    private record Removal(String key, Integer value, BoundedCache.RemovalCause cause) {
+    }
+
+    private BoundedCache<String, Integer> newCache(long maximumWeight, BoundedCache.Weigher<String, Integer> weigher,
+                                                   long expireAfterAccessNanos, int concurrency) {
+        return new BoundedCache<>(maximumWeight, weigher, expireAfterAccessNanos, concurrency,
+                (key, value, cause) -> removals.add(new Removal(key, value, cause)), ticker::get);
+    }
+
+    private void advance(long duration, TimeUnit unit) {
+        ticker.addAndGet(unit.toNanos(duration));
+    }
+
+    private long count(BoundedCache.RemovalCause cause) {
+        return removals.stream().filter(r -> r.cause() == cause).count();
+    }
+
+    @Test
+    void weightStaysWithinMaximumAfterPutReplaceAndReweigh() {
+        long maximum = 500;
+        BoundedCache<String, Integer> cache = newCache(maximum, (key, value) -> value, 0, 2);
+        Random random = new Random(42);
+
+        for (int i = 0; i < 20_000; i++) {
+            String key = "k" + random.nextInt(300);
+            // Вес = значение: повторный put того же ключа меняет вес записи
+            int weight = 1 + random.nextInt(random.nextInt(10) == 0 ? 60 : 8);
+            switch (random.nextInt(4)) {
+                case 0:
+                    cache.computeIfAbsent(key, k -> weight);
+                    break;
+                case 1:
+                    cache.getIfPresent(key);
+                    break;
+                case 2:
+                    cache.remove(key);
+                    break;
+                default:
+                    cache.put(key, weight);
+            }
+            assertTrue(cache.weightedSize() <= maximum,
+                    "шаг " + i + ": weightedSize " + cache.weightedSize() + " > " + maximum);
+        }
+        assertTrue(cache.evictionCount() > 0);
+        assertTrue(count(BoundedCache.RemovalCause.REPLACED) > 0);
+    }
+
+    @Test
+    void entryHeavierThanMaximumIsNotRetained() {
+        BoundedCache<String, Integer> cache = newCache(SINGLE_SEGMENT, (key, value) -> value, 0, 1);
+        cache.put("small", 1);
+        cache.put("huge", SINGLE_SEGMENT + 1);
+
+        assertNull(cache.getIfPresent("huge"));
+        assertEquals(1, cache.getIfPresent("small"));
+        assertTrue(cache.weightedSize() <= SINGLE_SEGMENT);
+    }
+
+    @Test
+    void frequentlyUsedKeySurvivesScan() {
+        BoundedCache<String, Integer> cache = newCache(SINGLE_SEGMENT, (key, value) -> 1, 0, 1);
+        assertEquals(1, cache.segmentCount());
+        // Прогрев: sketch растет вместе с сегментом и при росте сбрасывает частоты
+        for (int i = 0; i < SINGLE_SEGMENT; i++) {
+            cache.computeIfAbsent("warm-" + i, k -> 1);
+        }
+        for (int i = 0; i < 5; i++) {
+            cache.computeIfAbsent("hot", k -> 0);
+        }
+
+        // Между обращениями к hot проходит больше уникальных ключей, чем вмещает кеш:
+        // LRU вытеснил бы hot на каждом круге, TinyLFU не пускает однократные ключи
+        int scanned = 0;
+        for (int round = 0; round < 200; round++) {
+            for (int i = 0; i < 2 * SINGLE_SEGMENT; i++) {
+                cache.computeIfAbsent("scan-" + scanned, k -> 1);
+                scanned++;
+            }
+            assertEquals(0, cache.getIfPresent("hot"), "hot вытеснен на круге " + round);
+        }
+        assertFalse(removals.stream().anyMatch(r -> r.key().equals("hot")));
+        assertEquals(SINGLE_SEGMENT, cache.size());
+    }
+
+    @Test
+    void entriesExpireAfterAccess() {
+        BoundedCache<String, Integer> cache = newCache(SINGLE_SEGMENT, (key, value) -> 1,
+                TimeUnit.SECONDS.toNanos(10), 1);
+        cache.put("a", 1);
+        cache.put("b", 2);
+
+        // Обращение к a продлевает ее жизнь, b истекает
+        advance(9, TimeUnit.SECONDS);
+        assertEquals(1, cache.getIfPresent("a"));
+        advance(9, TimeUnit.SECONDS);
+        assertEquals(1, cache.getIfPresent("a"));
+        assertNull(cache.getIfPresent("b"));
+
+        // Без обращений истечение делает колесо в cleanUp()
+        advance(11, TimeUnit.SECONDS);
+        cache.cleanUp();
+        assertEquals(0, cache.size());
+        assertEquals(2, cache.expirationCount());
+        assertEquals(List.of(
+                new Removal("b", 2, BoundedCache.RemovalCause.EXPIRED),
+                new Removal("a", 1, BoundedCache.RemovalCause.EXPIRED)), removals);
+    }
+
+    @Test
+    void longExpiryCascadesThroughWheelLevels() {
+        long expireAfter = TimeUnit.HOURS.toNanos(3);
+        BoundedCache<String, Integer> cache = newCache(SINGLE_SEGMENT, (key, value) -> 1, expireAfter, 1);
+        long start = ticker.get();
+        cache.put("a", 1);
+
+        // Запись спускается с часового уровня на минутный и секундный
+        while (removals.isEmpty()) {
+            advance(7, TimeUnit.SECONDS);
+            cache.cleanUp();
+        }
+        long elapsed = ticker.get() - start;
+        assertTrue(elapsed >= expireAfter, "истекла раньше срока: " + elapsed);
+        assertTrue(elapsed - expireAfter <= TimeUnit.SECONDS.toNanos(10), "истекла с опозданием: " + elapsed);
+        assertEquals(BoundedCache.RemovalCause.EXPIRED, removals.get(0).cause());
+    }
+
+    @Test
+    void removalListenerReceivesCause() {
+        BoundedCache<String, Integer> cache = newCache(SINGLE_SEGMENT, (key, value) -> 1,
+                TimeUnit.MINUTES.toNanos(1), 1);
+
+        cache.put("k", 1);
+        cache.put("k", 2);
+        assertEquals(List.of(new Removal("k", 1, BoundedCache.RemovalCause.REPLACED)), removals);
+
+        assertEquals(2, cache.remove("k"));
+        assertEquals(new Removal("k", 2, BoundedCache.RemovalCause.EXPLICIT), removals.get(1));
+
+        for (int i = 0; i <= SINGLE_SEGMENT; i++) {
+            cache.put("s" + i, i);
+        }
+        assertEquals(1, count(BoundedCache.RemovalCause.SIZE));
+        assertEquals(SINGLE_SEGMENT, cache.size());
+        assertEquals(1, cache.evictionCount());
+
+        advance(2, TimeUnit.MINUTES);
+        cache.cleanUp();
+        assertEquals(SINGLE_SEGMENT, count(BoundedCache.RemovalCause.EXPIRED));
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.weightedSize());
+        assertNotNull(removals.get(removals.size() - 1).value());
+    }
+}
@@ -0,0 +1,73 @@
+package ru.sin.gc.cache;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OffHeapSlabAllocatorTest {
+
+    private static final int SLAB_SIZE = 1 << 16;
+
+    @Test
+    void sizeClassesStepByQuarterOfPowerOfTwo() {
+        OffHeapSlabAllocator allocator = new OffHeapSlabAllocator(OffHeapSlabAllocator.DEFAULT_SLAB_SIZE);
+        assertEquals(64, allocator.chunkSize(1));
+        assertEquals(64, allocator.chunkSize(64));
+        assertEquals(80, allocator.chunkSize(65));
+        assertEquals(128, allocator.chunkSize(128));
+        assertEquals(160, allocator.chunkSize(129));
+        assertEquals(10 * 1024, allocator.chunkSize(10 * 1024));
+        assertEquals(12 * 1024, allocator.chunkSize(10 * 1024 + 1));
+        assertEquals(OffHeapSlabAllocator.DEFAULT_SLAB_SIZE, allocator.chunkSize(OffHeapSlabAllocator.DEFAULT_SLAB_SIZE));
+    }
+
+    @Test
+    void roundingWastesLessThanQuarter() {
+        OffHeapSlabAllocator allocator = new OffHeapSlabAllocator(SLAB_SIZE);
+        int previous = 0;
+        for (int size = 1; size <= SLAB_SIZE; size++) {
+            int chunk = allocator.chunkSize(size);
+            assertTrue(chunk >= size, "блок " + chunk + " меньше " + size);
+            assertTrue(chunk >= previous, "классы не монотонны на " + size);
+            assertEquals(0, chunk % 16, "блок " + chunk + " не выровнен");
+            if (size > 64) {
+                assertTrue(chunk - size < chunk / 4, "потеря " + (chunk - size) + " байт на " + size);
+            }
+            previous = chunk;
+        }
+        assertThrows(IllegalArgumentException.class, () -> allocator.chunkSize(SLAB_SIZE + 1));
+        assertThrows(IllegalArgumentException.class, () -> allocator.chunkSize(0));
+    }
+
+    @Test
+    void blocksDoNotOverlapAndAreReused() {
+        OffHeapSlabAllocator allocator = new OffHeapSlabAllocator(SLAB_SIZE);
+        int size = 10 * 1024;
+        int chunk = allocator.chunkSize(size);
+        Set<Long> handles = new HashSet<>();
+        for (int i = 0; i < 20; i++) {
+            long handle = allocator.allocate(size);
+            assertTrue(handles.add(handle));
+            allocator.fill(handle, size, i);
+        }
+        for (long handle : handles) {
+            long first = allocator.getLong(handle, 0);
+            long last = allocator.getLong(handle, size - Long.BYTES);
+            assertEquals(first + size - Long.BYTES, last, "блок перезаписан соседним");
+            assertTrue(OffHeapSlabAllocator.offset(handle) + chunk <= SLAB_SIZE);
+        }
+        assertEquals(20L * chunk, allocator.usedBytes());
+        // 6 блоков 10 KB в slab 64 KB - 4 slab'а
+        assertEquals(4, allocator.slabCount());
+
+        long reused = handles.iterator().next();
+        allocator.free(reused, size);
+        assertEquals(reused, allocator.allocate(size));
+        assertEquals(4, allocator.slabCount());
+    }
+}
@@ -0,0 +1,74 @@
+package ru.sin.gc.cache;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class SessionRegistryTest {
+
+    private final AtomicLong ticker = new AtomicLong(1_000_000_000L);
+    private final List<BoundedCache.RemovalCause> causes = new ArrayList<>();
+
+    private SessionRegistry<String, Integer> newRegistry(int maximumSize) {
+        return new SessionRegistry<>(maximumSize, 10, TimeUnit.SECONDS, 1,
+                (key, value, cause) -> causes.add(cause), ticker::get);
+    }
+
+    @Test
+    void removeDoesNotReturnExpiredEntry() {
+        SessionRegistry<String, Integer> registry = newRegistry(16);
+        registry.put("s", 1);
+
+        // Колесо еще не вычистило запись - remove() должен проверить срок сам
+        ticker.addAndGet(TimeUnit.SECONDS.toNanos(10));
+        assertNull(registry.remove("s"));
+        assertEquals(List.of(BoundedCache.RemovalCause.EXPIRED), causes);
+        assertEquals(0, registry.size());
+        assertEquals(1, registry.expirationCount());
+    }
+
+    @Test
+    void removeReturnsLiveEntry() {
+        SessionRegistry<String, Integer> registry = newRegistry(16);
+        registry.put("s", 1);
+
+        ticker.addAndGet(TimeUnit.SECONDS.toNanos(9));
+        assertEquals(1, registry.get("s"));
+        ticker.addAndGet(TimeUnit.SECONDS.toNanos(9));
+        assertEquals(1, registry.remove("s"));
+        assertEquals(List.of(BoundedCache.RemovalCause.EXPLICIT), causes);
+    }
+
+    @Test
+    void putAfterExpiryInsertsNewEntry() {
+        SessionRegistry<String, Integer> registry = newRegistry(16);
+        registry.put("s", 1);
+
+        ticker.addAndGet(TimeUnit.SECONDS.toNanos(10));
+        registry.put("s", 2);
+        assertEquals(List.of(BoundedCache.RemovalCause.EXPIRED), causes);
+        assertEquals(2, registry.get("s"));
+    }
+
+    @Test
+    void leastRecentlyUsedIsEvicted() {
+        SessionRegistry<String, Integer> registry = newRegistry(16);
+        assertEquals(1, registry.segmentCount());
+        for (int i = 0; i < 16; i++) {
+            registry.put("s" + i, i);
+        }
+        registry.get("s0");
+        registry.put("s16", 16);
+
+        assertEquals(List.of(BoundedCache.RemovalCause.SIZE), causes);
+        assertNull(registry.get("s1"));
+        assertEquals(0, registry.get("s0"));
+        assertEquals(16, registry.size());
+    }
+}
@@ -0,0 +1,286 @@
+package ru.sin.gc.heap;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DominatorTreeTest {
+
+    private static final int NONE = -1;
+
+    @TempDir
+    Path dir;
+
+    /**
+     * Граф объектов для синтетического HPROF: каждая вершина - Object[] с
+     * исходящими ссылками в элементах. Номер вершины v в HeapIndex равен v
+     * (id = v + 1, объекты пишутся в порядке id).
+     */
+    private static final class Graph {
+        final List<int[]> edges = new ArrayList<>();
+        final List<Integer> roots = new ArrayList<>();
+
+        Graph(int vertices) {
+            for (int v = 0; v < vertices; v++) {
+                edges.add(new int[0]);
+            }
+        }
+
+        void edge(int from, int... to) {
+            int[] old = edges.get(from);
+            int[] joined = new int[old.length + to.length];
+            System.arraycopy(old, 0, joined, 0, old.length);
+            System.arraycopy(to, 0, joined, old.length, to.length);
+            edges.set(from, joined);
+        }
+
+        void root(int v) {
+            roots.add(v);
+        }
+
+        int size() {
+            return edges.size();
+        }
+
+        /**
+         * HPROF с id по 8 байт: заголовок и одна запись HEAP_DUMP_SEGMENT.
+         */
+        Path write(Path path) throws IOException {
+            ByteArrayOutputStream heap = new ByteArrayOutputStream();
+            DataOutputStream body = new DataOutputStream(heap);
+            for (int root : roots) {
+                body.writeByte(HprofFile.ROOT_UNKNOWN);
+                body.writeLong(root + 1L);
+            }
+            for (int v = 0; v < edges.size(); v++) {
+                int[] targets = edges.get(v);
+                body.writeByte(HprofFile.OBJECT_ARRAY_DUMP);
+                body.writeLong(v + 1L);
+                body.writeInt(0);
+                body.writeInt(targets.length);
+                // Класс массива не описан в dump'е - HeapIndex подставит синтетический
+                body.writeLong(0);
+                for (int target : targets) {
+                    body.writeLong(target + 1L);
+                }
+            }
+            body.flush();
+
+            try (OutputStream stream = Files.newOutputStream(path);
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream))) {
+                out.write("JAVA PROFILE 1.0.2\0".getBytes(StandardCharsets.US_ASCII));
+                out.writeInt(8);
+                out.writeLong(0);
+                out.writeByte(HprofFile.TAG_HEAP_DUMP_SEGMENT);
+                out.writeInt(0);
+                out.writeInt(heap.size());
+                heap.writeTo(out);
+            }
+            return path;
+        }
+    }
+
+    private HeapIndex index(Graph graph) throws IOException {
+        return HeapIndex.build(graph.write(dir.resolve("graph.hprof")));
+    }
+
+    @Test
+    void dominatorsOfHandBuiltGraph() throws IOException {
+        int chainStart = 12;
+        int chainLength = 200_000;
+        Graph graph = new Graph(chainStart + chainLength);
+        graph.root(0);
+        graph.root(1);
+        // Ромб: 4 достижима через 2 и через 3 - ее доминирует только 0
+        graph.edge(0, 2, 3);
+        graph.edge(2, 4);
+        graph.edge(3, 4);
+        graph.edge(4, 5);
+        // Цикл 6 -> 7 -> 8 -> 6 под корнем 1
+        graph.edge(1, 6);
+        graph.edge(6, 7);
+        graph.edge(7, 8);
+        graph.edge(8, 6);
+        // 9 достижима из обоих корней - доминирует только супер-корень
+        graph.edge(0, 9);
+        graph.edge(1, 9);
+        graph.edge(9, 10);
+        // 11 недостижима, но ссылается в граф - на доминаторы не влияет
+        graph.edge(11, 2, 9);
+        // Длинная цепочка: рекурсивный DFS/EVAL переполнил бы стек
+        graph.edge(1, chainStart);
+        for (int v = chainStart; v < graph.size() - 1; v++) {
+            graph.edge(v, v + 1);
+        }
+
+        HeapIndex heap = index(graph);
+        DominatorTree tree = new DominatorTree(heap);
+        int superRoot = tree.superRoot();
+        assertEquals(graph.size(), superRoot);
+
+        assertEquals(superRoot, tree.idom(0));
+        assertEquals(superRoot, tree.idom(1));
+        assertEquals(0, tree.idom(2));
+        assertEquals(0, tree.idom(3));
+        assertEquals(0, tree.idom(4));
+        assertEquals(4, tree.idom(5));
+        assertEquals(1, tree.idom(6));
+        assertEquals(6, tree.idom(7));
+        assertEquals(7, tree.idom(8));
+        assertEquals(superRoot, tree.idom(9));
+        assertEquals(9, tree.idom(10));
+        assertEquals(NONE, tree.idom(11));
+        assertFalse(tree.isReachable(11));
+        assertEquals(1, tree.idom(chainStart));
+        for (int v = chainStart + 1; v < graph.size(); v++) {
+            assertEquals(v - 1, tree.idom(v));
+        }
+
+        assertEquals(sizes(heap, 4, 5), tree.retained(4));
+        assertEquals(sizes(heap, 0, 2, 3, 4, 5), tree.retained(0));
+        assertEquals(sizes(heap, 6, 7, 8), tree.retained(6));
+        assertEquals(sizes(heap, 9, 10), tree.retained(9));
+        int last = graph.size() - 1;
+        assertEquals(heap.shallowSize(last), tree.retained(last));
+        long chain = 0;
+        for (int v = chainStart; v < graph.size(); v++) {
+            chain += heap.shallowSize(v);
+        }
+        assertEquals(chain, tree.retained(chainStart));
+        assertEquals(sizes(heap, 1, 6, 7, 8) + chain, tree.retained(1));
+        assertEquals(heap.totalShallow() - heap.shallowSize(11), tree.reachableBytes());
+        assertEquals(graph.size() - 1, tree.reachableCount());
+
+        assertEquals(3, tree.childCount(superRoot));
+        assertEquals(3, tree.childCount(0));
+    }
+
+    @Test
+    void randomGraphsMatchNaiveDominators() throws IOException {
+        Random random = new Random(7);
+        for (int round = 0; round < 20; round++) {
+            int vertices = 50 + random.nextInt(250);
+            Graph graph = new Graph(vertices);
+            int roots = 1 + random.nextInt(4);
+            for (int r = 0; r < roots; r++) {
+                graph.root(random.nextInt(vertices));
+            }
+            int edges = vertices + random.nextInt(2 * vertices);
+            for (int e = 0; e < edges; e++) {
+                graph.edge(random.nextInt(vertices), random.nextInt(vertices));
+            }
+
+            HeapIndex heap = index(graph);
+            DominatorTree tree = new DominatorTree(heap);
+            int[] expected = naiveIdom(graph);
+            for (int v = 0; v < vertices; v++) {
+                assertEquals(expected[v], tree.idom(v), "раунд " + round + ", вершина " + v);
+            }
+            long[] retained = naiveRetained(graph, expected, heap);
+            for (int v = 0; v < vertices; v++) {
+                if (expected[v] != NONE) {
+                    assertEquals(retained[v], tree.retained(v), "раунд " + round + ", вершина " + v);
+                }
+            }
+            Files.delete(dir.resolve("graph.hprof"));
+        }
+    }
+
+    private static long sizes(HeapIndex heap, int... vertices) {
+        long sum = 0;
+        for (int v : vertices) {
+            sum += heap.shallowSize(v);
+        }
+        return sum;
+    }
+
+    /**
+     * По определению: d доминирует над w, если без d вершина w недостижима из корней.
+     * idom - строгий доминатор с наибольшим числом собственных доминаторов.
+     */
+    private static int[] naiveIdom(Graph graph) {
+        int n = graph.size();
+        int superRoot = n;
+        boolean[] reachable = reachable(graph, NONE);
+        boolean[][] dominates = new boolean[n][];
+        for (int d = 0; d < n; d++) {
+            if (reachable[d]) {
+                boolean[] without = reachable(graph, d);
+                dominates[d] = new boolean[n];
+                for (int w = 0; w < n; w++) {
+                    dominates[d][w] = w != d && reachable[w] && !without[w];
+                }
+            }
+        }
+        int[] depth = new int[n];
+        for (int w = 0; w < n; w++) {
+            for (int d = 0; d < n; d++) {
+                if (dominates[d] != null && dominates[d][w]) {
+                    depth[w]++;
+                }
+            }
+        }
+        int[] idom = new int[n];
+        for (int w = 0; w < n; w++) {
+            if (!reachable[w]) {
+                idom[w] = NONE;
+                continue;
+            }
+            idom[w] = superRoot;
+            for (int d = 0; d < n; d++) {
+                if (dominates[d] != null && dominates[d][w] && (idom[w] == superRoot || depth[d] > depth[idom[w]])) {
+                    idom[w] = d;
+                }
+            }
+        }
+        return idom;
+    }
+
+    private static long[] naiveRetained(Graph graph, int[] idom, HeapIndex heap) {
+        int n = graph.size();
+        long[] retained = new long[n];
+        for (int w = 0; w < n; w++) {
+            // Вклад w - во всех доминаторов по цепочке idom
+            for (int d = w; d != NONE && d != n; d = idom[d]) {
+                retained[d] += heap.shallowSize(w);
+            }
+        }
+        return retained;
+    }
+
+    private static boolean[] reachable(Graph graph, int removed) {
+        boolean[] seen = new boolean[graph.size()];
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        for (int root : graph.roots) {
+            if (root != removed && !seen[root]) {
+                seen[root] = true;
+                queue.add(root);
+            }
+        }
+        while (!queue.isEmpty()) {
+            for (int w : graph.edges.get(queue.poll())) {
+                if (w != removed && !seen[w]) {
+                    seen[w] = true;
+                    queue.add(w);
+                }
+            }
+        }
+        return seen;
+    }
+}
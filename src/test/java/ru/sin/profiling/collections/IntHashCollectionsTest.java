@@ -0,0 +1,158 @@
+package ru.sin.profiling.collections;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * IntHashSet и IntObjectMap против HashSet/HashMap на случайных последовательностях операций.
+ */
+class IntHashCollectionsTest {
+
+    /** expectedSize, при котором таблица - 64 слота и не растет до 48 ключей */
+    private static final int EXPECTED_SIZE = 40;
+    private static final int CAPACITY = 64;
+
+    /**
+     * Ключи, чей идеальный слот - один из последних двух слотов таблицы из
+     * CAPACITY слотов: их кластер переходит через конец таблицы в начало.
+     * Плюс ключи с идеальными слотами 0-1, которые этот кластер "перекрывает", и 0.
+     */
+    private static int[] wrappingKeys() {
+        List<Integer> tail = new ArrayList<>();
+        List<Integer> head = new ArrayList<>();
+        for (int key = 1; tail.size() < 12 || head.size() < 6; key++) {
+            int slot = IntHashSet.hash(key) & (CAPACITY - 1);
+            if (slot >= CAPACITY - 2 && tail.size() < 12) {
+                tail.add(key);
+            } else if (slot <= 1 && head.size() < 6) {
+                head.add(key);
+            }
+        }
+        tail.addAll(head);
+        tail.add(0);
+        return tail.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * Малые (в том числе 0 и отрицательные) ключи - много повторов; большие - рост таблицы.
+     */
+    private static int randomKey(Random random) {
+        return random.nextInt(4) == 0 ? random.nextInt() : random.nextInt(401) - 200;
+    }
+
+    @Test
+    void setWithWrappingCluster() {
+        int[] keys = wrappingKeys();
+        Random random = new Random(1);
+        IntHashSet set = new IntHashSet(EXPECTED_SIZE);
+        Set<Integer> expected = new HashSet<>();
+        for (int step = 0; step < 20_000; step++) {
+            int key = keys[random.nextInt(keys.length)];
+            applySetOperation(random, set, expected, key, step);
+        }
+        // Ключей меньше порога роста - кластер все время переходил через конец таблицы
+        assertEquals(CAPACITY, set.capacity());
+    }
+
+    @Test
+    void setRandomOperations() {
+        Random random = new Random(2);
+        IntHashSet set = new IntHashSet();
+        Set<Integer> expected = new HashSet<>();
+        for (int step = 0; step < 50_000; step++) {
+            applySetOperation(random, set, expected, randomKey(random), step);
+        }
+        set.clear();
+        expected.clear();
+        assertMatches(set, expected, -1);
+    }
+
+    @Test
+    void mapWithWrappingCluster() {
+        int[] keys = wrappingKeys();
+        Random random = new Random(3);
+        IntObjectMap<String> map = new IntObjectMap<>(EXPECTED_SIZE);
+        Map<Integer, String> expected = new HashMap<>();
+        for (int step = 0; step < 20_000; step++) {
+            int key = keys[random.nextInt(keys.length)];
+            applyMapOperation(random, map, expected, key, step);
+        }
+        assertEquals(CAPACITY, map.capacity());
+    }
+
+    @Test
+    void mapRandomOperations() {
+        Random random = new Random(4);
+        IntObjectMap<String> map = new IntObjectMap<>();
+        Map<Integer, String> expected = new HashMap<>();
+        for (int step = 0; step < 50_000; step++) {
+            applyMapOperation(random, map, expected, randomKey(random), step);
+        }
+        map.clear();
+        expected.clear();
+        assertMatches(map, expected, -1);
+    }
+
+    private static void applySetOperation(Random random, IntHashSet set, Set<Integer> expected, int key, int step) {
+        switch (random.nextInt(3)) {
+            case 0:
+                assertEquals(expected.add(key), set.add(key), "шаг " + step + ": add " + key);
+                break;
+            case 1:
+                assertEquals(expected.remove(key), set.remove(key), "шаг " + step + ": remove " + key);
+                break;
+            default:
+                assertEquals(expected.contains(key), set.contains(key), "шаг " + step + ": contains " + key);
+        }
+        assertMatches(set, expected, step);
+    }
+
+    private static void applyMapOperation(Random random, IntObjectMap<String> map, Map<Integer, String> expected,
+                                          int key, int step) {
+        String value = random.nextInt(20) == 0 ? null : "v" + step;
+        switch (random.nextInt(4)) {
+            case 0:
+                assertEquals(expected.put(key, value), map.put(key, value), "шаг " + step + ": put " + key);
+                break;
+            case 1:
+                assertEquals(expected.remove(key), map.remove(key), "шаг " + step + ": remove " + key);
+                break;
+            case 2:
+                assertEquals(expected.containsKey(key), map.containsKey(key), "шаг " + step + ": containsKey " + key);
+                break;
+            default:
+                assertEquals(expected.get(key), map.get(key), "шаг " + step + ": get " + key);
+        }
+        assertMatches(map, expected, step);
+    }
+
+    private static void assertMatches(IntHashSet set, Set<Integer> expected, int step) {
+        assertEquals(expected.size(), set.size(), "шаг " + step + ": size");
+        assertEquals(expected.isEmpty(), set.isEmpty());
+        Set<Integer> seen = new HashSet<>();
+        set.forEach(key -> assertTrue(seen.add(key), "шаг " + step + ": forEach повторил " + key));
+        assertEquals(expected, seen, "шаг " + step + ": forEach");
+    }
+
+    private static void assertMatches(IntObjectMap<String> map, Map<Integer, String> expected, int step) {
+        assertEquals(expected.size(), map.size(), "шаг " + step + ": size");
+        assertEquals(expected.isEmpty(), map.isEmpty());
+        Map<Integer, String> seen = new HashMap<>();
+        map.forEach((key, value) -> {
+            assertFalse(seen.containsKey(key), "шаг " + step + ": forEach повторил " + key);
+            seen.put(key, value);
+        });
+        assertEquals(expected, seen, "шаг " + step + ": forEach");
+    }
+}